@@ -0,0 +1,83 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks in this module. Accepts the same command line options as the JMH <code>Main</code> class, but
+ * unless a result format is specified, writes the results in JSON to {@link #DEFAULT_RESULT_FILE} so they can be
+ * compared across releases.
+ * 
+ * <p>Usage: <code>java -jar target/benchmarks.jar [JMH options] [benchmark regexp]</code>
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class BenchmarkRunner {
+
+	/**
+	 * The default results file, relative to the working directory.
+	 */
+	public static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+	private BenchmarkRunner () {
+		// Utility class
+	}
+
+	/**
+	 * Runs the benchmarks.
+	 * 
+	 * @param args JMH command line options
+	 * @throws RunnerException Error running the benchmarks
+	 * @throws CommandLineOptionException Error parsing the command line
+	 * @throws IOException Error creating the results directory or printing help
+	 */
+	public static void main (final String[] args) throws RunnerException, CommandLineOptionException,
+			IOException {
+
+		final CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		if (cmdOptions.shouldHelp()) {
+			cmdOptions.showHelp();
+			return;
+		}
+
+		final ChainedOptionsBuilder options = new OptionsBuilder().parent(cmdOptions);
+		if (!cmdOptions.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+			if (!cmdOptions.getResult().hasValue()) {
+				FileUtils.forceMkdir(new File(DEFAULT_RESULT_FILE).getParentFile());
+				options.result(DEFAULT_RESULT_FILE);
+			}
+		}
+
+		final Runner runner = new Runner(options.build());
+		if (cmdOptions.shouldList()) {
+			runner.list();
+			return;
+		}
+		runner.run();
+	}
+}
@@ -0,0 +1,131 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyScriptRunner;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.deventropy.shared.utils.DirectoryArchiverUtil;
+
+/**
+ * Shared setup for the benchmarks.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class BenchmarkSupport {
+
+	/**
+	 * The table created by the {@link #writeScript(File, int) generated scripts}.
+	 */
+	static final String SCRIPT_TABLE = "BENCHMARK_PEOPLE";
+
+	private BenchmarkSupport () {
+		// Utility class
+	}
+
+	/**
+	 * Creates a new uniquely named working directory for a benchmark in the Java temporary directory.
+	 * 
+	 * @param benchmarkName Name of the benchmark, used as a part of the directory name
+	 * @return The new directory
+	 * @throws IOException Error creating the directory
+	 */
+	static File createWorkDirectory (final String benchmarkName) throws IOException {
+		return newDirectory(FileUtils.getTempDirectory(), "junit-helper-benchmarks-" + benchmarkName + "-");
+	}
+
+	/**
+	 * Creates a new uniquely named directory in the parent directory.
+	 * 
+	 * @param parent The parent directory
+	 * @param prefix Prefix for the directory name
+	 * @return The new directory
+	 * @throws IOException Error creating the directory
+	 */
+	static File newDirectory (final File parent, final String prefix) throws IOException {
+		final File directory = new File(parent, prefix + UUID.randomUUID().toString());
+		FileUtils.forceMkdir(directory);
+		return directory;
+	}
+
+	/**
+	 * Writes a script creating the {@link #SCRIPT_TABLE} and inserting <code>rowCount</code> rows in it.
+	 * 
+	 * @param directory The directory to write the script in
+	 * @param rowCount The number of rows to insert
+	 * @return The script location, usable with the {@link org.deventropy.junithelper.derby.DerbyScriptRunner}
+	 * @throws IOException Error writing the script
+	 */
+	static String writeScript (final File directory, final int rowCount) throws IOException {
+		final File scriptFile = new File(directory, "script-" + rowCount + ".sql");
+		final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+				FileUtils.openOutputStream(scriptFile), DerbyScriptRunner.DEFAULT_CHARSET));
+		try {
+			writer.write("CREATE TABLE " + SCRIPT_TABLE + " (PERSON_ID INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY, "
+					+ "PERSON VARCHAR(26) NOT NULL, EMAIL VARCHAR(40), PRIMARY KEY (PERSON_ID));");
+			writer.newLine();
+			for (int i = 0; i < rowCount; i++) {
+				writer.write("INSERT INTO " + SCRIPT_TABLE + " (PERSON, EMAIL) VALUES ('Person " + i
+						+ "', 'person." + i + "@example.com');");
+				writer.newLine();
+			}
+		} finally {
+			IOUtils.closeQuietly(writer);
+		}
+		return "file:" + scriptFile.getAbsolutePath();
+	}
+
+	/**
+	 * Creates a read only database in a jar file; by creating a database in a directory, shutting down Derby and
+	 * archiving the directory.
+	 * 
+	 * @param workDirectory The directory to create the database and jar file in
+	 * @param jarDatabasePath The path of the database in the jar
+	 * @return The jar file
+	 * @throws IOException Error creating the files
+	 * @throws SQLException Error creating the database
+	 */
+	static File createJarDatabase (final File workDirectory, final String jarDatabasePath)
+			throws IOException, SQLException {
+
+		final File databaseDirectory = new File(workDirectory, "jar-database-source");
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(
+				DerbyResourceConfig.buildDefault().useDevNullErrorLogging()
+					.useDatabaseInDirectory(databaseDirectory.getAbsolutePath())
+					.addPostInitScript(writeScript(workDirectory, 10)),
+				newDirectory(workDirectory, "home-"));
+		embeddedDerbyResource.start();
+		embeddedDerbyResource.close();
+
+		// Shutdown Derby before archiving the database
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+
+		final File jarFile = new File(workDirectory, "jar-database.jar");
+		DirectoryArchiverUtil.createJarArchiveOfDirectory(jarFile.getAbsolutePath(), databaseDirectory,
+				jarDatabasePath);
+		return jarFile;
+	}
+}
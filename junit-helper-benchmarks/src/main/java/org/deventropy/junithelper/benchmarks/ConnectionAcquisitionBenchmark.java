@@ -0,0 +1,124 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.io.FileUtils;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures getting (and closing) a connection to a running in memory database; from the
+ * {@link EmbeddedDerbyResource#getJdbcUrl() JDBC URL} using the <code>DriverManager</code>, and from the
+ * {@link EmbeddedDerbyResource#getDataSource() pooled data source}. Run with multiple threads (<code>-t</code>) to
+ * measure contention.
+ * 
+ * @author Bindul Bhowmik
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConnectionAcquisitionBenchmark {
+
+	private File workDirectory;
+	private EmbeddedDerbyResource embeddedDerbyResource;
+	private String jdbcUrl;
+	private DataSource dataSource;
+
+	/**
+	 * Starts the database.
+	 * 
+	 * @throws IOException Error starting the database
+	 * @throws SQLException Error starting the database
+	 */
+	@Setup(Level.Trial)
+	public void setupTrial () throws IOException, SQLException {
+		workDirectory = BenchmarkSupport.createWorkDirectory("connection");
+		embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().useDevNullErrorLogging(),
+				workDirectory);
+		embeddedDerbyResource.start();
+		jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+		dataSource = embeddedDerbyResource.getDataSource();
+	}
+
+	/**
+	 * Gets a connection from the <code>DriverManager</code>.
+	 * 
+	 * @return The auto commit state of the connection
+	 * @throws SQLException Error getting the connection
+	 */
+	@Benchmark
+	public boolean driverManager () throws SQLException {
+		final Connection connection = DriverManager.getConnection(jdbcUrl);
+		try {
+			return connection.getAutoCommit();
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Gets a connection from the pooled data source.
+	 * 
+	 * @return The auto commit state of the connection
+	 * @throws SQLException Error getting the connection
+	 */
+	@Benchmark
+	public boolean pooledDataSource () throws SQLException {
+		final Connection connection = dataSource.getConnection();
+		try {
+			return connection.getAutoCommit();
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Closes the database and removes the working directory.
+	 * 
+	 * @throws IOException Error closing the database
+	 */
+	@TearDown(Level.Trial)
+	public void tearDownTrial () throws IOException {
+		embeddedDerbyResource.close();
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+		FileUtils.deleteQuietly(workDirectory);
+	}
+}
@@ -0,0 +1,159 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.deventropy.junithelper.derby.JdbcDerbySubSubProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures starting and closing an {@link EmbeddedDerbyResource} (without post init scripts) for each of the
+ * {@link JdbcDerbySubSubProtocol sub-sub protocols}. Every invocation uses a new Derby system home and database.
+ * 
+ * @author Bindul Bhowmik
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResourceLifecycleBenchmark {
+
+	private static final String JAR_DATABASE_PATH = "benchmark/jar-database";
+
+	/**
+	 * The sub-sub protocol of the database.
+	 */
+	@Param({"Memory", "Directory", "Jar", "Classpath"})
+	public JdbcDerbySubSubProtocol subSubProtocol;
+
+	private File workDirectory;
+	private File homesDirectory;
+	private File jarDatabaseFile;
+	private ClassLoader oldContextClassLoader;
+	private URLClassLoader databaseClassLoader;
+
+	/**
+	 * Creates the working directory, and the jar database when benchmarking the jar or classpath sub-sub protocol. For
+	 * the classpath sub-sub protocol the jar is put on the classpath with the context class loader of the thread; the
+	 * benchmark runs in a single thread, which also runs the setup.
+	 * 
+	 * @throws IOException Error creating the files
+	 * @throws SQLException Error creating the jar database
+	 */
+	@Setup(Level.Trial)
+	public void setupTrial () throws IOException, SQLException {
+		workDirectory = BenchmarkSupport.createWorkDirectory("lifecycle");
+		homesDirectory = new File(workDirectory, "homes");
+		FileUtils.forceMkdir(homesDirectory);
+		if (JdbcDerbySubSubProtocol.Jar == subSubProtocol || JdbcDerbySubSubProtocol.Classpath == subSubProtocol) {
+			jarDatabaseFile = BenchmarkSupport.createJarDatabase(workDirectory, JAR_DATABASE_PATH);
+		}
+		if (JdbcDerbySubSubProtocol.Classpath == subSubProtocol) {
+			oldContextClassLoader = Thread.currentThread().getContextClassLoader();
+			databaseClassLoader = new URLClassLoader(new URL[] {jarDatabaseFile.toURI().toURL()},
+					oldContextClassLoader);
+			Thread.currentThread().setContextClassLoader(databaseClassLoader);
+		}
+	}
+
+	/**
+	 * Starts and closes a resource.
+	 * 
+	 * @return The JDBC URL of the resource
+	 * @throws IOException Error starting the resource
+	 * @throws SQLException Error starting the resource
+	 */
+	@Benchmark
+	public String startAndClose () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(buildConfig(),
+				BenchmarkSupport.newDirectory(homesDirectory, "home-"));
+		try {
+			embeddedDerbyResource.start();
+			return embeddedDerbyResource.getJdbcUrl();
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	private DerbyResourceConfig buildConfig () {
+		final DerbyResourceConfig config = DerbyResourceConfig.buildDefault().useDevNullErrorLogging();
+		switch (subSubProtocol) {
+			case Directory:
+				config.useDatabaseInDirectory();
+				break;
+			case Jar:
+				config.useJarSubSubProtocol(jarDatabaseFile.getAbsolutePath(), JAR_DATABASE_PATH);
+				break;
+			case Classpath:
+				config.useClasspathSubSubProtocol(JAR_DATABASE_PATH);
+				break;
+			case Memory:
+			default:
+				config.useInMemoryDatabase();
+				break;
+		}
+		return config;
+	}
+
+	/**
+	 * Removes the Derby system homes (and directory databases) created in the iteration.
+	 * 
+	 * @throws IOException Error deleting the directories
+	 */
+	@TearDown(Level.Iteration)
+	public void tearDownIteration () throws IOException {
+		FileUtils.cleanDirectory(homesDirectory);
+	}
+
+	/**
+	 * Shuts down Derby, restores the context class loader of the thread and removes the working directory.
+	 * 
+	 * @throws IOException Error closing the class loader of the classpath database
+	 */
+	@TearDown(Level.Trial)
+	public void tearDownTrial () throws IOException {
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+		if (null != databaseClassLoader) {
+			Thread.currentThread().setContextClassLoader(oldContextClassLoader);
+			databaseClassLoader.close();
+		}
+		FileUtils.deleteQuietly(workDirectory);
+	}
+}
@@ -0,0 +1,137 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyScriptRunner;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.deventropy.junithelper.derby.ScriptExecutionEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link DerbyScriptRunner#executeScript(String, File)} with a small and a large script against an in memory
+ * database, using each of the {@link ScriptExecutionEngine script execution engines}. Each script creates a table
+ * and inserts rows in it; the table is dropped after every invocation.
+ * 
+ * @author Bindul Bhowmik
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScriptExecutionBenchmark {
+
+	/**
+	 * The number of rows inserted by the script.
+	 */
+	@Param({"10", "2000"})
+	public int rowCount;
+
+	/**
+	 * The engine executing the script.
+	 */
+	@Param({"Ij", "Jdbc"})
+	public ScriptExecutionEngine scriptExecutionEngine;
+
+	private File workDirectory;
+	private String script;
+	private File scriptLogFile;
+	private EmbeddedDerbyResource embeddedDerbyResource;
+	private Connection connection;
+
+	/**
+	 * Writes the script and starts the database.
+	 * 
+	 * @throws IOException Error writing the script or starting the database
+	 * @throws SQLException Error starting the database
+	 */
+	@Setup(Level.Trial)
+	public void setupTrial () throws IOException, SQLException {
+		workDirectory = BenchmarkSupport.createWorkDirectory("script");
+		script = BenchmarkSupport.writeScript(workDirectory, rowCount);
+		scriptLogFile = new File(workDirectory, "script.log");
+		embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().useDevNullErrorLogging(),
+				BenchmarkSupport.newDirectory(workDirectory, "home-"));
+		embeddedDerbyResource.start();
+		connection = DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl());
+	}
+
+	/**
+	 * Executes the script.
+	 * 
+	 * @return The number of errors in the script; should be <code>0</code>
+	 * @throws IOException Error reading the script
+	 */
+	@Benchmark
+	public int executeScript () throws IOException {
+		final DerbyScriptRunner scriptRunner = new DerbyScriptRunner(connection);
+		scriptRunner.setScriptExecutionEngine(scriptExecutionEngine);
+		return scriptRunner.executeScript(script, scriptLogFile);
+	}
+
+	/**
+	 * Drops the table created by the script.
+	 * 
+	 * @throws SQLException Error dropping the table
+	 */
+	@TearDown(Level.Invocation)
+	public void tearDownInvocation () throws SQLException {
+		Statement stmt = null;
+		try {
+			stmt = connection.createStatement();
+			stmt.executeUpdate("DROP TABLE " + BenchmarkSupport.SCRIPT_TABLE);
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Closes the database and removes the working directory.
+	 * 
+	 * @throws IOException Error closing the database
+	 */
+	@TearDown(Level.Trial)
+	public void tearDownTrial () throws IOException {
+		DerbyUtils.closeQuietly(connection);
+		embeddedDerbyResource.close();
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+		FileUtils.deleteQuietly(workDirectory);
+	}
+}
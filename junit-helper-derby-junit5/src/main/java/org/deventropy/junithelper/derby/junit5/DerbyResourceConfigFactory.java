@@ -0,0 +1,58 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.junit5;
+
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+
+/**
+ * Creates the configuration of an embedded Derby database managed by the {@link EmbeddedDerbyExtension}, see
+ * {@link EmbeddedDerby#config()}. Implementations should have a constructor without arguments.
+ * 
+ * <p>Example:
+ * <pre>
+ * public class PeopleDatabase implements DerbyResourceConfigFactory {
+ * 	&#064;Override
+ * 	public DerbyResourceConfig createConfig () {
+ * 		return DerbyResourceConfig.buildDefault().useParallelSafeMode()
+ * 				.addPostInitScript("classpath:/org/example/ddl.sql");
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author Bindul Bhowmik
+ */
+public interface DerbyResourceConfigFactory {
+
+	/**
+	 * Creates the configuration for a new database.
+	 * 
+	 * @return The database configuration
+	 */
+	DerbyResourceConfig createConfig ();
+
+	/**
+	 * Creates the {@link DerbyResourceConfig#buildDefault() default} configuration.
+	 */
+	final class Default implements DerbyResourceConfigFactory {
+		/* (non-Javadoc)
+		 * @see org.deventropy.junithelper.derby.junit5.DerbyResourceConfigFactory#createConfig()
+		 */
+		@Override
+		public DerbyResourceConfig createConfig () {
+			return DerbyResourceConfig.buildDefault();
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.junit5;
+
+/**
+ * The scope in which the {@link EmbeddedDerbyExtension} shares an embedded Derby database, see
+ * {@link EmbeddedDerby#scope()}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public enum DerbyResourceScope {
+	/**
+	 * The database is started before the first test of the annotated class (and its nested classes), and shut down
+	 * after the last one.
+	 */
+	TestClass,
+	/**
+	 * The database is started before the first test class using it, shared by all the test classes in the test run
+	 * using the same {@link EmbeddedDerby#config() configuration} and {@link EmbeddedDerby#name() name}, and shut down
+	 * once at the end of the test run.
+	 */
+	TestRun;
+}
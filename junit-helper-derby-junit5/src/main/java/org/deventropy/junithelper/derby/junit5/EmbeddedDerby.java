@@ -0,0 +1,78 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.junit5;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.junit.jupiter.api.extension.ExtendWith;
+
+/**
+ * Provides an embedded Derby database to a JUnit Jupiter test class, using the {@link EmbeddedDerbyExtension}. The
+ * database ({@link org.deventropy.junithelper.derby.EmbeddedDerbyResource}) is injected into test constructors, life
+ * cycle and test methods declaring a parameter of that type (or of the type {@link javax.sql.DataSource} for its
+ * pooled data source).
+ * 
+ * <p>Example of usage:
+ * <pre>
+ * &#064;EmbeddedDerby(config = PeopleDatabase.class, scope = DerbyResourceScope.TestRun)
+ * class PeopleDaoTest {
+ * 
+ * 	&#064;Test
+ * 	void test (final EmbeddedDerbyResource embeddedDerbyResource) throws SQLException {
+ * 		final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+ * 		// ...
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author Bindul Bhowmik
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Inherited
+@ExtendWith(EmbeddedDerbyExtension.class)
+public @interface EmbeddedDerby {
+
+	/**
+	 * The factory creating the database configuration; the
+	 * {@link org.deventropy.junithelper.derby.DerbyResourceConfig#buildDefault() default} configuration if not
+	 * specified.
+	 * 
+	 * @return The configuration factory class
+	 */
+	Class<? extends DerbyResourceConfigFactory> config () default DerbyResourceConfigFactory.Default.class;
+
+	/**
+	 * The scope in which the database is shared; {@link DerbyResourceScope#TestClass} by default.
+	 * 
+	 * @return The database scope
+	 */
+	DerbyResourceScope scope () default DerbyResourceScope.TestClass;
+
+	/**
+	 * An optional name distinguishing databases using the same {@link #config() configuration} in the
+	 * {@link DerbyResourceScope#TestRun} scope; test classes using the same configuration and name share a database.
+	 * 
+	 * @return The database name
+	 */
+	String name () default "";
+}
@@ -0,0 +1,222 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.junit5;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Parameter;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.Optional;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.deventropy.junithelper.derby.PooledDerbyDataSource;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.jupiter.api.extension.ExtensionContext.Store.CloseableResource;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.junit.platform.commons.support.AnnotationSupport;
+import org.junit.platform.commons.support.ReflectionSupport;
+
+/**
+ * JUnit Jupiter extension managing embedded Derby databases ({@link EmbeddedDerbyResource}) configured by the
+ * {@link EmbeddedDerby} annotation on the test class; the annotation registers the extension.
+ * 
+ * <p>Started databases are kept in the {@link ExtensionContext.Store} of the context matching their
+ * {@link DerbyResourceScope scope}: the test class context for {@link DerbyResourceScope#TestClass}, or the root
+ * (engine) context for {@link DerbyResourceScope#TestRun}, where a single database is shared by all the test classes
+ * using the same configuration. JUnit closes the databases when the context ends; a run scoped database is started
+ * once (and its post init scripts executed once) and shut down once at the end of the test run. Concurrent test
+ * classes (with JUnit parallel execution) get the same database.
+ * 
+ * <p>Each database gets its own temporary Derby system home directory, deleted when the database is closed. Databases
+ * shared by test classes should use the {@link DerbyResourceConfig#useParallelSafeMode() parallel safe mode}, so they
+ * do not depend on the JVM wide <code>derby.system.home</code> while other resources start and stop.
+ * 
+ * <p>The database is started before the tests of the class, unless the configuration uses the
+ * {@link DerbyResourceConfig#useLazyStart() lazy start}, in which case it is started when it is first injected.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class EmbeddedDerbyExtension implements BeforeAllCallback, ParameterResolver {
+
+	private static final Namespace NAMESPACE = Namespace.create(EmbeddedDerbyExtension.class);
+
+	/* (non-Javadoc)
+	 * @see org.junit.jupiter.api.extension.BeforeAllCallback#beforeAll(
+	 * org.junit.jupiter.api.extension.ExtensionContext)
+	 */
+	@Override
+	public void beforeAll (final ExtensionContext context) throws Exception {
+		final ManagedDerbyResource managedResource = getManagedResource(context);
+		if (!managedResource.isLazyStart()) {
+			// Start up errors are reported for the class, instead of the first test using the database
+			managedResource.getStartedResource();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.junit.jupiter.api.extension.ParameterResolver#supportsParameter(
+	 * org.junit.jupiter.api.extension.ParameterContext, org.junit.jupiter.api.extension.ExtensionContext)
+	 */
+	@Override
+	public boolean supportsParameter (final ParameterContext parameterContext,
+			final ExtensionContext extensionContext) {
+		final Class<?> parameterType = parameterContext.getParameter().getType();
+		return EmbeddedDerbyResource.class == parameterType || DataSource.class == parameterType
+				|| PooledDerbyDataSource.class == parameterType;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.junit.jupiter.api.extension.ParameterResolver#resolveParameter(
+	 * org.junit.jupiter.api.extension.ParameterContext, org.junit.jupiter.api.extension.ExtensionContext)
+	 */
+	@Override
+	public Object resolveParameter (final ParameterContext parameterContext, final ExtensionContext extensionContext) {
+		final Parameter parameter = parameterContext.getParameter();
+		final EmbeddedDerbyResource embeddedDerbyResource;
+		try {
+			embeddedDerbyResource = getManagedResource(extensionContext).getStartedResource();
+		} catch (IOException | SQLException e) {
+			throw new ParameterResolutionException("Error starting the embedded Derby database for " + parameter, e);
+		}
+		if (EmbeddedDerbyResource.class == parameter.getType()) {
+			return embeddedDerbyResource;
+		}
+		return embeddedDerbyResource.getDataSource();
+	}
+
+	/**
+	 * Returns the started embedded Derby database for the test context, starting it if required. This can be used by
+	 * other extensions, for example to prepare data before the tests.
+	 * 
+	 * @param context The extension context of the test class or method
+	 * @return The started database
+	 * @throws IOException IO exception creating the Derby system home or starting the database
+	 * @throws SQLException SQL exception starting the database or running the init scripts
+	 */
+	public static EmbeddedDerbyResource getEmbeddedDerbyResource (final ExtensionContext context)
+			throws IOException, SQLException {
+		return getManagedResource(context).getStartedResource();
+	}
+
+	private static ManagedDerbyResource getManagedResource (final ExtensionContext context) {
+		final Optional<EmbeddedDerby> embeddedDerby = findEmbeddedDerby(context);
+		final Class<? extends DerbyResourceConfigFactory> configFactory = embeddedDerby
+				.<Class<? extends DerbyResourceConfigFactory>> map(EmbeddedDerby::config)
+				.orElse(DerbyResourceConfigFactory.Default.class);
+		final DerbyResourceScope scope = embeddedDerby.map(EmbeddedDerby::scope).orElse(DerbyResourceScope.TestClass);
+		final String name = embeddedDerby.map(EmbeddedDerby::name).orElse("");
+
+		final String key = scope.name() + ':' + configFactory.getName() + ':' + name;
+		// Looks up parent contexts as well, so nested test classes get the database of the enclosing class
+		return getScopeContext(context, scope).getStore(NAMESPACE).getOrComputeIfAbsent(key,
+			storeKey -> new ManagedDerbyResource(ReflectionSupport.newInstance(configFactory).createConfig()),
+			ManagedDerbyResource.class);
+	}
+
+	private static Optional<EmbeddedDerby> findEmbeddedDerby (final ExtensionContext context) {
+		Class<?> testClass = context.getTestClass().orElse(null);
+		while (null != testClass) {
+			final Optional<EmbeddedDerby> embeddedDerby = AnnotationSupport.findAnnotation(testClass,
+					EmbeddedDerby.class);
+			if (embeddedDerby.isPresent()) {
+				return embeddedDerby;
+			}
+			// Nested test classes
+			testClass = testClass.getEnclosingClass();
+		}
+		return Optional.empty();
+	}
+
+	private static ExtensionContext getScopeContext (final ExtensionContext context,
+			final DerbyResourceScope scope) {
+		if (DerbyResourceScope.TestRun == scope) {
+			return context.getRoot();
+		}
+		ExtensionContext classContext = context;
+		while (classContext.getTestMethod().isPresent() && classContext.getParent().isPresent()) {
+			classContext = classContext.getParent().get();
+		}
+		return classContext;
+	}
+
+	/**
+	 * An embedded Derby database in an extension context store, closed with the context.
+	 */
+	private static final class ManagedDerbyResource implements CloseableResource {
+
+		private final Logger log = LogManager.getLogger();
+
+		private final DerbyResourceConfig config;
+		private final File derbySystemHome;
+		private final EmbeddedDerbyResource embeddedDerbyResource;
+		private Exception startFailure;
+
+		private ManagedDerbyResource (final DerbyResourceConfig config) {
+			this.config = config;
+			try {
+				this.derbySystemHome = Files.createTempDirectory("junit-helper-derby-").toFile();
+			} catch (IOException e) {
+				throw new IllegalStateException("Error creating the Derby system home", e);
+			}
+			this.embeddedDerbyResource = new EmbeddedDerbyResource(config, derbySystemHome);
+		}
+
+		private boolean isLazyStart () {
+			return config.isLazyStart();
+		}
+
+		private synchronized EmbeddedDerbyResource getStartedResource () throws IOException, SQLException {
+			if (null != startFailure) {
+				// Not retried, the database may be partially initialized
+				throw new IllegalStateException("The embedded Derby database failed to start", startFailure);
+			}
+			if (!embeddedDerbyResource.isStarted()) {
+				try {
+					embeddedDerbyResource.ensureStarted();
+				} catch (IOException | SQLException e) {
+					startFailure = e;
+					throw e;
+				}
+				log.debug("Started {} in {}", embeddedDerbyResource.getJdbcUrl(), derbySystemHome);
+			}
+			return embeddedDerbyResource;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.junit.jupiter.api.extension.ExtensionContext.Store.CloseableResource#close()
+		 */
+		@Override
+		public void close () throws IOException {
+			log.debug("Closing {}", embeddedDerbyResource.getJdbcUrl());
+			try {
+				embeddedDerbyResource.close();
+			} finally {
+				FileUtils.deleteQuietly(derbySystemHome);
+			}
+		}
+	}
+}
@@ -0,0 +1,30 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * JUnit Jupiter (JUnit 5) support for the embedded Derby databases of JUnit Helper Derby.
+ * 
+ * <p>The {@link org.deventropy.junithelper.derby.junit5.EmbeddedDerby} annotation registers the
+ * {@link org.deventropy.junithelper.derby.junit5.EmbeddedDerbyExtension} on a test class, which starts an
+ * {@link org.deventropy.junithelper.derby.EmbeddedDerbyResource} and injects it into the tests. Databases can be
+ * scoped to a test class, or shared by all the test classes in a test run
+ * ({@link org.deventropy.junithelper.derby.junit5.DerbyResourceScope}).
+ * 
+ * <p>More details are in the <a href="http://www.deventropy.org/junit-helper/junit-helper-derby-junit5/">Project
+ * Website</a>.
+ * 
+ * @author Bindul Bhowmik
+ */
+package org.deventropy.junithelper.derby.junit5;
@@ -0,0 +1,98 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.junit5;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for {@link org.deventropy.junithelper.derby.junit5.EmbeddedDerbyExtension} with a class scoped database.
+ * 
+ * @author Bindul Bhowmik
+ */
+@EmbeddedDerby(config = PeopleDatabaseConfig.class)
+public class EmbeddedDerbyExtensionTest {
+
+	private final EmbeddedDerbyResource constructorResource;
+
+	/**
+	 * Creates the test with the database injected in the constructor.
+	 * 
+	 * @param embeddedDerbyResource The database
+	 */
+	public EmbeddedDerbyExtensionTest (final EmbeddedDerbyResource embeddedDerbyResource) {
+		this.constructorResource = embeddedDerbyResource;
+	}
+
+	@Test
+	public void testResourceInjected (final EmbeddedDerbyResource embeddedDerbyResource) throws SQLException {
+		assertSame(constructorResource, embeddedDerbyResource, "Should be the class database");
+		assertTrue(embeddedDerbyResource.isStarted(), "Database should be started");
+		assertEquals(1, countPeople(embeddedDerbyResource.getJdbcUrl()));
+	}
+
+	@Test
+	public void testDataSourceInjected (final DataSource dataSource) throws SQLException {
+		assertSame(constructorResource.getDataSource(), dataSource, "Should be the pooled data source");
+		final Connection connection = dataSource.getConnection();
+		try {
+			assertTrue(connection.isValid(1));
+		} finally {
+			DerbyUtils.closeQuietly(connection);
+		}
+	}
+
+	/**
+	 * Nested tests share the database of the enclosing class.
+	 */
+	@Nested
+	public class NestedTests {
+
+		@Test
+		public void testEnclosingResource (final EmbeddedDerbyResource embeddedDerbyResource) {
+			assertSame(constructorResource, embeddedDerbyResource, "Should be the enclosing class database");
+		}
+	}
+
+	static int countPeople (final String jdbcUrl) throws SQLException {
+		Connection connection = null;
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			connection = DriverManager.getConnection(jdbcUrl);
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery("SELECT COUNT(*) FROM PEOPLE");
+			assertTrue(rs.next());
+			return rs.getInt(1);
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+			DerbyUtils.closeQuietly(connection);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.junit5;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+import org.junit.platform.launcher.listeners.SummaryGeneratingListener;
+import org.junit.platform.launcher.listeners.TestExecutionSummary;
+
+/**
+ * Tests the sharing of databases by test classes, running the fixture classes with the JUnit Platform launcher so the
+ * end of the test run (when shared databases are closed) can be checked.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class SharedDerbyDatabaseTest {
+
+	private static final List<EmbeddedDerbyResource> USED_RESOURCES = new CopyOnWriteArrayList<>();
+
+	@BeforeEach
+	public void clearUsedResources () {
+		USED_RESOURCES.clear();
+	}
+
+	@Test
+	public void testRunScopedDatabaseShared () {
+		final TestExecutionSummary summary = runFixtures(RunScopedFixtureOne.class, RunScopedFixtureTwo.class);
+		assertEquals(2, summary.getTestsSucceededCount(), "Fixture tests should pass");
+
+		assertEquals(2, USED_RESOURCES.size());
+		final EmbeddedDerbyResource sharedResource = USED_RESOURCES.get(0);
+		assertSame(sharedResource, USED_RESOURCES.get(1), "Test classes should share the database");
+		assertFalse(sharedResource.isStarted(), "Database should be closed at the end of the run");
+		assertFalse(sharedResource.getDerbySystemHome().exists(), "Derby system home should be deleted");
+	}
+
+	@Test
+	public void testClassScopedDatabaseNotShared () {
+		final TestExecutionSummary summary = runFixtures(ClassScopedFixtureOne.class, ClassScopedFixtureTwo.class);
+		assertEquals(2, summary.getTestsSucceededCount(), "Fixture tests should pass");
+
+		assertEquals(2, USED_RESOURCES.size());
+		assertNotSame(USED_RESOURCES.get(0), USED_RESOURCES.get(1), "Test classes should have their own database");
+		assertFalse(USED_RESOURCES.get(0).isStarted(), "Database should be closed after the class");
+	}
+
+	private TestExecutionSummary runFixtures (final Class<?>... fixtureClasses) {
+		final LauncherDiscoveryRequestBuilder requestBuilder = LauncherDiscoveryRequestBuilder.request();
+		for (Class<?> fixtureClass : fixtureClasses) {
+			requestBuilder.selectors(selectClass(fixtureClass));
+		}
+		final LauncherDiscoveryRequest request = requestBuilder.build();
+		final Launcher launcher = LauncherFactory.create();
+		final SummaryGeneratingListener listener = new SummaryGeneratingListener();
+		launcher.execute(request, listener);
+		return listener.getSummary();
+	}
+
+	private static void useDatabase (final EmbeddedDerbyResource embeddedDerbyResource) throws SQLException {
+		// The post init scripts are executed only once per database
+		assertEquals(1, EmbeddedDerbyExtensionTest.countPeople(embeddedDerbyResource.getJdbcUrl()));
+		USED_RESOURCES.add(embeddedDerbyResource);
+	}
+
+	/**
+	 * Run scoped fixture.
+	 */
+	@EmbeddedDerby(config = PeopleDatabaseConfig.class, scope = DerbyResourceScope.TestRun)
+	public static class RunScopedFixtureOne {
+		@Test
+		public void test (final EmbeddedDerbyResource embeddedDerbyResource) throws SQLException {
+			useDatabase(embeddedDerbyResource);
+		}
+	}
+
+	/**
+	 * Run scoped fixture.
+	 */
+	@EmbeddedDerby(config = PeopleDatabaseConfig.class, scope = DerbyResourceScope.TestRun)
+	public static class RunScopedFixtureTwo {
+		@Test
+		public void test (final EmbeddedDerbyResource embeddedDerbyResource) throws SQLException {
+			useDatabase(embeddedDerbyResource);
+		}
+	}
+
+	/**
+	 * Class scoped fixture.
+	 */
+	@EmbeddedDerby(config = PeopleDatabaseConfig.class)
+	public static class ClassScopedFixtureOne {
+		@Test
+		public void test (final EmbeddedDerbyResource embeddedDerbyResource) throws SQLException {
+			useDatabase(embeddedDerbyResource);
+		}
+	}
+
+	/**
+	 * Class scoped fixture.
+	 */
+	@EmbeddedDerby(config = PeopleDatabaseConfig.class)
+	public static class ClassScopedFixtureTwo {
+		@Test
+		public void test (final EmbeddedDerbyResource embeddedDerbyResource) throws SQLException {
+			useDatabase(embeddedDerbyResource);
+		}
+	}
+}
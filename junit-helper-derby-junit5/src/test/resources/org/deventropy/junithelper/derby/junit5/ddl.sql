@@ -0,0 +1,5 @@
+CREATE TABLE PEOPLE (
+	PERSON_ID INT NOT NULL GENERATED ALWAYS AS IDENTITY CONSTRAINT PEOPLE_PK PRIMARY KEY, 
+	PERSON VARCHAR(26) NOT NULL,
+	EMAIL VARCHAR(256)
+);
\ No newline at end of file
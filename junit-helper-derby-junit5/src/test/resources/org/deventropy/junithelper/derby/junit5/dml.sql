@@ -0,0 +1,2 @@
+INSERT INTO PEOPLE (PERSON, EMAIL) VALUES 
+	('John Doe', 'john.doe@example.com');
\ No newline at end of file
@@ -0,0 +1,149 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * JVM wide executor of the database work done in the background while tests run, such as creating
+ * {@link DerbyDatabasePool prewarmed databases} and dropping them, or
+ * {@link DerbyResourceConfig#useAsynchronousShutdown() shutting down} databases. The threads are daemon threads, so
+ * pending work does not keep the JVM from exiting; a shutdown hook waits for it instead, for up to a minute. Failures
+ * are logged, as there is no test to report them to.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class DerbyBackgroundExecutor {
+
+	private static final DerbyBackgroundExecutor INSTANCE = new DerbyBackgroundExecutor();
+
+	private static final String THREAD_NAME_PREFIX = "junit-helper-derby-background-";
+	private static final long SHUTDOWN_HOOK_TIMEOUT_SECONDS = 60;
+
+	private final Logger log = LogManager.getLogger();
+
+	private ExecutorService executor;
+	private int pendingTasks;
+
+	private DerbyBackgroundExecutor () {
+		// Singleton
+	}
+
+	/**
+	 * Returns the JVM wide background executor.
+	 * 
+	 * @return The background executor
+	 */
+	static DerbyBackgroundExecutor getInstance () {
+		return INSTANCE;
+	}
+
+	/**
+	 * Submits a task to run in the background; an exception thrown by the task is logged.
+	 * 
+	 * @param description The description of the task, for the log
+	 * @param task The task
+	 * @return The future of the task
+	 */
+	Future<?> submit (final String description, final Runnable task) {
+		synchronized (this) {
+			pendingTasks++;
+		}
+		return getExecutor().submit(new Runnable() {
+			@Override
+			public void run () {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					log.warn("Error in background task: {}", description, e);
+				} finally {
+					taskCompleted();
+				}
+			}
+		});
+	}
+
+	private synchronized void taskCompleted () {
+		pendingTasks--;
+		if (0 == pendingTasks) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits for the tasks submitted so far, and any tasks they submit, to complete.
+	 * 
+	 * @param timeout The maximum time to wait
+	 * @param unit The unit of the timeout
+	 * @return <code>true</code> if there are no pending tasks; <code>false</code> if the timeout elapsed
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	synchronized boolean awaitIdle (final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (pendingTasks > 0) {
+			final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remainingMillis <= 0) {
+				return false;
+			}
+			wait(remainingMillis);
+		}
+		return true;
+	}
+
+	private synchronized ExecutorService getExecutor () {
+		if (null == executor) {
+			// Half the processors, leaving the rest to the tests
+			final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread (final Runnable runnable) {
+					final Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run () {
+					awaitIdleOnExit();
+				}
+			}, THREAD_NAME_PREFIX + "shutdown"));
+		}
+		return executor;
+	}
+
+	private void awaitIdleOnExit () {
+		try {
+			if (!awaitIdle(SHUTDOWN_HOOK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				log.warn("Background tasks still pending at exit after {} seconds", SHUTDOWN_HOOK_TIMEOUT_SECONDS);
+			}
+		} catch (InterruptedException e) {
+			// Exiting anyway
+			log.catching(Level.TRACE, e);
+		}
+	}
+}
@@ -0,0 +1,1045 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deventropy.shared.utils.ArgumentCheck;
+
+/**
+ * Generates synthetic rows into tables of a database, for load style tests needing more data than is practical to
+ * maintain in scripts; see {@link EmbeddedDerbyResource#generateData(DerbyDataGenerator)}. The columns of the tables
+ * are read from the database metadata, and the rows are inserted with batched prepared statements.
+ * 
+ * <p>This class provides a fluid interface to configure the generation. Example usage:
+ * 
+ * <pre>
+ * new DerbyDataGenerator(42).addTable("PEOPLE", 100000).addTable("ORDERS", 1000000);
+ * </pre>
+ * 
+ * <p>The generated values respect the table constraints known from the metadata:
+ * <ul>
+ * <li>Tables are generated in foreign key order, parents before children; the foreign key columns of a row are set
+ * from a (randomly chosen) row of the parent table, which has to have rows unless the columns are nullable.
+ * Self referencing foreign keys are set to <code>null</code>; cycles of foreign keys between the tables are not
+ * supported.</li>
+ * <li>Identity and generated columns are left to the database.</li>
+ * <li>A column of each unique index or constraint (including the primary key) is set from a sequence, starting after
+ * the largest existing value: for string columns the largest existing value that is a number, and for date and
+ * timestamp columns the day or second after the latest existing value. Unique indexes of only foreign key columns get
+ * combinations of the parent rows not already in the table.</li>
+ * <li>Other columns get random values of their type: numbers, short lower case strings, dates between 2000 and 2030,
+ * and short binary values.</li>
+ * </ul>
+ * Check constraints are not known, and unsupported column types (for example <code>XML</code>) can only be nullable;
+ * rows that still violate a constraint fail the generation.
+ * 
+ * <p>The values are generated from the seed, so the same seed generates the same rows into a database with the same
+ * tables and existing data; keeping performance comparisons between runs stable.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class DerbyDataGenerator {
+
+	private static final int MAX_STRING_LENGTH = 24;
+	private static final int MAX_BINARY_LENGTH = 16;
+	private static final int DATE_RANGE_DAYS = 30 * 365;
+	private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+	private static final int BASE_YEAR = 2000;
+	private static final long MAX_UNSCALED_DECIMAL = 1000000000000000000L;
+	private static final String AUTO_INCREMENT = "YES";
+	private static final String GENERATED_COLUMN_PREFIX = "GENERATED ALWAYS";
+	private static final int MAX_SEQUENCE_DIGITS = 18;
+	private static final String SQL_UNIQUE_CONSTRAINT_INDEXES = "SELECT G.CONGLOMERATENAME FROM SYS.SYSCONSTRAINTS C"
+			+ " JOIN SYS.SYSKEYS K ON C.CONSTRAINTID = K.CONSTRAINTID"
+			+ " JOIN SYS.SYSCONGLOMERATES G ON K.CONGLOMERATEID = G.CONGLOMERATEID"
+			+ " JOIN SYS.SYSTABLES T ON C.TABLEID = T.TABLEID JOIN SYS.SYSSCHEMAS S ON T.SCHEMAID = S.SCHEMAID"
+			+ " WHERE S.SCHEMANAME = ? AND T.TABLENAME = ? AND C.TYPE IN ('P', 'U')";
+
+	private final Logger log = LogManager.getLogger();
+
+	private final long seed;
+	private final Map<String, Long> tableRows = new LinkedHashMap<>();
+	private String schemaName;
+	private int batchSize = getDefaultBatchSize();
+
+	/**
+	 * Creates a generator of the rows determined by the seed.
+	 * 
+	 * @param seed The seed of the generated values
+	 */
+	public DerbyDataGenerator (final long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Adds a table to generate rows into; tables are generated in foreign key order, and otherwise in the order added.
+	 * 
+	 * @param tableName The table name, as in the database catalog (upper case, unless quoted when created)
+	 * @param rows The number of rows to generate; should be at least 1
+	 * @return This instance
+	 */
+	public DerbyDataGenerator addTable (final String tableName, final long rows) {
+		ArgumentCheck.notNullOrEmpty(tableName, "Table name");
+		if (rows < 1) {
+			throw new IllegalArgumentException("Rows should be at least 1");
+		}
+		if (tableRows.containsKey(tableName)) {
+			throw new IllegalArgumentException("Table " + tableName + " is already added");
+		}
+		tableRows.put(tableName, rows);
+		return this;
+	}
+
+	/**
+	 * Sets the schema of the tables; the current schema of the connection is used if not set.
+	 * 
+	 * @param schema The schema name
+	 * @return This instance
+	 */
+	public DerbyDataGenerator useSchema (final String schema) {
+		ArgumentCheck.notNullOrEmpty(schema, "Schema name");
+		this.schemaName = schema;
+		return this;
+	}
+
+	/**
+	 * Sets the number of rows inserted (and committed) in a batch.
+	 * 
+	 * @param rowsPerBatch The number of rows in a batch; should be at least 1
+	 * @return This instance
+	 */
+	public DerbyDataGenerator useBatchSize (final int rowsPerBatch) {
+		if (rowsPerBatch < 1) {
+			throw new IllegalArgumentException("Batch size should be at least 1");
+		}
+		this.batchSize = rowsPerBatch;
+		return this;
+	}
+
+	/**
+	 * @return The seed of the generated values
+	 */
+	public long getSeed () {
+		return seed;
+	}
+
+	/**
+	 * @return The number of rows inserted in a batch
+	 */
+	public int getBatchSize () {
+		return batchSize;
+	}
+
+	/**
+	 * The default number of rows inserted in a batch.
+	 * 
+	 * @return <code>1000</code>
+	 */
+	public static int getDefaultBatchSize () {
+		return 1000;
+	}
+
+	/**
+	 * Generates the rows into the tables, committing each batch; a failed batch is rolled back, and fails the
+	 * generation. The auto commit mode of the connection is restored after the generation.
+	 * 
+	 * @param conn The connection to the database
+	 * @return The rows generated, and the time taken
+	 * @throws SQLException Error reading the table metadata or inserting the rows
+	 * @throws IllegalStateException If the tables have constraints the generator can not satisfy
+	 */
+	public Result generate (final Connection conn) throws SQLException {
+		ArgumentCheck.notNull(conn, "Connection");
+		if (tableRows.isEmpty()) {
+			throw new IllegalStateException("No tables to generate rows into");
+		}
+		final String schema = (null == schemaName) ? conn.getSchema() : schemaName;
+		final Map<String, TableModel> tables = new LinkedHashMap<>();
+		for (String tableName : tableRows.keySet()) {
+			tables.put(tableName, readTable(conn, schema, tableName));
+		}
+
+		final Result result = new Result();
+		final boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			for (TableModel table : orderByForeignKeys(tables)) {
+				final long rows = tableRows.get(table.name);
+				final long tableNanos = System.nanoTime();
+				generateRows(conn, table, rows);
+				final long elapsedNanos = System.nanoTime() - tableNanos;
+				result.add(table.name, rows, elapsedNanos);
+				log.info("Generated {} rows into {}.{} in {} ms ({} rows/s)", rows, schema, table.name,
+						TimeUnit.NANOSECONDS.toMillis(elapsedNanos), Math.round(rowsPerSecond(rows, elapsedNanos)));
+			}
+		} catch (SQLException | RuntimeException e) {
+			rollbackQuietly(conn);
+			throw e;
+		} finally {
+			conn.setAutoCommit(autoCommit);
+		}
+		return result;
+	}
+
+	private TableModel readTable (final Connection conn, final String schema, final String tableName)
+			throws SQLException {
+		final DatabaseMetaData metaData = conn.getMetaData();
+		final TableModel table = new TableModel(schema, tableName);
+		// Metadata names are patterns, where '_' matches any character
+		try (ResultSet columns = metaData.getColumns(null, schema, tableName, null)) {
+			while (columns.next()) {
+				if (tableName.equals(columns.getString("TABLE_NAME"))) {
+					final String columnDefault = columns.getString("COLUMN_DEF");
+					table.columns.add(new ColumnModel(columns.getString("COLUMN_NAME"), columns.getInt("DATA_TYPE"),
+							columns.getInt("COLUMN_SIZE"), columns.getInt("DECIMAL_DIGITS"),
+							DatabaseMetaData.columnNoNulls != columns.getInt("NULLABLE"),
+							AUTO_INCREMENT.equals(columns.getString("IS_AUTOINCREMENT"))
+							|| (null != columnDefault && columnDefault.startsWith(GENERATED_COLUMN_PREFIX))));
+				}
+			}
+		}
+		if (table.columns.isEmpty()) {
+			throw new SQLException("Table " + tableName + " not found in schema " + schema);
+		}
+
+		// A unique constraint of nullable columns is backed by an index allowing duplicate (null) values
+		final Set<String> constraintIndexes = readUniqueConstraintIndexes(conn, schema, tableName);
+		final Map<String, List<String>> uniqueIndexes = new LinkedHashMap<>();
+		try (ResultSet indexes = metaData.getIndexInfo(null, schema, tableName, false, false)) {
+			while (indexes.next()) {
+				final String columnName = indexes.getString("COLUMN_NAME");
+				final String indexName = indexes.getString("INDEX_NAME");
+				if (tableName.equals(indexes.getString("TABLE_NAME")) && null != columnName
+						&& (!indexes.getBoolean("NON_UNIQUE") || constraintIndexes.contains(indexName))) {
+					if (!uniqueIndexes.containsKey(indexName)) {
+						uniqueIndexes.put(indexName, new ArrayList<String>());
+					}
+					uniqueIndexes.get(indexName).add(columnName);
+				}
+			}
+		}
+		table.uniqueIndexes.addAll(uniqueIndexes.values());
+
+		final Map<String, ForeignKeyModel> foreignKeys = new LinkedHashMap<>();
+		try (ResultSet importedKeys = metaData.getImportedKeys(null, schema, tableName)) {
+			while (importedKeys.next()) {
+				if (!tableName.equals(importedKeys.getString("FKTABLE_NAME"))) {
+					continue;
+				}
+				final String foreignKeyName = importedKeys.getString("FK_NAME");
+				ForeignKeyModel foreignKey = foreignKeys.get(foreignKeyName);
+				if (null == foreignKey) {
+					foreignKey = new ForeignKeyModel(foreignKeyName, importedKeys.getString("PKTABLE_SCHEM"),
+							importedKeys.getString("PKTABLE_NAME"));
+					foreignKeys.put(foreignKeyName, foreignKey);
+				}
+				// Key columns are listed in key sequence order
+				foreignKey.parentColumns.add(importedKeys.getString("PKCOLUMN_NAME"));
+				foreignKey.columns.add(importedKeys.getString("FKCOLUMN_NAME"));
+			}
+		}
+		table.foreignKeys.addAll(foreignKeys.values());
+		return table;
+	}
+
+	private Set<String> readUniqueConstraintIndexes (final Connection conn, final String schema,
+			final String tableName) throws SQLException {
+		final Set<String> indexNames = new HashSet<>();
+		try (PreparedStatement stmt = conn.prepareStatement(SQL_UNIQUE_CONSTRAINT_INDEXES)) {
+			stmt.setString(1, schema);
+			stmt.setString(2, tableName);
+			try (ResultSet indexes = stmt.executeQuery()) {
+				while (indexes.next()) {
+					indexNames.add(indexes.getString(1));
+				}
+			}
+		}
+		return indexNames;
+	}
+
+	private List<TableModel> orderByForeignKeys (final Map<String, TableModel> tables) {
+		final List<TableModel> ordered = new ArrayList<>();
+		final Map<String, TableModel> remaining = new LinkedHashMap<>(tables);
+		while (!remaining.isEmpty()) {
+			TableModel next = null;
+			for (TableModel table : remaining.values()) {
+				if (!hasRemainingParent(table, remaining)) {
+					next = table;
+					break;
+				}
+			}
+			if (null == next) {
+				throw new IllegalStateException("Cyclic foreign keys between the tables " + remaining.keySet());
+			}
+			ordered.add(next);
+			remaining.remove(next.name);
+		}
+		return ordered;
+	}
+
+	private boolean hasRemainingParent (final TableModel table, final Map<String, TableModel> remaining) {
+		for (ForeignKeyModel foreignKey : table.foreignKeys) {
+			if (!foreignKey.isSelfReference(table) && table.schema.equals(foreignKey.parentSchema)
+					&& remaining.containsKey(foreignKey.parentTable)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void generateRows (final Connection conn, final TableModel table, final long rows) throws SQLException {
+		// Independent of the other tables generated
+		final Random random = new Random(seed * 31 + (table.schema + '.' + table.name).hashCode());
+		final Calendar calendar = new GregorianCalendar();
+
+		// Foreign keys first, the parent rows decide the unique combinations
+		final Set<String> foreignKeyColumns = new HashSet<>();
+		for (ForeignKeyModel foreignKey : table.foreignKeys) {
+			foreignKeyColumns.addAll(foreignKey.columns);
+			loadParentKeys(conn, table, foreignKey);
+		}
+		final Set<String> sequenceColumns = assignUniqueValues(conn, table, foreignKeyColumns, rows);
+
+		final List<ColumnModel> insertColumns = new ArrayList<>();
+		final List<ValueSource> valueSources = new ArrayList<>();
+		final Map<String, Integer> parameterIndexes = new LinkedHashMap<>();
+		for (ColumnModel column : table.columns) {
+			if (column.generated) {
+				continue;
+			}
+			insertColumns.add(column);
+			parameterIndexes.put(column.name, insertColumns.size());
+			if (foreignKeyColumns.contains(column.name)) {
+				// Set with the foreign key
+				valueSources.add(null);
+			} else if (sequenceColumns.contains(column.name)) {
+				valueSources.add(createSequenceSource(table, column, sequenceStart(conn, table, column, calendar),
+						rows, calendar));
+			} else {
+				valueSources.add(createRandomSource(table, column, calendar));
+			}
+		}
+		if (insertColumns.isEmpty()) {
+			throw new IllegalStateException("Table " + table.name + " has no columns to generate values for");
+		}
+
+		try (PreparedStatement stmt = conn.prepareStatement(buildInsertSql(table, insertColumns))) {
+			long combination = 0;
+			for (long row = 0; row < rows; row++) {
+				for (int i = 0; i < insertColumns.size(); i++) {
+					final ValueSource valueSource = valueSources.get(i);
+					if (null != valueSource) {
+						valueSource.setValue(stmt, i + 1, row, random);
+					}
+				}
+				combination = nextCombination(table, combination);
+				for (ForeignKeyModel foreignKey : table.foreignKeys) {
+					setForeignKeyValues(stmt, table, foreignKey, parameterIndexes, combination, random);
+				}
+				combination++;
+				stmt.addBatch();
+				if ((row + 1) % batchSize == 0 || row + 1 == rows) {
+					stmt.executeBatch();
+					conn.commit();
+				}
+			}
+		}
+	}
+
+	private void loadParentKeys (final Connection conn, final TableModel table, final ForeignKeyModel foreignKey)
+			throws SQLException {
+		if (foreignKey.isSelfReference(table)) {
+			// The rows being generated can not be referenced
+			if (!isNullable(table, foreignKey.columns)) {
+				throw new IllegalStateException("Self referencing foreign key " + foreignKey.name + " of table "
+						+ table.name + " is not nullable");
+			}
+			return;
+		}
+		final String parentColumns = quoteIdentifiers(foreignKey.parentColumns);
+		final String sql = "SELECT " + parentColumns + " FROM " + quoteIdentifier(foreignKey.parentSchema) + '.'
+				+ quoteIdentifier(foreignKey.parentTable) + " ORDER BY " + parentColumns;
+		try (Statement stmt = conn.createStatement(); ResultSet parentRows = stmt.executeQuery(sql)) {
+			final int keyColumns = foreignKey.parentColumns.size();
+			while (parentRows.next()) {
+				final Object[] parentKey = new Object[keyColumns];
+				for (int i = 0; i < keyColumns; i++) {
+					parentKey[i] = parentRows.getObject(i + 1);
+				}
+				foreignKey.parentKeys.add(parentKey);
+			}
+		}
+		if (foreignKey.parentKeys.isEmpty() && !isNullable(table, foreignKey.columns)) {
+			throw new IllegalStateException("No rows in " + foreignKey.parentTable + " for the foreign key "
+					+ foreignKey.name + " of table " + table.name);
+		}
+	}
+
+	private Set<String> assignUniqueValues (final Connection conn, final TableModel table,
+			final Set<String> foreignKeyColumns, final long rows) throws SQLException {
+		final Set<String> generatedColumns = new HashSet<>();
+		for (ColumnModel column : table.columns) {
+			if (column.generated) {
+				generatedColumns.add(column.name);
+			}
+		}
+		final Set<String> sequenceColumns = new HashSet<>();
+		for (List<String> uniqueIndex : table.uniqueIndexes) {
+			if (!Collections.disjoint(uniqueIndex, generatedColumns)
+					|| !Collections.disjoint(uniqueIndex, sequenceColumns)) {
+				// Already unique
+				continue;
+			}
+			String sequenceColumn = null;
+			for (String column : uniqueIndex) {
+				if (!foreignKeyColumns.contains(column)) {
+					sequenceColumn = column;
+					break;
+				}
+			}
+			if (null != sequenceColumn) {
+				sequenceColumns.add(sequenceColumn);
+			} else {
+				assignParentCombinations(conn, table, uniqueIndex, rows);
+			}
+		}
+		return sequenceColumns;
+	}
+
+	private void assignParentCombinations (final Connection conn, final TableModel table,
+			final List<String> uniqueIndex, final long rows) throws SQLException {
+		if (!table.combinationKeys.isEmpty()) {
+			// Only the combinations of one index are enumerated
+			return;
+		}
+		// Mixed radix: the combination number is split into a parent row of each foreign key in the index
+		long combinations = 1;
+		final List<String> combinationColumns = new ArrayList<>();
+		for (ForeignKeyModel foreignKey : table.foreignKeys) {
+			if (Collections.disjoint(uniqueIndex, foreignKey.columns) || foreignKey.isSelfReference(table)
+					|| foreignKey.parentKeys.isEmpty()) {
+				continue;
+			}
+			final long parentRows = foreignKey.parentKeys.size();
+			foreignKey.divisor = combinations;
+			table.combinationKeys.add(foreignKey);
+			combinationColumns.addAll(foreignKey.columns);
+			combinations = (combinations > Long.MAX_VALUE / parentRows) ? Long.MAX_VALUE : combinations * parentRows;
+		}
+		if (table.combinationKeys.isEmpty()) {
+			return;
+		}
+
+		// Existing combinations are skipped
+		final String sql = "SELECT " + quoteIdentifiers(combinationColumns) + " FROM " + quoteIdentifier(table.schema)
+				+ '.' + quoteIdentifier(table.name);
+		try (Statement stmt = conn.createStatement(); ResultSet existingRows = stmt.executeQuery(sql)) {
+			while (existingRows.next()) {
+				final List<Object> combination = new ArrayList<>();
+				for (int i = 0; i < combinationColumns.size(); i++) {
+					combination.add(existingRows.getObject(i + 1));
+				}
+				table.existingCombinations.add(combination);
+			}
+		}
+		if (combinations - table.existingCombinations.size() < rows) {
+			throw new IllegalStateException("Only " + (combinations - table.existingCombinations.size())
+					+ " new combinations of the parent rows for " + rows + " rows of table " + table.name
+					+ " with the unique columns " + uniqueIndex);
+		}
+	}
+
+	private long nextCombination (final TableModel table, final long firstCombination) {
+		if (table.existingCombinations.isEmpty()) {
+			return firstCombination;
+		}
+		long combination = firstCombination;
+		while (table.existingCombinations.contains(combinationKey(table, combination))) {
+			combination++;
+		}
+		return combination;
+	}
+
+	private List<Object> combinationKey (final TableModel table, final long combination) {
+		final List<Object> key = new ArrayList<>();
+		for (ForeignKeyModel foreignKey : table.combinationKeys) {
+			key.addAll(Arrays.asList(foreignKey.parentKeys.get(foreignKey.parentRow(combination))));
+		}
+		return key;
+	}
+
+	private void setForeignKeyValues (final PreparedStatement stmt, final TableModel table,
+			final ForeignKeyModel foreignKey, final Map<String, Integer> parameterIndexes, final long combination,
+			final Random random) throws SQLException {
+		final int parentRows = foreignKey.parentKeys.size();
+		if (0 == parentRows) {
+			for (String column : foreignKey.columns) {
+				stmt.setNull(parameterIndexes.get(column), table.getColumn(column).type);
+			}
+			return;
+		}
+		final int parentRow = table.combinationKeys.contains(foreignKey) ? foreignKey.parentRow(combination)
+				: random.nextInt(parentRows);
+		final Object[] parentKey = foreignKey.parentKeys.get(parentRow);
+		for (int i = 0; i < parentKey.length; i++) {
+			stmt.setObject(parameterIndexes.get(foreignKey.columns.get(i)), parentKey[i]);
+		}
+	}
+
+	private long sequenceStart (final Connection conn, final TableModel table, final ColumnModel column,
+			final Calendar calendar) throws SQLException {
+		final String sql = "SELECT " + (isString(column.type) ? "" : "MAX") + '(' + quoteIdentifier(column.name)
+				+ ") FROM " + quoteIdentifier(table.schema) + '.' + quoteIdentifier(table.name);
+		if (isNumeric(column.type)) {
+			try (Statement stmt = conn.createStatement(); ResultSet resultSet = stmt.executeQuery(sql)) {
+				resultSet.next();
+				final BigDecimal current = resultSet.getBigDecimal(1);
+				return (null == current) ? 1 : current.setScale(0, BigDecimal.ROUND_FLOOR).longValue() + 1;
+			}
+		}
+		if (isString(column.type)) {
+			// Only values that are numbers can be equal to a generated value
+			long current = 0;
+			try (Statement stmt = conn.createStatement(); ResultSet resultSet = stmt.executeQuery(sql)) {
+				while (resultSet.next()) {
+					current = Math.max(current, parseSequenceValue(resultSet.getString(1)));
+				}
+			}
+			return current + 1;
+		}
+		if (Types.DATE == column.type || Types.TIMESTAMP == column.type) {
+			final long current;
+			try (Statement stmt = conn.createStatement(); ResultSet resultSet = stmt.executeQuery(sql)) {
+				resultSet.next();
+				final Timestamp latest = resultSet.getTimestamp(1);
+				if (null == latest) {
+					return 0;
+				}
+				current = latest.getTime();
+			}
+			// The first day or second after the latest value, counted up from an estimate
+			final boolean dates = Types.DATE == column.type;
+			final long unitMillis = dates ? TimeUnit.DAYS.toMillis(1) : TimeUnit.SECONDS.toMillis(1);
+			long start = Math.max(0, (current - dateTimeMillis(calendar, 0, 0)) / unitMillis - 1);
+			while (dateTimeMillis(calendar, dates ? start : 0, dates ? 0 : start) <= current) {
+				start++;
+			}
+			return start;
+		}
+		// Not a supported type of a sequence
+		return 1;
+	}
+
+	private long parseSequenceValue (final String value) {
+		if (null == value) {
+			return 0;
+		}
+		// Trailing blanks are ignored comparing strings
+		int end = value.length();
+		while (end > 0 && ' ' == value.charAt(end - 1)) {
+			end--;
+		}
+		if (0 == end || end > MAX_SEQUENCE_DIGITS) {
+			return 0;
+		}
+		for (int i = 0; i < end; i++) {
+			if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+				return 0;
+			}
+		}
+		return Long.parseLong(value.substring(0, end));
+	}
+
+	private ValueSource createSequenceSource (final TableModel table, final ColumnModel column, final long start,
+			final long rows, final Calendar calendar) {
+		switch (column.type) {
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setLong(index, start + row);
+					}
+				};
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setBigDecimal(index, BigDecimal.valueOf(start + row));
+					}
+				};
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setDouble(index, start + row);
+					}
+				};
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.CLOB:
+				if (Long.toString(start + rows - 1).length() > column.size) {
+					throw new IllegalStateException("Unique column " + column.name + " of table " + table.name
+							+ " is too short for " + rows + " values");
+				}
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setString(index, Long.toString(start + row));
+					}
+				};
+			case Types.DATE:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setDate(index, new Date(dateTimeMillis(calendar, start + row, 0)));
+					}
+				};
+			case Types.TIMESTAMP:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setTimestamp(index, new Timestamp(dateTimeMillis(calendar, 0, start + row)));
+					}
+				};
+			default:
+				throw new IllegalStateException("Unsupported type " + column.type + " of the unique column "
+						+ column.name + " of table " + table.name);
+		}
+	}
+
+	private ValueSource createRandomSource (final TableModel table, final ColumnModel column,
+			final Calendar calendar) {
+		switch (column.type) {
+			case Types.SMALLINT:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setShort(index, (short) random.nextInt(Short.MAX_VALUE + 1));
+					}
+				};
+			case Types.INTEGER:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setInt(index, random.nextInt(Integer.MAX_VALUE));
+					}
+				};
+			case Types.BIGINT:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setLong(index, random.nextLong() >>> 1);
+					}
+				};
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				return createDecimalSource(column);
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setDouble(index, random.nextDouble() * Integer.MAX_VALUE);
+					}
+				};
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.CLOB:
+				return createStringSource(column);
+			case Types.BINARY:
+			case Types.VARBINARY:
+			case Types.LONGVARBINARY:
+			case Types.BLOB:
+				return createBinarySource(column);
+			case Types.BOOLEAN:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setBoolean(index, random.nextBoolean());
+					}
+				};
+			case Types.DATE:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setDate(index, new Date(dateTimeMillis(calendar, random.nextInt(DATE_RANGE_DAYS), 0)));
+					}
+				};
+			case Types.TIME:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setTime(index, new Time(timeMillis(calendar, random.nextInt(SECONDS_PER_DAY))));
+					}
+				};
+			case Types.TIMESTAMP:
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setTimestamp(index, new Timestamp(dateTimeMillis(calendar, random.nextInt(DATE_RANGE_DAYS),
+								random.nextInt(SECONDS_PER_DAY))));
+					}
+				};
+			default:
+				if (!column.nullable) {
+					throw new IllegalStateException("Unsupported type " + column.type + " of the column " + column.name
+							+ " of table " + table.name);
+				}
+				return new ValueSource() {
+					@Override
+					void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+							throws SQLException {
+						stmt.setNull(index, column.type);
+					}
+				};
+		}
+	}
+
+	private ValueSource createDecimalSource (final ColumnModel column) {
+		final long unscaledBound = (column.size >= 18) ? MAX_UNSCALED_DECIMAL
+				: BigInteger.TEN.pow(column.size).longValue();
+		return new ValueSource() {
+			@Override
+			void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+					throws SQLException {
+				final long unscaled = (random.nextLong() >>> 1) % unscaledBound;
+				stmt.setBigDecimal(index, BigDecimal.valueOf(unscaled, column.scale));
+			}
+		};
+	}
+
+	private ValueSource createStringSource (final ColumnModel column) {
+		final int maxLength = Math.max(1, Math.min(column.size, MAX_STRING_LENGTH));
+		return new ValueSource() {
+			@Override
+			void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+					throws SQLException {
+				final char[] value = new char[1 + random.nextInt(maxLength)];
+				for (int i = 0; i < value.length; i++) {
+					value[i] = (char) ('a' + random.nextInt(26));
+				}
+				stmt.setString(index, new String(value));
+			}
+		};
+	}
+
+	private ValueSource createBinarySource (final ColumnModel column) {
+		final int maxLength = Math.max(1, Math.min(column.size, MAX_BINARY_LENGTH));
+		// Fixed length types are padded by the database
+		final boolean fixedLength = Types.BINARY == column.type;
+		return new ValueSource() {
+			@Override
+			void setValue (final PreparedStatement stmt, final int index, final long row, final Random random)
+					throws SQLException {
+				final byte[] value = new byte[fixedLength ? maxLength : 1 + random.nextInt(maxLength)];
+				random.nextBytes(value);
+				stmt.setBytes(index, value);
+			}
+		};
+	}
+
+	/**
+	 * The days and seconds after the start of the base year, in the default time zone; so the same values are
+	 * generated in all time zones.
+	 */
+	private long dateTimeMillis (final Calendar calendar, final long days, final long seconds) {
+		calendar.clear();
+		calendar.set(BASE_YEAR, Calendar.JANUARY, 1);
+		calendar.add(Calendar.DAY_OF_MONTH, (int) days);
+		calendar.add(Calendar.SECOND, (int) seconds);
+		return calendar.getTimeInMillis();
+	}
+
+	private long timeMillis (final Calendar calendar, final int seconds) {
+		calendar.clear();
+		calendar.add(Calendar.SECOND, seconds);
+		return calendar.getTimeInMillis();
+	}
+
+	private boolean isNumeric (final int type) {
+		switch (type) {
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private boolean isString (final int type) {
+		switch (type) {
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.LONGVARCHAR:
+			case Types.CLOB:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private boolean isNullable (final TableModel table, final List<String> columnNames) {
+		for (ColumnModel column : table.columns) {
+			if (columnNames.contains(column.name) && !column.nullable) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String buildInsertSql (final TableModel table, final List<ColumnModel> insertColumns) {
+		final List<String> columnNames = new ArrayList<>();
+		final StringBuilder parameters = new StringBuilder();
+		for (ColumnModel column : insertColumns) {
+			columnNames.add(column.name);
+			parameters.append((parameters.length() > 0) ? ", ?" : "?");
+		}
+		return "INSERT INTO " + quoteIdentifier(table.schema) + '.' + quoteIdentifier(table.name) + " ("
+				+ quoteIdentifiers(columnNames) + ") VALUES (" + parameters + ')';
+	}
+
+	private String quoteIdentifiers (final List<String> identifiers) {
+		final StringBuilder quoted = new StringBuilder();
+		for (String identifier : identifiers) {
+			if (quoted.length() > 0) {
+				quoted.append(", ");
+			}
+			quoted.append(quoteIdentifier(identifier));
+		}
+		return quoted.toString();
+	}
+
+	private String quoteIdentifier (final String identifier) {
+		return '"' + identifier.replace("\"", "\"\"") + '"';
+	}
+
+	private void rollbackQuietly (final Connection conn) {
+		try {
+			conn.rollback();
+		} catch (SQLException e) {
+			// Ignore, the generation already failed
+			log.catching(Level.TRACE, e);
+		}
+	}
+
+	private static double rowsPerSecond (final long rows, final long nanos) {
+		return (0 == nanos) ? 0 : rows * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+	}
+
+	/**
+	 * The rows generated into each table, and the time taken.
+	 */
+	public static final class Result {
+
+		private final Map<String, Long> tableRows = new LinkedHashMap<>();
+		private long totalRows;
+		private long elapsedNanos;
+
+		private Result () {
+			// Created by the generator
+		}
+
+		private void add (final String tableName, final long rows, final long nanos) {
+			tableRows.put(tableName, rows);
+			totalRows += rows;
+			elapsedNanos += nanos;
+		}
+
+		/**
+		 * @return The tables, in the order the rows were generated
+		 */
+		public List<String> getTables () {
+			return Collections.unmodifiableList(new ArrayList<>(tableRows.keySet()));
+		}
+
+		/**
+		 * The number of rows generated into the table.
+		 * 
+		 * @param tableName The table name
+		 * @return The number of rows; <code>0</code> for tables not generated
+		 */
+		public long getRows (final String tableName) {
+			final Long rows = tableRows.get(tableName);
+			return (null == rows) ? 0 : rows;
+		}
+
+		/**
+		 * @return The number of rows generated into all the tables
+		 */
+		public long getTotalRows () {
+			return totalRows;
+		}
+
+		/**
+		 * @return The time taken to generate the rows, in nanoseconds
+		 */
+		public long getElapsedNanos () {
+			return elapsedNanos;
+		}
+
+		/**
+		 * @return The rows generated per second
+		 */
+		public double getRowsPerSecond () {
+			return rowsPerSecond(totalRows, elapsedNanos);
+		}
+	}
+
+	/**
+	 * Sets the value of a column in the insert statement.
+	 */
+	private abstract static class ValueSource {
+
+		abstract void setValue (PreparedStatement stmt, int index, long row, Random random) throws SQLException;
+	}
+
+	/**
+	 * A column of a table, from the metadata.
+	 */
+	private static final class ColumnModel {
+
+		private final String name;
+		private final int type;
+		private final int size;
+		private final int scale;
+		private final boolean nullable;
+		private final boolean generated;
+
+		private ColumnModel (final String name, final int type, final int size, final int scale,
+				final boolean nullable, final boolean generated) {
+			this.name = name;
+			this.type = type;
+			this.size = size;
+			this.scale = scale;
+			this.nullable = nullable;
+			this.generated = generated;
+		}
+	}
+
+	/**
+	 * A foreign key of a table, from the metadata, and the keys of the parent rows.
+	 */
+	private static final class ForeignKeyModel {
+
+		private final String name;
+		private final String parentSchema;
+		private final String parentTable;
+		private final List<String> parentColumns = new ArrayList<>();
+		private final List<String> columns = new ArrayList<>();
+		private final List<Object[]> parentKeys = new ArrayList<>();
+		private long divisor = 1;
+
+		private ForeignKeyModel (final String name, final String parentSchema, final String parentTable) {
+			this.name = name;
+			this.parentSchema = parentSchema;
+			this.parentTable = parentTable;
+		}
+
+		/**
+		 * @return The parent row of the combination of parent rows, for a foreign key of a unique index
+		 */
+		private int parentRow (final long combination) {
+			return (int) ((combination / divisor) % parentKeys.size());
+		}
+
+		private boolean isSelfReference (final TableModel table) {
+			return table.schema.equals(parentSchema) && table.name.equals(parentTable);
+		}
+	}
+
+	/**
+	 * A table, from the metadata.
+	 */
+	private static final class TableModel {
+
+		private final String schema;
+		private final String name;
+		private final List<ColumnModel> columns = new ArrayList<>();
+		private final List<List<String>> uniqueIndexes = new ArrayList<>();
+		private final List<ForeignKeyModel> foreignKeys = new ArrayList<>();
+		private final List<ForeignKeyModel> combinationKeys = new ArrayList<>();
+		private final Set<List<Object>> existingCombinations = new HashSet<>();
+
+		private TableModel (final String schema, final String name) {
+			this.schema = schema;
+			this.name = name;
+		}
+
+		private ColumnModel getColumn (final String columnName) {
+			for (ColumnModel column : columns) {
+				if (column.name.equals(columnName)) {
+					return column;
+				}
+			}
+			throw new IllegalStateException("Column " + columnName + " not found in table " + name);
+		}
+	}
+}
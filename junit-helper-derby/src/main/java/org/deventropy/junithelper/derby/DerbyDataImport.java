@@ -0,0 +1,341 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deventropy.shared.utils.ArgumentCheck;
+import org.deventropy.shared.utils.UrlResourceUtil;
+
+/**
+ * A bulk data load step executed by the {@link EmbeddedDerbyResource} after the post init scripts, see
+ * {@link DerbyResourceConfig#addPostInitDataImport(DerbyDataImport)}. Data is loaded from a delimited (for example
+ * CSV) resource using the Derby <code>SYSCS_UTIL.SYSCS_IMPORT_DATA</code> system procedure, which is much faster
+ * than executing <code>INSERT</code> statements; importing into an empty table does not log the individual rows.
+ * 
+ * <p>This class provides a fluid interface to configure the import. Example usage:
+ * 
+ * <pre>
+ * new DerbyDataImport("PEOPLE", "classpath:/org/example/people.csv").useColumns("PERSON", "EMAIL")
+ * 		.useSkipHeaderLines(1);
+ * </pre>
+ * 
+ * <p>The data resource should be in a format supported by {@link UrlResourceUtil}. Resources in the file system
+ * (including resources on the classpath in a directory) are imported in place; other resources (for example resources
+ * in jar files), and resources with {@link #useSkipHeaderLines(int) header lines} to skip, are copied to a temporary
+ * file for the import.
+ * 
+ * @author Bindul Bhowmik
+ * @see <a href="http://db.apache.org/derby/docs/10.12/ref/rref_importdata.html">SYSCS_UTIL.SYSCS_IMPORT_DATA</a>
+ */
+public class DerbyDataImport {
+
+	private static final String IMPORT_SQL = "CALL SYSCS_UTIL.SYSCS_IMPORT_DATA (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	private static final String FILE_PROTOCOL = "file";
+
+	private final Logger log = LogManager.getLogger();
+
+	private final String tableName;
+	private final String dataResource;
+	private String schemaName;
+	private String[] columns;
+	private int[] columnIndexes;
+	private String charset;
+	private Character columnDelimiter;
+	private Character characterDelimiter;
+	private int skipHeaderLines;
+	private boolean replace;
+
+	/**
+	 * Creates an import of all columns of the data resource into the table, using the Derby defaults for other
+	 * options.
+	 * 
+	 * @param tableName The table to import the data into
+	 * @param dataResource The delimited data resource; should be in a format compatible with
+	 * {@linkplain UrlResourceUtil}
+	 */
+	public DerbyDataImport (final String tableName, final String dataResource) {
+		ArgumentCheck.notNullOrEmpty(tableName, "Table name");
+		ArgumentCheck.notNullOrEmpty(dataResource, "Data resource");
+		this.tableName = tableName;
+		this.dataResource = dataResource;
+	}
+
+	/**
+	 * Sets the schema of the table; the default schema of the connection is used if not set.
+	 * 
+	 * @param schema The schema name
+	 * @return This instance
+	 */
+	public DerbyDataImport useSchema (final String schema) {
+		ArgumentCheck.notNullOrEmpty(schema, "Schema name");
+		this.schemaName = schema;
+		return this;
+	}
+
+	/**
+	 * Sets the table columns to import the data into; all columns of the table are used if not set.
+	 * 
+	 * @param insertColumns The table columns, in the order of the data columns (or the column indexes)
+	 * @return This instance
+	 */
+	public DerbyDataImport useColumns (final String... insertColumns) {
+		ArgumentCheck.notNull(insertColumns, "Columns");
+		this.columns = insertColumns.clone();
+		return this;
+	}
+
+	/**
+	 * Sets the (1 based) indexes of the data columns to import, mapped to the {@link #useColumns(String...) table
+	 * columns} in order; all data columns are imported if not set.
+	 * 
+	 * @param dataColumnIndexes The data column indexes
+	 * @return This instance
+	 */
+	public DerbyDataImport useColumnIndexes (final int... dataColumnIndexes) {
+		ArgumentCheck.notNull(dataColumnIndexes, "Column indexes");
+		this.columnIndexes = dataColumnIndexes.clone();
+		return this;
+	}
+
+	/**
+	 * Sets the character set of the data resource; the system default is used if not set.
+	 * 
+	 * @param dataCharset The character set name
+	 * @return This instance
+	 */
+	public DerbyDataImport useCharset (final String dataCharset) {
+		ArgumentCheck.notNullOrEmpty(dataCharset, "Charset");
+		this.charset = dataCharset;
+		return this;
+	}
+
+	/**
+	 * Sets the column delimiter; a comma (<code>,</code>) if not set.
+	 * 
+	 * @param delimiter The column delimiter
+	 * @return This instance
+	 */
+	public DerbyDataImport useColumnDelimiter (final char delimiter) {
+		this.columnDelimiter = delimiter;
+		return this;
+	}
+
+	/**
+	 * Sets the character (string) delimiter; a double quote (<code>"</code>) if not set.
+	 * 
+	 * @param delimiter The character delimiter
+	 * @return This instance
+	 */
+	public DerbyDataImport useCharacterDelimiter (final char delimiter) {
+		this.characterDelimiter = delimiter;
+		return this;
+	}
+
+	/**
+	 * Sets the number of header lines at the start of the data resource to skip; none if not set.
+	 * 
+	 * @param headerLines The number of header lines
+	 * @return This instance
+	 */
+	public DerbyDataImport useSkipHeaderLines (final int headerLines) {
+		if (headerLines < 0) {
+			throw new IllegalArgumentException("Header lines can not be negative");
+		}
+		this.skipHeaderLines = headerLines;
+		return this;
+	}
+
+	/**
+	 * Replaces the existing data in the table with the imported data; by default the data is added to the table.
+	 * 
+	 * @return This instance
+	 */
+	public DerbyDataImport useReplace () {
+		this.replace = true;
+		return this;
+	}
+
+	/**
+	 * @return The table to import the data into
+	 */
+	public String getTableName () {
+		return tableName;
+	}
+
+	/**
+	 * @return The delimited data resource
+	 */
+	public String getDataResource () {
+		return dataResource;
+	}
+
+	/**
+	 * Describes the import options (other than the data); used with the data to fingerprint the configuration for the
+	 * template database cache.
+	 */
+	String describeOptions () {
+		return new StringBuilder().append(schemaName).append('|').append(tableName).append('|')
+				.append(Arrays.toString(columns)).append('|').append(Arrays.toString(columnIndexes)).append('|')
+				.append(charset).append('|').append(columnDelimiter).append('|').append(characterDelimiter).append('|')
+				.append(skipHeaderLines).append('|').append(replace).toString();
+	}
+
+	/**
+	 * Executes the import on the connection.
+	 * 
+	 * @param conn The connection to the database
+	 * @param stagingDirectory Directory to copy the data resource to, if it is not in the file system
+	 * @throws IOException Error reading or staging the data resource
+	 * @throws SQLException Error importing the data
+	 */
+	void execute (final Connection conn, final File stagingDirectory) throws IOException, SQLException {
+		final URL dataUrl = UrlResourceUtil.getUrl(dataResource);
+		File dataFile = FILE_PROTOCOL.equals(dataUrl.getProtocol()) ? FileUtils.toFile(dataUrl) : null;
+		File stagedFile = null;
+		// The import procedure can not skip header lines, they are removed from a staged copy of the data
+		if (null == dataFile || skipHeaderLines > 0) {
+			stagedFile = File.createTempFile("import-", ".dat", stagingDirectory);
+			stageResource(dataUrl, stagedFile);
+			dataFile = stagedFile;
+		}
+
+		log.debug("Importing {} into {}", dataResource, tableName);
+		CallableStatement stmt = null;
+		try {
+			stmt = conn.prepareCall(IMPORT_SQL);
+			setNullableString(stmt, 1, schemaName);
+			stmt.setString(2, tableName);
+			setNullableString(stmt, 3, join(columns));
+			setNullableString(stmt, 4, join(columnIndexes));
+			stmt.setString(5, dataFile.getAbsolutePath());
+			setNullableString(stmt, 6, (null == columnDelimiter) ? null : columnDelimiter.toString());
+			setNullableString(stmt, 7, (null == characterDelimiter) ? null : characterDelimiter.toString());
+			setNullableString(stmt, 8, charset);
+			stmt.setShort(9, replace ? (short) 1 : (short) 0);
+			stmt.execute();
+		} catch (SQLException e) {
+			log.warn("Error importing {} into {}", dataResource, tableName);
+			throw e;
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+			if (null != stagedFile) {
+				FileUtils.deleteQuietly(stagedFile);
+			}
+		}
+	}
+
+	private void stageResource (final URL dataUrl, final File stagedFile) throws IOException {
+		InputStream dataStream = null;
+		try {
+			dataStream = dataUrl.openStream();
+			if (skipHeaderLines == 0) {
+				FileUtils.copyInputStreamToFile(dataStream, stagedFile);
+			} else {
+				stageDataLines(dataStream, stagedFile);
+			}
+		} finally {
+			IOUtils.closeQuietly(dataStream);
+		}
+	}
+
+	private void stageDataLines (final InputStream dataStream, final File stagedFile) throws IOException {
+		final Charset dataCharset = Charsets.toCharset(charset);
+		final Reader dataReader = new BufferedReader(new InputStreamReader(dataStream, dataCharset));
+		for (int i = 0; i < skipHeaderLines; i++) {
+			skipLine(dataReader);
+		}
+		// The rest of the data is copied unchanged, keeping line breaks in quoted values as they are
+		Writer stagedWriter = null;
+		try {
+			stagedWriter = new OutputStreamWriter(new FileOutputStream(stagedFile), dataCharset);
+			IOUtils.copy(dataReader, stagedWriter);
+		} finally {
+			IOUtils.closeQuietly(stagedWriter);
+		}
+	}
+
+	private void skipLine (final Reader dataReader) throws IOException {
+		int dataChar = dataReader.read();
+		while (dataChar != -1 && dataChar != '\n' && dataChar != '\r') {
+			dataChar = dataReader.read();
+		}
+		if (dataChar == '\r') {
+			// A \r\n line break
+			dataReader.mark(1);
+			if (dataReader.read() != '\n') {
+				dataReader.reset();
+			}
+		}
+	}
+
+	private void setNullableString (final CallableStatement stmt, final int index, final String value)
+			throws SQLException {
+		if (null == value) {
+			stmt.setNull(index, Types.VARCHAR);
+		} else {
+			stmt.setString(index, value);
+		}
+	}
+
+	private String join (final String[] values) {
+		if (null == values) {
+			return null;
+		}
+		final StringBuilder joined = new StringBuilder();
+		for (String value : values) {
+			if (joined.length() > 0) {
+				joined.append(',');
+			}
+			joined.append(value);
+		}
+		return joined.toString();
+	}
+
+	private String join (final int[] values) {
+		if (null == values) {
+			return null;
+		}
+		final StringBuilder joined = new StringBuilder();
+		for (int value : values) {
+			if (joined.length() > 0) {
+				joined.append(',');
+			}
+			joined.append(value);
+		}
+		return joined.toString();
+	}
+}
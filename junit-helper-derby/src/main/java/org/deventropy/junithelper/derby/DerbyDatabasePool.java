@@ -0,0 +1,222 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * JVM wide pool of prewarmed in memory databases, used by the {@link EmbeddedDerbyResource} with
+ * {@link DerbyResourceConfig#usePrewarmedDatabases(int) prewarmed databases} to take creating the database off the
+ * start of the resource. The databases are created from a {@link DerbyTemplateCache template database} (so the post
+ * init scripts are already executed), on the {@link DerbyBackgroundExecutor} while the tests run.
+ * 
+ * <p>There is a pool for each template; a database is claimed from it when a resource starts, and the pool is topped
+ * up in the background to the number of ready databases requested. Databases are dropped in the background when
+ * released. Ready databases are checked when claimed, in case they were dropped since they were created.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class DerbyDatabasePool {
+
+	private static final DerbyDatabasePool INSTANCE = new DerbyDatabasePool();
+
+	private static final String DATABASE_NAME_PREFIX = "prewarmed-";
+	private static final String URLPROP_DERBY_CREATE_FROM = ";createFrom=";
+	private static final String URLPROP_DERBY_DROP = ";drop=true";
+
+	private final Logger log = LogManager.getLogger();
+
+	private final ConcurrentMap<String, TemplatePool> pools = new ConcurrentHashMap<>();
+	private final AtomicLong databaseCount = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	private DerbyDatabasePool () {
+		// Singleton
+	}
+
+	/**
+	 * Returns the JVM wide database pool.
+	 * 
+	 * @return The database pool
+	 */
+	static DerbyDatabasePool getInstance () {
+		return INSTANCE;
+	}
+
+	/**
+	 * Claims a database created from the template; a ready database if there is one, or a database created now
+	 * otherwise. The pool is then topped up in the background.
+	 * 
+	 * @param templateDatabase The template database (backup directory) the databases are created from
+	 * @param depth The number of ready databases to keep in the pool
+	 * @return The JDBC URL of the claimed database
+	 * @throws SQLException Error creating the database
+	 */
+	String claim (final File templateDatabase, final int depth) throws SQLException {
+		final TemplatePool pool = getPool(templateDatabase);
+		String databaseUrl;
+		while (null != (databaseUrl = pool.poll())) {
+			if (isAvailable(databaseUrl)) {
+				hitCount.incrementAndGet();
+				log.debug("Claimed prewarmed database {}", databaseUrl);
+				break;
+			}
+		}
+		if (null == databaseUrl) {
+			missCount.incrementAndGet();
+			databaseUrl = newDatabaseUrl(templateDatabase);
+			createDatabase(databaseUrl, templateDatabase);
+		}
+		topUp(pool, templateDatabase, depth);
+		return databaseUrl;
+	}
+
+	/**
+	 * Releases a claimed database, which is dropped in the background.
+	 * 
+	 * @param databaseUrl The JDBC URL of the database
+	 */
+	void release (final String databaseUrl) {
+		DerbyBackgroundExecutor.getInstance().submit("Drop " + databaseUrl, new Runnable() {
+			@Override
+			public void run () {
+				dropQuietly(databaseUrl);
+			}
+		});
+	}
+
+	private TemplatePool getPool (final File templateDatabase) {
+		final String templateKey = templateDatabase.getAbsolutePath();
+		final TemplatePool newPool = new TemplatePool();
+		final TemplatePool existingPool = pools.putIfAbsent(templateKey, newPool);
+		return (null == existingPool) ? newPool : existingPool;
+	}
+
+	private void topUp (final TemplatePool pool, final File templateDatabase, final int depth) {
+		while (pool.reserve(depth)) {
+			final String databaseUrl = newDatabaseUrl(templateDatabase);
+			DerbyBackgroundExecutor.getInstance().submit("Prewarm " + databaseUrl, new Runnable() {
+				@Override
+				public void run () {
+					try {
+						createDatabase(databaseUrl, templateDatabase);
+						pool.add(databaseUrl);
+					} catch (SQLException e) {
+						// Created when claimed instead
+						log.debug("Error prewarming database {}", databaseUrl, e);
+						pool.cancelReservation();
+					}
+				}
+			});
+		}
+	}
+
+	private String newDatabaseUrl (final File templateDatabase) {
+		// Absolute, so independent of the derby.system.home; in memory databases are not written to the path
+		final File database = new File(templateDatabase.getParentFile(),
+				DATABASE_NAME_PREFIX + databaseCount.incrementAndGet());
+		return JdbcDerbySubSubProtocol.Memory.jdbcConnectionPrefix() + database.getAbsolutePath();
+	}
+
+	private void createDatabase (final String databaseUrl, final File templateDatabase) throws SQLException {
+		final Connection conn = DriverManager.getConnection(databaseUrl + URLPROP_DERBY_CREATE_FROM
+				+ templateDatabase.getAbsolutePath());
+		DerbyUtils.closeQuietly(conn);
+	}
+
+	private boolean isAvailable (final String databaseUrl) {
+		Connection conn = null;
+		try {
+			conn = DriverManager.getConnection(databaseUrl);
+			return true;
+		} catch (SQLException e) {
+			// Dropped outside the pool, or the Derby system could not be booted
+			log.catching(Level.TRACE, e);
+			return false;
+		} finally {
+			DerbyUtils.closeQuietly(conn);
+		}
+	}
+
+	private void dropQuietly (final String databaseUrl) {
+		Connection conn = null;
+		try {
+			conn = DriverManager.getConnection(databaseUrl + URLPROP_DERBY_DROP);
+		} catch (SQLException e) {
+			// Ignore - there will always be an exception
+			log.catching(Level.TRACE, e);
+		} finally {
+			DerbyUtils.closeQuietly(conn);
+		}
+	}
+
+	/**
+	 * @return The number of claims of a ready database
+	 */
+	long getHitCount () {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return The number of claims that had to create the database
+	 */
+	long getMissCount () {
+		return missCount.get();
+	}
+
+	/**
+	 * The ready databases of a template, and the number being created.
+	 */
+	private static final class TemplatePool {
+
+		private final Deque<String> readyDatabases = new ArrayDeque<>();
+		private int pendingDatabases;
+
+		private synchronized String poll () {
+			return readyDatabases.pollFirst();
+		}
+
+		private synchronized void add (final String databaseUrl) {
+			pendingDatabases--;
+			readyDatabases.addLast(databaseUrl);
+		}
+
+		private synchronized boolean reserve (final int depth) {
+			if (readyDatabases.size() + pendingDatabases >= depth) {
+				return false;
+			}
+			pendingDatabases++;
+			return true;
+		}
+
+		private synchronized void cancelReservation () {
+			pendingDatabases--;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deventropy.shared.utils.ArgumentCheck;
+import org.deventropy.shared.utils.DirectoryArchiverUtil;
+
+/**
+ * Builds a read only database in a jar file, for the {@link JdbcDerbySubSubProtocol#Jar} sub sub protocol, from a list
+ * of scripts (and data imports). Read only jar databases boot without being created, so tests on reference data can
+ * share one database built once.
+ * 
+ * <p>The database is created in a directory, the scripts and data imports are run on it, and it is shut down cleanly
+ * (so it can be booted read only without recovery) and archived to a jar named after the database and a fingerprint
+ * of the scripts, data imports and the Derby version. A jar with the same name is reused as is, so the database is
+ * only built again when the scripts change. The jar is written to a temporary file and renamed, so other JVMs (for
+ * example forked test runners) see either no jar or a complete one.
+ * 
+ * <p>Example of usage:
+ * <pre>
+ * final DerbyJarDatabaseBuilder referenceDb = new DerbyJarDatabaseBuilder("reference-db")
+ * 	.addScript("classpath:/org/example/ddl.sql").addScript("classpath:/org/example/reference-data.sql");
+ * 
+ * // Builds the jar (if needed) when the resource is started
+ * final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(
+ * 	DerbyResourceConfig.buildDefault().useJarSubSubProtocol(referenceDb, "target/derby-jars"), tempFolder);
+ * </pre>
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class DerbyJarDatabaseBuilder {
+
+	private static final int JAR_NAME_FINGERPRINT_LENGTH = 16;
+
+	private final Logger log = LogManager.getLogger();
+
+	private final String databasePath;
+	private final List<String> scripts = new ArrayList<>();
+	private final List<DerbyDataImport> dataImports = new ArrayList<>();
+	private ScriptExecutionEngine scriptExecutionEngine = DerbyResourceConfig.getDefaultScriptExecutionEngine();
+
+	/**
+	 * Creates a builder for a jar database.
+	 * 
+	 * @param databasePath The path of the database in the jar; the last segment of the path is used in the jar name
+	 */
+	public DerbyJarDatabaseBuilder (final String databasePath) {
+		ArgumentCheck.notNullOrEmpty(databasePath, "Database path");
+		this.databasePath = databasePath;
+	}
+
+	/**
+	 * Adds a script to run on the database, in the format of the
+	 * {@link DerbyResourceConfig#addPostInitScript(String) post init scripts}.
+	 * 
+	 * @param script The script resource
+	 * @return This instance
+	 */
+	public DerbyJarDatabaseBuilder addScript (final String script) {
+		ArgumentCheck.notNullOrEmpty(script, "Script");
+		scripts.add(script);
+		return this;
+	}
+
+	/**
+	 * Adds a data import to run on the database after the scripts.
+	 * 
+	 * @param dataImport The data import
+	 * @return This instance
+	 */
+	public DerbyJarDatabaseBuilder addDataImport (final DerbyDataImport dataImport) {
+		ArgumentCheck.notNull(dataImport, "Data import");
+		dataImports.add(dataImport);
+		return this;
+	}
+
+	/**
+	 * Sets the engine used to execute the scripts.
+	 * 
+	 * @param engine The script execution engine
+	 * @return This instance
+	 * @see DerbyResourceConfig#useScriptExecutionEngine(ScriptExecutionEngine)
+	 */
+	public DerbyJarDatabaseBuilder useScriptExecutionEngine (final ScriptExecutionEngine engine) {
+		ArgumentCheck.notNull(engine, "Script execution engine");
+		this.scriptExecutionEngine = engine;
+		return this;
+	}
+
+	/**
+	 * @return The path of the database in the jar
+	 */
+	public String getDatabasePath () {
+		return databasePath;
+	}
+
+	/**
+	 * Returns the jar file the database is built in; the name includes a fingerprint of the scripts and data imports.
+	 * 
+	 * @param jarDirectory The directory of the jar
+	 * @return The jar file, which may not have been built yet
+	 * @throws IOException Error reading the scripts or data to fingerprint them
+	 */
+	public File getJarFile (final File jarDirectory) throws IOException {
+		ArgumentCheck.notNull(jarDirectory, "Jar directory");
+		final String fingerprint = DerbyTemplateCache.fingerprint(createBuildConfig(), databasePath);
+		return new File(jarDirectory, new File(databasePath).getName() + "-"
+				+ fingerprint.substring(0, JAR_NAME_FINGERPRINT_LENGTH) + ".jar");
+	}
+
+	/**
+	 * Builds the jar database in the directory, unless a jar built from the same scripts and data imports exists.
+	 * 
+	 * @param jarDirectory The directory to build the jar in; created if it does not exist
+	 * @return The jar file
+	 * @throws IOException Error running the scripts or writing the jar
+	 * @throws SQLException Error creating the database
+	 */
+	public File build (final File jarDirectory) throws IOException, SQLException {
+		final File jarFile = getJarFile(jarDirectory);
+		if (jarFile.isFile()) {
+			log.debug("Reusing jar database {}", jarFile);
+			return jarFile;
+		}
+
+		FileUtils.forceMkdir(jarDirectory);
+		final File buildDirectory = Files.createTempDirectory(jarDirectory.toPath(), jarFile.getName() + "-").toFile();
+		final File buildJarFile = new File(buildDirectory, jarFile.getName());
+		try {
+			// Parallel safe, so it can be built while other resources are running in the JVM
+			final EmbeddedDerbyResource buildResource = new EmbeddedDerbyResource(createBuildConfig(), buildDirectory);
+			try {
+				buildResource.start();
+			} finally {
+				// A clean shutdown, so the read only database does not need recovery; and a failed database is not
+				// left booted when its directory is deleted
+				buildResource.close();
+			}
+
+			DirectoryArchiverUtil.createJarArchiveOfDirectory(buildJarFile.getAbsolutePath(),
+					new File(buildDirectory, databasePath), databasePath);
+			moveIntoPlace(buildJarFile, jarFile);
+			log.info("Built jar database {}", jarFile);
+		} finally {
+			FileUtils.deleteQuietly(buildDirectory);
+		}
+		return jarFile;
+	}
+
+	private void moveIntoPlace (final File buildJarFile, final File jarFile) throws IOException {
+		try {
+			Files.move(buildJarFile.toPath(), jarFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			try {
+				Files.move(buildJarFile.toPath(), jarFile.toPath());
+			} catch (FileAlreadyExistsException e2) {
+				// Built by someone else in the meanwhile, from the same scripts
+				log.debug("Jar database {} built concurrently", jarFile);
+			}
+		} catch (FileAlreadyExistsException e) {
+			// Built by someone else in the meanwhile, from the same scripts
+			log.debug("Jar database {} built concurrently", jarFile);
+		}
+	}
+
+	private DerbyResourceConfig createBuildConfig () {
+		final DerbyResourceConfig buildConfig = DerbyResourceConfig.buildDefault().useDatabaseInDirectory(databasePath)
+				.useParallelSafeMode().useScriptExecutionEngine(scriptExecutionEngine);
+		for (String script : scripts) {
+			buildConfig.addPostInitScript(script);
+		}
+		for (DerbyDataImport dataImport : dataImports) {
+			buildConfig.addPostInitDataImport(dataImport);
+		}
+		return buildConfig;
+	}
+}
@@ -0,0 +1,166 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.derby.drda.NetworkServerControl;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A Derby Network Server started in the JVM of the tests, on a free port of the loopback interface, serving the
+ * databases of the running Derby system to the Derby client driver. The server is started with
+ * {@link NetworkServerControl}; it does not shut down the Derby system when it is shut down, as the system is booted
+ * (and shut down) by the embedded driver.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class DerbyNetworkServer {
+
+	/**
+	 * The name of the server log file, in the Derby system home.
+	 */
+	static final String LOG_FILE_NAME = "derby-network-server.log";
+
+	private static final int START_ATTEMPTS = 3;
+	private static final long START_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+	private static final long PING_INTERVAL_MILLIS = 20;
+
+	private final Logger log = LogManager.getLogger();
+
+	private final InetAddress address = InetAddress.getLoopbackAddress();
+	private final int maxThreads;
+	private NetworkServerControl serverControl;
+	private PrintWriter serverLog;
+	private int port;
+
+	/**
+	 * Creates a network server, not started yet.
+	 * 
+	 * @param maxThreads The maximum number of connection threads of the server; <code>0</code> for no limit
+	 */
+	DerbyNetworkServer (final int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Starts the server on a free port, and waits for it to accept connections. The port is picked before the server
+	 * binds to it, so another process may take it in the meanwhile; the server is started again on another port if it
+	 * does not come up.
+	 * 
+	 * @param logDirectory The directory to write the server log to
+	 * @throws IOException Error starting the server
+	 */
+	void start (final File logDirectory) throws IOException {
+		serverLog = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(new File(logDirectory, LOG_FILE_NAME), true), StandardCharsets.UTF_8), true);
+		Exception lastFailure = null;
+		for (int attempt = 0; attempt < START_ATTEMPTS; attempt++) {
+			try {
+				port = findFreePort();
+				serverControl = new NetworkServerControl(address, port);
+				serverControl.start(serverLog);
+				waitForServer();
+				if (maxThreads > 0) {
+					serverControl.setMaxThreads(maxThreads);
+				}
+				log.debug("Derby network server started on {}:{}", address.getHostAddress(), port);
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				shutdown();
+				throw new IOException("Interrupted starting the Derby network server", e);
+			} catch (Exception e) {
+				log.catching(Level.DEBUG, e);
+				lastFailure = e;
+				shutdownServer();
+			}
+		}
+		IOUtils.closeQuietly(serverLog);
+		serverLog = null;
+		throw new IOException("Unable to start the Derby network server, see " + LOG_FILE_NAME + " for details",
+				lastFailure);
+	}
+
+	private int findFreePort () throws IOException {
+		try (ServerSocket socket = new ServerSocket(0, 1, address)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private void waitForServer () throws Exception {
+		final long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+		while (true) {
+			try {
+				serverControl.ping();
+				return;
+			} catch (Exception e) {
+				if (System.currentTimeMillis() > deadline) {
+					throw e;
+				}
+				Thread.sleep(PING_INTERVAL_MILLIS);
+			}
+		}
+	}
+
+	/**
+	 * @return The port the server is listening on
+	 */
+	int getPort () {
+		return port;
+	}
+
+	/**
+	 * @return The host name of the server, for client JDBC URLs
+	 */
+	String getHost () {
+		return address.getHostAddress();
+	}
+
+	/**
+	 * Shuts down the server, and closes its log; errors are logged and ignored.
+	 */
+	void shutdown () {
+		shutdownServer();
+		IOUtils.closeQuietly(serverLog);
+		serverLog = null;
+	}
+
+	private void shutdownServer () {
+		if (null == serverControl) {
+			return;
+		}
+		try {
+			serverControl.shutdown();
+		} catch (Exception e) {
+			// Ignore - the server may not have started
+			log.catching(Level.TRACE, e);
+		} finally {
+			serverControl = null;
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.PrintWriter;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Captures query plans using the Derby XPLAIN tables, and reads the captured plans.
+ * 
+ * <p>Capture is enabled per connection, by turning on the runtime statistics and setting the XPLAIN schema; the plan of
+ * every statement executed on the connection is then written to the XPLAIN tables in the transaction of the statement.
+ * The captured plans are read at the <code>READ UNCOMMITTED</code> isolation level, so plans of statements in open
+ * transactions (such as the {@link TransactionalConnectionResource test transaction}) are visible, and the reads do not
+ * wait for the transactions to end.
+ * 
+ * @author Bindul Bhowmik
+ * @see <a href="http://db.apache.org/derby/docs/10.12/ref/rrefsyscsset_xplain_schema.html">
+ * 		SYSCS_UTIL.SYSCS_SET_XPLAIN_SCHEMA</a>
+ */
+final class DerbyQueryPlans {
+
+	/**
+	 * The schema the XPLAIN tables are created in.
+	 */
+	static final String XPLAIN_SCHEMA = "JUNIT_HELPER_XPLAIN";
+
+	private static final String[] XPLAIN_TABLES = {"SYSXPLAIN_STATEMENTS", "SYSXPLAIN_RESULTSETS",
+		"SYSXPLAIN_SCAN_PROPS", "SYSXPLAIN_SORT_PROPS", "SYSXPLAIN_STATEMENT_TIMINGS", "SYSXPLAIN_RESULTSET_TIMINGS"};
+
+	private static final String SQL_SET_RUNTIME_STATISTICS = "CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS (1)";
+	private static final String SQL_SET_XPLAIN_SCHEMA = "CALL SYSCS_UTIL.SYSCS_SET_XPLAIN_SCHEMA (?)";
+
+	private static final String SQL_SELECT_TABLE_SCANS = "SELECT DISTINCT s.STMT_TEXT FROM " + XPLAIN_SCHEMA
+			+ ".SYSXPLAIN_STATEMENTS s JOIN " + XPLAIN_SCHEMA + ".SYSXPLAIN_RESULTSETS rs ON s.STMT_ID = rs.STMT_ID"
+			+ " JOIN " + XPLAIN_SCHEMA + ".SYSXPLAIN_SCAN_PROPS sp ON rs.SCAN_RS_ID = sp.SCAN_RS_ID"
+			+ " WHERE sp.SCAN_OBJECT_TYPE = 'T' AND UPPER(sp.SCAN_OBJECT_NAME) = UPPER(?)";
+
+	private static final String SQL_SELECT_PLANS = "SELECT s.STMT_ID, s.STMT_TEXT, rs.RS_ID, rs.PARENT_RS_ID,"
+			+ " rs.OP_IDENTIFIER, rs.OP_DETAILS, rs.SEEN_ROWS, rs.RETURNED_ROWS FROM " + XPLAIN_SCHEMA
+			+ ".SYSXPLAIN_STATEMENTS s LEFT OUTER JOIN " + XPLAIN_SCHEMA
+			+ ".SYSXPLAIN_RESULTSETS rs ON s.STMT_ID = rs.STMT_ID ORDER BY s.XPLAIN_TIME, s.STMT_ID";
+
+	private DerbyQueryPlans () {
+		// Utility class
+	}
+
+	/**
+	 * Creates the XPLAIN tables, if they do not exist.
+	 * 
+	 * @param conn A connection to the database, in auto commit mode
+	 * @throws SQLException Error creating the tables
+	 */
+	static void createTables (final Connection conn) throws SQLException {
+		setXplainSchema(conn);
+	}
+
+	/**
+	 * Enables capturing the plans of statements executed on the connection.
+	 * 
+	 * @param conn The connection; the capture should be enabled before a transaction is begun on it
+	 * @throws SQLException Error enabling capture
+	 */
+	static void enableCapture (final Connection conn) throws SQLException {
+		Statement stmt = null;
+		try {
+			stmt = conn.createStatement();
+			stmt.execute(SQL_SET_RUNTIME_STATISTICS);
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+		}
+		setXplainSchema(conn);
+	}
+
+	private static void setXplainSchema (final Connection conn) throws SQLException {
+		CallableStatement stmt = null;
+		try {
+			stmt = conn.prepareCall(SQL_SET_XPLAIN_SCHEMA);
+			stmt.setString(1, XPLAIN_SCHEMA);
+			stmt.execute();
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Deletes all the captured plans; waits for transactions with captured plans to end.
+	 * 
+	 * @param conn A connection to the database, not capturing plans
+	 * @throws SQLException Error deleting the plans
+	 */
+	static void clear (final Connection conn) throws SQLException {
+		Statement stmt = null;
+		try {
+			stmt = conn.createStatement();
+			for (String xplainTable : XPLAIN_TABLES) {
+				stmt.executeUpdate("DELETE FROM " + XPLAIN_SCHEMA + "." + xplainTable);
+			}
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Finds the captured statements that scanned the table instead of using an index on it.
+	 * 
+	 * @param conn A connection to the database, not capturing plans
+	 * @param tableName The name of the table (compared ignoring case)
+	 * @return The SQL of the statements scanning the table
+	 * @throws SQLException Error reading the plans
+	 */
+	static List<String> findTableScans (final Connection conn, final String tableName) throws SQLException {
+		final List<String> statements = new ArrayList<>();
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+			stmt = conn.prepareStatement(SQL_SELECT_TABLE_SCANS);
+			stmt.setString(1, tableName);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				statements.add(rs.getString(1));
+			}
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+		}
+		return statements;
+	}
+
+	/**
+	 * Writes the captured plans, as a tree of result sets under each statement in the order they were executed.
+	 * 
+	 * @param conn A connection to the database, not capturing plans
+	 * @param out The writer to write to
+	 * @return The number of statements written
+	 * @throws SQLException Error reading the plans
+	 */
+	static int dump (final Connection conn, final PrintWriter out) throws SQLException {
+		final Map<String, CapturedStatement> capturedStatements = new LinkedHashMap<>();
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+			stmt = conn.createStatement();
+			rs = stmt.executeQuery(SQL_SELECT_PLANS);
+			while (rs.next()) {
+				CapturedStatement capturedStatement = capturedStatements.get(rs.getString(1));
+				if (null == capturedStatement) {
+					capturedStatement = new CapturedStatement(rs.getString(2));
+					capturedStatements.put(rs.getString(1), capturedStatement);
+				}
+				if (null != rs.getString(3)) {
+					final StringBuilder operation = new StringBuilder(rs.getString(5));
+					if (null != rs.getString(6)) {
+						operation.append(' ').append(rs.getString(6));
+					}
+					if (null != rs.getString(7)) {
+						operation.append(" (rows seen: ").append(rs.getString(7)).append(", returned: ")
+							.append(rs.getString(8)).append(')');
+					}
+					capturedStatement.addResultSet(rs.getString(3), rs.getString(4), operation.toString());
+				}
+			}
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+		}
+
+		for (CapturedStatement capturedStatement : capturedStatements.values()) {
+			out.println(capturedStatement.sql);
+			capturedStatement.printResultSets(out, null, "\t");
+			out.println();
+		}
+		out.flush();
+		return capturedStatements.size();
+	}
+
+	/**
+	 * A statement and the result sets in its plan.
+	 */
+	private static final class CapturedStatement {
+
+		private final String sql;
+		private final List<String[]> resultSets = new ArrayList<>();
+
+		private CapturedStatement (final String sql) {
+			this.sql = sql;
+		}
+
+		private void addResultSet (final String resultSetId, final String parentResultSetId, final String operation) {
+			resultSets.add(new String[] {resultSetId, parentResultSetId, operation});
+		}
+
+		private void printResultSets (final PrintWriter out, final String parentResultSetId, final String indent) {
+			for (String[] resultSet : resultSets) {
+				if ((null == parentResultSetId) ? (null == resultSet[1]) : parentResultSetId.equals(resultSet[1])) {
+					out.print(indent);
+					out.println(resultSet[2]);
+					printResultSets(out, resultSet[0], indent + "\t");
+				}
+			}
+		}
+	}
+}
@@ -15,9 +15,14 @@
  */
 package org.deventropy.junithelper.derby;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.deventropy.shared.utils.ArgumentCheck;
@@ -43,12 +48,21 @@ import org.deventropy.shared.utils.ArgumentCheck;
  */
 public class DerbyResourceConfig {
 	
+	private static final String PROP_DERBY_SYSTEM_DURABILITY = "derby.system.durability";
+	private static final String PROP_DERBY_PAGE_CACHE_SIZE = "derby.storage.pageCacheSize";
+	private static final String PROP_DERBY_PAGE_SIZE = "derby.storage.pageSize";
+	private static final String PROP_DERBY_CHECKPOINT_INTERVAL = "derby.storage.checkpointInterval";
+	private static final String PROP_DERBY_STATEMENT_CACHE_SIZE = "derby.language.statementCacheSize";
+	private static final String[] SYSTEM_ONLY_PROPERTY_PREFIXES = {"derby.system.", "derby.stream.", "derby.infolog.",
+		"derby.drda."};
+	
 	/**
 	 * This is a multi purpose field; it is used as the end of the JDBC URL.
 	 * <ul>
 	 * <li>For a memory database, it is the database name;</li>
 	 * <li>For a directory, it is the absolute / relative directory path;</li>
 	 * <li>For a jar database, it is the path of the database inside the jar file;</li>
+	 * <li>For a classpath database, it is the path of the database on the classpath;</li>
 	 * </ul>
 	 */
 	private String databasePath;
@@ -58,6 +72,10 @@ public class DerbyResourceConfig {
 	 */
 	private String jarDatabaseJarFile;
 	
+	private DerbyJarDatabaseBuilder jarDatabaseBuilder;
+	
+	private String jarDatabaseDirectory;
+	
 	// TODO have combined setters for the sub protocols (with other required values)
 	private JdbcDerbySubSubProtocol subSubProtocol;
 	
@@ -65,6 +83,41 @@ public class DerbyResourceConfig {
 	private ErrorLoggingMode errorLoggingMode;
 	
 	private List<String> postInitScripts;
+	private List<List<String>> postInitScriptStages;
+	private int postInitScriptThreads;
+	private List<DerbyDataImport> postInitDataImports;
+	
+	private ScriptExecutionEngine scriptExecutionEngine;
+	
+	private boolean templateDatabaseCache;
+	
+	private String templateDatabaseStore;
+	
+	private int prewarmedDatabases;
+	
+	private int connectionPoolSize;
+	
+	private boolean connectionLeakStackTraces;
+	
+	private boolean parallelSafeMode;
+	
+	private boolean lazyStart;
+	
+	private boolean asynchronousShutdown;
+	
+	private boolean networkServer;
+	
+	private int networkServerMaxThreads;
+	
+	private boolean scriptLogTailOnly;
+	
+	private boolean statementProfiling;
+	
+	private boolean queryPlanCapture;
+	
+	private List<DerbyResourceListener> resourceListeners;
+	
+	private Map<String, String> derbyProperties;
 	
 	/**
 	 * Sets up a default config that can be used as is to start a database. See the appropriate
@@ -76,6 +129,10 @@ public class DerbyResourceConfig {
 		final DerbyResourceConfig config = new DerbyResourceConfig();
 		config.useInMemoryDatabase();
 		config.errorLoggingMode = getDefaultErrorLoggingMode();
+		config.connectionPoolSize = getDefaultConnectionPoolSize();
+		config.scriptExecutionEngine = getDefaultScriptExecutionEngine();
+		config.postInitScriptThreads = getDefaultPostInitScriptThreads();
+		config.networkServerMaxThreads = getDefaultNetworkServerMaxThreads();
 		// TODO Complete setting defaults
 		return config;
 	}
@@ -100,6 +157,7 @@ public class DerbyResourceConfig {
 	 * <li>For a memory database, it is the database name;</li>
 	 * <li>For a directory, it is the absolute / relative directory path;</li>
 	 * <li>For a jar database, it is the path of the database inside the jar file;</li>
+	 * <li>For a classpath database, it is the path of the database on the classpath;</li>
 	 * </ul>
 	 * 
 	 * <p>Consult the documentation for Derby Sub Sub Protocols on database name formats and use.
@@ -193,8 +251,76 @@ public class DerbyResourceConfig {
 		this.subSubProtocol = JdbcDerbySubSubProtocol.Jar;
 		this.jarDatabaseJarFile = jarFilePath;
 		this.databasePath = dbPath;
+		this.jarDatabaseBuilder = null;
+		this.jarDatabaseDirectory = null;
 		return this;
 	}
+
+	/**
+	 * Use the <code>:jar:</code> Derby sub sub protocol, with the read only database built by the
+	 * <code>jarDatabaseBuilder</code> in the <code>jarDirectory</code>. The jar is built when the resource is started,
+	 * unless a jar built from the same scripts exists in the directory.
+	 * 
+	 * @param jarDatabaseBuilder The builder of the jar database
+	 * @param jarDirectory The directory to build the jar in
+	 * @return This instance
+	 * @see DerbyJarDatabaseBuilder
+	 */
+	public DerbyResourceConfig useJarSubSubProtocol (final DerbyJarDatabaseBuilder jarDatabaseBuilder,
+			final String jarDirectory) {
+		ArgumentCheck.notNull(jarDatabaseBuilder, "Jar database builder");
+		ArgumentCheck.notNullOrEmpty(jarDirectory, "Jar directory");
+		final File jarFile;
+		try {
+			jarFile = jarDatabaseBuilder.getJarFile(new File(jarDirectory));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to read the scripts of the jar database", e);
+		}
+		useJarSubSubProtocol(jarFile.getAbsolutePath(), jarDatabaseBuilder.getDatabasePath());
+		this.jarDatabaseBuilder = jarDatabaseBuilder;
+		this.jarDatabaseDirectory = jarDirectory;
+		return this;
+	}
+
+	/**
+	 * Use the <code>:classpath:</code> Derby sub sub protocol. The read only database is in the
+	 * <code>classpathDbPath</code> directory on the classpath (for example in a test jar), and is read directly from
+	 * the class loader; the context class loader of the thread starting the resource, or the class loader of Derby.
+	 * 
+	 * <p>For more information see <a href="http://db.apache.org/derby/docs/10.12/devguide/cdevdeploy44714.html">
+	 * Accessing databases within a jar file using the classpath</a>
+	 * 
+	 * @param classpathDbPath The path of the database directory on the classpath, for example
+	 *            <code>org/example/reference-db</code>
+	 * @return This instance
+	 */
+	public DerbyResourceConfig useClasspathSubSubProtocol (final String classpathDbPath) {
+		ArgumentCheck.notNullOrEmpty(classpathDbPath, "database path");
+		resetSubSubProtocolSpecificValues();
+		this.subSubProtocol = JdbcDerbySubSubProtocol.Classpath;
+		this.databasePath = classpathDbPath;
+		return this;
+	}
+
+	/**
+	 * Returns the builder of the jar database, if the jar database is built when the resource is started.
+	 * 
+	 * @return The jar database builder, or <code>null</code>
+	 * @see #useJarSubSubProtocol(DerbyJarDatabaseBuilder, String)
+	 */
+	public DerbyJarDatabaseBuilder getJarDatabaseBuilder () {
+		return jarDatabaseBuilder;
+	}
+
+	/**
+	 * Returns the directory the jar database is built in, if the jar database is built when the resource is started.
+	 * 
+	 * @return The jar database directory, or <code>null</code>
+	 * @see #useJarSubSubProtocol(DerbyJarDatabaseBuilder, String)
+	 */
+	public String getJarDatabaseDirectory () {
+		return jarDatabaseDirectory;
+	}
 	
 	/**
 	 * The JDBC sub-sub protocol to use for the embedded database.
@@ -216,6 +342,8 @@ public class DerbyResourceConfig {
 	private void resetSubSubProtocolSpecificValues () {
 		this.databasePath = null;
 		this.jarDatabaseJarFile = null;
+		this.jarDatabaseBuilder = null;
+		this.jarDatabaseDirectory = null;
 	}
 	
 	/**
@@ -223,8 +351,12 @@ public class DerbyResourceConfig {
 	 * properties.
 	 * 
 	 * @return This instance
+	 * @throws IllegalStateException If the {@link #useAsynchronousShutdown() asynchronous shutdown} is enabled
 	 */
 	public DerbyResourceConfig useDevNullErrorLogging () {
+		if (asynchronousShutdown) {
+			throw new IllegalStateException("The error logging mode can not be set with the asynchronous shutdown");
+		}
 		this.errorLoggingMode = ErrorLoggingMode.Null;
 		//TODO clean out other values?
 		return this;
@@ -280,11 +412,749 @@ public class DerbyResourceConfig {
 	 * @return this object
 	 */
 	public DerbyResourceConfig addPostInitScript (final String postInitScript) {
-		ArgumentCheck.notNullOrEmpty(postInitScript, "Post Init Script");
+		return addPostInitScriptStage(postInitScript);
+	}
+	
+	/**
+	 * Adds a stage of post init scripts to the config. The scripts in a stage should be independent of each other, and
+	 * are executed in parallel on separate connections (using up to {@link #getPostInitScriptThreads()} threads); the
+	 * stage is executed after the scripts added before it are, and before the scripts added after it.
+	 * 
+	 * <p>Errors in any of the scripts of a stage fail the start of the resource, after all the scripts of the stage
+	 * have been executed.
+	 * 
+	 * @param stageScripts The post init scripts of the stage
+	 * @return this object
+	 * @see #addPostInitScript(String)
+	 */
+	public DerbyResourceConfig addPostInitScriptStage (final String... stageScripts) {
+		ArgumentCheck.notNull(stageScripts, "Post Init Scripts");
+		if (stageScripts.length == 0) {
+			throw new IllegalArgumentException("Post Init Script stage should have at least one script");
+		}
+		for (String postInitScript : stageScripts) {
+			ArgumentCheck.notNullOrEmpty(postInitScript, "Post Init Script");
+		}
 		if (null == postInitScripts) {
 			postInitScripts = new ArrayList<>();
+			postInitScriptStages = new ArrayList<>();
+		}
+		postInitScripts.addAll(Arrays.asList(stageScripts));
+		postInitScriptStages.add(Collections.unmodifiableList(new ArrayList<>(Arrays.asList(stageScripts))));
+		return this;
+	}
+	
+	/**
+	 * Gets the configured post init scripts grouped in stages, in the order they are executed; or an empty list.
+	 * Scripts added with {@link #addPostInitScript(String)} are in a stage of their own.
+	 * 
+	 * @return Post init script stages to execute
+	 * @see #addPostInitScriptStage(String...)
+	 */
+	public List<List<String>> getPostInitScriptStages () {
+		if (null == postInitScriptStages) {
+			return Collections.emptyList();
+		}
+		return postInitScriptStages;
+	}
+	
+	/**
+	 * Sets the maximum number of threads executing the scripts of a
+	 * {@link #addPostInitScriptStage(String...) post init script stage} in parallel.
+	 * 
+	 * @param threads The maximum number of threads; should be at least 1
+	 * @return This instance
+	 */
+	public DerbyResourceConfig usePostInitScriptThreads (final int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Post init script threads should be at least 1");
+		}
+		this.postInitScriptThreads = threads;
+		return this;
+	}
+	
+	/**
+	 * The maximum number of threads executing the scripts of a post init script stage in parallel.
+	 * 
+	 * @return The number of threads
+	 * @see #usePostInitScriptThreads(int)
+	 */
+	public int getPostInitScriptThreads () {
+		return postInitScriptThreads;
+	}
+	
+	/**
+	 * The default maximum number of threads executing the scripts of a post init script stage.
+	 * 
+	 * @return The number of available processors
+	 */
+	public static int getDefaultPostInitScriptThreads () {
+		return Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * Does not write the output of the post init scripts (the statements echoed by <code>ij</code>, and the errors) to
+	 * log files in the Derby system home. Only a bounded tail of the output, with the errors, is kept in memory, and
+	 * logged when a script fails.
+	 * 
+	 * @return This instance
+	 */
+	public DerbyResourceConfig useScriptLogTailOnly () {
+		this.scriptLogTailOnly = true;
+		return this;
+	}
+	
+	/**
+	 * Whether the output of the post init scripts is not written to log files.
+	 * 
+	 * @return <code>true</code> if only the tail of the script output is kept
+	 * @see #useScriptLogTailOnly()
+	 */
+	public boolean isScriptLogTailOnly () {
+		return scriptLogTailOnly;
+	}
+	
+	/**
+	 * Gets the configured post init data imports in the config; or an empty list.
+	 * @return Post init data imports to execute
+	 */
+	public List<DerbyDataImport> getPostInitDataImports () {
+		if (null == postInitDataImports) {
+			return Collections.emptyList();
+		}
+		return postInitDataImports;
+	}
+	
+	/**
+	 * Adds a post init data import to the config.
+	 * 
+	 * <p>Data imports bulk load delimited (for example CSV) data into tables of the new derby instance. They are
+	 * executed in order after all the {@link #addPostInitScript(String) post init scripts}, so the scripts can create
+	 * the tables. See {@link DerbyDataImport} for the import options.
+	 * 
+	 * @param dataImport A post init data import to add
+	 * @return this object
+	 */
+	public DerbyResourceConfig addPostInitDataImport (final DerbyDataImport dataImport) {
+		ArgumentCheck.notNull(dataImport, "Post Init Data Import");
+		if (null == postInitDataImports) {
+			postInitDataImports = new ArrayList<>();
+		}
+		postInitDataImports.add(dataImport);
+		return this;
+	}
+	
+	/**
+	 * Sets the engine used to execute the post init scripts. The {@link ScriptExecutionEngine#Jdbc} engine is faster
+	 * for large scripts, but only supports plain SQL statements.
+	 * 
+	 * @param engine The script execution engine
+	 * @return This instance
+	 */
+	public DerbyResourceConfig useScriptExecutionEngine (final ScriptExecutionEngine engine) {
+		ArgumentCheck.notNull(engine, "Script execution engine");
+		this.scriptExecutionEngine = engine;
+		return this;
+	}
+	
+	/**
+	 * The engine used to execute the post init scripts.
+	 * 
+	 * @return The script execution engine
+	 * @see #useScriptExecutionEngine(ScriptExecutionEngine)
+	 */
+	public ScriptExecutionEngine getScriptExecutionEngine () {
+		return scriptExecutionEngine;
+	}
+	
+	/**
+	 * The default engine used to execute the post init scripts.
+	 * 
+	 * @return {@link ScriptExecutionEngine#Ij}
+	 */
+	public static ScriptExecutionEngine getDefaultScriptExecutionEngine () {
+		return ScriptExecutionEngine.Ij;
+	}
+	
+	/**
+	 * Enables the JVM wide template database cache. When enabled, the first resource started with a given sub-sub
+	 * protocol and set of post init scripts creates a template database (running the post init scripts once) and backs
+	 * it up; subsequent resources with an equivalent configuration are created from the backup using the Derby
+	 * <code>createFrom</code> connection attribute instead of replaying the scripts.
+	 * 
+	 * <p>The cache is not used for read only (<code>:jar:</code>) databases or when no post init scripts are
+	 * configured. Post init script logs are only written by the resource that builds the template.
+	 * 
+	 * @return This instance
+	 * @see <a href="http://db.apache.org/derby/docs/10.12/ref/rrefattribcreatefrom.html">createFrom attribute</a>
+	 */
+	public DerbyResourceConfig useTemplateDatabaseCache () {
+		this.templateDatabaseCache = true;
+		return this;
+	}
+	
+	/**
+	 * If the template database cache is enabled for this config, defaults to <code>false</code>.
+	 * 
+	 * @return <code>true</code> if the template database cache is enabled
+	 * @see #useTemplateDatabaseCache()
+	 */
+	public boolean isTemplateDatabaseCacheEnabled () {
+		return templateDatabaseCache;
+	}
+	
+	/**
+	 * Enables the template database cache (see {@link #useTemplateDatabaseCache()}) with templates kept in the
+	 * {@link #getDefaultTemplateDatabaseStore() default template store} directory.
+	 * 
+	 * @return This instance
+	 * @see #useTemplateDatabaseStore(String)
+	 */
+	public DerbyResourceConfig useTemplateDatabaseStore () {
+		return useTemplateDatabaseStore(getDefaultTemplateDatabaseStore());
+	}
+	
+	/**
+	 * Enables the template database cache (see {@link #useTemplateDatabaseCache()}) with templates kept in a persistent
+	 * store directory. Templates in the store survive the JVM, so multiple JVMs (for example forked test runners) or
+	 * subsequent builds share them; a file lock ensures only one JVM builds a template. Templates are addressed by the
+	 * fingerprint of the post init script contents, so editing a script builds a new template.
+	 * 
+	 * <p>The <code>templateStore</code> path is either relative (to the working directory of the JVM) or absolute.
+	 * 
+	 * @param templateStore The directory to store templates in
+	 * @return This instance
+	 */
+	public DerbyResourceConfig useTemplateDatabaseStore (final String templateStore) {
+		ArgumentCheck.notNullOrEmpty(templateStore, "Template database store");
+		this.templateDatabaseCache = true;
+		this.templateDatabaseStore = templateStore;
+		return this;
+	}
+	
+	/**
+	 * The persistent template store directory; or <code>null</code> if templates are only cached for the JVM.
+	 * 
+	 * @return The template store directory path
+	 * @see #useTemplateDatabaseStore(String)
+	 */
+	public String getTemplateDatabaseStore () {
+		return templateDatabaseStore;
+	}
+	
+	/**
+	 * The default persistent template store directory, under the Maven build directory.
+	 * 
+	 * @return <code>target/junit-helper-derby-templates</code>
+	 */
+	public static String getDefaultTemplateDatabaseStore () {
+		return "target/junit-helper-derby-templates";
+	}
+	
+	/**
+	 * Keeps in memory databases created from the template database (see {@link #useTemplateDatabaseCache()}, which this
+	 * enables) ready for the resources with an equivalent configuration: a resource claims a ready database when it
+	 * starts, instead of creating it, and a background thread creates new databases while the tests run, to keep
+	 * <code>depth</code> databases ready. Databases are dropped in the background when the resources are closed. This
+	 * takes creating the database off the start of each test class, when several test classes with the same post init
+	 * scripts run in a JVM.
+	 * 
+	 * <p>Only used for <code>:memory:</code> databases with post init scripts or data imports. The JDBC URL of the
+	 * resource names the claimed database, not the {@link #getDatabasePath() database path} of the config. Ready
+	 * databases take memory until they are claimed, or the JVM exits.
+	 * 
+	 * @param depth The number of databases to keep ready; should be at least 1
+	 * @return This instance
+	 */
+	public DerbyResourceConfig usePrewarmedDatabases (final int depth) {
+		if (depth < 1) {
+			throw new IllegalArgumentException("Prewarmed databases should be at least 1");
+		}
+		this.templateDatabaseCache = true;
+		this.prewarmedDatabases = depth;
+		return this;
+	}
+	
+	/**
+	 * The number of prewarmed databases kept ready, defaults to <code>0</code> (disabled).
+	 * 
+	 * @return The number of prewarmed databases
+	 * @see #usePrewarmedDatabases(int)
+	 */
+	public int getPrewarmedDatabases () {
+		return prewarmedDatabases;
+	}
+	
+	/**
+	 * Sets the maximum number of open connections in the {@link EmbeddedDerbyResource#getDataSource() pooled data
+	 * source} of the resource.
+	 * 
+	 * @param poolSize The maximum number of open pooled connections; should be at least 1
+	 * @return This instance
+	 */
+	public DerbyResourceConfig useConnectionPoolSize (final int poolSize) {
+		if (poolSize < 1) {
+			throw new IllegalArgumentException("Connection pool size should be at least 1");
+		}
+		this.connectionPoolSize = poolSize;
+		return this;
+	}
+	
+	/**
+	 * The maximum number of open connections in the pooled data source of the resource.
+	 * 
+	 * @return The connection pool size
+	 * @see #useConnectionPoolSize(int)
+	 */
+	public int getConnectionPoolSize () {
+		return connectionPoolSize;
+	}
+	
+	/**
+	 * The default maximum number of open pooled connections.
+	 * 
+	 * @return <code>8</code>
+	 */
+	public static int getDefaultConnectionPoolSize () {
+		return 8;
+	}
+	
+	/**
+	 * Enables capturing the stack trace of the code borrowing each connection from the
+	 * {@link EmbeddedDerbyResource#getDataSource() pooled data source}, logged with the connections not returned to
+	 * the pool when the resource is closed. Capturing the stack trace makes every borrow more expensive, so is meant
+	 * for finding connection leaks.
+	 * 
+	 * @return This instance
+	 */
+	public DerbyResourceConfig useConnectionLeakStackTraces () {
+		this.connectionLeakStackTraces = true;
+		return this;
+	}
+	
+	/**
+	 * Whether the stack trace of the code borrowing a pooled connection is captured, to report connection leaks.
+	 * 
+	 * @return <code>true</code> if the stack traces are captured
+	 * @see #useConnectionLeakStackTraces()
+	 */
+	public boolean isConnectionLeakStackTraces () {
+		return connectionLeakStackTraces;
+	}
+	
+	/**
+	 * Enables the parallel safe mode, in which the resource does not set (or reset) the JVM wide
+	 * <code>derby.system.home</code> system property or write a <code>derby.properties</code> file to it; so multiple
+	 * resources can be started and stopped at the same time in a JVM, for example by test classes run in parallel.
+	 * 
+	 * <p>In this mode, relative <code>:memory:</code> and <code>:directory:</code> database paths are resolved against
+	 * the {@link EmbeddedDerbyResource#getDerbySystemHome() Derby system home} of the resource, and the JDBC URL of the
+	 * resource uses the absolute path. As Derby error logging can only be configured JVM wide, the
+	 * {@link #getErrorLoggingMode() error logging mode} is not applied; Derby logs as configured for the JVM (to
+	 * <code>derby.log</code> in the working directory by default).
+	 * 
+	 * <p>Derby properties are set as database properties, so properties Derby only supports for the whole Derby system
+	 * (like {@link #useTestDurability() test durability} and the {@link #usePageCacheSize(int) page cache size}) can
+	 * not be used in this mode; setting them before or after enabling the parallel safe mode fails.
+	 * 
+	 * @return This instance
+	 * @throws IllegalStateException If a Derby property applied to the whole Derby system is configured
+	 */
+	public DerbyResourceConfig useParallelSafeMode () {
+		final String systemOnlyProperty = getSystemOnlyDerbyProperty();
+		if (null != systemOnlyProperty) {
+			throw new IllegalStateException("The parallel safe mode can not be used with the system wide Derby "
+					+ "property " + systemOnlyProperty);
+		}
+		this.parallelSafeMode = true;
+		return this;
+	}
+	
+	/**
+	 * If the parallel safe mode is enabled for this config, defaults to <code>false</code>.
+	 * 
+	 * @return <code>true</code> if the parallel safe mode is enabled
+	 * @see #useParallelSafeMode()
+	 */
+	public boolean isParallelSafeMode () {
+		return parallelSafeMode;
+	}
+	
+	/**
+	 * Enables the lazy start of the resource: when used as a JUnit rule, the database is not created (and the post init
+	 * scripts are not executed) before the tests, but on the first call to {@link EmbeddedDerbyResource#getJdbcUrl()}
+	 * or {@link EmbeddedDerbyResource#getDataSource()}. Test classes where only some of the tests use the database do
+	 * not pay for starting it otherwise; if no test uses it, it is never started and closing it does nothing.
+	 * 
+	 * <p>Concurrent first calls start the database only once.
+	 * 
+	 * @return This instance
+	 */
+	public DerbyResourceConfig useLazyStart () {
+		this.lazyStart = true;
+		return this;
+	}
+	
+	/**
+	 * If the lazy start is enabled for this config, defaults to <code>false</code>.
+	 * 
+	 * @return <code>true</code> if the lazy start is enabled
+	 * @see #useLazyStart()
+	 */
+	public boolean isLazyStart () {
+		return lazyStart;
+	}
+	
+	/**
+	 * Enables the asynchronous shutdown of the resource: {@link EmbeddedDerbyResource#close()} closes the data source
+	 * and the network server, and hands dropping or shutting down the database (and deleting its snapshots) to a
+	 * background thread, so the next test class can start while a large database is still being shut down. A resource
+	 * given a {@link org.junit.rules.TemporaryFolder} creates its Derby system home next to the folder rather than in
+	 * it, and deletes it in the background after the shutdown, instead of JUnit deleting it during the shutdown.
+	 * 
+	 * <p>The background shutdown addresses the database by its absolute path, so this also enables the
+	 * {@link #useParallelSafeMode() parallel safe mode}. Restarting the resource waits for its pending shutdown;
+	 * pending shutdowns are waited for when the JVM exits, or with
+	 * {@link EmbeddedDerbyResource#awaitAsynchronousShutdowns(long, java.util.concurrent.TimeUnit)} (for example
+	 * before shutting down the Derby system).
+	 * 
+	 * <p>As no <code>derby.properties</code> file is written in the parallel safe mode, the asynchronous shutdown can
+	 * not be combined with settings applied to the whole Derby system: the {@link #useDevNullErrorLogging() error
+	 * logging mode}, or Derby properties like {@link #useTestDurability() test durability} and the
+	 * {@link #usePageCacheSize(int) page cache size}; setting either before or after enabling the asynchronous shutdown
+	 * fails.
+	 * 
+	 * @return This instance
+	 * @throws IllegalStateException If a setting applied to the whole Derby system is configured
+	 */
+	public DerbyResourceConfig useAsynchronousShutdown () {
+		if (ErrorLoggingMode.Null == errorLoggingMode) {
+			throw new IllegalStateException("The asynchronous shutdown can not be used with the error logging mode "
+					+ errorLoggingMode);
+		}
+		final String systemOnlyProperty = getSystemOnlyDerbyProperty();
+		if (null != systemOnlyProperty) {
+			throw new IllegalStateException("The asynchronous shutdown can not be used with the system wide Derby "
+					+ "property " + systemOnlyProperty);
+		}
+		this.asynchronousShutdown = true;
+		this.parallelSafeMode = true;
+		return this;
+	}
+	
+	/**
+	 * If the asynchronous shutdown is enabled for this config, defaults to <code>false</code>.
+	 * 
+	 * @return <code>true</code> if the database is shut down in the background
+	 * @see #useAsynchronousShutdown()
+	 */
+	public boolean isAsynchronousShutdown () {
+		return asynchronousShutdown;
+	}
+	
+	/**
+	 * Starts a Derby Network Server with the resource, so the database can also be used with the Derby client driver
+	 * (for code or libraries that only work over the client driver, or to test the client / server round trips). The
+	 * server is started in the JVM after the database is created, on a free port of the loopback interface, and shut
+	 * down when the resource is closed, before the database is shut down; its client JDBC URL is available from
+	 * {@link EmbeddedDerbyResource#getClientJdbcUrl()}. The server needs the <code>derbynet</code> jar, and clients the
+	 * <code>derbyclient</code> jar, on the classpath.
+	 * 
+	 * @return This instance
+	 * @see <a href="http://db.apache.org/derby/docs/10.12/adminguide/tadminconfig814963.html">Starting the Network
+	 * Server from a Java application</a>
+	 */
+	public DerbyResourceConfig useNetworkServer () {
+		this.networkServer = true;
+		return this;
+	}
+	
+	/**
+	 * Starts a Derby Network Server with the resource, limiting the number of threads serving client connections; see
+	 * {@link #useNetworkServer()}.
+	 * 
+	 * @param maxThreads The maximum number of connection threads of the server; should be at least 1
+	 * @return This instance
+	 */
+	public DerbyResourceConfig useNetworkServer (final int maxThreads) {
+		if (maxThreads < 1) {
+			throw new IllegalArgumentException("Network server max threads should be at least 1");
+		}
+		this.networkServerMaxThreads = maxThreads;
+		return useNetworkServer();
+	}
+	
+	/**
+	 * If a network server is started with the resource, defaults to <code>false</code>.
+	 * 
+	 * @return <code>true</code> if a network server is started
+	 * @see #useNetworkServer()
+	 */
+	public boolean isNetworkServer () {
+		return networkServer;
+	}
+	
+	/**
+	 * The maximum number of connection threads of the network server.
+	 * 
+	 * @return The network server max threads, <code>0</code> for no limit
+	 * @see #useNetworkServer(int)
+	 */
+	public int getNetworkServerMaxThreads () {
+		return networkServerMaxThreads;
+	}
+	
+	/**
+	 * The default maximum number of connection threads of the network server, no limit (the Derby default).
+	 * 
+	 * @return <code>0</code>
+	 */
+	public static int getDefaultNetworkServerMaxThreads () {
+		return 0;
+	}
+	
+	/**
+	 * Turns off syncing the transaction log and data to disk on commit and checkpoint (the Derby
+	 * <code>derby.system.durability=test</code> mode). This is a large speedup for write heavy tests using
+	 * <code>:directory:</code> databases, but a database may be corrupted if the JVM or the machine crashes; it should
+	 * only be used for databases that are thrown away after the tests.
+	 * 
+	 * @return This instance
+	 * @see <a href="http://db.apache.org/derby/docs/10.12/ref/rrefproperdurability.html">derby.system.durability</a>
+	 */
+	public DerbyResourceConfig useTestDurability () {
+		return addDerbyProperty(PROP_DERBY_SYSTEM_DURABILITY, "test");
+	}
+	
+	/**
+	 * Sets the number of pages in the Derby page (data) cache, <code>1000</code> pages by default in Derby. The cache
+	 * is shared by all the databases in the Derby system.
+	 * 
+	 * @param pages The number of pages to cache; should be at least 40
+	 * @return This instance
+	 * @see <a href="http://db.apache.org/derby/docs/10.12/ref/rrefproper81359.html">derby.storage.pageCacheSize</a>
+	 */
+	public DerbyResourceConfig usePageCacheSize (final int pages) {
+		if (pages < 40) {
+			throw new IllegalArgumentException("Page cache size should be at least 40");
 		}
-		postInitScripts.add(postInitScript);
+		return addDerbyProperty(PROP_DERBY_PAGE_CACHE_SIZE, Integer.toString(pages));
+	}
+	
+	/**
+	 * Sets the page size of tables and indexes created in the database; by default Derby picks the page size based on
+	 * the columns of the table.
+	 * 
+	 * @param pageSize The page size in bytes; one of <code>4096</code>, <code>8192</code>, <code>16384</code> or
+	 * <code>32768</code>
+	 * @return This instance
+	 * @see <a href="http://db.apache.org/derby/docs/10.12/ref/rrefproper40688.html">derby.storage.pageSize</a>
+	 */
+	public DerbyResourceConfig usePageSize (final int pageSize) {
+		if (pageSize != 4096 && pageSize != 8192 && pageSize != 16384 && pageSize != 32768) {
+			throw new IllegalArgumentException("Page size should be one of 4096, 8192, 16384 or 32768");
+		}
+		return addDerbyProperty(PROP_DERBY_PAGE_SIZE, Integer.toString(pageSize));
+	}
+	
+	/**
+	 * Sets the amount of transaction log written between checkpoints, <code>10485760</code> bytes (10 MB) by default
+	 * in Derby. A larger interval means fewer checkpoints (and disk writes) during write heavy tests.
+	 * 
+	 * @param bytes The checkpoint interval in bytes; between <code>100000</code> and <code>128000000</code>
+	 * @return This instance
+	 * @see <a href="http://db.apache.org/derby/docs/10.12/ref/rrefproper33562.html">
+	 * derby.storage.checkpointInterval</a>
+	 */
+	public DerbyResourceConfig useCheckpointInterval (final int bytes) {
+		if (bytes < 100000 || bytes > 128000000) {
+			throw new IllegalArgumentException("Checkpoint interval should be between 100000 and 128000000 bytes");
+		}
+		return addDerbyProperty(PROP_DERBY_CHECKPOINT_INTERVAL, Integer.toString(bytes));
+	}
+	
+	/**
+	 * Sets the number of compiled statements cached by Derby, <code>100</code> by default in Derby. Tests executing
+	 * many distinct statements may benefit from a larger cache.
+	 * 
+	 * @param statements The number of statements to cache; should be at least 1
+	 * @return This instance
+	 * @see <a href="http://db.apache.org/derby/docs/10.12/ref/rrefproperstmtcachesize.html">
+	 * derby.language.statementCacheSize</a>
+	 */
+	public DerbyResourceConfig useStatementCacheSize (final int statements) {
+		if (statements < 1) {
+			throw new IllegalArgumentException("Statement cache size should be at least 1");
+		}
+		return addDerbyProperty(PROP_DERBY_STATEMENT_CACHE_SIZE, Integer.toString(statements));
+	}
+	
+	/**
+	 * Adds a Derby property to be set for the database, replacing any earlier value of the property (including values
+	 * set by the other methods of this class). Properties are written to the <code>derby.properties</code> file in the
+	 * Derby system home when the resource starts, after the error logging properties, so they also override the
+	 * {@link #getErrorLoggingMode() error logging mode}.
+	 * 
+	 * <p>In the {@link #useParallelSafeMode() parallel safe mode} (also used by the
+	 * {@link #useAsynchronousShutdown() asynchronous shutdown}) no <code>derby.properties</code> file is written;
+	 * properties are set as database properties (using <code>SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY</code>) instead,
+	 * and properties that can only be set for the Derby system (like <code>derby.system.durability</code>) can not be
+	 * set.
+	 * 
+	 * @param name The property name
+	 * @param value The property value
+	 * @return This instance
+	 * @throws IllegalStateException If the property can only be set for the Derby system, and the parallel safe mode
+	 * 		is enabled
+	 * @see <a href="http://db.apache.org/derby/docs/10.12/ref/crefproper22250.html">Derby properties</a>
+	 */
+	public DerbyResourceConfig addDerbyProperty (final String name, final String value) {
+		ArgumentCheck.notNullOrEmpty(name, "Derby property name");
+		ArgumentCheck.notNull(value, "Derby property value");
+		if (parallelSafeMode && isSystemOnlyDerbyProperty(name)) {
+			throw new IllegalStateException("The system wide Derby property " + name
+					+ " can not be set in the parallel safe mode");
+		}
+		if (null == derbyProperties) {
+			derbyProperties = new LinkedHashMap<>();
+		}
+		derbyProperties.put(name, value);
 		return this;
 	}
+	
+	/**
+	 * Gets the Derby properties configured for the database, in the order they were added; or an empty map.
+	 * 
+	 * @return The Derby properties
+	 * @see #addDerbyProperty(String, String)
+	 */
+	public Map<String, String> getDerbyProperties () {
+		if (null == derbyProperties) {
+			return Collections.emptyMap();
+		}
+		return Collections.unmodifiableMap(derbyProperties);
+	}
+	
+	/**
+	 * Gets the first configured Derby property that can only be set for the whole Derby system (in the
+	 * <code>derby.properties</code> file or as a system property), and not as a database property.
+	 * 
+	 * @return The property name; or <code>null</code> if none is configured
+	 */
+	private String getSystemOnlyDerbyProperty () {
+		for (String propertyName : getDerbyProperties().keySet()) {
+			if (isSystemOnlyDerbyProperty(propertyName)) {
+				return propertyName;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Whether the Derby property can only be set for the whole Derby system, and not as a database property.
+	 * 
+	 * @param propertyName The property name
+	 * @return <code>true</code> for system only properties
+	 */
+	private static boolean isSystemOnlyDerbyProperty (final String propertyName) {
+		if (PROP_DERBY_PAGE_CACHE_SIZE.equals(propertyName) || PROP_DERBY_STATEMENT_CACHE_SIZE.equals(propertyName)) {
+			return true;
+		}
+		for (String systemOnlyPrefix : SYSTEM_ONLY_PROPERTY_PREFIXES) {
+			if (propertyName.startsWith(systemOnlyPrefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Enables profiling of the statements executed on connections handed out by the resource: the
+	 * {@link EmbeddedDerbyResource#getDataSource() pooled data source} and {@link TransactionalConnectionResource}. A
+	 * report of the slowest and most frequent statements is logged when the resource is closed.
+	 * 
+	 * @return This instance
+	 * @see DerbyStatementProfiler
+	 */
+	public DerbyResourceConfig useStatementProfiling () {
+		this.statementProfiling = true;
+		return this;
+	}
+	
+	/**
+	 * Whether statements executed on connections handed out by the resource are profiled.
+	 * 
+	 * @return <code>true</code> if statements are profiled
+	 * @see #useStatementProfiling()
+	 */
+	public boolean isStatementProfiling () {
+		return statementProfiling;
+	}
+	
+	/**
+	 * Enables capturing the query plans of statements executed on connections handed out by the resource (the
+	 * {@link EmbeddedDerbyResource#getDataSource() pooled data source} and {@link TransactionalConnectionResource}), in
+	 * the Derby XPLAIN tables. The captured plans can be written to a file with
+	 * {@link EmbeddedDerbyResource#dumpQueryPlans(String)}, and checked for table scans with
+	 * {@link EmbeddedDerbyResource#assertNoTableScan(String)}.
+	 * 
+	 * <p>Query plans can not be captured for the read only {@link JdbcDerbySubSubProtocol#Jar} and
+	 * {@link JdbcDerbySubSubProtocol#Classpath} databases.
+	 * 
+	 * @return This instance
+	 */
+	public DerbyResourceConfig useQueryPlanCapture () {
+		this.queryPlanCapture = true;
+		return this;
+	}
+	
+	/**
+	 * Whether query plans of statements executed on connections handed out by the resource are captured.
+	 * 
+	 * @return <code>true</code> if query plans are captured
+	 * @see #useQueryPlanCapture()
+	 */
+	public boolean isQueryPlanCapture () {
+		return queryPlanCapture;
+	}
+	
+	/**
+	 * Adds a listener notified with the timing of each phase of starting and closing the resource (and of each post
+	 * init script and data import).
+	 * 
+	 * @param listener The listener to add
+	 * @return This instance
+	 * @see DerbyResourceListener
+	 */
+	public DerbyResourceConfig addResourceListener (final DerbyResourceListener listener) {
+		ArgumentCheck.notNull(listener, "Resource listener");
+		if (null == resourceListeners) {
+			resourceListeners = new ArrayList<>();
+		}
+		resourceListeners.add(listener);
+		return this;
+	}
+	
+	/**
+	 * Adds the {@link DerbyResourceMetrics#getInstance() JVM wide resource metrics} as a listener; the metrics
+	 * aggregate the timings of all the resources using them, and print a summary when the JVM shuts down.
+	 * 
+	 * @return This instance
+	 */
+	public DerbyResourceConfig useResourceMetrics () {
+		return addResourceListener(DerbyResourceMetrics.getInstance());
+	}
+	
+	/**
+	 * Gets the configured resource listeners; or an empty list.
+	 * 
+	 * @return The resource listeners
+	 * @see #addResourceListener(DerbyResourceListener)
+	 */
+	public List<DerbyResourceListener> getResourceListeners () {
+		if (null == resourceListeners) {
+			return Collections.emptyList();
+		}
+		return resourceListeners;
+	}
 }
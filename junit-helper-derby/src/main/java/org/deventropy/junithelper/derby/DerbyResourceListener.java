@@ -0,0 +1,42 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+/**
+ * Listens to the phases of starting and closing an {@link EmbeddedDerbyResource}, for example to find out where the
+ * time of a slow test suite goes; see {@link DerbyResourceConfig#addResourceListener(DerbyResourceListener)}.
+ * {@link DerbyResourceMetrics} is an implementation aggregating the timings for the JVM.
+ * 
+ * <p>Listeners are called on the thread starting or closing the resource (or for an
+ * {@link DerbyResourceConfig#useAsynchronousShutdown() asynchronous shutdown}, the background thread shutting down the
+ * database), and may be shared by resources started concurrently. Exceptions thrown by listeners are logged and
+ * otherwise ignored.
+ * 
+ * @author Bindul Bhowmik
+ */
+public interface DerbyResourceListener {
+
+	/**
+	 * Called when a phase completes successfully.
+	 * 
+	 * @param resource The resource
+	 * @param phase The completed phase
+	 * @param detail The script or data resource for the {@link DerbyResourcePhase#PostInitScript} and
+	 * {@link DerbyResourcePhase#PostInitDataImport} phases; <code>null</code> for other phases
+	 * @param elapsedNanos The time taken by the phase, in nanoseconds
+	 */
+	void phaseCompleted (EmbeddedDerbyResource resource, DerbyResourcePhase phase, String detail, long elapsedNanos);
+}
@@ -0,0 +1,233 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link DerbyResourceListener} aggregating the timings of the resource phases, and of each post init script and
+ * data import; see {@link #getSummary()}.
+ * 
+ * <p>The {@link #getInstance() JVM wide instance}, used by {@link DerbyResourceConfig#useResourceMetrics()}, prints
+ * the summary to <code>System.out</code> when the JVM shuts down: the number of databases started, the total and
+ * maximum time of each phase, and the slowest scripts.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class DerbyResourceMetrics implements DerbyResourceListener {
+
+	private static final int SLOWEST_SCRIPTS = 10;
+	private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final Map<DerbyResourcePhase, Timing> phaseTimings = new EnumMap<>(DerbyResourcePhase.class);
+	private final ConcurrentMap<String, Timing> scriptTimings = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates metrics not attached to the JVM shutdown; use {@link #getInstance()} for the JVM wide metrics.
+	 */
+	public DerbyResourceMetrics () {
+		for (DerbyResourcePhase phase : DerbyResourcePhase.values()) {
+			phaseTimings.put(phase, new Timing());
+		}
+	}
+
+	/**
+	 * Returns the JVM wide metrics, printing the summary when the JVM shuts down.
+	 * 
+	 * @return The JVM wide metrics
+	 */
+	public static DerbyResourceMetrics getInstance () {
+		return JvmMetricsHolder.INSTANCE;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.deventropy.junithelper.derby.DerbyResourceListener#phaseCompleted(
+	 * org.deventropy.junithelper.derby.EmbeddedDerbyResource, org.deventropy.junithelper.derby.DerbyResourcePhase,
+	 * java.lang.String, long)
+	 */
+	@Override
+	public void phaseCompleted (final EmbeddedDerbyResource resource, final DerbyResourcePhase phase,
+			final String detail, final long elapsedNanos) {
+		phaseTimings.get(phase).record(elapsedNanos);
+		if (null != detail) {
+			Timing scriptTiming = scriptTimings.get(detail);
+			if (null == scriptTiming) {
+				final Timing newTiming = new Timing();
+				scriptTiming = scriptTimings.putIfAbsent(detail, newTiming);
+				if (null == scriptTiming) {
+					scriptTiming = newTiming;
+				}
+			}
+			scriptTiming.record(elapsedNanos);
+		}
+	}
+
+	/**
+	 * The number of times the phase completed.
+	 * 
+	 * @param phase The phase
+	 * @return The count of the phase
+	 */
+	public long getCount (final DerbyResourcePhase phase) {
+		return phaseTimings.get(phase).count.get();
+	}
+
+	/**
+	 * The total time taken by the phase.
+	 * 
+	 * @param phase The phase
+	 * @return The total time in nanoseconds
+	 */
+	public long getTotalNanos (final DerbyResourcePhase phase) {
+		return phaseTimings.get(phase).totalNanos.get();
+	}
+
+	/**
+	 * The longest time taken by the phase.
+	 * 
+	 * @param phase The phase
+	 * @return The maximum time in nanoseconds
+	 */
+	public long getMaxNanos (final DerbyResourcePhase phase) {
+		return phaseTimings.get(phase).maxNanos.get();
+	}
+
+	/**
+	 * The total time taken by a post init script or data import, over all the databases it was executed on.
+	 * 
+	 * @param script The script or data resource
+	 * @return The total time in nanoseconds; <code>0</code> if it was never executed
+	 */
+	public long getScriptTotalNanos (final String script) {
+		final Timing scriptTiming = scriptTimings.get(script);
+		return (null == scriptTiming) ? 0 : scriptTiming.totalNanos.get();
+	}
+
+	/**
+	 * Clears all the metrics.
+	 */
+	public void reset () {
+		for (Timing timing : phaseTimings.values()) {
+			timing.reset();
+		}
+		scriptTimings.clear();
+	}
+
+	/**
+	 * Formats a summary table of the metrics.
+	 * 
+	 * @return The summary
+	 */
+	public String getSummary () {
+		final StringWriter summary = new StringWriter();
+		final PrintWriter out = new PrintWriter(summary);
+		out.printf("Embedded Derby resources: %d started in %.1f ms, %d closed in %.1f ms%n",
+				getCount(DerbyResourcePhase.Start), toMillis(getTotalNanos(DerbyResourcePhase.Start)),
+				getCount(DerbyResourcePhase.Close), toMillis(getTotalNanos(DerbyResourcePhase.Close)));
+		out.printf("%-20s %8s %12s %10s %10s%n", "Phase", "Count", "Total (ms)", "Avg (ms)", "Max (ms)");
+		for (Map.Entry<DerbyResourcePhase, Timing> phaseTiming : phaseTimings.entrySet()) {
+			out.printf("%-20s %s%n", phaseTiming.getKey().name(), formatTiming(phaseTiming.getValue()));
+		}
+
+		final List<Map.Entry<String, Timing>> slowestScripts = new ArrayList<>(scriptTimings.entrySet());
+		if (!slowestScripts.isEmpty()) {
+			Collections.sort(slowestScripts, new Comparator<Map.Entry<String, Timing>>() {
+				@Override
+				public int compare (final Map.Entry<String, Timing> o1, final Map.Entry<String, Timing> o2) {
+					return Long.compare(o2.getValue().totalNanos.get(), o1.getValue().totalNanos.get());
+				}
+			});
+			out.printf("Slowest post init scripts and data imports:%n");
+			out.printf("%8s %12s %10s %10s  %s%n", "Count", "Total (ms)", "Avg (ms)", "Max (ms)", "Script");
+			for (Map.Entry<String, Timing> scriptTiming : slowestScripts.subList(0,
+					Math.min(SLOWEST_SCRIPTS, slowestScripts.size()))) {
+				out.printf("%s  %s%n", formatTiming(scriptTiming.getValue()), scriptTiming.getKey());
+			}
+		}
+		final SqlScriptCache scriptCache = SqlScriptCache.getInstance();
+		out.printf("Script cache: %d hits, %d misses, %d scripts cached (%d KB)%n", scriptCache.getHitCount(),
+				scriptCache.getMissCount(), scriptCache.getScriptCount(), scriptCache.getSize() / 1024);
+		out.flush();
+		return summary.toString();
+	}
+
+	private String formatTiming (final Timing timing) {
+		final long count = timing.count.get();
+		final long totalNanos = timing.totalNanos.get();
+		final double avgMillis = (count == 0) ? 0 : toMillis(totalNanos) / count;
+		return String.format("%8d %12.1f %10.1f %10.1f", count, toMillis(totalNanos), avgMillis,
+				toMillis(timing.maxNanos.get()));
+	}
+
+	private static double toMillis (final long nanos) {
+		return nanos / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * Count, total and maximum of the timings of a phase or script.
+	 */
+	private static final class Timing {
+
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		private void record (final long elapsedNanos) {
+			count.incrementAndGet();
+			totalNanos.addAndGet(elapsedNanos);
+			long currentMax = maxNanos.get();
+			while (elapsedNanos > currentMax && !maxNanos.compareAndSet(currentMax, elapsedNanos)) {
+				currentMax = maxNanos.get();
+			}
+		}
+
+		private void reset () {
+			count.set(0);
+			totalNanos.set(0);
+			maxNanos.set(0);
+		}
+	}
+
+	/**
+	 * Lazily creates the JVM wide metrics, registering the shutdown hook printing them.
+	 */
+	private static final class JvmMetricsHolder {
+
+		private static final DerbyResourceMetrics INSTANCE = new DerbyResourceMetrics();
+
+		static {
+			Runtime.getRuntime().addShutdownHook(new Thread("junit-helper-derby-metrics") {
+				@Override
+				public void run () {
+					if (INSTANCE.getCount(DerbyResourcePhase.Start) > 0) {
+						System.out.print(INSTANCE.getSummary());
+					}
+				}
+			});
+		}
+	}
+}
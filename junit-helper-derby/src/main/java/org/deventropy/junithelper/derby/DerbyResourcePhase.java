@@ -0,0 +1,104 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+/**
+ * Phases of starting and closing an {@link EmbeddedDerbyResource} (and of snapshots of its database), timed and
+ * reported to the {@link DerbyResourceListener resource listeners}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public enum DerbyResourcePhase {
+
+	/**
+	 * Creating the Derby system home directory and setting up the <code>derby.system.home</code> property and the
+	 * <code>derby.properties</code> file.
+	 */
+	SystemHomeSetup,
+
+	/**
+	 * Loading the Derby embedded driver, which boots the Derby system if it is not running.
+	 */
+	DriverBoot,
+
+	/**
+	 * Building the read only jar database with the {@link DerbyJarDatabaseBuilder}; includes only checking the jar
+	 * exists when it has been built before.
+	 */
+	JarDatabase,
+
+	/**
+	 * Getting the template database from the template cache; includes building the template on a cache miss.
+	 */
+	TemplateDatabase,
+
+	/**
+	 * Creating (or connecting to) the database.
+	 */
+	DatabaseCreation,
+
+	/**
+	 * Executing a post init script; reported once for each script, with the script as the detail.
+	 */
+	PostInitScript,
+
+	/**
+	 * Executing a post init data import; reported once for each import, with the data resource as the detail.
+	 */
+	PostInitDataImport,
+
+	/**
+	 * Starting the {@link DerbyResourceConfig#useNetworkServer() network server}, until it accepts connections.
+	 */
+	NetworkServerStart,
+
+	/**
+	 * The complete start of the resource.
+	 */
+	Start,
+
+	/**
+	 * Taking a {@link EmbeddedDerbyResource#snapshot(String) snapshot} of the database.
+	 */
+	Snapshot,
+
+	/**
+	 * {@link EmbeddedDerbyResource#restore(String) Restoring} the database from a snapshot.
+	 */
+	Restore,
+
+	/**
+	 * Closing the pooled data source of the resource.
+	 */
+	DataSourceClose,
+
+	/**
+	 * Shutting down the network server.
+	 */
+	NetworkServerShutdown,
+
+	/**
+	 * Dropping (for in memory databases) or shutting down the database; with the
+	 * {@link DerbyResourceConfig#useAsynchronousShutdown() asynchronous shutdown}, reported from the background thread
+	 * after the {@link #Close} phase.
+	 */
+	DatabaseShutdown,
+
+	/**
+	 * The complete close of the resource.
+	 */
+	Close;
+}
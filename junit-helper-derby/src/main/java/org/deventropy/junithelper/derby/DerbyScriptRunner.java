@@ -15,16 +15,20 @@
  */
 package org.deventropy.junithelper.derby;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
-import java.net.URL;
 import java.nio.charset.Charset;
 import java.sql.Connection;
+import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.derby.tools.ij;
@@ -44,6 +48,13 @@ import org.deventropy.shared.utils.UrlResourceUtil;
  * 
  * <p>The script resources provided to this class should be in the format supported by {@link UrlResourceUtil}.
  * 
+ * <p>Scripts are executed using the Derby <code>ij</code> tool by default; the
+ * {@link #setScriptExecutionEngine(ScriptExecutionEngine) script execution engine} can be changed to execute plain SQL
+ * scripts directly over JDBC, which is faster for large scripts.
+ * 
+ * <p>Scripts are read through the JVM wide {@link SqlScriptCache}, so scripts executed again (for example the same post
+ * init scripts in several test classes) are not read, or split into statements for the JDBC engine, again.
+ * 
  * @author Bindul Bhowmik
  */
 public class DerbyScriptRunner {
@@ -70,6 +81,11 @@ public class DerbyScriptRunner {
 	 */
 	private OutputStream defaultScriptLogStream;
 	
+	/**
+	 * The engine executing the scripts.
+	 */
+	private ScriptExecutionEngine scriptExecutionEngine = ScriptExecutionEngine.Ij;
+	
 	/**
 	 * Initializes a new script runner.
 	 * 
@@ -104,6 +120,17 @@ public class DerbyScriptRunner {
 		this.defaultScriptLogStream = defaultScriptLogStream;
 	}
 	
+	/**
+	 * Sets the engine used to execute scripts; {@link ScriptExecutionEngine#Ij} if not set. Either engine returns the
+	 * number of statements that failed from the <code>executeScript</code> methods.
+	 * 
+	 * @param scriptExecutionEngine The script execution engine
+	 */
+	public void setScriptExecutionEngine (final ScriptExecutionEngine scriptExecutionEngine) {
+		ArgumentCheck.notNull(scriptExecutionEngine, "Script Execution Engine");
+		this.scriptExecutionEngine = scriptExecutionEngine;
+	}
+	
 	/**
 	 * Executes the given script. The script run logs are written to the
 	 * {@link #setDefaultScriptLogStream(OutputStream)}.
@@ -150,12 +177,19 @@ public class DerbyScriptRunner {
 
 		try {
 
-			final URL scriptUrl = UrlResourceUtil.getUrl(script);
-			scriptStream = scriptUrl.openStream();
+			// Scripts too large for the cache are read as they are executed
+			final SqlScriptCache.CachedScript cachedScript = SqlScriptCache.getInstance().getScript(script, charset);
+			scriptStream = (null == cachedScript) ? UrlResourceUtil.getUrl(script).openStream()
+					: cachedScript.openStream();
 	
-			log.debug("Executing script: {}", script);
-			final int exceptionCount = ij.runScript(dbConnection, scriptStream, charset,
-					scriptLogStream, charset);
+			log.debug("Executing script: {} using {}", script, scriptExecutionEngine);
+			final int exceptionCount;
+			if (ScriptExecutionEngine.Jdbc == scriptExecutionEngine) {
+				exceptionCount = (null == cachedScript) ? executeJdbcScript(scriptStream, scriptLogStream)
+						: executeJdbcStatements(cachedScript.getStatements(), scriptLogStream);
+			} else {
+				exceptionCount = ij.runScript(dbConnection, scriptStream, charset, scriptLogStream, charset);
+			}
 			if (exceptionCount > 0) {
 				log.warn("Error executing script {}. See output for details", script);
 			}
@@ -168,9 +202,40 @@ public class DerbyScriptRunner {
 			log.warn("Error opening or reading script file: {0}", script);
 			throw e;
 		} finally {
-			IOUtils.closeQuietly(scriptLogStream);
+			if (closeScriptLogStream) {
+				IOUtils.closeQuietly(scriptLogStream);
+			}
 			IOUtils.closeQuietly(scriptStream);
 		}
 	}
-}
 
+	private int executeJdbcScript (final InputStream scriptStream, final OutputStream scriptLogStream)
+			throws IOException {
+
+		final SqlScriptTokenizer tokenizer = new SqlScriptTokenizer(new BufferedReader(
+				new InputStreamReader(scriptStream, charset)));
+		final JdbcScriptExecutor executor = createJdbcScriptExecutor(scriptLogStream);
+		String sqlStatement;
+		while (null != (sqlStatement = tokenizer.nextStatement())) {
+			executor.execute(sqlStatement);
+		}
+		return executor.finish();
+	}
+
+	private int executeJdbcStatements (final List<String> sqlStatements, final OutputStream scriptLogStream)
+			throws IOException {
+
+		final JdbcScriptExecutor executor = createJdbcScriptExecutor(scriptLogStream);
+		for (String sqlStatement : sqlStatements) {
+			executor.execute(sqlStatement);
+		}
+		return executor.finish();
+	}
+
+	private JdbcScriptExecutor createJdbcScriptExecutor (final OutputStream scriptLogStream)
+			throws UnsupportedEncodingException {
+		// Not closed here, the log stream is handled by the caller
+		final PrintWriter scriptLogWriter = new PrintWriter(new OutputStreamWriter(scriptLogStream, charset));
+		return new JdbcScriptExecutor(dbConnection, scriptLogWriter);
+	}
+}
@@ -0,0 +1,441 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.deventropy.shared.utils.ArgumentCheck;
+
+/**
+ * Profiles the statements executed on connections {@link #wrap(Connection) wrapped} by it: for each distinct SQL
+ * statement, the number of executions, the total, maximum and approximate percentile latencies, and the number of rows
+ * read from the results or updated. A statement executed many more times than the test expects (for example once per
+ * row of another query, the N+1 query pattern) shows up at the top of the {@link #getReport(int) most frequent
+ * statements}.
+ * 
+ * <p>With {@link DerbyResourceConfig#useStatementProfiling()}, connections from the
+ * {@link EmbeddedDerbyResource#getDataSource() data source} and {@link TransactionalConnectionResource} are profiled,
+ * the report is logged when the resource is closed, usually at the end of the test class, and the statistics are
+ * reset when the resource is started again. Connections opened
+ * with the {@link EmbeddedDerbyResource#getJdbcUrl() JDBC URL} can be profiled by wrapping them:
+ * <pre>
+ * final Connection conn = embeddedDerbyResource.getStatementProfiler()
+ * 	.wrap(DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl()));
+ * </pre>
+ * 
+ * <p>Latencies are recorded in power of two buckets, so percentiles are accurate to within a factor of two; the
+ * statistics of a statement are created on its first execution, later executions only update counters.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class DerbyStatementProfiler {
+
+	/**
+	 * The SQL recorded for batches of plain statements, as they do not have a single SQL statement.
+	 */
+	public static final String STATEMENT_BATCH_SQL = "[statement batch]";
+
+	private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final int LATENCY_BUCKETS = Long.SIZE;
+
+	private final ConcurrentMap<String, StatementStatistics> statementStatistics = new ConcurrentHashMap<>();
+
+	/**
+	 * Wraps a connection so the statements executed on it are profiled. Statements and result sets created from the
+	 * wrapped connection are wrapped as well; all other calls are passed on to the connection.
+	 * 
+	 * @param connection The connection to profile
+	 * @return The profiled connection
+	 */
+	public Connection wrap (final Connection connection) {
+		ArgumentCheck.notNull(connection, "Connection");
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class}, new ProfiledConnectionHandler(connection));
+	}
+
+	/**
+	 * Returns the statistics of all the statements executed so far.
+	 * 
+	 * @return The statement statistics, in no particular order
+	 */
+	public List<StatementStatistics> getStatementStatistics () {
+		return new ArrayList<>(statementStatistics.values());
+	}
+
+	/**
+	 * Returns the statistics of a statement.
+	 * 
+	 * @param sql The SQL of the statement
+	 * @return The statement statistics; <code>null</code> if the statement was not executed
+	 */
+	public StatementStatistics getStatementStatistics (final String sql) {
+		return statementStatistics.get(sql);
+	}
+
+	/**
+	 * Clears all the statistics.
+	 */
+	public void reset () {
+		statementStatistics.clear();
+	}
+
+	/**
+	 * Formats a report of the slowest (by total time) and the most frequently executed statements.
+	 * 
+	 * @param maxStatements The maximum number of statements in each list
+	 * @return The report
+	 */
+	public String getReport (final int maxStatements) {
+		final List<StatementStatistics> statements = getStatementStatistics();
+		final StringWriter report = new StringWriter();
+		final PrintWriter out = new PrintWriter(report);
+		long executions = 0;
+		long totalNanos = 0;
+		for (StatementStatistics statement : statements) {
+			executions += statement.getExecutionCount();
+			totalNanos += statement.getTotalNanos();
+		}
+		out.printf("Profiled %d executions of %d statements in %.1f ms%n", executions, statements.size(),
+				toMillis(totalNanos));
+		if (!statements.isEmpty()) {
+			Collections.sort(statements, new Comparator<StatementStatistics>() {
+				@Override
+				public int compare (final StatementStatistics o1, final StatementStatistics o2) {
+					return Long.compare(o2.getTotalNanos(), o1.getTotalNanos());
+				}
+			});
+			printStatements(out, "Slowest statements:", statements, maxStatements);
+			Collections.sort(statements, new Comparator<StatementStatistics>() {
+				@Override
+				public int compare (final StatementStatistics o1, final StatementStatistics o2) {
+					return Long.compare(o2.getExecutionCount(), o1.getExecutionCount());
+				}
+			});
+			printStatements(out, "Most frequent statements:", statements, maxStatements);
+		}
+		out.flush();
+		return report.toString();
+	}
+
+	private void printStatements (final PrintWriter out, final String title, final List<StatementStatistics> statements,
+			final int maxStatements) {
+		out.printf("%s%n", title);
+		out.printf("%8s %12s %10s %10s %10s %10s  %s%n", "Count", "Total (ms)", "Avg (ms)", "p95 (ms)", "Max (ms)",
+				"Rows", "SQL");
+		for (StatementStatistics statement : statements.subList(0, Math.min(maxStatements, statements.size()))) {
+			final long count = statement.getExecutionCount();
+			final double avgMillis = (count == 0) ? 0 : toMillis(statement.getTotalNanos()) / count;
+			out.printf("%8d %12.1f %10.1f %10.1f %10.1f %10d  %s%n", count, toMillis(statement.getTotalNanos()),
+					avgMillis, toMillis(statement.getPercentileNanos(95)), toMillis(statement.getMaxNanos()),
+					statement.getRowCount(), statement.getSql());
+		}
+	}
+
+	private static double toMillis (final long nanos) {
+		return nanos / NANOS_PER_MILLI;
+	}
+
+	private StatementStatistics getOrCreateStatistics (final String sql) {
+		StatementStatistics statistics = statementStatistics.get(sql);
+		if (null == statistics) {
+			final StatementStatistics newStatistics = new StatementStatistics(sql);
+			statistics = statementStatistics.putIfAbsent(sql, newStatistics);
+			if (null == statistics) {
+				statistics = newStatistics;
+			}
+		}
+		return statistics;
+	}
+
+	private static Object invoke (final Object target, final Method method, final Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * The execution statistics of a SQL statement.
+	 */
+	public static final class StatementStatistics {
+
+		private final String sql;
+		private final AtomicLong executionCount = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLong rowCount = new AtomicLong();
+		private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+
+		private StatementStatistics (final String sql) {
+			this.sql = sql;
+		}
+
+		private void recordExecution (final long elapsedNanos) {
+			executionCount.incrementAndGet();
+			totalNanos.addAndGet(elapsedNanos);
+			long currentMax = maxNanos.get();
+			while (elapsedNanos > currentMax && !maxNanos.compareAndSet(currentMax, elapsedNanos)) {
+				currentMax = maxNanos.get();
+			}
+			latencyBuckets.incrementAndGet(LATENCY_BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(elapsedNanos, 1)));
+		}
+
+		private void recordRows (final long rows) {
+			rowCount.addAndGet(rows);
+		}
+
+		/**
+		 * @return The SQL of the statement
+		 */
+		public String getSql () {
+			return sql;
+		}
+
+		/**
+		 * @return The number of times the statement was executed
+		 */
+		public long getExecutionCount () {
+			return executionCount.get();
+		}
+
+		/**
+		 * @return The total execution time in nanoseconds
+		 */
+		public long getTotalNanos () {
+			return totalNanos.get();
+		}
+
+		/**
+		 * @return The longest execution time in nanoseconds
+		 */
+		public long getMaxNanos () {
+			return maxNanos.get();
+		}
+
+		/**
+		 * The number of rows read from the results of the statement, or updated by it.
+		 * 
+		 * @return The row count
+		 */
+		public long getRowCount () {
+			return rowCount.get();
+		}
+
+		/**
+		 * Returns an approximate percentile of the execution times; the upper bound of the power of two bucket the
+		 * percentile falls in, limited to the {@link #getMaxNanos() maximum}.
+		 * 
+		 * @param percentile The percentile, between <code>0</code> (exclusive) and <code>100</code>
+		 * @return The percentile execution time in nanoseconds; <code>0</code> if the statement was not executed
+		 */
+		public long getPercentileNanos (final double percentile) {
+			if (percentile <= 0 || percentile > 100) {
+				throw new IllegalArgumentException("Percentile should be greater than 0 and at most 100");
+			}
+			final long count = executionCount.get();
+			final long rank = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for (int bucket = 0; bucket < LATENCY_BUCKETS; bucket++) {
+				seen += latencyBuckets.get(bucket);
+				if (seen >= rank && seen > 0) {
+					final long bucketUpperBound = (bucket >= LATENCY_BUCKETS - 2) ? Long.MAX_VALUE : (2L << bucket) - 1;
+					return Math.min(bucketUpperBound, maxNanos.get());
+				}
+			}
+			return maxNanos.get();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString () {
+			return executionCount.get() + " executions of " + sql;
+		}
+	}
+
+	/**
+	 * Profiles the statements created from the connection.
+	 */
+	private final class ProfiledConnectionHandler implements InvocationHandler {
+
+		private final Connection wrapped;
+
+		private ProfiledConnectionHandler (final Connection wrapped) {
+			this.wrapped = wrapped;
+		}
+
+		@Override
+		public Object invoke (final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String methodName = method.getName();
+			if ("equals".equals(methodName)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(methodName)) {
+				return System.identityHashCode(proxy);
+			}
+			final Object result = DerbyStatementProfiler.invoke(wrapped, method, args);
+			if (result instanceof Statement) {
+				final Class<?> statementInterface;
+				final String sql;
+				if ("prepareCall".equals(methodName)) {
+					statementInterface = CallableStatement.class;
+					sql = (String) args[0];
+				} else if ("prepareStatement".equals(methodName)) {
+					statementInterface = PreparedStatement.class;
+					sql = (String) args[0];
+				} else {
+					statementInterface = Statement.class;
+					sql = null;
+				}
+				return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {statementInterface},
+						new ProfiledStatementHandler((Statement) result, (Connection) proxy, sql));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Times the executions of the statement, and counts the rows of its results.
+	 */
+	private final class ProfiledStatementHandler implements InvocationHandler {
+
+		private final Statement wrapped;
+		private final Connection connection;
+		private final String preparedSql;
+		private StatementStatistics preparedStatistics;
+		private StatementStatistics lastStatistics;
+
+		private ProfiledStatementHandler (final Statement wrapped, final Connection connection, final String sql) {
+			this.wrapped = wrapped;
+			this.connection = connection;
+			this.preparedSql = sql;
+		}
+
+		@Override
+		public Object invoke (final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String methodName = method.getName();
+			if ("equals".equals(methodName)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(methodName)) {
+				return System.identityHashCode(proxy);
+			} else if ("getConnection".equals(methodName)) {
+				return connection;
+			} else if (!methodName.startsWith("execute")) {
+				final Object result = DerbyStatementProfiler.invoke(wrapped, method, args);
+				if (result instanceof ResultSet && "getResultSet".equals(methodName) && null != lastStatistics) {
+					return wrapResultSet((ResultSet) result, proxy);
+				}
+				return result;
+			}
+
+			final StatementStatistics statistics = getExecutionStatistics(args);
+			lastStatistics = statistics;
+			final long executionStart = System.nanoTime();
+			final Object result;
+			try {
+				result = DerbyStatementProfiler.invoke(wrapped, method, args);
+			} finally {
+				statistics.recordExecution(System.nanoTime() - executionStart);
+			}
+			if (result instanceof ResultSet) {
+				return wrapResultSet((ResultSet) result, proxy);
+			} else if (result instanceof Number) {
+				statistics.recordRows(((Number) result).longValue());
+			} else if (result instanceof int[]) {
+				for (int updateCount : (int[]) result) {
+					statistics.recordRows(Math.max(updateCount, 0));
+				}
+			} else if (result instanceof long[]) {
+				for (long updateCount : (long[]) result) {
+					statistics.recordRows(Math.max(updateCount, 0));
+				}
+			}
+			return result;
+		}
+
+		private StatementStatistics getExecutionStatistics (final Object[] args) {
+			if (null != preparedSql && (null == args || 0 == args.length)) {
+				if (null == preparedStatistics) {
+					preparedStatistics = getOrCreateStatistics(preparedSql);
+				}
+				return preparedStatistics;
+			} else if (null != args && args.length > 0 && args[0] instanceof String) {
+				return getOrCreateStatistics((String) args[0]);
+			}
+			return getOrCreateStatistics(STATEMENT_BATCH_SQL);
+		}
+
+		private ResultSet wrapResultSet (final ResultSet resultSet, final Object statementProxy) {
+			return (ResultSet) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] {ResultSet.class},
+					new ProfiledResultSetHandler(resultSet, (Statement) statementProxy, lastStatistics));
+		}
+	}
+
+	/**
+	 * Counts the rows read from the result set.
+	 */
+	private static final class ProfiledResultSetHandler implements InvocationHandler {
+
+		private final ResultSet wrapped;
+		private final Statement statement;
+		private final StatementStatistics statistics;
+
+		private ProfiledResultSetHandler (final ResultSet wrapped, final Statement statement,
+				final StatementStatistics statistics) {
+			this.wrapped = wrapped;
+			this.statement = statement;
+			this.statistics = statistics;
+		}
+
+		@Override
+		public Object invoke (final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String methodName = method.getName();
+			if ("equals".equals(methodName)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(methodName)) {
+				return System.identityHashCode(proxy);
+			} else if ("getStatement".equals(methodName)) {
+				return statement;
+			}
+			final Object result = DerbyStatementProfiler.invoke(wrapped, method, args);
+			if ("next".equals(methodName) && Boolean.TRUE.equals(result)) {
+				statistics.recordRows(1);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.derby.tools.sysinfo;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deventropy.shared.utils.UrlResourceUtil;
+
+/**
+ * JVM wide cache of template databases, used by the {@link EmbeddedDerbyResource} to avoid replaying the post init
+ * scripts for every instance started with an equivalent {@link DerbyResourceConfig}.
+ * 
+ * <p>A template is a Derby backup of a database on which the post init scripts have been executed; new databases are
+ * created from it using the <code>createFrom</code> connection attribute. Templates are identified by a
+ * {@link #fingerprint(DerbyResourceConfig) fingerprint} of the configuration, are built only once per JVM and are
+ * removed when the JVM exits.
+ * 
+ * <p>Templates may also be kept in a persistent <em>template store</em> directory, shared by multiple JVMs (for example
+ * forked test runners). The store is content addressed by the fingerprint; a file lock per fingerprint ensures only one
+ * JVM builds a template, the others wait for it and create their databases from the stored backup.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class DerbyTemplateCache {
+
+	private static final DerbyTemplateCache INSTANCE = new DerbyTemplateCache();
+
+	private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+	private static final String TEMPLATE_NAME_PREFIX = "junit-helper-derby-template-";
+	private static final String TEMPLATE_ROOT_PREFIX = "junit-helper-derby-templates-";
+	private static final String TEMPLATE_LOCK_SUFFIX = ".lock";
+	private static final String TEMPLATE_COMPLETE_MARKER = ".complete";
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Logger log = LogManager.getLogger();
+
+	private final ConcurrentMap<String, File> templates = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Object> templateLocks = new ConcurrentHashMap<>();
+
+	private File templateRootDirectory;
+
+	private DerbyTemplateCache () {
+		// Singleton
+	}
+
+	/**
+	 * Returns the JVM wide template cache.
+	 * 
+	 * @return The template cache
+	 */
+	static DerbyTemplateCache getInstance () {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the template database (the backup directory) for the fingerprint, building it with the
+	 * <code>templateBuilder</code> if this is the first request for the fingerprint in this JVM. Concurrent requests
+	 * for the same fingerprint wait for the first one to build the template.
+	 * 
+	 * <p>If a <code>templateStore</code> is specified, the template is looked up in (or built into) the store, guarded
+	 * by a file lock so concurrent JVMs using the same store build it only once.
+	 * 
+	 * @param fingerprint The configuration fingerprint, see {@link #fingerprint(DerbyResourceConfig)}
+	 * @param templateStore The persistent template store directory; or <code>null</code> to use a temporary directory
+	 * @param templateBuilder Builds the template if it does not exist
+	 * @return The backup directory to create new databases from
+	 * @throws IOException Error running the post init scripts or creating the template directories
+	 * @throws SQLException Error creating or backing up the template database
+	 */
+	File getTemplate (final String fingerprint, final File templateStore, final TemplateBuilder templateBuilder)
+			throws IOException, SQLException {
+
+		final File templateRoot = (null == templateStore) ? getTemplateRootDirectory() : templateStore;
+		final File templateParentDir = new File(templateRoot, fingerprint);
+		final String templateKey = templateParentDir.getAbsolutePath();
+
+		File template = templates.get(templateKey);
+		if (null != template) {
+			return template;
+		}
+
+		synchronized (getTemplateLock(templateKey)) {
+			template = templates.get(templateKey);
+			if (null == template) {
+				final String templateName = TEMPLATE_NAME_PREFIX + fingerprint;
+				if (null == templateStore) {
+					log.debug("Building template database {} in {}", fingerprint, templateParentDir);
+					template = templateBuilder.buildTemplate(templateName, templateParentDir);
+				} else {
+					template = getStoredTemplate(templateName, templateParentDir, templateBuilder);
+				}
+				templates.put(templateKey, template);
+			}
+		}
+		return template;
+	}
+
+	private File getStoredTemplate (final String templateName, final File templateParentDir,
+			final TemplateBuilder templateBuilder) throws IOException, SQLException {
+
+		final File templateStore = templateParentDir.getParentFile();
+		FileUtils.forceMkdir(templateStore);
+		final File completeMarker = new File(templateParentDir, TEMPLATE_COMPLETE_MARKER);
+		final File lockFile = new File(templateStore, templateParentDir.getName() + TEMPLATE_LOCK_SUFFIX);
+
+		// Blocks while another JVM is building the same template
+		final RandomAccessFile lockFileAccess = new RandomAccessFile(lockFile, "rw");
+		FileLock lock = null;
+		try {
+			lock = lockFileAccess.getChannel().lock();
+			if (completeMarker.exists()) {
+				log.debug("Using stored template database {}", templateParentDir);
+				return new File(templateParentDir, templateName);
+			}
+
+			// Clean out any partial template from a JVM that did not complete the build
+			FileUtils.deleteQuietly(templateParentDir);
+			log.debug("Building stored template database {}", templateParentDir);
+			final File template = templateBuilder.buildTemplate(templateName, templateParentDir);
+			FileUtils.touch(completeMarker);
+			return template;
+		} finally {
+			if (null != lock) {
+				lock.release();
+			}
+			IOUtils.closeQuietly(lockFileAccess);
+		}
+	}
+
+	private Object getTemplateLock (final String fingerprint) {
+		final Object newLock = new Object();
+		final Object existingLock = templateLocks.putIfAbsent(fingerprint, newLock);
+		return (null == existingLock) ? newLock : existingLock;
+	}
+
+	private synchronized File getTemplateRootDirectory () throws IOException {
+		if (null == templateRootDirectory) {
+			final File rootDir = new File(FileUtils.getTempDirectory(), TEMPLATE_ROOT_PREFIX + UUID.randomUUID());
+			FileUtils.forceMkdir(rootDir);
+			Runtime.getRuntime().addShutdownHook(new Thread("junit-helper-derby-template-cleanup") {
+				@Override
+				public void run () {
+					FileUtils.deleteQuietly(rootDir);
+				}
+			});
+			templateRootDirectory = rootDir;
+		}
+		return templateRootDirectory;
+	}
+
+	/**
+	 * Computes the fingerprint of the parts of the configuration that determine the contents of the database after the
+	 * post init scripts are executed: the sub-sub protocol, the Derby properties (which may change the storage layout),
+	 * the ordered contents of the post init scripts and the options and data of the post init data imports. The Derby
+	 * version is included as well, as stored templates may outlive the JVM that built them.
+	 * 
+	 * @param config The resource configuration
+	 * @return A hex encoded fingerprint
+	 * @throws IOException Error reading one of the post init scripts or data imports
+	 */
+	static String fingerprint (final DerbyResourceConfig config) throws IOException {
+		return fingerprint(config, null);
+	}
+
+	/**
+	 * Computes the {@link #fingerprint(DerbyResourceConfig) fingerprint} of the configuration, qualified with a value
+	 * that is not part of it (such as the path of the database in a jar).
+	 * 
+	 * @param config The resource configuration
+	 * @param qualifier The qualifier, may be <code>null</code>
+	 * @return A hex encoded fingerprint
+	 * @throws IOException Error reading one of the post init scripts or data imports
+	 */
+	static String fingerprint (final DerbyResourceConfig config, final String qualifier) throws IOException {
+		final MessageDigest configDigest = newDigest();
+		if (null != qualifier) {
+			configDigest.update(qualifier.getBytes(StandardCharsets.UTF_8));
+		}
+		configDigest.update(sysinfo.getVersionString().getBytes(StandardCharsets.UTF_8));
+		configDigest.update(config.getSubSubProtocol().name().getBytes(StandardCharsets.UTF_8));
+		// Sorted, the order properties are added in does not matter
+		configDigest.update(new TreeMap<>(config.getDerbyProperties()).toString().getBytes(StandardCharsets.UTF_8));
+		for (String postInitScript : config.getPostInitScripts()) {
+			// Digest of digests, so script boundaries are part of the fingerprint
+			configDigest.update(digestResource(postInitScript));
+		}
+		for (DerbyDataImport dataImport : config.getPostInitDataImports()) {
+			configDigest.update(dataImport.describeOptions().getBytes(StandardCharsets.UTF_8));
+			configDigest.update(digestResource(dataImport.getDataResource()));
+		}
+		return toHex(configDigest.digest());
+	}
+
+	private static byte[] digestResource (final String resource) throws IOException {
+		final MessageDigest resourceDigest = newDigest();
+		InputStream resourceStream = null;
+		try {
+			resourceStream = UrlResourceUtil.getUrl(resource).openStream();
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = resourceStream.read(buffer)) != -1) {
+				resourceDigest.update(buffer, 0, read);
+			}
+		} finally {
+			IOUtils.closeQuietly(resourceStream);
+		}
+		return resourceDigest.digest();
+	}
+
+	private static MessageDigest newDigest () {
+		try {
+			return MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException("Message digest not available: " + FINGERPRINT_ALGORITHM, e);
+		}
+	}
+
+	private static String toHex (final byte[] bytes) {
+		final StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Builds a template database.
+	 */
+	interface TemplateBuilder {
+
+		/**
+		 * Creates a database named <code>templateName</code>, runs the post init scripts on it and backs it up in
+		 * the <code>templateParentDir</code>.
+		 * 
+		 * @param templateName The name of the template database
+		 * @param templateParentDir The directory to back up the template database in
+		 * @return The backup directory of the template database
+		 * @throws IOException Error running the post init scripts
+		 * @throws SQLException Error creating or backing up the template database
+		 */
+		File buildTemplate (String templateName, File templateParentDir) throws IOException, SQLException;
+	}
+}
@@ -15,8 +15,11 @@
  */
 package org.deventropy.junithelper.derby;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.sql.CallableStatement;
+import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 
@@ -69,6 +72,27 @@ public final class DerbyUtils {
 		}
 	}
 	
+	/**
+	 * Runs an online backup of the database the connection is open to, using the
+	 * <code>SYSCS_UTIL.SYSCS_BACKUP_DATABASE</code> system procedure. Derby creates the backup in a sub directory of
+	 * the <code>backupDirectory</code> named after the database; for more information see
+	 * <a href="https://db.apache.org/derby/docs/10.12/ref/rrefbackupdbproc.html">SYSCS_UTIL.SYSCS_BACKUP_DATABASE</a>.
+	 * 
+	 * @param connection The connection to the database to back up
+	 * @param backupDirectory The directory to create the backup in
+	 * @throws SQLException Error running the backup
+	 */
+	public static void backupDatabase (final Connection connection, final File backupDirectory) throws SQLException {
+		CallableStatement backupStmt = null;
+		try {
+			backupStmt = connection.prepareCall("CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)");
+			backupStmt.setString(1, backupDirectory.getAbsolutePath());
+			backupStmt.execute();
+		} finally {
+			closeQuietly(backupStmt);
+		}
+	}
+	
 	/**
 	 * Quietly close an {@linkplain AutoCloseable} resource, like a SQL Connection, Statement, etc.
 	 * 
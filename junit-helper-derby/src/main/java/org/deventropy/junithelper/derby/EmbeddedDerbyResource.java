@@ -17,19 +17,37 @@ package org.deventropy.junithelper.derby;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.deventropy.shared.utils.ArgumentCheck;
+import org.junit.Assert;
 import org.junit.rules.ExternalResource;
 import org.junit.rules.TemporaryFolder;
 
@@ -44,8 +62,13 @@ import org.junit.rules.TemporaryFolder;
  * handle the initialization and de-initialization for the user (internally using the <code>#start()</code> and
  * <code>#close()</code> methods.
  * 
+ * <p>With the {@link DerbyResourceConfig#useLazyStart() lazy start} enabled, the rule does not start the database
+ * before the tests; it is started on the first call to {@link #getJdbcUrl()} or {@link #getDataSource()}, so tests that
+ * do not use the database do not pay for creating it.
+ * 
  * <p>Derby does not allow running multiple instances in the same JVM, so external protection should be provided to
- * protect against that.
+ * protect against that; unless the resources are configured to use the
+ * {@link DerbyResourceConfig#useParallelSafeMode() parallel safe mode}.
  * 
  * <p>Example of usage:
  * <pre>
@@ -93,11 +116,23 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 	private static final String PROP_DERBY_STREAM_ERROR_FILE = "derby.stream.error.file";
 	private static final String PROP_DERBY_STREAM_ERROR_FIELD = "derby.stream.error.field";
 	
+	private static final String SQL_SET_DATABASE_PROPERTY = "CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY (?, ?)";
+	
 	private static final String URLPROP_DERBY_CREATE = ";create=true";
 	private static final String URLPROP_DERBY_SHUTDOWN = ";shutdown=true";
 	private static final String URLPROP_DERBY_DROP = ";drop=true";
+	private static final String URLPROP_DERBY_CREATE_FROM = ";createFrom=";
+	private static final String URLPROP_DERBY_RESTORE_FROM = ";restoreFrom=";
 	
 	private static final String DERBY_EMBEDDED_DRIVER_CLASS = "org.apache.derby.jdbc.EmbeddedDriver";
+	private static final String JDBC_URL_PREFIX = "jdbc:derby:";
+	private static final String JDBC_CLIENT_URL_PREFIX = "jdbc:derby://";
+
+	private static final int PROFILER_REPORT_STATEMENTS = 10;
+
+	private static final String SNAPSHOTS_DIR = "snapshots";
+	private static final String DERBY_SYSTEM_HOME_PREFIX = "junit-helper-derby-";
+	private static final Pattern SNAPSHOT_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_.-]+");
 	
 	private final Logger log = LogManager.getLogger();
 	
@@ -105,10 +140,23 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 	private File derbySystemHome;
 	private TemporaryFolder derbySystemHomeParent;
 	
-	private final String jdbcUrl;
+	private String jdbcUrl;
 	
 	private String oldDerbySystemHomeValue;
 	
+	private PooledDerbyDataSource dataSource;
+	private DerbyNetworkServer networkServer;
+	private String prewarmedDatabaseUrl;
+	private Future<?> pendingShutdown;
+	private final DerbyStatementProfiler statementProfiler;
+	private final Map<String, File> snapshots = new HashMap<>();
+	
+	private final Object startLock = new Object();
+	private volatile boolean started;
+	private boolean startAttempted;
+	private volatile boolean lazyStartPending;
+	private Exception lazyStartFailure;
+	
 	/**
 	 * Creates a new Derby resource. All configurable parameters for this resource come from the config object
 	 * passed in.
@@ -123,6 +171,7 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 		this.derbySystemHome = derbySystemHomeDir;
 
 		this.jdbcUrl = buildJdbcUrl();
+		this.statementProfiler = config.isStatementProfiling() ? new DerbyStatementProfiler() : null;
 	}
 	
 	/**
@@ -142,6 +191,7 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 		this.derbySystemHomeParent = derbySystemHomeParentTmpFolder;
 
 		this.jdbcUrl = buildJdbcUrl();
+		this.statementProfiler = config.isStatementProfiling() ? new DerbyStatementProfiler() : null;
 	}
 	
 	private String buildJdbcUrl () {
@@ -150,17 +200,35 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 			// for :jar: protocol, see http://db.apache.org/derby/docs/10.12/devguide/cdevdeploy11201.html
 			jdbcUrlBldr.append('(').append(config.getJarDatabaseJarFile()).append(')');
 		}
-		jdbcUrlBldr.append(config.getDatabasePath());
+		jdbcUrlBldr.append(resolveDatabasePath());
 		return jdbcUrlBldr.toString();
 	}
 
+	private String resolveDatabasePath () {
+		final String databasePath = config.getDatabasePath();
+		if (!config.isParallelSafeMode() || null == derbySystemHome || config.getSubSubProtocol().isReadOnly()) {
+			// Relative paths are resolved by Derby against the derby.system.home
+			return databasePath;
+		}
+		final File databaseFile = new File(databasePath);
+		if (databaseFile.isAbsolute()) {
+			return databasePath;
+		}
+		return new File(derbySystemHome, databasePath).getAbsolutePath();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.junit.rules.ExternalResource#before()
 	 */
 	@Override
 	protected void before () throws Throwable {
 		super.before();
-		this.start();
+		if (config.isLazyStart()) {
+			log.debug("Lazy start, deferring the start of {} to its first use", jdbcUrl);
+			lazyStartPending = true;
+		} else {
+			this.start();
+		}
 	}
 	
 	/**
@@ -174,13 +242,28 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 	 */
 	public void start () throws IOException, SQLException {
 		// Validate and setup
+		awaitPendingShutdown();
+		startAttempted = true;
+		if (null != statementProfiler) {
+			// The report logged when closed covers only this start, also when the resource is a per test rule
+			statementProfiler.reset();
+		}
+		final long startNanos = System.nanoTime();
+		long phaseNanos = startNanos;
 		if (null != derbySystemHomeParent) {
-			this.derbySystemHome = derbySystemHomeParent.newFolder();
+			this.derbySystemHome = newDerbySystemHome();
 		}
 		FileUtils.forceMkdir(derbySystemHome);
-		oldDerbySystemHomeValue = System.getProperty(PROP_DERBY_SYSTEM_HOME); // Saving it to reset it later
-		System.setProperty(PROP_DERBY_SYSTEM_HOME, derbySystemHome.getAbsolutePath());
-		setupDerbyProperties();
+		if (config.isParallelSafeMode()) {
+			// The database is addressed by its absolute path instead of setting the JVM wide derby.system.home
+			this.jdbcUrl = buildJdbcUrl();
+			log.debug("Parallel safe mode, not setting up {} for {}", PROP_DERBY_SYSTEM_HOME, jdbcUrl);
+		} else {
+			oldDerbySystemHomeValue = System.getProperty(PROP_DERBY_SYSTEM_HOME); // Saving it to reset it later
+			System.setProperty(PROP_DERBY_SYSTEM_HOME, derbySystemHome.getAbsolutePath());
+			setupDerbyProperties();
+		}
+		phaseNanos = phaseCompleted(DerbyResourcePhase.SystemHomeSetup, null, phaseNanos);
 
 		// Start the database
 		// Recommended Derby startup process,
@@ -192,37 +275,305 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 			resetDerbyHome();
 			throw new SQLException("Unable to initialize Derby driver class: " + DERBY_EMBEDDED_DRIVER_CLASS, e);
 		}
+		phaseNanos = phaseCompleted(DerbyResourcePhase.DriverBoot, null, phaseNanos);
+		if (JdbcDerbySubSubProtocol.Jar == config.getSubSubProtocol() && null != config.getJarDatabaseBuilder()) {
+			config.getJarDatabaseBuilder().build(new File(config.getJarDatabaseDirectory()));
+			phaseNanos = phaseCompleted(DerbyResourcePhase.JarDatabase, null, phaseNanos);
+		}
+		// Template database, if enabled
+		File templateDatabase = null;
+		if (isTemplateDatabaseApplicable()) {
+			final File templateStore = (null == config.getTemplateDatabaseStore()) ? null
+					: new File(config.getTemplateDatabaseStore());
+			templateDatabase = DerbyTemplateCache.getInstance().getTemplate(DerbyTemplateCache.fingerprint(config),
+				templateStore, new DerbyTemplateCache.TemplateBuilder() {
+					@Override
+					public File buildTemplate (final String templateName, final File templateParentDir)
+							throws IOException, SQLException {
+						return buildTemplateDatabase(templateName, templateParentDir);
+					}
+				});
+			phaseNanos = phaseCompleted(DerbyResourcePhase.TemplateDatabase, null, phaseNanos);
+		}
+
 		// Create / Connect to the database
-		final Connection conn = DriverManager.getConnection(buildCreateJDBCUrl());
+		final Connection conn;
+		if (isPrewarmedDatabaseApplicable()) {
+			// A database created from the template in the background, or now if none is ready
+			prewarmedDatabaseUrl = DerbyDatabasePool.getInstance().claim(templateDatabase,
+					config.getPrewarmedDatabases());
+			jdbcUrl = prewarmedDatabaseUrl;
+			conn = DriverManager.getConnection(jdbcUrl);
+		} else {
+			conn = DriverManager.getConnection(buildCreateJDBCUrl(templateDatabase));
+		}
+		phaseCompleted(DerbyResourcePhase.DatabaseCreation, null, phaseNanos);
+		try {
+			// Database properties, post init scripts and data imports; already part of the template if one was used
+			if (null == templateDatabase) {
+				setupDatabaseProperties(conn);
+				executePostInitScripts(conn, jdbcUrl);
+				executePostInitDataImports(conn);
+			}
+			setupQueryPlanCapture(conn);
+		} finally {
+			DerbyUtils.closeQuietly(conn);
+		}
+		if (config.isNetworkServer()) {
+			final long serverNanos = System.nanoTime();
+			startNetworkServer();
+			phaseCompleted(DerbyResourcePhase.NetworkServerStart, null, serverNanos);
+		}
+		started = true;
+		phaseCompleted(DerbyResourcePhase.Start, null, startNanos);
+	}
+
+	private File newDerbySystemHome () throws IOException {
+		if (config.isAsynchronousShutdown()) {
+			// Next to the temporary folder, so it is deleted after the background shutdown rather than by JUnit while
+			// the database is being shut down
+			return Files.createTempDirectory(derbySystemHomeParent.getRoot().getParentFile().toPath(),
+					DERBY_SYSTEM_HOME_PREFIX).toFile();
+		}
+		return derbySystemHomeParent.newFolder();
+	}
+
+	private void awaitPendingShutdown () throws IOException {
+		if (null == pendingShutdown) {
+			return;
+		}
+		try {
+			pendingShutdown.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for the shutdown of " + jdbcUrl, e);
+		} catch (ExecutionException e) {
+			// Failures are logged by the background executor
+			log.catching(Level.TRACE, e);
+		}
+		pendingShutdown = null;
+	}
+
+	/**
+	 * Notifies the resource listeners of a completed phase.
+	 * 
+	 * @return The current time, to time the next phase from
+	 */
+	private long phaseCompleted (final DerbyResourcePhase phase, final String detail, final long phaseStartNanos) {
+		final long nowNanos = System.nanoTime();
+		notifyPhaseCompleted(phase, detail, nowNanos - phaseStartNanos);
+		return nowNanos;
+	}
+
+	private void notifyPhaseCompleted (final DerbyResourcePhase phase, final String detail, final long nanos) {
+		for (DerbyResourceListener listener : config.getResourceListeners()) {
+			try {
+				listener.phaseCompleted(this, phase, detail, nanos);
+			} catch (RuntimeException e) {
+				log.warn("Error notifying resource listener {}", listener, e);
+			}
+		}
+	}
+
+	/**
+	 * Starts the Embedded derby instance if it has not been started yet; concurrent calls start it only once. This is
+	 * the method used to start the resource on first use with the
+	 * {@link DerbyResourceConfig#useLazyStart() lazy start}.
+	 * 
+	 * @throws IOException IO exception creating or setting derby home
+	 * @throws SQLException SQL exception starting derby or running the init scripts
+	 */
+	public void ensureStarted () throws IOException, SQLException {
+		if (started) {
+			return;
+		}
+		synchronized (startLock) {
+			if (!started) {
+				start();
+			}
+		}
+	}
+
+	/**
+	 * If the resource has been started.
+	 * 
+	 * @return <code>true</code> if the resource is started
+	 */
+	public boolean isStarted () {
+		return started;
+	}
+
+	private void startIfLazy () {
+		if (!lazyStartPending || started) {
+			return;
+		}
+		synchronized (startLock) {
+			if (null == lazyStartFailure) {
+				try {
+					ensureStarted();
+				} catch (IOException | SQLException e) {
+					// Not retried, the resource may be partially started
+					lazyStartFailure = e;
+				}
+			}
+			if (null != lazyStartFailure) {
+				throw new IllegalStateException("Error starting the Derby resource on first use", lazyStartFailure);
+			}
+		}
+	}
+
+	private boolean isTemplateDatabaseApplicable () {
+		return config.isTemplateDatabaseCacheEnabled() && !config.getSubSubProtocol().isReadOnly()
+				&& (!config.getPostInitScripts().isEmpty() || !config.getPostInitDataImports().isEmpty());
+	}
+
+	private boolean isPrewarmedDatabaseApplicable () {
+		return config.getPrewarmedDatabases() > 0 && JdbcDerbySubSubProtocol.Memory == config.getSubSubProtocol()
+				&& isTemplateDatabaseApplicable();
+	}
+
+	private File buildTemplateDatabase (final String templateName, final File templateParentDir)
+			throws IOException, SQLException {
+
+		// Templates are always built in memory, the backup can be restored with any writable sub-sub protocol. The
+		// absolute name keeps it independent of the derby.system.home, which may change in the parallel safe mode
+		final File templateDatabase = new File(templateParentDir, templateName);
+		final String templateUrl = JdbcDerbySubSubProtocol.Memory.jdbcConnectionPrefix()
+				+ templateDatabase.getAbsolutePath();
+		Connection conn = null;
+		try {
+			conn = DriverManager.getConnection(templateUrl + URLPROP_DERBY_CREATE);
+			setupDatabaseProperties(conn);
+			executePostInitScripts(conn, templateUrl);
+			executePostInitDataImports(conn);
+			FileUtils.forceMkdir(templateParentDir);
+			DerbyUtils.backupDatabase(conn, templateParentDir);
+		} finally {
+			DerbyUtils.closeQuietly(conn);
+			dropQuietly(templateUrl);
+		}
+		return templateDatabase;
+	}
+
+	private void dropQuietly (final String memoryDatabaseUrl) {
+		Connection conn = null;
 		try {
-			// Post init scripts
-			executePostInitScripts(conn);
+			conn = DriverManager.getConnection(memoryDatabaseUrl + URLPROP_DERBY_DROP);
+		} catch (SQLException e) {
+			// Ignore - there will always be an exception
+			log.catching(Level.TRACE, e);
 		} finally {
 			DerbyUtils.closeQuietly(conn);
 		}
 	}
 
-	private void executePostInitScripts (final Connection conn) throws IOException {
+	private void executePostInitScripts (final Connection conn, final String databaseUrl) throws IOException {
 		final DerbyScriptRunner scriptRunner = new DerbyScriptRunner(conn);
-		for (String postInitScript : config.getPostInitScripts()) {
+		scriptRunner.setScriptExecutionEngine(config.getScriptExecutionEngine());
+		for (List<String> stageScripts : config.getPostInitScriptStages()) {
+			if (stageScripts.size() == 1) {
+				final long scriptStartNanos = System.nanoTime();
+				executePostInitScript(scriptRunner, stageScripts.get(0));
+				phaseCompleted(DerbyResourcePhase.PostInitScript, stageScripts.get(0), scriptStartNanos);
+			} else {
+				executePostInitScriptStage(stageScripts, databaseUrl);
+			}
+		}
+	}
+
+	private void executePostInitScript (final DerbyScriptRunner scriptRunner, final String postInitScript)
+			throws IOException {
+		// Only a bounded tail of the log is kept in memory, to report failures without reading the log file back
+		final ScriptLogTail scriptLogTail = new ScriptLogTail(DerbyScriptRunner.DEFAULT_CHARSET);
+		OutputStream scriptLogStream = scriptLogTail;
+		if (!config.isScriptLogTailOnly()) {
 			final File scriptLogFile = new File(derbySystemHome, "post-init-"
 					+ postInitScript.replaceAll("/", "_") + ".log");
-			try {
-				final int result = scriptRunner.executeScript(postInitScript, scriptLogFile);
-				if (result != 0) {
-					log.warn(FileUtils.readFileToString(scriptLogFile));
-					throw new IOException("Exceptions exist in script. See output for details");
+			scriptLogStream = new TeeOutputStream(new FileOutputStream(scriptLogFile, true), scriptLogTail);
+		}
+		final int result;
+		try {
+			result = scriptRunner.executeScript(postInitScript, scriptLogStream, true);
+		} catch (IOException e) {
+			log.warn("Error executing post init script {}{}{}", postInitScript, System.lineSeparator(), scriptLogTail);
+			throw new IOException("Exceptions exist in script. See output for details", e);
+		}
+		if (result != 0) {
+			log.warn("Error executing post init script {}{}{}", postInitScript, System.lineSeparator(), scriptLogTail);
+			throw new IOException("Exceptions exist in script. See output for details");
+		}
+	}
+
+	private void executePostInitScriptStage (final List<String> stageScripts, final String databaseUrl)
+			throws IOException {
+		// Each script on a connection of its own; all the scripts of the stage are run, even if some fail
+		final ExecutorService stageExecutor = Executors.newFixedThreadPool(
+				Math.min(stageScripts.size(), config.getPostInitScriptThreads()));
+		try {
+			final List<Future<Long>> scriptFutures = new ArrayList<>();
+			for (final String postInitScript : stageScripts) {
+				scriptFutures.add(stageExecutor.submit(new Callable<Long>() {
+					@Override
+					public Long call () throws IOException, SQLException {
+						final long scriptStartNanos = System.nanoTime();
+						final Connection scriptConn = DriverManager.getConnection(databaseUrl);
+						try {
+							final DerbyScriptRunner scriptRunner = new DerbyScriptRunner(scriptConn);
+							scriptRunner.setScriptExecutionEngine(config.getScriptExecutionEngine());
+							executePostInitScript(scriptRunner, postInitScript);
+						} finally {
+							DerbyUtils.closeQuietly(scriptConn);
+						}
+						return System.nanoTime() - scriptStartNanos;
+					}
+				}));
+			}
+
+			final List<String> failedScripts = new ArrayList<>();
+			final List<Throwable> failures = new ArrayList<>();
+			for (int i = 0; i < stageScripts.size(); i++) {
+				try {
+					final long scriptNanos = scriptFutures.get(i).get();
+					// Listeners are notified on this thread, in the order of the scripts in the stage
+					notifyPhaseCompleted(DerbyResourcePhase.PostInitScript, stageScripts.get(i), scriptNanos);
+				} catch (ExecutionException e) {
+					failedScripts.add(stageScripts.get(i));
+					failures.add(e.getCause());
+				}
+			}
+			if (!failedScripts.isEmpty()) {
+				final IOException stageException = new IOException("Exceptions exist in scripts " + failedScripts
+						+ ". See output for details");
+				for (Throwable failure : failures) {
+					stageException.addSuppressed(failure);
 				}
-			} catch (IOException e) {
-				log.warn(FileUtils.readFileToString(scriptLogFile));
-				throw new IOException("Exceptions exist in script. See output for details");
+				throw stageException;
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted executing the post init scripts " + stageScripts, e);
+		} finally {
+			stageExecutor.shutdownNow();
 		}
 	}
 	
-	private String buildCreateJDBCUrl () {
-		// TODO Will handle things here to restore from a backup, etc.
-		return new StringBuilder().append(jdbcUrl).append(URLPROP_DERBY_CREATE).toString();
+	private void executePostInitDataImports (final Connection conn) throws IOException, SQLException {
+		for (DerbyDataImport dataImport : config.getPostInitDataImports()) {
+			final long importStartNanos = System.nanoTime();
+			// Resources not in the file system are staged in the derby system home, cleaned up with it
+			dataImport.execute(conn, derbySystemHome);
+			phaseCompleted(DerbyResourcePhase.PostInitDataImport, dataImport.getDataResource(), importStartNanos);
+		}
+	}
+
+	private String buildCreateJDBCUrl (final File templateDatabase) {
+		final StringBuilder createUrl = new StringBuilder().append(jdbcUrl);
+		if (null != templateDatabase) {
+			createUrl.append(URLPROP_DERBY_CREATE_FROM).append(templateDatabase.getAbsolutePath());
+		} else {
+			createUrl.append(URLPROP_DERBY_CREATE);
+		}
+		return createUrl.toString();
 	}
 
 	private void setupDerbyProperties () throws IOException {
@@ -239,6 +590,11 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 				break;
 		}
 
+		// Configured properties, may override the logging
+		for (Map.Entry<String, String> derbyProperty : config.getDerbyProperties().entrySet()) {
+			derbyProps.setProperty(derbyProperty.getKey(), derbyProperty.getValue());
+		}
+
 		// Write it
 		final File derbyPropertyFile = new File(derbySystemHome, PROP_FILE_DERBY_PROPERTIES);
 		final FileWriter derbyPropertyFileWriter = new FileWriter(derbyPropertyFile);
@@ -246,6 +602,50 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 		IOUtils.closeQuietly(derbyPropertyFileWriter);
 	}
 
+	private void setupDatabaseProperties (final Connection conn) throws SQLException {
+		// Only needed in the parallel safe mode, derby.properties is used otherwise
+		if (!config.isParallelSafeMode() || config.getDerbyProperties().isEmpty()) {
+			return;
+		}
+		if (config.getSubSubProtocol().isReadOnly()) {
+			log.warn("Derby properties can not be set on the read only database {}", jdbcUrl);
+			return;
+		}
+		CallableStatement stmt = null;
+		try {
+			stmt = conn.prepareCall(SQL_SET_DATABASE_PROPERTY);
+			for (Map.Entry<String, String> derbyProperty : config.getDerbyProperties().entrySet()) {
+				// System wide properties are rejected by the config in the parallel safe mode
+				stmt.setString(1, derbyProperty.getKey());
+				stmt.setString(2, derbyProperty.getValue());
+				stmt.execute();
+			}
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+		}
+	}
+
+	private void setupQueryPlanCapture (final Connection conn) throws SQLException {
+		if (!config.isQueryPlanCapture()) {
+			return;
+		}
+		if (config.getSubSubProtocol().isReadOnly()) {
+			log.warn("Query plans can not be captured on the read only database {}", jdbcUrl);
+			return;
+		}
+		DerbyQueryPlans.createTables(conn);
+	}
+
+	/**
+	 * Whether query plans are captured on the connections handed out by the resource.
+	 * 
+	 * @return <code>true</code> if query plan capture is enabled, and the database is not read only
+	 */
+	boolean isQueryPlanCaptureEnabled () {
+		return config.isQueryPlanCapture() && !config.getSubSubProtocol().isReadOnly();
+	}
+
+
 	/* (non-Javadoc)
 	 * @see org.junit.rules.ExternalResource#after()
 	 */
@@ -265,6 +665,104 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 	 */
 	@Override
 	public void close () throws IOException {
+		final long closeNanos = System.nanoTime();
+		synchronized (startLock) {
+			lazyStartPending = false;
+			lazyStartFailure = null;
+			if (!startAttempted) {
+				// Never started, nothing to shut down
+				return;
+			}
+			startAttempted = false;
+			started = false;
+		}
+
+		// Pooled connections have to be closed before the database is shut down
+		closeDataSource();
+		if (null != statementProfiler) {
+			log.info("Statements executed on {}{}{}", jdbcUrl, System.lineSeparator(),
+					statementProfiler.getReport(PROFILER_REPORT_STATEMENTS));
+		}
+		long shutdownNanos = phaseCompleted(DerbyResourcePhase.DataSourceClose, null, closeNanos);
+
+		// Client connections have to be closed before the database is shut down
+		if (null != networkServer) {
+			shutdownNetworkServer();
+			shutdownNanos = phaseCompleted(DerbyResourcePhase.NetworkServerShutdown, null, shutdownNanos);
+		}
+		if (config.isAsynchronousShutdown()) {
+			shutdownDatabaseInBackground();
+		} else {
+			shutdownDatabase();
+			phaseCompleted(DerbyResourcePhase.DatabaseShutdown, null, shutdownNanos);
+			deleteSnapshots();
+		}
+		// Reset the Derby System Home property
+		resetDerbyHome();
+		phaseCompleted(DerbyResourcePhase.Close, null, closeNanos);
+	}
+
+	/**
+	 * Waits for the pending {@link DerbyResourceConfig#useAsynchronousShutdown() asynchronous shutdowns} of closed
+	 * resources, and other background work such as dropping {@link DerbyResourceConfig#usePrewarmedDatabases(int)
+	 * prewarmed databases}; for example before shutting down the Derby system after the tests of a class.
+	 * 
+	 * @param timeout The maximum time to wait
+	 * @param unit The unit of the timeout
+	 * @return <code>true</code> if the shutdowns completed; <code>false</code> if the timeout elapsed
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public static boolean awaitAsynchronousShutdowns (final long timeout, final TimeUnit unit)
+			throws InterruptedException {
+		return DerbyBackgroundExecutor.getInstance().awaitIdle(timeout, unit);
+	}
+
+	private synchronized void startNetworkServer () throws IOException {
+		networkServer = new DerbyNetworkServer(config.getNetworkServerMaxThreads());
+		try {
+			networkServer.start(derbySystemHome);
+		} catch (IOException e) {
+			networkServer = null;
+			throw e;
+		}
+		log.info("Derby network server for {} started at {}", jdbcUrl, buildClientJdbcUrl());
+	}
+
+	private synchronized void shutdownNetworkServer () {
+		networkServer.shutdown();
+		networkServer = null;
+	}
+
+	private void shutdownDatabaseInBackground () {
+		final boolean deleteSnapshots = clearSnapshots();
+		final File systemHome = derbySystemHome;
+		final boolean deleteSystemHome = null != derbySystemHomeParent;
+		pendingShutdown = DerbyBackgroundExecutor.getInstance().submit("Shutdown " + jdbcUrl, new Runnable() {
+			@Override
+			public void run () {
+				final long shutdownNanos = System.nanoTime();
+				shutdownDatabase();
+				phaseCompleted(DerbyResourcePhase.DatabaseShutdown, null, shutdownNanos);
+				if (deleteSystemHome) {
+					FileUtils.deleteQuietly(systemHome);
+				} else if (deleteSnapshots) {
+					FileUtils.deleteQuietly(new File(systemHome, SNAPSHOTS_DIR));
+				}
+			}
+		});
+	}
+
+	private void shutdownDatabase () {
+		if (null != prewarmedDatabaseUrl) {
+			// Dropped in the background
+			DerbyDatabasePool.getInstance().release(prewarmedDatabaseUrl);
+			prewarmedDatabaseUrl = null;
+			return;
+		}
+		shutdownDatabaseNow();
+	}
+
+	private void shutdownDatabaseNow () {
 		Connection conn = null;
 		try {
 			final StringBuilder shutdownUrl = new StringBuilder(jdbcUrl);
@@ -280,11 +778,154 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 		} finally {
 			DerbyUtils.closeQuietly(conn);
 		}
-		// Reset the Derby System Home property
-		resetDerbyHome();
+	}
+
+	/**
+	 * Takes a snapshot of the current state of the database, which the database can be {@link #restore(String)
+	 * restored} to later; for example to return to a known state several times in a test class without restarting the
+	 * resource. The snapshot is an online backup of the database in the {@link #getDerbySystemHome() Derby system
+	 * home} (also for in memory databases), replacing an earlier snapshot with the same name; snapshots are deleted
+	 * when the resource is closed.
+	 * 
+	 * <p>Changes in transactions that are not committed are not part of the snapshot. Snapshots are not supported for
+	 * the read only {@link JdbcDerbySubSubProtocol#Jar} and {@link JdbcDerbySubSubProtocol#Classpath} databases.
+	 * 
+	 * @param name The name of the snapshot; letters, digits, <code>_</code>, <code>.</code> and <code>-</code>
+	 * @throws IOException Error preparing the snapshot directory
+	 * @throws SQLException Error backing up the database
+	 */
+	public void snapshot (final String name) throws IOException, SQLException {
+		checkSnapshotName(name);
+		startIfLazy();
+		final long snapshotNanos = System.nanoTime();
+		synchronized (startLock) {
+			checkSnapshotsSupported();
+			final File snapshotDir = new File(new File(derbySystemHome, SNAPSHOTS_DIR), name);
+			snapshots.remove(name);
+			FileUtils.deleteDirectory(snapshotDir);
+			FileUtils.forceMkdir(snapshotDir);
+
+			final Connection conn = DriverManager.getConnection(jdbcUrl);
+			try {
+				DerbyUtils.backupDatabase(conn, snapshotDir);
+			} finally {
+				DerbyUtils.closeQuietly(conn);
+			}
+			// Derby backs up into a sub directory named after the database
+			final File[] backups = snapshotDir.listFiles();
+			if (null == backups || 1 != backups.length) {
+				throw new IOException("Unexpected contents of the snapshot directory " + snapshotDir);
+			}
+			snapshots.put(name, backups[0]);
+		}
+		phaseCompleted(DerbyResourcePhase.Snapshot, null, snapshotNanos);
+	}
+
+	/**
+	 * Restores the database to a {@link #snapshot(String) snapshot}. In memory databases are dropped and created from
+	 * the snapshot, other databases are shut down and restored from it; connections open to the database (including
+	 * connections borrowed from the {@link #getDataSource() data source}) can not be used after the restore. Idle
+	 * connections in the data source are closed, and new ones are opened as needed.
+	 * 
+	 * @param name The name of the snapshot
+	 * @throws SQLException Error restoring the database
+	 */
+	public void restore (final String name) throws SQLException {
+		checkSnapshotName(name);
+		final long restoreNanos = System.nanoTime();
+		synchronized (startLock) {
+			checkSnapshotsSupported();
+			final File snapshot = snapshots.get(name);
+			if (null == snapshot) {
+				throw new IllegalArgumentException("No snapshot named " + name);
+			}
+			closeIdlePooledConnections();
+			// Not released to the pool of prewarmed databases, the database is created again
+			shutdownDatabaseNow();
+
+			final StringBuilder restoreUrl = new StringBuilder(jdbcUrl);
+			if (JdbcDerbySubSubProtocol.Memory == config.getSubSubProtocol()) {
+				// The dropped database is created again
+				restoreUrl.append(URLPROP_DERBY_CREATE_FROM);
+			} else {
+				restoreUrl.append(URLPROP_DERBY_RESTORE_FROM);
+			}
+			restoreUrl.append(snapshot.getAbsolutePath());
+			DerbyUtils.closeQuietly(DriverManager.getConnection(restoreUrl.toString()));
+		}
+		phaseCompleted(DerbyResourcePhase.Restore, null, restoreNanos);
+	}
+
+	/**
+	 * Generates synthetic rows into tables of the database, for example for load style tests; see
+	 * {@link DerbyDataGenerator}. With the {@link DerbyResourceConfig#useLazyStart() lazy start}, the first call starts
+	 * the database.
+	 * 
+	 * @param dataGenerator The generator, with the tables and the number of rows
+	 * @return The rows generated, and the time taken
+	 * @throws SQLException Error generating the rows
+	 */
+	public DerbyDataGenerator.Result generateData (final DerbyDataGenerator dataGenerator) throws SQLException {
+		ArgumentCheck.notNull(dataGenerator, "Data generator");
+		final Connection conn = DriverManager.getConnection(getJdbcUrl());
+		try {
+			return dataGenerator.generate(conn);
+		} finally {
+			DerbyUtils.closeQuietly(conn);
+		}
+	}
+
+	private void checkSnapshotName (final String name) {
+		ArgumentCheck.notNullOrEmpty(name, "Snapshot name");
+		if (!SNAPSHOT_NAME_PATTERN.matcher(name).matches()) {
+			throw new IllegalArgumentException("Invalid snapshot name " + name);
+		}
+	}
+
+	private void checkSnapshotsSupported () {
+		if (!started) {
+			throw new IllegalStateException("Derby resource not started");
+		}
+		if (config.getSubSubProtocol().isReadOnly()) {
+			throw new IllegalStateException("Snapshots are not supported for the read only database " + jdbcUrl);
+		}
+	}
+
+	private void deleteSnapshots () {
+		if (clearSnapshots()) {
+			FileUtils.deleteQuietly(new File(derbySystemHome, SNAPSHOTS_DIR));
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if there were snapshots to delete
+	 */
+	private boolean clearSnapshots () {
+		synchronized (startLock) {
+			final boolean hadSnapshots = !snapshots.isEmpty();
+			snapshots.clear();
+			return hadSnapshots;
+		}
+	}
+
+	private synchronized void closeIdlePooledConnections () {
+		if (null != dataSource) {
+			dataSource.closeIdleConnections();
+		}
+	}
+
+	private synchronized void closeDataSource () {
+		if (null != dataSource) {
+			dataSource.close();
+			dataSource = null;
+		}
 	}
 
 	private void resetDerbyHome () {
+		if (config.isParallelSafeMode()) {
+			// Never set
+			return;
+		}
 		// Reset the Derby System Home property
 		if (null != oldDerbySystemHomeValue && !oldDerbySystemHomeValue.isEmpty()) {
 			System.setProperty(PROP_DERBY_SYSTEM_HOME, oldDerbySystemHomeValue);
@@ -302,12 +943,162 @@ public class EmbeddedDerbyResource extends ExternalResource implements Closeable
 	}
 
 	/**
+	 * Returns the JDBC URL of the database. In the {@link DerbyResourceConfig#useParallelSafeMode() parallel safe mode}
+	 * with a temporary folder as the Derby system home, the URL is only complete once the resource is started.
+	 * 
+	 * <p>With the {@link DerbyResourceConfig#useLazyStart() lazy start}, the first call after the rule is applied
+	 * starts the database; errors starting it are thrown as an {@link IllegalStateException}.
+	 * 
 	 * @return the jdbcUrl
 	 */
 	public String getJdbcUrl () {
+		startIfLazy();
 		return jdbcUrl;
 	}
 
+	/**
+	 * Returns the JDBC URL of the database for the Derby client driver, through the network server started with the
+	 * resource; see {@link DerbyResourceConfig#useNetworkServer()}. With the
+	 * {@link DerbyResourceConfig#useLazyStart() lazy start}, the first call starts the database, see
+	 * {@link #getJdbcUrl()}.
+	 * 
+	 * @return The client JDBC URL, of the form <code>jdbc:derby://127.0.0.1:&lt;port&gt;/&lt;database&gt;</code>
+	 * @throws IllegalStateException If the network server is not enabled, or the resource is not started
+	 */
+	public String getClientJdbcUrl () {
+		startIfLazy();
+		return buildClientJdbcUrl();
+	}
+
+	private synchronized String buildClientJdbcUrl () {
+		if (!config.isNetworkServer()) {
+			throw new IllegalStateException("Network server not enabled for the resource");
+		}
+		if (null == networkServer) {
+			throw new IllegalStateException("Network server not started");
+		}
+		return JDBC_CLIENT_URL_PREFIX + networkServer.getHost() + ':' + networkServer.getPort() + '/'
+				+ jdbcUrl.substring(JDBC_URL_PREFIX.length());
+	}
+
+	/**
+	 * Returns a pooled data source for the database. The data source is created on the first call after the resource
+	 * is started, with at most {@link DerbyResourceConfig#getConnectionPoolSize()} open connections; it is closed
+	 * (and connections not returned to it reported as leaks) when the resource is closed. With the
+	 * {@link DerbyResourceConfig#useLazyStart() lazy start}, the first call starts the database, see
+	 * {@link #getJdbcUrl()}.
+	 * 
+	 * @return The pooled data source
+	 */
+	public PooledDerbyDataSource getDataSource () {
+		startIfLazy();
+		return getOrCreateDataSource();
+	}
+
+	private synchronized PooledDerbyDataSource getOrCreateDataSource () {
+		if (null == dataSource) {
+			dataSource = new PooledDerbyDataSource(jdbcUrl, config.getConnectionPoolSize(), statementProfiler,
+					isQueryPlanCaptureEnabled(), config.isConnectionLeakStackTraces());
+		}
+		return dataSource;
+	}
+
+	/**
+	 * Returns the profiler of the statements executed on connections handed out by the resource.
+	 * 
+	 * @return The statement profiler; <code>null</code> unless
+	 * 		{@link DerbyResourceConfig#useStatementProfiling() statement profiling} is enabled
+	 */
+	public DerbyStatementProfiler getStatementProfiler () {
+		return statementProfiler;
+	}
+
+	/**
+	 * Enables capturing the query plans of statements executed on a connection opened by the test with the
+	 * {@link #getJdbcUrl() JDBC URL}; connections handed out by the resource already capture query plans when
+	 * {@link DerbyResourceConfig#useQueryPlanCapture()} is enabled. The capture should be enabled before a transaction
+	 * is begun on the connection.
+	 * 
+	 * @param conn The connection to capture query plans on
+	 * @throws SQLException Error enabling the capture
+	 */
+	public void enableQueryPlanCapture (final Connection conn) throws SQLException {
+		ArgumentCheck.notNull(conn, "Connection");
+		checkQueryPlanCapture();
+		DerbyQueryPlans.enableCapture(conn);
+	}
+
+	/**
+	 * Deletes the captured query plans, for example before each test so the plans of a test can be checked on their
+	 * own. Waits for open transactions that captured plans to end, so should not be called while a test transaction is
+	 * in progress.
+	 * 
+	 * @throws SQLException Error deleting the plans
+	 */
+	public void clearQueryPlans () throws SQLException {
+		checkQueryPlanCapture();
+		final Connection conn = DriverManager.getConnection(getJdbcUrl());
+		try {
+			DerbyQueryPlans.clear(conn);
+		} finally {
+			DerbyUtils.closeQuietly(conn);
+		}
+	}
+
+	/**
+	 * Writes the captured query plans to a file in the {@link #getDerbySystemHome() Derby system home}; each statement
+	 * followed by the tree of result sets (scans, joins, sorts, etc.) in its plan, in the order they were executed.
+	 * 
+	 * @param fileName The name of the file to write to; replaced if it exists
+	 * @return The file written
+	 * @throws IOException Error writing the file
+	 * @throws SQLException Error reading the plans
+	 */
+	public File dumpQueryPlans (final String fileName) throws IOException, SQLException {
+		ArgumentCheck.notNullOrEmpty(fileName, "File name");
+		checkQueryPlanCapture();
+		final File queryPlanFile = new File(derbySystemHome, fileName);
+		final Connection conn = DriverManager.getConnection(getJdbcUrl());
+		PrintWriter out = null;
+		try {
+			out = new PrintWriter(new FileWriter(queryPlanFile));
+			final int statements = DerbyQueryPlans.dump(conn, out);
+			log.debug("Wrote query plans of {} statements to {}", statements, queryPlanFile);
+		} finally {
+			IOUtils.closeQuietly(out);
+			DerbyUtils.closeQuietly(conn);
+		}
+		return queryPlanFile;
+	}
+
+	/**
+	 * Fails (with an {@link AssertionError}) if any of the captured query plans scans the table instead of using an
+	 * index on it; lists the statements scanning the table.
+	 * 
+	 * @param tableName The name of the table, compared ignoring case
+	 * @throws SQLException Error reading the plans
+	 */
+	public void assertNoTableScan (final String tableName) throws SQLException {
+		ArgumentCheck.notNullOrEmpty(tableName, "Table name");
+		checkQueryPlanCapture();
+		final Connection conn = DriverManager.getConnection(getJdbcUrl());
+		final List<String> tableScans;
+		try {
+			tableScans = DerbyQueryPlans.findTableScans(conn, tableName);
+		} finally {
+			DerbyUtils.closeQuietly(conn);
+		}
+		if (!tableScans.isEmpty()) {
+			Assert.fail("Table " + tableName + " scanned by " + tableScans.size() + " statement(s): " + tableScans);
+		}
+	}
+
+	private void checkQueryPlanCapture () {
+		if (!isQueryPlanCaptureEnabled()) {
+			throw new IllegalStateException("Query plan capture is not enabled for " + jdbcUrl);
+		}
+	}
+
 	/**
 	 * Returns the database path of the JDBC URL.
 	 * @see DerbyResourceConfig#getDatabasePath()
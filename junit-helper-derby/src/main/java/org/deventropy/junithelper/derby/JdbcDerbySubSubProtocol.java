@@ -27,33 +27,33 @@ public enum JdbcDerbySubSubProtocol {
 	/**
 	 * In Memory database.
 	 */
-	Memory ("memory"),
+	Memory ("memory", false),
 	
 	/**
 	 * Database in a directory.
 	 */
-	Directory ("directory"),
+	Directory ("directory", false),
 
 	/**
 	 * Read only database in a Jar file.
 	 */
-	Jar ("jar");
-	
-	/*
-	 * Future support:
-	 * 
-		/**
-		 * Read only database on the classpath
-		 * /
-		classpath,
+	Jar ("jar", true),
+
+	/**
+	 * Read only database on the classpath, loaded using the context class loader of the thread (or the class loader of
+	 * Derby).
 	 */
+	Classpath ("classpath", true);
 	
 	private static final String JDBC_CONN_STR_PREFIX = "jdbc:derby:";
 	
 	private final String jdbcConnectionPrefix;
 	
-	JdbcDerbySubSubProtocol (final String subprotocolcode) {
+	private final boolean readOnly;
+	
+	JdbcDerbySubSubProtocol (final String subprotocolcode, final boolean readOnly) {
 		jdbcConnectionPrefix = JDBC_CONN_STR_PREFIX + subprotocolcode + ":";
+		this.readOnly = readOnly;
 	}
 	
 	/**
@@ -64,4 +64,13 @@ public enum JdbcDerbySubSubProtocol {
 	public String jdbcConnectionPrefix () {
 		return jdbcConnectionPrefix;
 	}
+	
+	/**
+	 * Whether databases with this sub-protocol are read only; the database must exist, and can not be written to.
+	 * 
+	 * @return <code>true</code> for read only sub-protocols
+	 */
+	public boolean isReadOnly () {
+		return readOnly;
+	}
 }
@@ -0,0 +1,273 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.PrintWriter;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Executes SQL statements over JDBC for the {@link ScriptExecutionEngine#Jdbc} engine. Consecutive <code>INSERT</code>
+ * statements are executed as a batch, with consecutive <code>INSERT ... VALUES</code> statements into the same table
+ * and columns merged into multi row inserts. If a statement in a batch fails, the failure is counted and the
+ * statements after it are executed one at a time (as are the statements merged with a failed one), so the error count
+ * is the same as when executing every statement individually.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class JdbcScriptExecutor {
+
+	private static final int MAX_BATCH_SIZE = 1000;
+	private static final int MAX_MERGED_ROWS = 100;
+	private static final String INSERT_PREFIX = "INSERT";
+	private static final Pattern MERGEABLE_INSERT =
+			Pattern.compile("(INSERT\\s+INTO\\s+[^\\s(]+(?:\\s*\\([^)]*\\))?\\s+VALUES)\\s*(\\(.*\\))",
+					Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	private final Logger log = LogManager.getLogger();
+
+	private final Connection connection;
+	private final PrintWriter scriptLogWriter;
+	private final List<String> batch = new ArrayList<>();
+
+	private int statementCount;
+	private int exceptionCount;
+
+	/**
+	 * Creates an executor for the connection.
+	 * 
+	 * @param connection The connection to execute statements on
+	 * @param scriptLogWriter Writer for errors and the summary
+	 */
+	JdbcScriptExecutor (final Connection connection, final PrintWriter scriptLogWriter) {
+		this.connection = connection;
+		this.scriptLogWriter = scriptLogWriter;
+	}
+
+	/**
+	 * Executes (or adds to the current batch) the statement.
+	 * 
+	 * @param sqlStatement The statement, without the terminator
+	 */
+	void execute (final String sqlStatement) {
+		if (isInsert(sqlStatement)) {
+			batch.add(sqlStatement);
+			if (batch.size() >= MAX_BATCH_SIZE) {
+				executeBatch();
+			}
+			return;
+		}
+		executeBatch();
+		executeStatement(sqlStatement);
+	}
+
+	/**
+	 * Executes any batched statements and writes the summary to the log.
+	 * 
+	 * @return The number of statements that failed
+	 */
+	int finish () {
+		executeBatch();
+		scriptLogWriter.println(statementCount + " statements executed, " + exceptionCount + " errors");
+		scriptLogWriter.flush();
+		return exceptionCount;
+	}
+
+	private boolean isInsert (final String sqlStatement) {
+		return sqlStatement.length() > INSERT_PREFIX.length()
+				&& sqlStatement.regionMatches(true, 0, INSERT_PREFIX, 0, INSERT_PREFIX.length())
+				&& Character.isWhitespace(sqlStatement.charAt(INSERT_PREFIX.length()));
+	}
+
+	private void executeStatement (final String sqlStatement) {
+		statementCount++;
+		Statement stmt = null;
+		try {
+			if (executeTransactionCommand(sqlStatement)) {
+				return;
+			}
+			stmt = connection.createStatement();
+			stmt.execute(sqlStatement);
+		} catch (SQLException e) {
+			logError(sqlStatement, e);
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * The ij transaction commands, which are not SQL statements in Derby.
+	 */
+	private boolean executeTransactionCommand (final String sqlStatement) throws SQLException {
+		final String command = sqlStatement.replaceAll("\\s+", " ").toUpperCase(Locale.ENGLISH);
+		switch (command) {
+			case "COMMIT":
+			case "COMMIT WORK":
+				connection.commit();
+				return true;
+			case "ROLLBACK":
+			case "ROLLBACK WORK":
+				connection.rollback();
+				return true;
+			case "AUTOCOMMIT ON":
+				connection.setAutoCommit(true);
+				return true;
+			case "AUTOCOMMIT OFF":
+				connection.setAutoCommit(false);
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private void executeBatch () {
+		if (batch.isEmpty()) {
+			return;
+		}
+		final List<String> batchStatements = new ArrayList<>(batch);
+		batch.clear();
+		if (batchStatements.size() == 1) {
+			executeStatement(batchStatements.get(0));
+			return;
+		}
+
+		final List<BatchEntry> batchEntries = mergeInserts(batchStatements);
+		Statement stmt = null;
+		try {
+			stmt = connection.createStatement();
+			for (BatchEntry batchEntry : batchEntries) {
+				stmt.addBatch(batchEntry.sqlStatement);
+			}
+			stmt.executeBatch();
+			statementCount += batchStatements.size();
+		} catch (BatchUpdateException e) {
+			handleBatchFailure(batchEntries, e);
+		} catch (SQLException e) {
+			// Could not execute any of the statements
+			statementCount += batchStatements.size();
+			for (String sqlStatement : batchStatements) {
+				logError(sqlStatement, e);
+			}
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Merges consecutive single row inserts into the same table and columns into multi row inserts; Derby compiles each
+	 * distinct statement, which is the most expensive part of executing literal inserts.
+	 */
+	private List<BatchEntry> mergeInserts (final List<String> batchStatements) {
+		final List<BatchEntry> batchEntries = new ArrayList<>();
+		BatchEntry current = null;
+		for (String sqlStatement : batchStatements) {
+			final Matcher matcher = MERGEABLE_INSERT.matcher(sqlStatement);
+			if (!matcher.matches()) {
+				current = null;
+				batchEntries.add(new BatchEntry(sqlStatement, null));
+				continue;
+			}
+			final String prefix = matcher.group(1).replaceAll("\\s+", " ");
+			if (null != current && prefix.equals(current.mergePrefix)
+					&& current.sourceStatements.size() < MAX_MERGED_ROWS) {
+				current.merge(sqlStatement, matcher.group(2));
+			} else {
+				current = new BatchEntry(sqlStatement, prefix);
+				current.rows.append(prefix).append(' ').append(matcher.group(2));
+				batchEntries.add(current);
+			}
+		}
+		return batchEntries;
+	}
+
+	private void handleBatchFailure (final List<BatchEntry> batchEntries, final BatchUpdateException e) {
+		final int[] updateCounts = e.getUpdateCounts();
+		if (null != updateCounts && updateCounts.length == batchEntries.size()) {
+			// The driver continued after the failure
+			for (int i = 0; i < updateCounts.length; i++) {
+				if (Statement.EXECUTE_FAILED == updateCounts[i]) {
+					retryEntry(batchEntries.get(i), e);
+				} else {
+					statementCount += batchEntries.get(i).sourceStatements.size();
+				}
+			}
+			return;
+		}
+		// The entries before the failed one were executed; execute the ones after it individually
+		final int failedIndex = (null == updateCounts) ? 0 : updateCounts.length;
+		for (int i = 0; i < failedIndex; i++) {
+			statementCount += batchEntries.get(i).sourceStatements.size();
+		}
+		retryEntry(batchEntries.get(failedIndex), e);
+		for (BatchEntry batchEntry : batchEntries.subList(failedIndex + 1, batchEntries.size())) {
+			for (String sqlStatement : batchEntry.sourceStatements) {
+				executeStatement(sqlStatement);
+			}
+		}
+	}
+
+	private void retryEntry (final BatchEntry failedEntry, final SQLException e) {
+		if (failedEntry.sourceStatements.size() == 1) {
+			statementCount++;
+			logError(failedEntry.sourceStatements.get(0), e);
+			return;
+		}
+		// A merged insert is atomic; execute its statements individually to find (and count) the failing ones
+		for (String sqlStatement : failedEntry.sourceStatements) {
+			executeStatement(sqlStatement);
+		}
+	}
+
+	private void logError (final String sqlStatement, final SQLException e) {
+		exceptionCount++;
+		log.trace("Error executing statement {}", sqlStatement, e);
+		scriptLogWriter.println(sqlStatement + ';');
+		scriptLogWriter.println("ERROR " + e.getSQLState() + ": " + e.getMessage());
+	}
+
+	/**
+	 * A statement in a JDBC batch, either a script statement or a merge of consecutive script inserts.
+	 */
+	private static final class BatchEntry {
+
+		private final String mergePrefix;
+		private final List<String> sourceStatements = new ArrayList<>();
+		private final StringBuilder rows = new StringBuilder();
+		private String sqlStatement;
+
+		private BatchEntry (final String sqlStatement, final String mergePrefix) {
+			this.sqlStatement = sqlStatement;
+			this.mergePrefix = mergePrefix;
+			sourceStatements.add(sqlStatement);
+		}
+
+		private void merge (final String sourceStatement, final String values) {
+			sourceStatements.add(sourceStatement);
+			rows.append(", ").append(values);
+			sqlStatement = rows.toString();
+		}
+	}
+}
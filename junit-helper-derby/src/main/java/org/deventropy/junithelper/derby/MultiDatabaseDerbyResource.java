@@ -0,0 +1,355 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deventropy.shared.utils.ArgumentCheck;
+import org.junit.rules.ExternalResource;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Manages several named Derby databases sharing one Derby system home; for example, one database for each schema the
+ * code under test uses. The Derby system is booted once for the system home, and the databases are created (and
+ * dropped or shut down) in parallel, each with its own {@link DerbyResourceConfig} (and post init scripts).
+ * 
+ * <p>Each database is an {@link EmbeddedDerbyResource} in the {@link DerbyResourceConfig#useParallelSafeMode() parallel
+ * safe mode} (the configurations added should be in it), with a directory named after the database in the system
+ * home for its script logs and snapshots; relative database paths are resolved against that directory. The resource
+ * sets the <code>derby.system.home</code> property to the system home while it is started, so the Derby system boots
+ * with it if it is not running yet. As no <code>derby.properties</code> file is written, the configurations can not
+ * set Derby properties applied to the whole Derby system, and their error logging mode is not applied.
+ * 
+ * <p>Example of usage:
+ * <pre>
+ * private static TemporaryFolder tempFolder = new TemporaryFolder();
+ * private static MultiDatabaseDerbyResource databases = new MultiDatabaseDerbyResource(tempFolder)
+ * 	.addDatabase("orders", DerbyResourceConfig.buildDefault().useParallelSafeMode()
+ * 		.addPostInitScript("classpath:/org/example/orders.sql"))
+ * 	.addDatabase("catalog", DerbyResourceConfig.buildDefault().useParallelSafeMode()
+ * 		.addPostInitScript("classpath:/org/example/catalog.sql"));
+ * 
+ * &#064;ClassRule
+ * public static RuleChain derbyRuleChain = RuleChain.outerRule(tempFolder).around(databases);
+ * 
+ * &#064;Test
+ * public void test () throws SQLException {
+ * 	final DataSource ordersDataSource = databases.getDataSource("orders");
+ * 	final String catalogJdbcUrl = databases.getJdbcUrl("catalog");
+ * }
+ * </pre>
+ * 
+ * @author Bindul Bhowmik
+ */
+public class MultiDatabaseDerbyResource extends ExternalResource implements Closeable {
+
+	private static final String PROP_DERBY_SYSTEM_HOME = "derby.system.home";
+	private static final Pattern DATABASE_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_.-]+");
+
+	private final Logger log = LogManager.getLogger();
+
+	private final Map<String, DerbyResourceConfig> databaseConfigs = new LinkedHashMap<>();
+	private final Map<String, EmbeddedDerbyResource> databases = new LinkedHashMap<>();
+
+	private File derbySystemHome;
+	private TemporaryFolder derbySystemHomeParent;
+	private String oldDerbySystemHomeValue;
+	private volatile boolean started;
+
+	/**
+	 * Creates a new multi database resource.
+	 * 
+	 * @param derbySystemHomeDir A folder to use as the derby system home
+	 */
+	public MultiDatabaseDerbyResource (final File derbySystemHomeDir) {
+		ArgumentCheck.notNull(derbySystemHomeDir, "Derby System Home Directory");
+		this.derbySystemHome = derbySystemHomeDir;
+	}
+
+	/**
+	 * Creates a new multi database resource.
+	 * 
+	 * @param derbySystemHomeParentTmpFolder A temporary folder to use as the derby system home
+	 */
+	public MultiDatabaseDerbyResource (final TemporaryFolder derbySystemHomeParentTmpFolder) {
+		ArgumentCheck.notNull(derbySystemHomeParentTmpFolder, "Derby System Home Parent Directory");
+		// This can be a TemporaryFolder, so make sure it is not touched before #before()
+		this.derbySystemHomeParent = derbySystemHomeParentTmpFolder;
+	}
+
+	/**
+	 * Adds a database to the resource; databases can only be added before the resource is started.
+	 * 
+	 * @param name The name of the database; letters, digits, <code>_</code>, <code>.</code> and <code>-</code>
+	 * @param config The configuration of the database; in the parallel safe mode, and without Derby properties applied
+	 * 		to the whole Derby system
+	 * @return This instance
+	 */
+	public MultiDatabaseDerbyResource addDatabase (final String name, final DerbyResourceConfig config) {
+		ArgumentCheck.notNullOrEmpty(name, "Database name");
+		ArgumentCheck.notNull(config, "Database config");
+		if (!DATABASE_NAME_PATTERN.matcher(name).matches()) {
+			throw new IllegalArgumentException("Invalid database name: " + name);
+		}
+		if (!config.isParallelSafeMode()) {
+			throw new IllegalArgumentException("Database config should be in the parallel safe mode: " + name);
+		}
+		synchronized (databaseConfigs) {
+			if (started) {
+				throw new IllegalStateException("Databases can not be added to a started resource");
+			}
+			if (databaseConfigs.containsKey(name)) {
+				throw new IllegalArgumentException("Database already added: " + name);
+			}
+			databaseConfigs.put(name, config);
+		}
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.junit.rules.ExternalResource#before()
+	 */
+	@Override
+	protected void before () throws Throwable {
+		super.before();
+		this.start();
+	}
+
+	/**
+	 * Starts the databases, in parallel.
+	 * 
+	 * <p><em>Note:</em> If using this instance as a JUnit {@linkplain org.junit.Rule}, do not call this method;
+	 * initialization is already handled from the {@linkplain org.junit.rules.ExternalResource#before()}.
+	 * 
+	 * @throws IOException Error creating the derby home, or starting one of the databases; the errors starting the
+	 * 		databases are added as suppressed exceptions
+	 */
+	public void start () throws IOException {
+		synchronized (databaseConfigs) {
+			if (started) {
+				throw new IllegalStateException("Resource already started");
+			}
+			if (null != derbySystemHomeParent) {
+				this.derbySystemHome = derbySystemHomeParent.newFolder();
+			}
+			FileUtils.forceMkdir(derbySystemHome);
+			oldDerbySystemHomeValue = System.getProperty(PROP_DERBY_SYSTEM_HOME); // Saving it to reset it later
+			System.setProperty(PROP_DERBY_SYSTEM_HOME, derbySystemHome.getAbsolutePath());
+
+			for (Map.Entry<String, DerbyResourceConfig> databaseConfig : databaseConfigs.entrySet()) {
+				databases.put(databaseConfig.getKey(), new EmbeddedDerbyResource(databaseConfig.getValue(),
+						new File(derbySystemHome, databaseConfig.getKey())));
+			}
+			started = true;
+		}
+
+		final IOException startException = runOnDatabases("Unable to start databases", new DatabaseAction() {
+			@Override
+			public void run (final EmbeddedDerbyResource database) throws IOException, SQLException {
+				database.start();
+			}
+		});
+		if (null != startException) {
+			// Do not leave the started databases running
+			try {
+				close();
+			} catch (IOException e) {
+				startException.addSuppressed(e);
+			}
+			throw startException;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.junit.rules.ExternalResource#after()
+	 */
+	@Override
+	protected void after () {
+		super.after();
+		try {
+			this.close();
+		} catch (IOException e) {
+			// Ignore
+			log.catching(Level.TRACE, e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close () throws IOException {
+		synchronized (databaseConfigs) {
+			if (!started) {
+				return;
+			}
+			started = false;
+		}
+		try {
+			final IOException closeException = runOnDatabases("Unable to close databases", new DatabaseAction() {
+				@Override
+				public void run (final EmbeddedDerbyResource database) throws IOException {
+					database.close();
+				}
+			});
+			if (null != closeException) {
+				throw closeException;
+			}
+		} finally {
+			databases.clear();
+			// Reset the Derby System Home property
+			if (null != oldDerbySystemHomeValue && !oldDerbySystemHomeValue.isEmpty()) {
+				System.setProperty(PROP_DERBY_SYSTEM_HOME, oldDerbySystemHomeValue);
+				oldDerbySystemHomeValue = null;
+			} else {
+				System.clearProperty(PROP_DERBY_SYSTEM_HOME);
+			}
+		}
+	}
+
+	/**
+	 * Runs the action on all the databases in parallel, and waits for it to complete on all of them.
+	 * 
+	 * @return <code>null</code> if the action succeeded on all databases, or an exception naming the databases it
+	 * 		failed on, with the failures added as suppressed exceptions
+	 */
+	private IOException runOnDatabases (final String failureMessage, final DatabaseAction action) throws IOException {
+		if (databases.isEmpty()) {
+			return null;
+		}
+		final List<String> failedDatabases = new ArrayList<>();
+		final List<Throwable> failures = new ArrayList<>();
+		final ExecutorService databaseExecutor = Executors.newFixedThreadPool(
+				Math.min(databases.size(), Runtime.getRuntime().availableProcessors()));
+		try {
+			final Map<String, Future<Void>> databaseFutures = new LinkedHashMap<>();
+			for (final Map.Entry<String, EmbeddedDerbyResource> database : databases.entrySet()) {
+				databaseFutures.put(database.getKey(), databaseExecutor.submit(new Callable<Void>() {
+					@Override
+					public Void call () throws IOException, SQLException {
+						action.run(database.getValue());
+						return null;
+					}
+				}));
+			}
+			for (Map.Entry<String, Future<Void>> databaseFuture : databaseFutures.entrySet()) {
+				try {
+					databaseFuture.getValue().get();
+				} catch (ExecutionException e) {
+					failedDatabases.add(databaseFuture.getKey());
+					failures.add(e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for the databases", e);
+		} finally {
+			databaseExecutor.shutdownNow();
+		}
+		if (failedDatabases.isEmpty()) {
+			return null;
+		}
+		final IOException failure = new IOException(failureMessage + " " + failedDatabases + ". See log for details");
+		for (Throwable cause : failures) {
+			failure.addSuppressed(cause);
+		}
+		return failure;
+	}
+
+	/**
+	 * An action on one of the databases.
+	 */
+	private interface DatabaseAction {
+		void run (EmbeddedDerbyResource database) throws IOException, SQLException;
+	}
+
+	/**
+	 * Returns the database with the name, to use the other features of the {@link EmbeddedDerbyResource} (such as
+	 * snapshots).
+	 * 
+	 * @param name The name of the database
+	 * @return The database resource
+	 */
+	public EmbeddedDerbyResource getDatabase (final String name) {
+		synchronized (databaseConfigs) {
+			if (!started) {
+				throw new IllegalStateException("Resource not started");
+			}
+			final EmbeddedDerbyResource database = databases.get(name);
+			if (null == database) {
+				throw new IllegalArgumentException("Unknown database: " + name);
+			}
+			return database;
+		}
+	}
+
+	/**
+	 * Returns the JDBC URL of the database with the name.
+	 * 
+	 * @param name The name of the database
+	 * @return The JDBC URL
+	 * @see EmbeddedDerbyResource#getJdbcUrl()
+	 */
+	public String getJdbcUrl (final String name) {
+		return getDatabase(name).getJdbcUrl();
+	}
+
+	/**
+	 * Returns a pooled data source for the database with the name.
+	 * 
+	 * @param name The name of the database
+	 * @return The pooled data source
+	 * @see EmbeddedDerbyResource#getDataSource()
+	 */
+	public PooledDerbyDataSource getDataSource (final String name) {
+		return getDatabase(name).getDataSource();
+	}
+
+	/**
+	 * @return The names of the databases, in the order they were added
+	 */
+	public Set<String> getDatabaseNames () {
+		synchronized (databaseConfigs) {
+			return Collections.unmodifiableSet(databaseConfigs.keySet());
+		}
+	}
+
+	/**
+	 * @return The Derby system home; with a temporary folder, only set once the resource is started
+	 */
+	public File getDerbySystemHome () {
+		return derbySystemHome;
+	}
+}
@@ -0,0 +1,503 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deventropy.shared.utils.ArgumentCheck;
+
+/**
+ * A small bounded connection pool for an {@link EmbeddedDerbyResource}, exposed as a {@link DataSource}. Opening a
+ * new embedded Derby connection sets up a new session (authentication, language context, statement cache); this data
+ * source keeps returned connections open for reuse.
+ * 
+ * <p>The pool has the following behavior:
+ * <ul>
+ * <li>At most {@link DerbyResourceConfig#getConnectionPoolSize()} connections are open at a time; a caller waits up to
+ * the {@link #getLoginTimeout() login timeout} for a connection to be returned before failing.</li>
+ * <li>Idle connections are validated before they are handed out, invalid connections are discarded.</li>
+ * <li>Returned connections are rolled back if they were not in auto commit mode, and reset to auto commit; statements
+ * left open on them are closed. Connections returned with a changed schema, transaction isolation or read only flag
+ * are closed instead of being pooled, so the next caller does not inherit the changes.</li>
+ * <li>Connections not returned when the pool is {@link #close() closed} are reported as leaks and closed; with the
+ * stack trace of the code that borrowed them if
+ * {@link DerbyResourceConfig#useConnectionLeakStackTraces() enabled}.</li>
+ * </ul>
+ * 
+ * <p>The pool keeps statistics of borrow wait times and the hit ratio (borrows served by an idle connection).
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class PooledDerbyDataSource implements DataSource, Closeable {
+
+	private static final int DEFAULT_BORROW_TIMEOUT_SECONDS = 30;
+	private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+	private static final int MIN_STATEMENT_PRUNE_THRESHOLD = 64;
+	private static final Object UNTRACED_BORROW = new Object();
+
+	private final Logger log = LogManager.getLogger();
+
+	private final String jdbcUrl;
+	private final DerbyStatementProfiler statementProfiler;
+	private final boolean captureQueryPlans;
+	private final boolean traceBorrows;
+	private final Semaphore borrowPermits;
+	private final BlockingDeque<Connection> idleConnections = new LinkedBlockingDeque<>();
+	private final ConcurrentMap<Connection, Object> borrowedConnections = new ConcurrentHashMap<>();
+
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong validationFailureCount = new AtomicLong();
+	private final AtomicLong totalBorrowWaitNanos = new AtomicLong();
+	private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+
+	private volatile ConnectionState initialState;
+	private volatile boolean closed;
+	private volatile int loginTimeout = DEFAULT_BORROW_TIMEOUT_SECONDS;
+	private PrintWriter logWriter;
+
+	/**
+	 * Creates a new pool of connections to the database.
+	 * 
+	 * @param jdbcUrl The JDBC URL of the database
+	 * @param maxPoolSize The maximum number of open connections
+	 */
+	PooledDerbyDataSource (final String jdbcUrl, final int maxPoolSize) {
+		this(jdbcUrl, maxPoolSize, null, false, false);
+	}
+
+	/**
+	 * Creates a new pool of connections to the database, profiling the statements executed on the connections and
+	 * capturing their query plans.
+	 * 
+	 * @param jdbcUrl The JDBC URL of the database
+	 * @param maxPoolSize The maximum number of open connections
+	 * @param statementProfiler The profiler wrapping the borrowed connections; <code>null</code> to not profile
+	 * @param captureQueryPlans Whether to capture query plans on new connections
+	 * @param traceBorrows Whether to capture the stack trace of every borrow, reported if the connection leaks
+	 */
+	PooledDerbyDataSource (final String jdbcUrl, final int maxPoolSize, final DerbyStatementProfiler statementProfiler,
+			final boolean captureQueryPlans, final boolean traceBorrows) {
+		ArgumentCheck.notNullOrEmpty(jdbcUrl, "JDBC URL");
+		if (maxPoolSize < 1) {
+			throw new IllegalArgumentException("Pool size should be at least 1");
+		}
+		this.jdbcUrl = jdbcUrl;
+		this.statementProfiler = statementProfiler;
+		this.captureQueryPlans = captureQueryPlans;
+		this.traceBorrows = traceBorrows;
+		this.borrowPermits = new Semaphore(maxPoolSize, true);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.DataSource#getConnection()
+	 */
+	@Override
+	public Connection getConnection () throws SQLException {
+		if (closed) {
+			throw new SQLException("Data source is closed");
+		}
+
+		final long waitStart = System.nanoTime();
+		try {
+			if (!borrowPermits.tryAcquire(loginTimeout, TimeUnit.SECONDS)) {
+				throw new SQLTimeoutException("Timed out waiting for a pooled connection after " + loginTimeout + "s");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a pooled connection", e);
+		}
+		recordBorrowWait(System.nanoTime() - waitStart);
+
+		try {
+			Connection physicalConnection = takeValidIdleConnection();
+			if (null == physicalConnection) {
+				physicalConnection = openConnection();
+			} else {
+				hitCount.incrementAndGet();
+			}
+			borrowCount.incrementAndGet();
+			borrowedConnections.put(physicalConnection,
+					traceBorrows ? new Throwable("Connection borrowed here") : UNTRACED_BORROW);
+			final Connection pooledConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] {Connection.class}, new PooledConnectionHandler(physicalConnection));
+			return (null == statementProfiler) ? pooledConnection : statementProfiler.wrap(pooledConnection);
+		} catch (SQLException | RuntimeException e) {
+			borrowPermits.release();
+			throw e;
+		}
+	}
+
+	private Connection openConnection () throws SQLException {
+		final Connection physicalConnection = DriverManager.getConnection(jdbcUrl);
+		try {
+			if (captureQueryPlans) {
+				DerbyQueryPlans.enableCapture(physicalConnection);
+			}
+			if (null == initialState) {
+				initialState = new ConnectionState(physicalConnection);
+			}
+		} catch (SQLException e) {
+			DerbyUtils.closeQuietly(physicalConnection);
+			throw e;
+		}
+		return physicalConnection;
+	}
+
+	private Connection takeValidIdleConnection () {
+		Connection idleConnection = idleConnections.pollFirst();
+		while (null != idleConnection) {
+			try {
+				if (idleConnection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+					return idleConnection;
+				}
+			} catch (SQLException e) {
+				log.trace("Error validating pooled connection", e);
+			}
+			validationFailureCount.incrementAndGet();
+			DerbyUtils.closeQuietly(idleConnection);
+			idleConnection = idleConnections.pollFirst();
+		}
+		return null;
+	}
+
+	private void recordBorrowWait (final long waitNanos) {
+		totalBorrowWaitNanos.addAndGet(waitNanos);
+		long currentMax = maxBorrowWaitNanos.get();
+		while (waitNanos > currentMax && !maxBorrowWaitNanos.compareAndSet(currentMax, waitNanos)) {
+			currentMax = maxBorrowWaitNanos.get();
+		}
+	}
+
+	private void returnConnection (final Connection physicalConnection, final List<Statement> openStatements) {
+		if (null == borrowedConnections.remove(physicalConnection)) {
+			// Already reclaimed when the pool was closed
+			return;
+		}
+		try {
+			if (closed) {
+				DerbyUtils.closeQuietly(physicalConnection);
+				return;
+			}
+			try {
+				for (Statement openStatement : openStatements) {
+					DerbyUtils.closeQuietly(openStatement);
+				}
+				if (!physicalConnection.getAutoCommit()) {
+					physicalConnection.rollback();
+					physicalConnection.setAutoCommit(true);
+				}
+				if (!initialState.matches(physicalConnection)) {
+					log.trace("Discarding pooled connection with a changed schema, isolation or read only flag");
+					DerbyUtils.closeQuietly(physicalConnection);
+					return;
+				}
+				physicalConnection.clearWarnings();
+				idleConnections.offerFirst(physicalConnection);
+			} catch (SQLException e) {
+				log.trace("Discarding pooled connection that could not be reset", e);
+				DerbyUtils.closeQuietly(physicalConnection);
+			}
+		} finally {
+			borrowPermits.release();
+		}
+	}
+
+	/**
+	 * Closes all idle connections and any connection still borrowed; borrowed connections are reported as leaks. The
+	 * data source cannot be used after it is closed.
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close () {
+		closed = true;
+		closeIdleConnections();
+		for (Map.Entry<Connection, Object> leakedConnection : borrowedConnections.entrySet()) {
+			if (null != borrowedConnections.remove(leakedConnection.getKey())) {
+				if (leakedConnection.getValue() instanceof Throwable) {
+					log.warn("Pooled connection was not closed; closing it with the data source",
+							(Throwable) leakedConnection.getValue());
+				} else {
+					log.warn("Pooled connection was not closed; closing it with the data source (enable connection "
+							+ "leak stack traces to find where it was borrowed)");
+				}
+				DerbyUtils.closeQuietly(leakedConnection.getKey());
+			}
+		}
+		log.debug("Closed connection pool for {}: {} borrows, {} hit ratio, {}ns average borrow wait, {}ns max borrow "
+				+ "wait", jdbcUrl, getBorrowCount(), getPoolHitRatio(), getAverageBorrowWaitNanos(),
+				getMaxBorrowWaitNanos());
+	}
+
+	/**
+	 * Closes the connections waiting in the pool; new connections are opened as they are needed. Used before the
+	 * database is shut down while the pool stays in use.
+	 */
+	void closeIdleConnections () {
+		Connection idleConnection = idleConnections.pollFirst();
+		while (null != idleConnection) {
+			DerbyUtils.closeQuietly(idleConnection);
+			idleConnection = idleConnections.pollFirst();
+		}
+	}
+
+	/**
+	 * The number of connections handed out by this data source.
+	 * 
+	 * @return The borrow count
+	 */
+	public long getBorrowCount () {
+		return borrowCount.get();
+	}
+
+	/**
+	 * The fraction of borrows served by an idle pooled connection, as opposed to opening a new connection.
+	 * 
+	 * @return The hit ratio between <code>0</code> and <code>1</code>; <code>0</code> if there were no borrows
+	 */
+	public double getPoolHitRatio () {
+		final long borrows = borrowCount.get();
+		return (0 == borrows) ? 0 : (double) hitCount.get() / borrows;
+	}
+
+	/**
+	 * The average time a caller waited for a connection to be available in the pool.
+	 * 
+	 * @return The average borrow wait time in nanoseconds
+	 */
+	public long getAverageBorrowWaitNanos () {
+		final long borrows = borrowCount.get();
+		return (0 == borrows) ? 0 : totalBorrowWaitNanos.get() / borrows;
+	}
+
+	/**
+	 * The longest time a caller waited for a connection to be available in the pool.
+	 * 
+	 * @return The maximum borrow wait time in nanoseconds
+	 */
+	public long getMaxBorrowWaitNanos () {
+		return maxBorrowWaitNanos.get();
+	}
+
+	/**
+	 * The number of idle connections discarded because they failed validation.
+	 * 
+	 * @return The validation failure count
+	 */
+	public long getValidationFailureCount () {
+		return validationFailureCount.get();
+	}
+
+	/**
+	 * The number of connections currently borrowed from the pool.
+	 * 
+	 * @return The active connection count
+	 */
+	public int getActiveConnectionCount () {
+		return borrowedConnections.size();
+	}
+
+	/**
+	 * The number of open connections waiting in the pool.
+	 * 
+	 * @return The idle connection count
+	 */
+	public int getIdleConnectionCount () {
+		return idleConnections.size();
+	}
+
+	/**
+	 * Not supported; the embedded database is opened without credentials.
+	 * 
+	 * @see javax.sql.DataSource#getConnection(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public Connection getConnection (final String username, final String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Pooled connections do not support credentials");
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getLogWriter()
+	 */
+	@Override
+	public PrintWriter getLogWriter () {
+		return logWriter;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#setLogWriter(java.io.PrintWriter)
+	 */
+	@Override
+	public void setLogWriter (final PrintWriter out) {
+		this.logWriter = out;
+	}
+
+	/**
+	 * Sets the maximum time in seconds a caller waits for a pooled connection; defaults to 30 seconds.
+	 * 
+	 * @see javax.sql.CommonDataSource#setLoginTimeout(int)
+	 */
+	@Override
+	public void setLoginTimeout (final int seconds) {
+		this.loginTimeout = seconds;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getLoginTimeout()
+	 */
+	@Override
+	public int getLoginTimeout () {
+		return loginTimeout;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.sql.CommonDataSource#getParentLogger()
+	 */
+	@Override
+	public java.util.logging.Logger getParentLogger () throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException("Uses Log4j2 for logging");
+	}
+
+	/* (non-Javadoc)
+	 * @see java.sql.Wrapper#unwrap(java.lang.Class)
+	 */
+	@Override
+	public <T> T unwrap (final Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException("Not a wrapper for " + iface);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
+	 */
+	@Override
+	public boolean isWrapperFor (final Class<?> iface) {
+		return iface.isInstance(this);
+	}
+
+	/**
+	 * The session state of a new connection, which pooled connections should have when returned.
+	 */
+	private static final class ConnectionState {
+
+		private final String schema;
+		private final int transactionIsolation;
+		private final boolean readOnly;
+
+		private ConnectionState (final Connection connection) throws SQLException {
+			this.schema = connection.getSchema();
+			this.transactionIsolation = connection.getTransactionIsolation();
+			this.readOnly = connection.isReadOnly();
+		}
+
+		private boolean matches (final Connection connection) throws SQLException {
+			return transactionIsolation == connection.getTransactionIsolation() && readOnly == connection.isReadOnly()
+					&& schema.equals(connection.getSchema());
+		}
+	}
+
+	/**
+	 * Returns the connection to the pool when it is closed, closing the statements created on it.
+	 */
+	private final class PooledConnectionHandler implements InvocationHandler {
+
+		private final Connection wrapped;
+		private final List<Statement> openStatements = new ArrayList<>();
+		private int statementPruneThreshold = MIN_STATEMENT_PRUNE_THRESHOLD;
+		private volatile boolean returned;
+
+		private PooledConnectionHandler (final Connection wrapped) {
+			this.wrapped = wrapped;
+		}
+
+		@Override
+		public Object invoke (final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String methodName = method.getName();
+			if ("close".equals(methodName)) {
+				if (!returned) {
+					returned = true;
+					synchronized (openStatements) {
+						returnConnection(wrapped, openStatements);
+						openStatements.clear();
+					}
+				}
+				return null;
+			} else if ("isClosed".equals(methodName)) {
+				return returned || wrapped.isClosed();
+			} else if ("equals".equals(methodName)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(methodName)) {
+				return System.identityHashCode(proxy);
+			} else if (returned && !"toString".equals(methodName)) {
+				throw new SQLException("Connection has been returned to the pool");
+			}
+			final Object result;
+			try {
+				result = method.invoke(wrapped, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			if (result instanceof Statement) {
+				trackStatement((Statement) result);
+			}
+			return result;
+		}
+
+		private void trackStatement (final Statement statement) throws SQLException {
+			synchronized (openStatements) {
+				openStatements.add(statement);
+				if (openStatements.size() > statementPruneThreshold) {
+					final Iterator<Statement> statements = openStatements.iterator();
+					while (statements.hasNext()) {
+						if (statements.next().isClosed()) {
+							statements.remove();
+						}
+					}
+					statementPruneThreshold = Math.max(MIN_STATEMENT_PRUNE_THRESHOLD, openStatements.size() * 2);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+/**
+ * Engines the {@link DerbyScriptRunner} can use to execute SQL scripts.
+ * 
+ * @author Bindul Bhowmik
+ */
+public enum ScriptExecutionEngine {
+
+	/**
+	 * The Derby <a href="http://db.apache.org/derby/docs/10.12/tools/ctoolsij34525.html">ij</a> tool; supports the full
+	 * ij command language, and echoes every statement and its result to the script log.
+	 */
+	Ij,
+
+	/**
+	 * Executes plain SQL statements directly over JDBC, grouping consecutive <code>INSERT</code> statements into
+	 * batches. The script is read one statement at a time; statements are terminated with a <code>;</code>, and
+	 * <code>--</code> and <code>/&#42; &#42;/</code> comments are ignored. Of the ij commands only <code>COMMIT</code>,
+	 * <code>ROLLBACK</code> and <code>AUTOCOMMIT ON|OFF</code> are supported. Only errors are written to the script
+	 * log, followed by a summary.
+	 */
+	Jdbc;
+}
@@ -0,0 +1,167 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A script log stream keeping a bounded summary of the log in memory: the last lines of the log, and the error lines
+ * (starting with <code>ERROR</code>, as written by both script execution engines) with the line before each, which is
+ * the statement that failed. Lines are truncated to a maximum length, so a script with very long statements does not
+ * fill the heap; the rest of the log is discarded as it is written.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class ScriptLogTail extends OutputStream {
+
+	/**
+	 * The number of last lines of the log kept.
+	 */
+	static final int TAIL_LINES = 20;
+
+	/**
+	 * The number of errors kept; later errors are only counted.
+	 */
+	static final int MAX_ERRORS = 10;
+
+	/**
+	 * The maximum length of a line kept, in bytes.
+	 */
+	static final int MAX_LINE_LENGTH = 1024;
+
+	private static final String ERROR_PREFIX = "ERROR";
+	private static final String TRUNCATED_MARKER = " ...";
+
+	private final Charset charset;
+	private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream();
+	private boolean currentLineTruncated;
+	private String previousLine;
+
+	private final Deque<String> tailLines = new ArrayDeque<>();
+	private final List<String> errors = new ArrayList<>();
+	private int errorCount;
+
+	/**
+	 * Creates a tail of a log written with the character set.
+	 * 
+	 * @param charset The character set of the log
+	 */
+	ScriptLogTail (final String charset) {
+		this.charset = Charset.forName(charset);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#write(int)
+	 */
+	@Override
+	public void write (final int b) {
+		if (b == '\n') {
+			endLine();
+		} else if (currentLine.size() < MAX_LINE_LENGTH) {
+			currentLine.write(b);
+		} else {
+			currentLineTruncated = true;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write (final byte[] b, final int off, final int len) {
+		for (int i = off; i < off + len; i++) {
+			write(b[i]);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.OutputStream#close()
+	 */
+	@Override
+	public void close () {
+		if (currentLine.size() > 0 || currentLineTruncated) {
+			endLine();
+		}
+	}
+
+	private void endLine () {
+		String line = new String(currentLine.toByteArray(), charset);
+		if (line.endsWith("\r")) {
+			line = line.substring(0, line.length() - 1);
+		}
+		if (currentLineTruncated) {
+			line = line + TRUNCATED_MARKER;
+		}
+		currentLine.reset();
+		currentLineTruncated = false;
+
+		if (line.startsWith(ERROR_PREFIX)) {
+			errorCount++;
+			if (errors.size() < MAX_ERRORS) {
+				errors.add((null == previousLine) ? line : previousLine + System.lineSeparator() + line);
+			}
+		}
+		tailLines.addLast(line);
+		if (tailLines.size() > TAIL_LINES) {
+			tailLines.removeFirst();
+		}
+		previousLine = line;
+	}
+
+	/**
+	 * @return The number of error lines written to the log
+	 */
+	int getErrorCount () {
+		return errorCount;
+	}
+
+	/**
+	 * Returns the summary of the log: the errors with the statements that failed, and the last lines of the log.
+	 * 
+	 * @return The summary of the log
+	 */
+	@Override
+	public String toString () {
+		final String lineSeparator = System.lineSeparator();
+		final StringBuilder summary = new StringBuilder();
+		if (errorCount > 0) {
+			summary.append(errorCount).append(" errors");
+			if (errorCount > errors.size()) {
+				summary.append(", the first ").append(errors.size()).append(':');
+			} else {
+				summary.append(':');
+			}
+			summary.append(lineSeparator);
+			for (String error : errors) {
+				summary.append(error).append(lineSeparator);
+			}
+		}
+		summary.append("Last ").append(tailLines.size()).append(" lines of the script log:").append(lineSeparator);
+		for (String line : tailLines) {
+			summary.append(line).append(lineSeparator);
+		}
+		if (currentLine.size() > 0) {
+			summary.append(new String(currentLine.toByteArray(), charset)).append(lineSeparator);
+		}
+		return summary.toString();
+	}
+}
@@ -0,0 +1,371 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deventropy.shared.utils.UrlResourceUtil;
+
+/**
+ * JVM wide cache of the scripts executed by the {@link DerbyScriptRunner} (and so of the post init scripts of the
+ * {@link EmbeddedDerbyResource}), so test classes executing the same scripts do not read (and for the
+ * {@link ScriptExecutionEngine#Jdbc} engine, split into statements) the scripts again.
+ * 
+ * <p>Scripts are cached by their URL and character set. A cached script is used as is while the last modified time and
+ * length of its file (or of the jar file it is in) are unchanged; for other resources, or when the file changed, the
+ * script is read again, and the cached statements are reused if the content has not changed. The cache is bounded by
+ * the total size of the cached scripts, evicting the least recently used scripts; scripts larger than the
+ * {@link #setMaximumSize(long) maximum size} are not cached, and a maximum size of <code>0</code> disables the cache.
+ * Scripts of unknown length (in a jar, or not in the file system) are read up to the maximum size, and streamed as
+ * they are executed if larger.
+ * 
+ * <p>The hit and miss counts are kept to tune the maximum size; a hit is a script that did not have to be split into
+ * statements again, even if it was read to check its content.
+ * 
+ * @author Bindul Bhowmik
+ */
+public final class SqlScriptCache {
+
+	private static final SqlScriptCache INSTANCE = new SqlScriptCache();
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final String FILE_PROTOCOL = "file";
+	private static final String JAR_PROTOCOL = "jar";
+
+	private final Logger log = LogManager.getLogger();
+
+	private final Map<String, CachedScript> scripts = new LinkedHashMap<>(16, 0.75f, true);
+	private long maximumSize = getDefaultMaximumSize();
+	private long size;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	private SqlScriptCache () {
+		// Singleton
+	}
+
+	/**
+	 * Returns the JVM wide script cache.
+	 * 
+	 * @return The script cache
+	 */
+	public static SqlScriptCache getInstance () {
+		return INSTANCE;
+	}
+
+	/**
+	 * Returns the script, from the cache if it has not changed since it was cached.
+	 * 
+	 * @param script The script resource; in a format compatible with {@link UrlResourceUtil}
+	 * @param charset The character set of the script
+	 * @return The script; or <code>null</code> if it is larger than the maximum size of the cache, and should be read
+	 * 		from its URL as it is executed
+	 * @throws IOException Error reading the script
+	 */
+	CachedScript getScript (final String script, final String charset) throws IOException {
+		final URL scriptUrl = UrlResourceUtil.getUrl(script);
+		final String key = scriptUrl.toExternalForm() + '|' + charset;
+		final ResourceStamp stamp = getResourceStamp(scriptUrl);
+		final long currentMaximumSize;
+		synchronized (scripts) {
+			final CachedScript cachedScript = scripts.get(key);
+			if (null != cachedScript && null != stamp && stamp.equals(cachedScript.stamp)) {
+				hitCount.incrementAndGet();
+				return cachedScript;
+			}
+			currentMaximumSize = maximumSize;
+		}
+		if (null != stamp && stamp.length > currentMaximumSize) {
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		final byte[] content = readContent(scriptUrl, currentMaximumSize);
+		if (null == content) {
+			missCount.incrementAndGet();
+			synchronized (scripts) {
+				remove(key);
+			}
+			return null;
+		}
+		final byte[] digest = digest(content);
+		synchronized (scripts) {
+			final CachedScript cachedScript = scripts.get(key);
+			if (null != cachedScript && Arrays.equals(digest, cachedScript.digest)) {
+				// Changed on disk, but not in content
+				cachedScript.stamp = stamp;
+				hitCount.incrementAndGet();
+				return cachedScript;
+			}
+			missCount.incrementAndGet();
+			final CachedScript newScript = new CachedScript(content, digest, charset, stamp);
+			if (null != cachedScript) {
+				remove(key);
+			}
+			if (content.length <= maximumSize) {
+				scripts.put(key, newScript);
+				size += content.length;
+				evict();
+			}
+			return newScript;
+		}
+	}
+
+	private ResourceStamp getResourceStamp (final URL scriptUrl) {
+		try {
+			URL fileUrl = scriptUrl;
+			final boolean inJar = JAR_PROTOCOL.equals(scriptUrl.getProtocol());
+			if (inJar) {
+				final URLConnection connection = scriptUrl.openConnection();
+				if (!(connection instanceof JarURLConnection)) {
+					return null;
+				}
+				fileUrl = ((JarURLConnection) connection).getJarFileURL();
+			}
+			if (!FILE_PROTOCOL.equals(fileUrl.getProtocol())) {
+				return null;
+			}
+			final File file = new File(fileUrl.toURI());
+			if (!file.isFile()) {
+				return null;
+			}
+			// The length of a script in a jar is not known without reading the jar
+			return new ResourceStamp(file.lastModified(), file.length(), inJar ? -1 : file.length());
+		} catch (IOException | URISyntaxException | IllegalArgumentException e) {
+			// The content is checked instead
+			log.catching(Level.TRACE, e);
+			return null;
+		}
+	}
+
+	private byte[] readContent (final URL scriptUrl, final long maximumLength) throws IOException {
+		final InputStream scriptStream = scriptUrl.openStream();
+		try {
+			// Reading a byte more than the maximum length, to find out if the script is longer
+			final long readLimit = (Long.MAX_VALUE == maximumLength) ? maximumLength : maximumLength + 1;
+			final ByteArrayOutputStream content = new ByteArrayOutputStream();
+			if (IOUtils.copyLarge(scriptStream, content, 0, readLimit) > maximumLength) {
+				return null;
+			}
+			return content.toByteArray();
+		} finally {
+			IOUtils.closeQuietly(scriptStream);
+		}
+	}
+
+	private byte[] digest (final byte[] content) {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM).digest(content);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Missing digest algorithm " + DIGEST_ALGORITHM, e);
+		}
+	}
+
+	private void remove (final String key) {
+		final CachedScript removed = scripts.remove(key);
+		if (null != removed) {
+			size -= removed.content.length;
+		}
+	}
+
+	private void evict () {
+		final Iterator<CachedScript> leastRecentlyUsed = scripts.values().iterator();
+		while (size > maximumSize && leastRecentlyUsed.hasNext()) {
+			size -= leastRecentlyUsed.next().content.length;
+			leastRecentlyUsed.remove();
+		}
+	}
+
+	/**
+	 * Sets the maximum total size of the cached scripts; the least recently used scripts are evicted when it is
+	 * exceeded. The cached statements take about as much memory as the scripts.
+	 * 
+	 * @param maximumSizeBytes The maximum size, in bytes of script content; <code>0</code> to disable the cache
+	 */
+	public void setMaximumSize (final long maximumSizeBytes) {
+		if (maximumSizeBytes < 0) {
+			throw new IllegalArgumentException("Maximum size should not be negative");
+		}
+		synchronized (scripts) {
+			this.maximumSize = maximumSizeBytes;
+			evict();
+		}
+	}
+
+	/**
+	 * @return The maximum total size of the cached scripts, in bytes
+	 */
+	public long getMaximumSize () {
+		synchronized (scripts) {
+			return maximumSize;
+		}
+	}
+
+	/**
+	 * The default maximum size of the cache.
+	 * 
+	 * @return 16 MB
+	 */
+	public static long getDefaultMaximumSize () {
+		return 16L * 1024 * 1024;
+	}
+
+	/**
+	 * @return The total size of the cached scripts, in bytes
+	 */
+	public long getSize () {
+		synchronized (scripts) {
+			return size;
+		}
+	}
+
+	/**
+	 * @return The number of cached scripts
+	 */
+	public int getScriptCount () {
+		synchronized (scripts) {
+			return scripts.size();
+		}
+	}
+
+	/**
+	 * @return The number of script executions that used a cached script
+	 */
+	public long getHitCount () {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return The number of script executions that had to read and split a script
+	 */
+	public long getMissCount () {
+		return missCount.get();
+	}
+
+	/**
+	 * Removes all the cached scripts, and resets the hit and miss counts.
+	 */
+	public void clear () {
+		synchronized (scripts) {
+			scripts.clear();
+			size = 0;
+		}
+		hitCount.set(0);
+		missCount.set(0);
+	}
+
+	/**
+	 * The last modified time and length of the file of a script resource (the script file, or the jar file it is in),
+	 * and the length of the script if known.
+	 */
+	private static final class ResourceStamp {
+
+		private final long lastModified;
+		private final long fileLength;
+		private final long length;
+
+		private ResourceStamp (final long lastModified, final long fileLength, final long length) {
+			this.lastModified = lastModified;
+			this.fileLength = fileLength;
+			this.length = length;
+		}
+
+		@Override
+		public boolean equals (final Object obj) {
+			if (!(obj instanceof ResourceStamp)) {
+				return false;
+			}
+			final ResourceStamp other = (ResourceStamp) obj;
+			return lastModified == other.lastModified && fileLength == other.fileLength;
+		}
+
+		@Override
+		public int hashCode () {
+			return (int) (lastModified ^ fileLength);
+		}
+	}
+
+	/**
+	 * The content of a script, and its statements split by the {@link SqlScriptTokenizer} on first use.
+	 */
+	static final class CachedScript {
+
+		private final byte[] content;
+		private final byte[] digest;
+		private final String charset;
+		private ResourceStamp stamp;
+		private List<String> statements;
+
+		private CachedScript (final byte[] content, final byte[] digest, final String charset,
+				final ResourceStamp stamp) {
+			this.content = content;
+			this.digest = digest;
+			this.charset = charset;
+			this.stamp = stamp;
+		}
+
+		/**
+		 * @return A stream of the script content
+		 */
+		InputStream openStream () {
+			return new ByteArrayInputStream(content);
+		}
+
+		/**
+		 * Returns the statements of the script, without the terminators.
+		 * 
+		 * @return The statements
+		 * @throws IOException Error splitting the script
+		 */
+		synchronized List<String> getStatements () throws IOException {
+			if (null == statements) {
+				final SqlScriptTokenizer tokenizer = new SqlScriptTokenizer(
+						new InputStreamReader(openStream(), charset));
+				final List<String> scriptStatements = new ArrayList<>();
+				String sqlStatement;
+				while (null != (sqlStatement = tokenizer.nextStatement())) {
+					scriptStatements.add(sqlStatement);
+				}
+				statements = Collections.unmodifiableList(scriptStatements);
+			}
+			return statements;
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a SQL script into statements, reading the script one statement at a time. Statements are terminated by a
+ * <code>;</code> (or the end of the script); the terminator is not part of the returned statement. Line
+ * (<code>--</code>) and bracketed (<code>/&#42; &#42;/</code>, which may be nested) comments are removed, and
+ * terminators or comment markers in quoted strings and delimited identifiers are ignored.
+ * 
+ * @author Bindul Bhowmik
+ */
+final class SqlScriptTokenizer {
+
+	private static final int EOF = -1;
+	private static final char STATEMENT_TERMINATOR = ';';
+	private static final char STRING_QUOTE = '\'';
+	private static final char IDENTIFIER_QUOTE = '"';
+
+	private final Reader reader;
+	private int pushedBack = EOF;
+
+	/**
+	 * Creates a tokenizer for the script; the reader should be buffered.
+	 * 
+	 * @param reader The script reader
+	 */
+	SqlScriptTokenizer (final Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Returns the next statement in the script, without the terminator and surrounding whitespace.
+	 * 
+	 * @return The next statement; or <code>null</code> at the end of the script
+	 * @throws IOException Error reading the script
+	 */
+	String nextStatement () throws IOException {
+		final StringBuilder statement = new StringBuilder();
+		int current;
+		while (EOF != (current = read())) {
+			if (STATEMENT_TERMINATOR == current) {
+				if (hasContent(statement)) {
+					return statement.toString().trim();
+				}
+				statement.setLength(0);
+			} else if (STRING_QUOTE == current || IDENTIFIER_QUOTE == current) {
+				readQuoted(statement, (char) current);
+			} else if ('-' == current && isNext('-')) {
+				skipLineComment();
+				statement.append('\n');
+			} else if ('/' == current && isNext('*')) {
+				skipBracketedComment();
+				statement.append(' ');
+			} else {
+				statement.append((char) current);
+			}
+		}
+		return hasContent(statement) ? statement.toString().trim() : null;
+	}
+
+	private boolean hasContent (final StringBuilder statement) {
+		for (int i = 0; i < statement.length(); i++) {
+			if (!Character.isWhitespace(statement.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void readQuoted (final StringBuilder statement, final char quote) throws IOException {
+		statement.append(quote);
+		int current;
+		while (EOF != (current = read())) {
+			statement.append((char) current);
+			if (quote == current) {
+				if (isNext(quote)) {
+					// Escaped quote
+					statement.append(quote);
+				} else {
+					return;
+				}
+			}
+		}
+	}
+
+	private void skipLineComment () throws IOException {
+		int current;
+		while (EOF != (current = read())) {
+			if ('\n' == current || '\r' == current) {
+				return;
+			}
+		}
+	}
+
+	private void skipBracketedComment () throws IOException {
+		int depth = 1;
+		int current;
+		while (depth > 0 && EOF != (current = read())) {
+			if ('*' == current && isNext('/')) {
+				depth--;
+			} else if ('/' == current && isNext('*')) {
+				depth++;
+			}
+		}
+	}
+
+	/**
+	 * Consumes the next character if it is the expected one.
+	 */
+	private boolean isNext (final char expected) throws IOException {
+		final int next = read();
+		if (expected == next) {
+			return true;
+		}
+		pushedBack = next;
+		return false;
+	}
+
+	private int read () throws IOException {
+		if (EOF != pushedBack) {
+			final int current = pushedBack;
+			pushedBack = EOF;
+			return current;
+		}
+		return reader.read();
+	}
+}
@@ -0,0 +1,275 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deventropy.shared.utils.ArgumentCheck;
+import org.junit.rules.ExternalResource;
+
+/**
+ * Provides a connection to a running {@link EmbeddedDerbyResource} in a transaction that is rolled back at the end of
+ * each test; so a database set up once for a test class can be used by every test method in the class without the
+ * changes made by one test being visible to the next.
+ * 
+ * <p>The {@link #getConnection() connection} handed to the test has auto commit turned off; calls to
+ * <code>commit()</code>, <code>setAutoCommit(true)</code> and <code>close()</code> on it are ignored so the code under
+ * test cannot end the test transaction. Calls to <code>rollback()</code> roll back all changes made in the test so
+ * far (or, for a nested resource, the changes made since it began); savepoints can be used for finer control.
+ * 
+ * <p>With {@link DerbyResourceConfig#useStatementProfiling() statement profiling} enabled for the Derby resource, the
+ * statements executed on the connection are profiled; and with
+ * {@link DerbyResourceConfig#useQueryPlanCapture() query plan capture} enabled, their query plans are captured.
+ * 
+ * <p>A resource may be nested in another {@link TransactionalConnectionResource}, in which case it shares the outer
+ * connection and transaction, and rolls back to a savepoint set when it begins; calls to <code>rollback()</code> on
+ * its connection also roll back to the savepoint, leaving the changes made in the outer transaction.
+ * 
+ * <p>Example of usage:
+ * <pre>
+ * public class TransactionalDerbyTest {
+ * 
+ * 	private static TemporaryFolder tempFolder = new TemporaryFolder();
+ * 	private static EmbeddedDerbyResource embeddedDerbyResource =
+ * 		new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().addPostInitScript(...), tempFolder);
+ * 
+ * 	&#064;ClassRule
+ * 	public static RuleChain derbyRuleChain = RuleChain.outerRule(tempFolder).around(embeddedDerbyResource);
+ * 
+ * 	&#064;Rule
+ * 	public TransactionalConnectionResource transaction = new TransactionalConnectionResource(embeddedDerbyResource);
+ * 
+ * 	&#064;Test
+ * 	public void test () throws SQLException {
+ * 		final Connection connection = transaction.getConnection();
+ * 		// Changes made using the connection are rolled back after the test
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author Bindul Bhowmik
+ */
+public class TransactionalConnectionResource extends ExternalResource implements Closeable {
+
+	private final Logger log = LogManager.getLogger();
+
+	private final EmbeddedDerbyResource embeddedDerbyResource;
+	private final TransactionalConnectionResource outerTransaction;
+
+	private Connection physicalConnection;
+	private Connection transactionalConnection;
+	private Savepoint nestedSavepoint;
+
+	/**
+	 * Creates a new transactional connection resource on the running Derby resource.
+	 * 
+	 * @param embeddedDerbyResource The Derby resource to connect to; should be started before {@link #begin()}
+	 */
+	public TransactionalConnectionResource (final EmbeddedDerbyResource embeddedDerbyResource) {
+		ArgumentCheck.notNull(embeddedDerbyResource, "Embedded derby resource");
+		this.embeddedDerbyResource = embeddedDerbyResource;
+		this.outerTransaction = null;
+	}
+
+	/**
+	 * Creates a new transactional connection resource nested in an outer transaction. The nested resource uses the
+	 * connection of the outer resource, and rolls back to a savepoint set when it begins.
+	 * 
+	 * @param outerTransaction The outer transaction; should have begun before {@link #begin()}
+	 */
+	public TransactionalConnectionResource (final TransactionalConnectionResource outerTransaction) {
+		ArgumentCheck.notNull(outerTransaction, "Outer transaction");
+		this.embeddedDerbyResource = outerTransaction.embeddedDerbyResource;
+		this.outerTransaction = outerTransaction;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.junit.rules.ExternalResource#before()
+	 */
+	@Override
+	protected void before () throws Throwable {
+		super.before();
+		this.begin();
+	}
+
+	/**
+	 * Opens the connection (or sets the savepoint for a nested resource) and begins the transaction.
+	 * 
+	 * <p><em>Note:</em> If using this instance as a JUnit {@linkplain org.junit.Rule}, do not call this method;
+	 * initialization is already handled from the {@linkplain org.junit.rules.ExternalResource#before()}.
+	 * 
+	 * @throws SQLException Error opening the connection or setting the savepoint
+	 */
+	public void begin () throws SQLException {
+		if (null != physicalConnection) {
+			throw new IllegalStateException("Transaction already begun");
+		}
+		if (null == outerTransaction) {
+			final Connection conn = DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl());
+			try {
+				if (embeddedDerbyResource.isQueryPlanCaptureEnabled()) {
+					DerbyQueryPlans.enableCapture(conn);
+				}
+				conn.setAutoCommit(false);
+			} catch (SQLException e) {
+				DerbyUtils.closeQuietly(conn);
+				throw e;
+			}
+			physicalConnection = conn;
+		} else {
+			physicalConnection = outerTransaction.getPhysicalConnection();
+			nestedSavepoint = physicalConnection.setSavepoint();
+		}
+		final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class}, new TransactionalConnectionHandler(physicalConnection));
+		final DerbyStatementProfiler statementProfiler = embeddedDerbyResource.getStatementProfiler();
+		transactionalConnection = (null == statementProfiler) ? connection : statementProfiler.wrap(connection);
+	}
+
+	/**
+	 * Returns the connection in the test transaction.
+	 * 
+	 * @return The transactional connection
+	 */
+	public Connection getConnection () {
+		if (null == transactionalConnection) {
+			throw new IllegalStateException("Transaction not begun");
+		}
+		return transactionalConnection;
+	}
+
+	/**
+	 * Sets a savepoint in the test transaction; changes made after the savepoint can be rolled back using
+	 * {@link #rollbackToSavepoint(Savepoint)}.
+	 * 
+	 * @param name The name of the savepoint
+	 * @return The new savepoint
+	 * @throws SQLException Error setting the savepoint
+	 */
+	public Savepoint setSavepoint (final String name) throws SQLException {
+		return getPhysicalConnection().setSavepoint(name);
+	}
+
+	/**
+	 * Rolls back changes made in the test transaction after the savepoint was set.
+	 * 
+	 * @param savepoint The savepoint to roll back to
+	 * @throws SQLException Error rolling back
+	 */
+	public void rollbackToSavepoint (final Savepoint savepoint) throws SQLException {
+		getPhysicalConnection().rollback(savepoint);
+	}
+
+	private Connection getPhysicalConnection () {
+		if (null == physicalConnection) {
+			throw new IllegalStateException("Transaction not begun");
+		}
+		return physicalConnection;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.junit.rules.ExternalResource#after()
+	 */
+	@Override
+	protected void after () {
+		super.after();
+		try {
+			this.close();
+		} catch (IOException e) {
+			// Ignore
+			log.catching(Level.TRACE, e);
+		}
+	}
+
+	/**
+	 * Rolls back the test transaction and closes the connection (or rolls back to and releases the savepoint for a
+	 * nested resource).
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close () throws IOException {
+		if (null == physicalConnection) {
+			return;
+		}
+		try {
+			if (null == outerTransaction) {
+				physicalConnection.rollback();
+			} else {
+				physicalConnection.rollback(nestedSavepoint);
+				physicalConnection.releaseSavepoint(nestedSavepoint);
+			}
+		} catch (SQLException e) {
+			throw new IOException("Error rolling back the test transaction", e);
+		} finally {
+			if (null == outerTransaction) {
+				DerbyUtils.closeQuietly(physicalConnection);
+			}
+			physicalConnection = null;
+			transactionalConnection = null;
+			nestedSavepoint = null;
+		}
+	}
+
+	private void rollbackNestedTransaction () throws SQLException {
+		physicalConnection.rollback(nestedSavepoint);
+		physicalConnection.releaseSavepoint(nestedSavepoint);
+		nestedSavepoint = physicalConnection.setSavepoint();
+	}
+
+	/**
+	 * Keeps the code under test from ending the test transaction, or the outer transaction of a nested resource.
+	 */
+	private final class TransactionalConnectionHandler implements InvocationHandler {
+
+		private final Connection wrapped;
+
+		private TransactionalConnectionHandler (final Connection wrapped) {
+			this.wrapped = wrapped;
+		}
+
+		@Override
+		public Object invoke (final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String methodName = method.getName();
+			if ("commit".equals(methodName) || "close".equals(methodName)
+					|| ("setAutoCommit".equals(methodName) && Boolean.TRUE.equals(args[0]))) {
+				log.trace("Ignoring {} on the transactional connection", methodName);
+				return null;
+			}
+			if ("rollback".equals(methodName) && null == args && null != outerTransaction) {
+				rollbackNestedTransaction();
+				return null;
+			}
+			try {
+				return method.invoke(wrapped, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
@@ -61,4 +61,49 @@ public abstract class AbstractEmbeddedDerbyResourceTest {
 			DerbyUtils.closeQuietly(connection);
 		}
 	}
+
+	/**
+	 * Counts the people in the database; based on SimpeDb01 setup.
+	 * @param jdbcUrl The JDBC url
+	 * @return The number of rows in the people table
+	 * @throws SQLException SQL exception counting the people
+	 */
+	protected int simpleDb01CountPeople (final String jdbcUrl) throws SQLException {
+		Connection connection = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+
+		try {
+			connection = DriverManager.getConnection(jdbcUrl);
+			stmt = connection.prepareStatement("SELECT COUNT(*) FROM PEOPLE");
+			rs = stmt.executeQuery();
+			assertTrue(rs.next());
+			return rs.getInt(1);
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+			DerbyUtils.closeQuietly(connection);
+		}
+	}
+
+	/**
+	 * Adds a person to the database; based on SimpeDb01 setup.
+	 * @param jdbcUrl The JDBC url
+	 * @param person The name of the person
+	 * @throws SQLException SQL exception adding the person
+	 */
+	protected void simpleDb01AddPerson (final String jdbcUrl, final String person) throws SQLException {
+		Connection connection = null;
+		PreparedStatement stmt = null;
+
+		try {
+			connection = DriverManager.getConnection(jdbcUrl);
+			stmt = connection.prepareStatement("INSERT INTO PEOPLE (PERSON) VALUES (?)");
+			stmt.setString(1, person);
+			assertEquals(1, stmt.executeUpdate());
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+			DerbyUtils.closeQuietly(connection);
+		}
+	}
 }
@@ -0,0 +1,232 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link org.deventropy.junithelper.derby.DerbyDataGenerator}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class DerbyDataGeneratorTest {
+
+	private static final String DDL_SCRIPT = "classpath:/org/deventropy/junithelper/derby/datagen01/ddl.sql";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	private EmbeddedDerbyResource createResource () throws IOException {
+		return new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().useInMemoryDatabase("data-generator-01")
+				.addPostInitScript(DDL_SCRIPT), tempFolder.newFolder());
+	}
+
+	private DerbyDataGenerator createGenerator (final long seed) {
+		// Children added first, generated after their parents
+		return new DerbyDataGenerator(seed).useBatchSize(64).addTable("ORDER_LINES", 500).addTable("ORDERS", 200)
+				.addTable("PRODUCTS", 20).addTable("CUSTOMERS", 100);
+	}
+
+	@Test
+	public void testGenerate () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = createResource();
+		try {
+			embeddedDerbyResource.start();
+			final DerbyDataGenerator.Result result = embeddedDerbyResource.generateData(createGenerator(42));
+
+			assertEquals(Arrays.asList("PRODUCTS", "CUSTOMERS", "ORDERS", "ORDER_LINES"), result.getTables());
+			assertEquals(820, result.getTotalRows());
+			assertEquals(500, result.getRows("ORDER_LINES"));
+			assertEquals(0, result.getRows("PEOPLE"));
+			assertTrue(result.getRowsPerSecond() > 0);
+
+			final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+			assertEquals(100, queryLong(jdbcUrl, "SELECT COUNT(*) FROM CUSTOMERS"));
+			assertEquals("Unique values", 100, queryLong(jdbcUrl, "SELECT COUNT(DISTINCT EMAIL) FROM CUSTOMERS"));
+			assertEquals("Unique values of a nullable column", 100,
+					queryLong(jdbcUrl, "SELECT COUNT(DISTINCT PHONE) FROM CUSTOMERS"));
+			assertEquals("Self references are null", 0,
+					queryLong(jdbcUrl, "SELECT COUNT(*) FROM CUSTOMERS WHERE REFERRER_ID IS NOT NULL"));
+			assertEquals(20, queryLong(jdbcUrl, "SELECT COUNT(*) FROM PRODUCTS"));
+			assertEquals(200, queryLong(jdbcUrl, "SELECT COUNT(*) FROM ORDERS"));
+			assertEquals(500, queryLong(jdbcUrl, "SELECT COUNT(*) FROM ORDER_LINES"));
+			assertEquals("Unique combinations of the parent rows", 500, queryLong(jdbcUrl,
+					"SELECT COUNT(*) FROM (SELECT DISTINCT ORDER_ID, PRODUCT_CODE FROM ORDER_LINES) L"));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testReproducible () throws IOException, SQLException {
+		final List<String> firstRows = generateRows(42);
+		assertEquals(firstRows, generateRows(42));
+		assertNotEquals(firstRows, generateRows(43));
+	}
+
+	private List<String> generateRows (final long seed) throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = createResource();
+		try {
+			embeddedDerbyResource.start();
+			embeddedDerbyResource.generateData(createGenerator(seed));
+			final List<String> rows = new ArrayList<>();
+			rows.addAll(queryRows(embeddedDerbyResource.getJdbcUrl(), "SELECT * FROM CUSTOMERS ORDER BY CUSTOMER_ID"));
+			rows.addAll(queryRows(embeddedDerbyResource.getJdbcUrl(),
+					"SELECT ORDER_ID, CUSTOMER_ID, ORDERED, CAST(NOTES AS VARCHAR(32)) FROM ORDERS ORDER BY ORDER_ID"));
+			rows.addAll(queryRows(embeddedDerbyResource.getJdbcUrl(),
+					"SELECT * FROM ORDER_LINES ORDER BY ORDER_ID, PRODUCT_CODE"));
+			return rows;
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testGenerateAgain () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = createResource();
+		try {
+			embeddedDerbyResource.start();
+			embeddedDerbyResource.generateData(createGenerator(42));
+			// Unique values continue after the existing rows
+			embeddedDerbyResource.generateData(createGenerator(42));
+
+			final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+			assertEquals(40, queryLong(jdbcUrl, "SELECT COUNT(*) FROM PRODUCTS"));
+			assertEquals(400, queryLong(jdbcUrl, "SELECT MAX(ORDER_ID) FROM ORDERS"));
+			assertEquals(1000, queryLong(jdbcUrl, "SELECT COUNT(*) FROM ORDER_LINES"));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testGenerateIntoExistingRows () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = createResource();
+		try {
+			embeddedDerbyResource.start();
+			final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+			try (Connection connection = DriverManager.getConnection(jdbcUrl);
+					Statement statement = connection.createStatement()) {
+				statement.executeUpdate("INSERT INTO EVENTS VALUES ('10', '2000-01-10', '2000-01-01 00:00:10'), "
+						+ "('a', NULL, NULL), ('7 ', '2000-01-05', '2000-01-01 00:00:05.5')");
+			}
+			final DerbyDataGenerator generator = new DerbyDataGenerator(42).addTable("EVENTS", 50);
+			embeddedDerbyResource.generateData(generator);
+			assertEquals(53, queryLong(jdbcUrl, "SELECT COUNT(*) FROM EVENTS"));
+			assertEquals("Generated after the existing values", 0, queryLong(jdbcUrl,
+					"SELECT COUNT(*) FROM EVENTS WHERE EVENT_CODE <> 'a' AND (EVENT_DAY <= '2000-01-10' "
+					+ "OR EVENT_TIME <= '2000-01-01 00:00:10') AND EVENT_CODE NOT IN ('10', '7')"));
+
+			// Generated again after deleting a generated row
+			try (Connection connection = DriverManager.getConnection(jdbcUrl);
+					Statement statement = connection.createStatement()) {
+				statement.executeUpdate("DELETE FROM EVENTS WHERE EVENT_DAY = (SELECT MIN(EVENT_DAY) FROM EVENTS "
+						+ "WHERE EVENT_DAY > '2000-01-10')");
+			}
+			embeddedDerbyResource.generateData(generator);
+			assertEquals(102, queryLong(jdbcUrl, "SELECT COUNT(*) FROM EVENTS"));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testNotEnoughParentRows () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = createResource();
+		try {
+			embeddedDerbyResource.start();
+			try {
+				embeddedDerbyResource.generateData(new DerbyDataGenerator(42).addTable("CUSTOMERS", 10)
+						.addTable("ORDERS", 10).addTable("PRODUCTS", 10).addTable("ORDER_LINES", 101));
+				fail("Only 100 distinct order lines are possible");
+			} catch (IllegalStateException e) {
+				// Expected
+				assertTrue(e.getMessage(), e.getMessage().contains("ORDER_LINES"));
+			}
+			// The tables generated before are committed
+			assertEquals(10, queryLong(embeddedDerbyResource.getJdbcUrl(), "SELECT COUNT(*) FROM ORDERS"));
+			assertEquals(0, queryLong(embeddedDerbyResource.getJdbcUrl(), "SELECT COUNT(*) FROM ORDER_LINES"));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test (expected = SQLException.class)
+	public void testMissingTable () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = createResource();
+		try {
+			embeddedDerbyResource.start();
+			embeddedDerbyResource.generateData(new DerbyDataGenerator(42).addTable("MISSING", 10));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testZeroRows () {
+		new DerbyDataGenerator(42).addTable("PRODUCTS", 0);
+	}
+
+	private long queryLong (final String jdbcUrl, final String sql) throws SQLException {
+		try (Connection connection = DriverManager.getConnection(jdbcUrl);
+				Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery(sql)) {
+			assertTrue(resultSet.next());
+			return resultSet.getLong(1);
+		}
+	}
+
+	private List<String> queryRows (final String jdbcUrl, final String sql) throws SQLException {
+		final List<String> rows = new ArrayList<>();
+		try (Connection connection = DriverManager.getConnection(jdbcUrl);
+				Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery(sql)) {
+			final int columns = resultSet.getMetaData().getColumnCount();
+			while (resultSet.next()) {
+				final StringBuilder row = new StringBuilder();
+				for (int i = 1; i <= columns; i++) {
+					row.append(resultSet.getString(i)).append('|');
+				}
+				rows.add(row.toString());
+			}
+		}
+		return rows;
+	}
+}
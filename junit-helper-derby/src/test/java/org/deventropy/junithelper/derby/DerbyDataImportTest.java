@@ -0,0 +1,210 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Tests for {@link org.deventropy.junithelper.derby.DerbyDataImport} executed by the
+ * {@link org.deventropy.junithelper.derby.EmbeddedDerbyResource}.
+ * 
+ * @author Bindul Bhowmik
+ */
+@NotThreadSafe
+public class DerbyDataImportTest {
+
+	private static final String DDL_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql";
+	private static final String DML_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/dml.sql";
+	private static final String PEOPLE_DATA = "/org/deventropy/junithelper/derby/simple01/people.csv";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testImportAfterScripts () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig
+				.buildDefault().useInMemoryDatabase("data-import-01").useDevNullErrorLogging()
+				.addPostInitScript(DDL_SCRIPT).addPostInitScript(DML_SCRIPT)
+				.addPostInitDataImport(new DerbyDataImport("PEOPLE", "classpath:" + PEOPLE_DATA)
+						.useColumns("PERSON", "EMAIL").useSkipHeaderLines(1)),
+				tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			final List<String> people = listPeople(embeddedDerbyResource.getJdbcUrl());
+			assertEquals(4, people.size());
+			assertEquals("John Doe|john.doe@example.com", people.get(0));
+			assertEquals("Jane Doe|jane.doe@example.com", people.get(1));
+			assertEquals("Mary Major|null", people.get(3));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testImportColumnIndexesAndReplace () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig
+				.buildDefault().useInMemoryDatabase("data-import-02").useDevNullErrorLogging()
+				.addPostInitScript(DDL_SCRIPT).addPostInitScript(DML_SCRIPT)
+				.addPostInitDataImport(new DerbyDataImport("PEOPLE", "classpath:" + PEOPLE_DATA).useSchema("APP")
+						.useColumns("PERSON").useColumnIndexes(1).useSkipHeaderLines(1).useCharset("UTF-8")
+						.useReplace()),
+				tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			final List<String> people = listPeople(embeddedDerbyResource.getJdbcUrl());
+			assertEquals("Existing data should be replaced", 3, people.size());
+			assertEquals("Jane Doe|null", people.get(0));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testImportQuotedLineBreaks () throws IOException, SQLException {
+		final File dataFile = tempFolder.newFile("people.csv");
+		FileUtils.writeStringToFile(dataFile, "PERSON\r\n\"Jane\r\nDoe\nSmith\"\r\n\"Richard Roe\"\r\n", "UTF-8");
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig
+				.buildDefault().useInMemoryDatabase("data-import-05").useDevNullErrorLogging()
+				.addPostInitScript(DDL_SCRIPT)
+				.addPostInitDataImport(new DerbyDataImport("PEOPLE", dataFile.toURI().toString())
+						.useColumns("PERSON").useSkipHeaderLines(1)),
+				tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			final List<String> people = listPeople(embeddedDerbyResource.getJdbcUrl());
+			assertEquals(2, people.size());
+			assertEquals("Line breaks should be imported unchanged", "Jane\r\nDoe\nSmith|null", people.get(0));
+			assertEquals("Richard Roe|null", people.get(1));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testImportStagedFromJar () throws IOException, SQLException {
+		final File dataJar = new File(tempFolder.getRoot(), "data.jar");
+		final ZipOutputStream jarStream = new ZipOutputStream(new FileOutputStream(dataJar));
+		final InputStream dataStream = getClass().getResourceAsStream(PEOPLE_DATA);
+		try {
+			jarStream.putNextEntry(new ZipEntry("jar-data/people.csv"));
+			IOUtils.copy(dataStream, jarStream);
+			jarStream.closeEntry();
+		} finally {
+			IOUtils.closeQuietly(dataStream);
+			IOUtils.closeQuietly(jarStream);
+		}
+
+		final Thread currentThread = Thread.currentThread();
+		final ClassLoader oldClassLoader = currentThread.getContextClassLoader();
+		final URLClassLoader jarClassLoader = new URLClassLoader(new URL[] {dataJar.toURI().toURL()}, oldClassLoader);
+		final File derbySystemHome = tempFolder.newFolder();
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig
+				.buildDefault().useInMemoryDatabase("data-import-03").useDevNullErrorLogging()
+				.addPostInitScript(DDL_SCRIPT)
+				.addPostInitDataImport(new DerbyDataImport("PEOPLE", "classpath:/jar-data/people.csv")
+						.useColumns("PERSON", "EMAIL").useSkipHeaderLines(1)),
+				derbySystemHome);
+		currentThread.setContextClassLoader(jarClassLoader);
+		try {
+			embeddedDerbyResource.start();
+			assertEquals(3, listPeople(embeddedDerbyResource.getJdbcUrl()).size());
+			for (String fileName : derbySystemHome.list()) {
+				assertFalse("Staged data should be removed", fileName.startsWith("import-"));
+			}
+		} finally {
+			currentThread.setContextClassLoader(oldClassLoader);
+			embeddedDerbyResource.close();
+			jarClassLoader.close();
+		}
+	}
+
+	@Test
+	public void testImportError () throws IOException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig
+				.buildDefault().useInMemoryDatabase("data-import-04").useDevNullErrorLogging()
+				.addPostInitScript(DDL_SCRIPT)
+				.addPostInitDataImport(new DerbyDataImport("NO_SUCH_TABLE", "classpath:" + PEOPLE_DATA)),
+				tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			fail("Import into a missing table should fail");
+		} catch (SQLException e) {
+			// Expected
+			assertNotNull(e.getMessage());
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeHeaderLines () {
+		new DerbyDataImport("PEOPLE", "classpath:" + PEOPLE_DATA).useSkipHeaderLines(-1);
+	}
+
+	private List<String> listPeople (final String jdbcUrl) throws SQLException {
+		final List<String> people = new ArrayList<>();
+		Connection conn = null;
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DriverManager.getConnection(jdbcUrl);
+			stmt = conn.createStatement();
+			rs = stmt.executeQuery("SELECT PERSON, EMAIL FROM PEOPLE ORDER BY PERSON_ID");
+			while (rs.next()) {
+				people.add(rs.getString(1) + "|" + rs.getString(2));
+			}
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+			DerbyUtils.closeQuietly(conn);
+		}
+		return people;
+	}
+}
@@ -0,0 +1,129 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests resources using {@link DerbyDatabasePool prewarmed databases}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class DerbyDatabasePoolTest extends AbstractEmbeddedDerbyResourceTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private final DerbyDatabasePool databasePool = DerbyDatabasePool.getInstance();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	/**
+	 * Waits for the databases being prewarmed, so they are not created while the Derby system is shut down.
+	 * 
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	@After
+	public void awaitBackgroundTasks () throws InterruptedException {
+		assertTrue("Background tasks should complete",
+				DerbyBackgroundExecutor.getInstance().awaitIdle(30, TimeUnit.SECONDS));
+	}
+
+	private EmbeddedDerbyResource createResource () throws IOException {
+		return new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().usePrewarmedDatabases(2)
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+				tempFolder.newFolder());
+	}
+
+	@Test
+	public void testPrewarmedDatabases () throws IOException, SQLException, InterruptedException {
+		final long hits = databasePool.getHitCount();
+		final long misses = databasePool.getMissCount();
+
+		// Nothing ready for the first resource
+		final EmbeddedDerbyResource firstResource = createResource();
+		final String firstJdbcUrl;
+		final int people;
+		try {
+			firstResource.start();
+			firstJdbcUrl = firstResource.getJdbcUrl();
+			assertEquals(misses + 1, databasePool.getMissCount());
+			simpleDb01Check01(firstJdbcUrl);
+			people = simpleDb01CountPeople(firstJdbcUrl);
+			simpleDb01AddPerson(firstJdbcUrl, "Jane Doe");
+		} finally {
+			firstResource.close();
+		}
+		awaitBackgroundTasks();
+		try {
+			DriverManager.getConnection(firstJdbcUrl).close();
+			fail("The database should have been dropped");
+		} catch (SQLException e) {
+			// Expected, database not found
+			assertEquals("XJ004", e.getSQLState());
+		}
+
+		// The second one claims a ready database, with the post init scripts executed
+		final EmbeddedDerbyResource secondResource = createResource();
+		try {
+			secondResource.start();
+			final String secondJdbcUrl = secondResource.getJdbcUrl();
+			assertEquals(hits + 1, databasePool.getHitCount());
+			assertNotEquals(firstJdbcUrl, secondJdbcUrl);
+			simpleDb01Check01(secondJdbcUrl);
+			assertEquals(people, simpleDb01CountPeople(secondJdbcUrl));
+		} finally {
+			secondResource.close();
+		}
+	}
+
+	@Test
+	public void testRestorePrewarmedDatabase () throws IOException, SQLException, InterruptedException {
+		final EmbeddedDerbyResource embeddedDerbyResource = createResource();
+		try {
+			embeddedDerbyResource.start();
+			final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+			final int people = simpleDb01CountPeople(jdbcUrl);
+			embeddedDerbyResource.snapshot("snapshot01");
+			simpleDb01AddPerson(jdbcUrl, "Jane Doe");
+
+			embeddedDerbyResource.restore("snapshot01");
+			awaitBackgroundTasks();
+			assertEquals("The restored database should not be dropped", people, simpleDb01CountPeople(jdbcUrl));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the query plan capture of {@link org.deventropy.junithelper.derby.EmbeddedDerbyResource}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class DerbyQueryPlansTest {
+
+	private static final String SELECT_BY_NAME = "SELECT PERSON_ID FROM PEOPLE WHERE PERSON = ?";
+	private static final String SELECT_BY_ID = "SELECT PERSON FROM PEOPLE WHERE PERSON_ID = ?";
+
+	private static TemporaryFolder tempFolder = new TemporaryFolder();
+	private static EmbeddedDerbyResource embeddedDerbyResource =
+		new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().useDevNullErrorLogging().useQueryPlanCapture()
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+			tempFolder);
+
+	@ClassRule
+	public static RuleChain derbyRuleChain = RuleChain.outerRule(tempFolder).around(embeddedDerbyResource);
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	/**
+	 * Only check the plans of each test.
+	 * 
+	 * @throws SQLException Error clearing the plans
+	 */
+	@Before
+	public void clearQueryPlans () throws SQLException {
+		embeddedDerbyResource.clearQueryPlans();
+	}
+
+	@Test
+	public void testIndexUsed () throws SQLException {
+		final Connection connection = embeddedDerbyResource.getDataSource().getConnection();
+		try {
+			executeQuery(connection, SELECT_BY_ID, 1);
+		} finally {
+			connection.close();
+		}
+		embeddedDerbyResource.assertNoTableScan("PEOPLE");
+	}
+
+	@Test
+	public void testTableScanDetected () throws SQLException {
+		final Connection connection = embeddedDerbyResource.getDataSource().getConnection();
+		try {
+			executeQuery(connection, SELECT_BY_NAME, "John Doe");
+		} finally {
+			connection.close();
+		}
+		assertTableScanned("people", SELECT_BY_NAME);
+	}
+
+	@Test
+	public void testTransactionalConnectionCaptured () throws SQLException, IOException {
+		final TransactionalConnectionResource transaction = new TransactionalConnectionResource(embeddedDerbyResource);
+		transaction.begin();
+		try {
+			executeQuery(transaction.getConnection(), SELECT_BY_NAME, "John Doe");
+			// The plans are visible before the test transaction is rolled back
+			assertTableScanned("PEOPLE", SELECT_BY_NAME);
+		} finally {
+			transaction.close();
+		}
+	}
+
+	@Test
+	public void testDumpQueryPlans () throws SQLException, IOException {
+		final Connection connection = embeddedDerbyResource.getDataSource().getConnection();
+		try {
+			executeQuery(connection, SELECT_BY_ID, 1);
+			executeQuery(connection, SELECT_BY_NAME, "John Doe");
+		} finally {
+			connection.close();
+		}
+
+		final File queryPlanFile = embeddedDerbyResource.dumpQueryPlans("query-plans.txt");
+		assertEquals(embeddedDerbyResource.getDerbySystemHome(), queryPlanFile.getParentFile());
+		final String queryPlans = FileUtils.readFileToString(queryPlanFile);
+		final int byIdIndex = queryPlans.indexOf(SELECT_BY_ID);
+		final int byNameIndex = queryPlans.indexOf(SELECT_BY_NAME);
+		assertTrue("Plans should be in the order executed", byIdIndex >= 0 && byIdIndex < byNameIndex);
+		assertTrue("Index scan should be in the plan", queryPlans.indexOf("CONSTRAINTSCAN", byIdIndex) < byNameIndex);
+		assertTrue("Table scan should be in the plan", queryPlans.indexOf("\tTABLESCAN", byNameIndex) > byNameIndex);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCaptureNotEnabled () throws SQLException {
+		new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault(), tempFolder).assertNoTableScan("PEOPLE");
+	}
+
+	private void assertTableScanned (final String tableName, final String expectedSql) throws SQLException {
+		AssertionError expected = null;
+		try {
+			embeddedDerbyResource.assertNoTableScan(tableName);
+		} catch (AssertionError e) {
+			expected = e;
+		}
+		assertNotNull("Table scan should be detected", expected);
+		assertTrue("Should list the statement", expected.getMessage().contains(expectedSql));
+	}
+
+	private void executeQuery (final Connection connection, final String sql, final Object parameter)
+			throws SQLException {
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.prepareStatement(sql);
+			stmt.setObject(1, parameter);
+			rs = stmt.executeQuery();
+			assertTrue(rs.next());
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+		}
+	}
+}
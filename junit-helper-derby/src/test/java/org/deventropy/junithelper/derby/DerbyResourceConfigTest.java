@@ -17,6 +17,7 @@ package org.deventropy.junithelper.derby;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.UUID;
 
 import org.junit.Test;
@@ -102,6 +103,21 @@ public class DerbyResourceConfigTest {
 		assertEquals("Database path should be test directory", dbPath, resourceConfig.getDatabasePath());
 	}
 	
+	@Test
+	public void testClasspathProtocol () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault()
+				.useJarSubSubProtocol("/tmp/test.jar", "test/db").useClasspathSubSubProtocol("org/example/db");
+		assertEquals("Sub-sub protocol should be Classpath", JdbcDerbySubSubProtocol.Classpath,
+				resourceConfig.getSubSubProtocol());
+		assertEquals("Database path should be the classpath path", "org/example/db", resourceConfig.getDatabasePath());
+		assertNull("Jar file should be reset", resourceConfig.getJarDatabaseJarFile());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testClasspathProtocolNegative () {
+		DerbyResourceConfig.buildDefault().useClasspathSubSubProtocol("");
+	}
+	
 	@Test
 	public void testErrorLoggingModes () {
 		// Default should be in memory, as should setting inMemory
@@ -119,5 +135,207 @@ public class DerbyResourceConfigTest {
 		assertEquals("Error logging mode should be dev null", ErrorLoggingMode.Default,
 				resourceConfig.getErrorLoggingMode());
 	}
+	
+	@Test
+	public void testTemplateDatabaseStore () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertFalse("Template cache should be disabled by default", resourceConfig.isTemplateDatabaseCacheEnabled());
+		assertNull("No template store by default", resourceConfig.getTemplateDatabaseStore());
+
+		resourceConfig.useTemplateDatabaseCache();
+		assertTrue("Template cache should be enabled", resourceConfig.isTemplateDatabaseCacheEnabled());
+		assertNull("No template store with the JVM cache", resourceConfig.getTemplateDatabaseStore());
+
+		resourceConfig.useTemplateDatabaseStore();
+		assertEquals("Should use the default template store", DerbyResourceConfig.getDefaultTemplateDatabaseStore(),
+				resourceConfig.getTemplateDatabaseStore());
+	}
+
+	@Test
+	public void testConnectionPoolSize () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertEquals("Should use the default pool size", DerbyResourceConfig.getDefaultConnectionPoolSize(),
+				resourceConfig.getConnectionPoolSize());
+
+		resourceConfig.useConnectionPoolSize(2);
+		assertEquals("Pool size should be changed", 2, resourceConfig.getConnectionPoolSize());
+
+		assertFalse("Leak stack traces should be disabled by default", resourceConfig.isConnectionLeakStackTraces());
+		resourceConfig.useConnectionLeakStackTraces();
+		assertTrue("Leak stack traces should be enabled", resourceConfig.isConnectionLeakStackTraces());
+	}
+
+	@Test
+	public void testPostInitScriptStages () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertEquals("Should use the default threads", DerbyResourceConfig.getDefaultPostInitScriptThreads(),
+				resourceConfig.getPostInitScriptThreads());
+		assertTrue(resourceConfig.getPostInitScriptStages().isEmpty());
+
+		resourceConfig.addPostInitScript("ddl.sql").addPostInitScriptStage("a.sql", "b.sql").addPostInitScript("c.sql")
+			.usePostInitScriptThreads(2);
+		assertEquals("Scripts should be in order", Arrays.asList("ddl.sql", "a.sql", "b.sql", "c.sql"),
+				resourceConfig.getPostInitScripts());
+		assertEquals("Stages should be in order", Arrays.asList(Arrays.asList("ddl.sql"),
+				Arrays.asList("a.sql", "b.sql"), Arrays.asList("c.sql")), resourceConfig.getPostInitScriptStages());
+		assertEquals("Threads should be changed", 2, resourceConfig.getPostInitScriptThreads());
+	}
+
+	@Test
+	public void testScriptExecutionEngine () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertEquals("Should use the default engine", DerbyResourceConfig.getDefaultScriptExecutionEngine(),
+				resourceConfig.getScriptExecutionEngine());
+
+		resourceConfig.useScriptExecutionEngine(ScriptExecutionEngine.Jdbc);
+		assertEquals("Engine should be changed", ScriptExecutionEngine.Jdbc, resourceConfig.getScriptExecutionEngine());
+	}
+
+	@Test
+	public void testPostInitDataImports () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertTrue("No data imports by default", resourceConfig.getPostInitDataImports().isEmpty());
+
+		final DerbyDataImport dataImport = new DerbyDataImport("PEOPLE", "classpath:/people.csv");
+		resourceConfig.addPostInitDataImport(dataImport);
+		assertEquals(1, resourceConfig.getPostInitDataImports().size());
+		assertSame(dataImport, resourceConfig.getPostInitDataImports().get(0));
+	}
+
+	@Test
+	public void testDerbyProperties () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertTrue("No derby properties by default", resourceConfig.getDerbyProperties().isEmpty());
+
+		resourceConfig.useTestDurability().usePageCacheSize(2000).usePageSize(16384).useCheckpointInterval(1000000)
+				.useStatementCacheSize(200).addDerbyProperty("derby.storage.pageSize", "32768");
+		assertEquals("test", resourceConfig.getDerbyProperties().get("derby.system.durability"));
+		assertEquals("2000", resourceConfig.getDerbyProperties().get("derby.storage.pageCacheSize"));
+		assertEquals("Later values should replace earlier ones", "32768",
+				resourceConfig.getDerbyProperties().get("derby.storage.pageSize"));
+		assertEquals("1000000", resourceConfig.getDerbyProperties().get("derby.storage.checkpointInterval"));
+		assertEquals("200", resourceConfig.getDerbyProperties().get("derby.language.statementCacheSize"));
+		assertEquals(5, resourceConfig.getDerbyProperties().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPageSizeInvalid () {
+		DerbyResourceConfig.buildDefault().usePageSize(1000);
+	}
+
+	@Test
+	public void testLazyStart () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertFalse("Lazy start should be disabled by default", resourceConfig.isLazyStart());
+		resourceConfig.useLazyStart();
+		assertTrue("Lazy start should be enabled", resourceConfig.isLazyStart());
+	}
+
+	@Test
+	public void testAsynchronousShutdown () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertFalse("Asynchronous shutdown should be disabled by default", resourceConfig.isAsynchronousShutdown());
+		resourceConfig.useAsynchronousShutdown();
+		assertTrue("Asynchronous shutdown should be enabled", resourceConfig.isAsynchronousShutdown());
+		assertTrue("Asynchronous shutdown needs the parallel safe mode", resourceConfig.isParallelSafeMode());
+
+		// Database properties can still be set
+		resourceConfig.usePageSize(8192);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAsynchronousShutdownAfterSystemProperty () {
+		DerbyResourceConfig.buildDefault().useTestDurability().useAsynchronousShutdown();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testSystemPropertyAfterAsynchronousShutdown () {
+		DerbyResourceConfig.buildDefault().useAsynchronousShutdown().usePageCacheSize(100);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testParallelSafeModeAfterSystemProperty () {
+		DerbyResourceConfig.buildDefault().useStatementCacheSize(500).useParallelSafeMode();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testSystemPropertyAfterParallelSafeMode () {
+		DerbyResourceConfig.buildDefault().useParallelSafeMode().useTestDurability();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAsynchronousShutdownAfterErrorLogging () {
+		DerbyResourceConfig.buildDefault().useDevNullErrorLogging().useAsynchronousShutdown();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testErrorLoggingAfterAsynchronousShutdown () {
+		DerbyResourceConfig.buildDefault().useAsynchronousShutdown().useDevNullErrorLogging();
+	}
+
+	@Test
+	public void testStatementProfiling () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertFalse("Statement profiling should be disabled by default", resourceConfig.isStatementProfiling());
+		resourceConfig.useStatementProfiling();
+		assertTrue("Statement profiling should be enabled", resourceConfig.isStatementProfiling());
+	}
+
+	@Test
+	public void testQueryPlanCapture () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertFalse("Query plan capture should be disabled by default", resourceConfig.isQueryPlanCapture());
+		resourceConfig.useQueryPlanCapture();
+		assertTrue("Query plan capture should be enabled", resourceConfig.isQueryPlanCapture());
+	}
+
+	@Test
+	public void testNetworkServer () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertFalse("Network server should be disabled by default", resourceConfig.isNetworkServer());
+		assertEquals(DerbyResourceConfig.getDefaultNetworkServerMaxThreads(),
+				resourceConfig.getNetworkServerMaxThreads());
+		resourceConfig.useNetworkServer(4);
+		assertTrue("Network server should be enabled", resourceConfig.isNetworkServer());
+		assertEquals(4, resourceConfig.getNetworkServerMaxThreads());
+	}
+
+	@Test
+	public void testPrewarmedDatabases () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertEquals(0, resourceConfig.getPrewarmedDatabases());
+		resourceConfig.usePrewarmedDatabases(2);
+		assertEquals(2, resourceConfig.getPrewarmedDatabases());
+		assertTrue("Prewarmed databases need the template cache", resourceConfig.isTemplateDatabaseCacheEnabled());
+	}
+
+	@Test
+	public void testResourceListeners () {
+		final DerbyResourceConfig resourceConfig = DerbyResourceConfig.buildDefault();
+		assertTrue("No listeners by default", resourceConfig.getResourceListeners().isEmpty());
+		resourceConfig.useResourceMetrics();
+		assertEquals(1, resourceConfig.getResourceListeners().size());
+		assertSame(DerbyResourceMetrics.getInstance(), resourceConfig.getResourceListeners().get(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConnectionPoolSizeNegative () {
+		DerbyResourceConfig.buildDefault().useConnectionPoolSize(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPostInitScriptThreadsNegative () {
+		DerbyResourceConfig.buildDefault().usePostInitScriptThreads(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNetworkServerMaxThreadsNegative () {
+		DerbyResourceConfig.buildDefault().useNetworkServer(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPrewarmedDatabasesZero () {
+		DerbyResourceConfig.buildDefault().usePrewarmedDatabases(0);
+	}
 
 }
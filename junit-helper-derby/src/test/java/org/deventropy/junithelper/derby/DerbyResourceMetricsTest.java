@@ -0,0 +1,119 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Tests for {@link org.deventropy.junithelper.derby.DerbyResourceMetrics} and the resource listener notifications.
+ * 
+ * @author Bindul Bhowmik
+ */
+@NotThreadSafe
+public class DerbyResourceMetricsTest {
+
+	private static final String DDL_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql";
+	private static final String DML_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/dml.sql";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testPhasesReported () throws IOException, SQLException {
+		final DerbyResourceMetrics metrics = new DerbyResourceMetrics();
+		final List<DerbyResourcePhase> phases = Collections.synchronizedList(new ArrayList<DerbyResourcePhase>());
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig
+				.buildDefault().useDevNullErrorLogging().addPostInitScript(DDL_SCRIPT).addPostInitScript(DML_SCRIPT)
+				.addResourceListener(metrics).addResourceListener(new DerbyResourceListener() {
+					@Override
+					public void phaseCompleted (final EmbeddedDerbyResource resource, final DerbyResourcePhase phase,
+							final String detail, final long elapsedNanos) {
+						phases.add(phase);
+						assertTrue("Elapsed time should not be negative", elapsedNanos >= 0);
+					}
+				}),
+				tempFolder.newFolder());
+		embeddedDerbyResource.start();
+		embeddedDerbyResource.close();
+
+		assertEquals(DerbyResourcePhase.SystemHomeSetup, phases.get(0));
+		assertTrue("Start should complete before the close phases",
+				phases.indexOf(DerbyResourcePhase.Start) < phases.indexOf(DerbyResourcePhase.DataSourceClose));
+		assertEquals("Close should be the last phase", DerbyResourcePhase.Close, phases.get(phases.size() - 1));
+
+		assertEquals(1, metrics.getCount(DerbyResourcePhase.Start));
+		assertEquals(1, metrics.getCount(DerbyResourcePhase.DriverBoot));
+		assertEquals(1, metrics.getCount(DerbyResourcePhase.DatabaseCreation));
+		assertEquals(2, metrics.getCount(DerbyResourcePhase.PostInitScript));
+		assertEquals(0, metrics.getCount(DerbyResourcePhase.TemplateDatabase));
+		assertEquals(1, metrics.getCount(DerbyResourcePhase.DatabaseShutdown));
+		assertEquals(1, metrics.getCount(DerbyResourcePhase.Close));
+		assertTrue(metrics.getScriptTotalNanos(DDL_SCRIPT) > 0);
+		assertTrue(metrics.getTotalNanos(DerbyResourcePhase.Start) >= metrics.getMaxNanos(DerbyResourcePhase.Start));
+		assertTrue("Scripts are part of the start", metrics.getTotalNanos(DerbyResourcePhase.Start)
+				>= metrics.getTotalNanos(DerbyResourcePhase.PostInitScript));
+
+		final String summary = metrics.getSummary();
+		assertTrue(summary, summary.contains("1 started"));
+		assertTrue(summary, summary.contains(DerbyResourcePhase.DatabaseCreation.name()));
+		assertTrue(summary, summary.contains(DDL_SCRIPT));
+
+		metrics.reset();
+		assertEquals(0, metrics.getCount(DerbyResourcePhase.Start));
+		assertEquals(0, metrics.getScriptTotalNanos(DDL_SCRIPT));
+	}
+
+	@Test
+	public void testListenerErrorIgnored () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig
+				.buildDefault().useDevNullErrorLogging().addResourceListener(new DerbyResourceListener() {
+					@Override
+					public void phaseCompleted (final EmbeddedDerbyResource resource, final DerbyResourcePhase phase,
+							final String detail, final long elapsedNanos) {
+						throw new IllegalStateException("Listener failure");
+					}
+				}),
+				tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			assertTrue("Resource should start", embeddedDerbyResource.isStarted());
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.deventropy.junithelper.derby.DerbyStatementProfiler.StatementStatistics;
+import org.junit.AfterClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link org.deventropy.junithelper.derby.DerbyStatementProfiler}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class DerbyStatementProfilerTest {
+
+	private static final String SELECT_PERSON = "SELECT PERSON FROM PEOPLE WHERE PERSON_ID = ?";
+	private static final String SELECT_PEOPLE = "SELECT PERSON_ID FROM PEOPLE";
+
+	private static TemporaryFolder tempFolder = new TemporaryFolder();
+	private static EmbeddedDerbyResource embeddedDerbyResource =
+		new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().useDevNullErrorLogging().useStatementProfiling()
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+			tempFolder);
+
+	@ClassRule
+	public static RuleChain derbyRuleChain = RuleChain.outerRule(tempFolder).around(embeddedDerbyResource);
+
+	@Rule
+	public TransactionalConnectionResource transaction = new TransactionalConnectionResource(embeddedDerbyResource);
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testDataSourceConnectionProfiled () throws SQLException {
+		final DerbyStatementProfiler profiler = embeddedDerbyResource.getStatementProfiler();
+		assertNotNull("Profiling should be enabled", profiler);
+
+		final Connection connection = embeddedDerbyResource.getDataSource().getConnection();
+		Statement stmt = null;
+		try {
+			// Rolled back when the connection is returned to the pool
+			connection.setAutoCommit(false);
+			stmt = connection.createStatement();
+			stmt.executeUpdate("INSERT INTO PEOPLE (PERSON) VALUES ('Jane Roe'), ('Mary Major')");
+
+			// One query for the people, then one for each person
+			final int people = selectPeopleOneByOne(connection);
+			assertTrue("Should have people", people > 1);
+
+			final StatementStatistics peopleStatistics = profiler.getStatementStatistics(SELECT_PEOPLE);
+			final StatementStatistics personStatistics = profiler.getStatementStatistics(SELECT_PERSON);
+			assertTrue(peopleStatistics.getExecutionCount() >= 1);
+			assertTrue(personStatistics.getExecutionCount() >= people);
+			assertTrue(personStatistics.getRowCount() >= people);
+			assertTrue(personStatistics.getTotalNanos() >= personStatistics.getMaxNanos());
+			assertTrue(personStatistics.getPercentileNanos(50) <= personStatistics.getPercentileNanos(100));
+			assertEquals(personStatistics.getMaxNanos(), personStatistics.getPercentileNanos(100));
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+			connection.close();
+		}
+
+		final String report = profiler.getReport(10);
+		assertTrue("Report should list the statement", report.contains(SELECT_PERSON));
+		final int mostFrequent = report.indexOf("Most frequent statements:");
+		assertTrue("Report should list the most frequent statements", mostFrequent > 0);
+		assertTrue("The N+1 query should be the most frequent",
+				report.indexOf(SELECT_PERSON, mostFrequent) < report.indexOf(SELECT_PEOPLE, mostFrequent));
+	}
+
+	@Test
+	public void testTransactionalConnectionProfiled () throws SQLException {
+		final Connection connection = transaction.getConnection();
+		final String insert = "INSERT INTO PEOPLE (PERSON) VALUES ('Profiled Person')";
+		Statement stmt = null;
+		try {
+			stmt = connection.createStatement();
+			assertEquals(1, stmt.executeUpdate(insert));
+			assertTrue(stmt.execute(SELECT_PEOPLE));
+			final ResultSet rs = stmt.getResultSet();
+			assertSame("Result set should refer to the profiled statement", stmt, rs.getStatement());
+			rs.close();
+			assertSame("Statement should refer to the profiled connection", connection, stmt.getConnection());
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+		}
+
+		final StatementStatistics insertStatistics =
+				embeddedDerbyResource.getStatementProfiler().getStatementStatistics(insert);
+		assertEquals(1, insertStatistics.getExecutionCount());
+		assertEquals(1, insertStatistics.getRowCount());
+	}
+
+	@Test
+	public void testResetOnStart () throws IOException, SQLException {
+		final EmbeddedDerbyResource restartedResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.useInMemoryDatabase("statement-profiler-restart").useDevNullErrorLogging().useStatementProfiling(),
+				tempFolder.newFolder());
+		final DerbyStatementProfiler profiler = restartedResource.getStatementProfiler();
+		try {
+			restartedResource.start();
+			final Connection connection = restartedResource.getDataSource().getConnection();
+			try {
+				final Statement stmt = connection.createStatement();
+				stmt.execute("VALUES 1");
+				stmt.close();
+			} finally {
+				connection.close();
+			}
+			assertNotNull(profiler.getStatementStatistics("VALUES 1"));
+		} finally {
+			restartedResource.close();
+		}
+		assertNotNull("Statistics should be available after close", profiler.getStatementStatistics("VALUES 1"));
+
+		try {
+			restartedResource.start();
+			assertNull("Statistics should be reset on start", profiler.getStatementStatistics("VALUES 1"));
+		} finally {
+			restartedResource.close();
+		}
+	}
+
+	@Test
+	public void testWrappedConnectionBatch () throws SQLException {
+		final DerbyStatementProfiler profiler = new DerbyStatementProfiler();
+		final String insert = "INSERT INTO PEOPLE (PERSON) VALUES (?)";
+		final Connection connection = profiler.wrap(DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl()));
+		PreparedStatement pstmt = null;
+		Statement stmt = null;
+		try {
+			connection.setAutoCommit(false);
+			pstmt = connection.prepareStatement(insert);
+			assertNull("Statistics should be created on execution", profiler.getStatementStatistics(insert));
+			for (String person : new String[] {"Batch One", "Batch Two", "Batch Three"}) {
+				pstmt.setString(1, person);
+				pstmt.addBatch();
+			}
+			pstmt.executeBatch();
+
+			stmt = connection.createStatement();
+			stmt.addBatch("DELETE FROM PEOPLE WHERE PERSON = 'Batch One'");
+			stmt.addBatch("DELETE FROM PEOPLE WHERE PERSON = 'Batch Two'");
+			stmt.executeBatch();
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+			DerbyUtils.closeQuietly(pstmt);
+			connection.rollback();
+			DerbyUtils.closeQuietly(connection);
+		}
+
+		assertEquals(1, profiler.getStatementStatistics(insert).getExecutionCount());
+		assertEquals(3, profiler.getStatementStatistics(insert).getRowCount());
+		assertEquals(2, profiler.getStatementStatistics(DerbyStatementProfiler.STATEMENT_BATCH_SQL).getRowCount());
+		assertEquals(2, profiler.getStatementStatistics().size());
+
+		profiler.reset();
+		assertTrue("Statistics should be cleared", profiler.getStatementStatistics().isEmpty());
+	}
+
+	private int selectPeopleOneByOne (final Connection connection) throws SQLException {
+		int people = 0;
+		Statement stmt = null;
+		ResultSet rs = null;
+		PreparedStatement pstmt = null;
+		try {
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery(SELECT_PEOPLE);
+			pstmt = connection.prepareStatement(SELECT_PERSON);
+			while (rs.next()) {
+				pstmt.setInt(1, rs.getInt(1));
+				final ResultSet personRs = pstmt.executeQuery();
+				try {
+					assertTrue(personRs.next());
+				} finally {
+					personRs.close();
+				}
+				people++;
+			}
+		} finally {
+			DerbyUtils.closeQuietly(pstmt);
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+		}
+		return people;
+	}
+}
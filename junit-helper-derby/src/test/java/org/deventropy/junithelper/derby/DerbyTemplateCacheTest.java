@@ -0,0 +1,87 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link org.deventropy.junithelper.derby.DerbyTemplateCache}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class DerbyTemplateCacheTest {
+
+	private static final String DDL_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql";
+	private static final String DML_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/dml.sql";
+	private static final String PEOPLE_DATA = "classpath:/org/deventropy/junithelper/derby/simple01/people.csv";
+
+	@Test
+	public void testFingerprintStable () throws IOException {
+		final String fingerprint1 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.useInMemoryDatabase("db-one").addPostInitScript(DDL_SCRIPT).addPostInitScript(DML_SCRIPT));
+		final String fingerprint2 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.useInMemoryDatabase("db-two").addPostInitScript(DDL_SCRIPT).addPostInitScript(DML_SCRIPT));
+		assertNotNull(fingerprint1);
+		assertEquals("Database name should not be part of the fingerprint", fingerprint1, fingerprint2);
+	}
+
+	@Test
+	public void testFingerprintScriptOrder () throws IOException {
+		final String fingerprint1 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.addPostInitScript(DDL_SCRIPT).addPostInitScript(DML_SCRIPT));
+		final String fingerprint2 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.addPostInitScript(DML_SCRIPT).addPostInitScript(DDL_SCRIPT));
+		assertNotEquals("Script order should be part of the fingerprint", fingerprint1, fingerprint2);
+	}
+
+	@Test
+	public void testFingerprintSubSubProtocol () throws IOException {
+		final String fingerprint1 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.addPostInitScript(DDL_SCRIPT));
+		final String fingerprint2 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.useDatabaseInDirectory().addPostInitScript(DDL_SCRIPT));
+		assertNotEquals("Sub-sub protocol should be part of the fingerprint", fingerprint1, fingerprint2);
+	}
+
+	@Test
+	public void testFingerprintDataImports () throws IOException {
+		final String fingerprint1 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.addPostInitScript(DDL_SCRIPT));
+		final String fingerprint2 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.addPostInitScript(DDL_SCRIPT).addPostInitDataImport(new DerbyDataImport("PEOPLE", PEOPLE_DATA)));
+		final String fingerprint3 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.addPostInitScript(DDL_SCRIPT)
+				.addPostInitDataImport(new DerbyDataImport("PEOPLE", PEOPLE_DATA).useSkipHeaderLines(1)));
+		assertNotEquals("Data imports should be part of the fingerprint", fingerprint1, fingerprint2);
+		assertNotEquals("Import options should be part of the fingerprint", fingerprint2, fingerprint3);
+	}
+
+	@Test
+	public void testFingerprintDerbyProperties () throws IOException {
+		final String fingerprint1 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.addPostInitScript(DDL_SCRIPT).usePageSize(8192).useTestDurability());
+		final String fingerprint2 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.addPostInitScript(DDL_SCRIPT).useTestDurability().usePageSize(8192));
+		final String fingerprint3 = DerbyTemplateCache.fingerprint(DerbyResourceConfig.buildDefault()
+				.addPostInitScript(DDL_SCRIPT).useTestDurability().usePageSize(4096));
+		assertEquals("Property order should not be part of the fingerprint", fingerprint1, fingerprint2);
+		assertNotEquals("Properties should be part of the fingerprint", fingerprint2, fingerprint3);
+	}
+}
@@ -0,0 +1,129 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.io.output.WriterOutputStream;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the {@link DerbyScriptRunner} with the {@link ScriptExecutionEngine#Jdbc} engine.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class JdbcDerbyScriptRunnerTest {
+
+	private TemporaryFolder tempFolder = new TemporaryFolder();
+	private EmbeddedDerbyResource embeddedDerbyResource =
+		new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().useDevNullErrorLogging()
+			.useScriptExecutionEngine(ScriptExecutionEngine.Jdbc)
+			.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+			.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+		tempFolder);
+
+	@Rule
+	public RuleChain derbyRuleChain = RuleChain.outerRule(tempFolder).around(embeddedDerbyResource);
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testPostInitScripts () throws SQLException {
+		assertEquals("John Doe should have been inserted", "john.doe@example.com", findEmail("John Doe"));
+	}
+
+	@Test
+	public void testBatchWithFailure () throws SQLException, IOException {
+		final StringWriter logData = new StringWriter();
+		Connection connection = null;
+		try {
+			connection = DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl());
+			final DerbyScriptRunner scriptRunner = new DerbyScriptRunner(connection);
+			scriptRunner.setScriptExecutionEngine(ScriptExecutionEngine.Jdbc);
+
+			final int result = scriptRunner.executeScript(
+					"classpath:/org/deventropy/junithelper/derby/simple01/dml-batch.sql",
+					new WriterOutputStream(logData, Charset.defaultCharset()), true);
+			assertEquals("One statement should fail", 1, result);
+		} finally {
+			DerbyUtils.closeQuietly(connection);
+		}
+
+		// Statements before and after the failure are executed
+		assertEquals("jane@example.com", findEmail("Jane Doe"));
+		assertEquals("richard--roe@example.com", findEmail("Richard O'Roe; Jr."));
+		assertEquals("mary.major@example.com", findEmail("Mary Major"));
+		assertEquals("john.smith@example.com", findEmail("John Smith"));
+
+		final String log = logData.toString();
+		assertTrue("Failed statement should be logged", log.contains("nobody@example.com"));
+		assertTrue("Summary should be logged", log.contains("6 statements executed, 1 errors"));
+	}
+
+	@Test
+	public void testSameResultAsIj () throws SQLException, IOException {
+		final String badScript = "classpath:/org/deventropy/junithelper/derby/simple01/bad-script.sql";
+		Connection connection = null;
+		try {
+			connection = DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl());
+			final DerbyScriptRunner scriptRunner = new DerbyScriptRunner(connection);
+			final int ijResult = scriptRunner.executeScript(badScript);
+			scriptRunner.setScriptExecutionEngine(ScriptExecutionEngine.Jdbc);
+			final int jdbcResult = scriptRunner.executeScript(badScript);
+			assertTrue("Script should fail", ijResult > 0);
+			assertEquals("Both engines should count the same errors", ijResult, jdbcResult);
+		} finally {
+			DerbyUtils.closeQuietly(connection);
+		}
+	}
+
+	private String findEmail (final String person) throws SQLException {
+		Connection connection = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			connection = DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl());
+			stmt = connection.prepareStatement("SELECT EMAIL FROM PEOPLE WHERE PERSON = ?");
+			stmt.setString(1, person);
+			rs = stmt.executeQuery();
+			return rs.next() ? rs.getString(1) : null;
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+			DerbyUtils.closeQuietly(connection);
+		}
+	}
+}
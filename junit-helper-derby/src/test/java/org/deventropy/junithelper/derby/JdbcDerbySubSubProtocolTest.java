@@ -32,4 +32,18 @@ public class JdbcDerbySubSubProtocolTest {
 				JdbcDerbySubSubProtocol.Memory.jdbcConnectionPrefix());
 	}
 
+	@Test
+	public void testClasspathSubSubProtocol () {
+		assertEquals("Not expected format of JDBC connection string prefix", "jdbc:derby:classpath:",
+				JdbcDerbySubSubProtocol.Classpath.jdbcConnectionPrefix());
+	}
+
+	@Test
+	public void testReadOnlySubSubProtocols () {
+		assertFalse(JdbcDerbySubSubProtocol.Memory.isReadOnly());
+		assertFalse(JdbcDerbySubSubProtocol.Directory.isReadOnly());
+		assertTrue(JdbcDerbySubSubProtocol.Jar.isReadOnly());
+		assertTrue(JdbcDerbySubSubProtocol.Classpath.isReadOnly());
+	}
+
 }
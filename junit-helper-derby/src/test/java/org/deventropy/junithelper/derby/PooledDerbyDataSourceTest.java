@@ -0,0 +1,190 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+import org.junit.AfterClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link org.deventropy.junithelper.derby.PooledDerbyDataSource}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class PooledDerbyDataSourceTest {
+
+	private static TemporaryFolder tempFolder = new TemporaryFolder();
+	private static EmbeddedDerbyResource embeddedDerbyResource =
+		new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().useDevNullErrorLogging(), tempFolder);
+
+	@ClassRule
+	public static RuleChain derbyRuleChain = RuleChain.outerRule(tempFolder).around(embeddedDerbyResource);
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testResourceDataSource () throws SQLException {
+		final PooledDerbyDataSource dataSource = embeddedDerbyResource.getDataSource();
+		assertSame("Should be the same data source", dataSource, embeddedDerbyResource.getDataSource());
+
+		final Connection connection = dataSource.getConnection();
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery("SELECT 1 FROM SYSIBM.SYSDUMMY1");
+			assertTrue(rs.next());
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+			DerbyUtils.closeQuietly(connection);
+		}
+		assertTrue("Connection should be closed", connection.isClosed());
+	}
+
+	@Test
+	public void testConnectionReuse () throws SQLException {
+		final PooledDerbyDataSource dataSource = createDataSource(2);
+		try {
+			final Connection connection1 = dataSource.getConnection();
+			final Connection physicalConnection = connection1.unwrap(Connection.class);
+			connection1.setAutoCommit(false);
+			connection1.close();
+			assertEquals(1, dataSource.getIdleConnectionCount());
+
+			final Connection connection2 = dataSource.getConnection();
+			assertSame("Should reuse the physical connection", physicalConnection,
+					connection2.unwrap(Connection.class));
+			assertTrue("Connection should be reset to auto commit", connection2.getAutoCommit());
+			connection2.close();
+
+			assertEquals(2, dataSource.getBorrowCount());
+			assertEquals(0.5, dataSource.getPoolHitRatio(), 0.001);
+			assertTrue(dataSource.getMaxBorrowWaitNanos() >= dataSource.getAverageBorrowWaitNanos());
+		} finally {
+			dataSource.close();
+		}
+	}
+
+	@Test
+	public void testConnectionStateReset () throws SQLException {
+		final PooledDerbyDataSource dataSource = createDataSource(1);
+		try {
+			final Connection connection1 = dataSource.getConnection();
+			final Connection physicalConnection = connection1.unwrap(Connection.class);
+			final Statement openStatement = connection1.createStatement();
+			connection1.close();
+			assertTrue("Open statements should be closed", openStatement.isClosed());
+
+			final Connection connection2 = dataSource.getConnection();
+			assertSame("Should reuse the unchanged connection", physicalConnection,
+					connection2.unwrap(Connection.class));
+			connection2.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+			connection2.close();
+			assertTrue("Changed connection should be closed", physicalConnection.isClosed());
+			assertEquals(0, dataSource.getIdleConnectionCount());
+
+			final Connection connection3 = dataSource.getConnection();
+			assertEquals(Connection.TRANSACTION_READ_COMMITTED, connection3.getTransactionIsolation());
+			final Statement stmt = connection3.createStatement();
+			stmt.execute("SET SCHEMA SYS");
+			stmt.close();
+			connection3.close();
+			assertEquals("Connection with a changed schema should be closed", 0, dataSource.getIdleConnectionCount());
+
+			final Connection connection4 = dataSource.getConnection();
+			assertEquals("APP", connection4.getSchema());
+			assertFalse(connection4.isReadOnly());
+			connection4.close();
+		} finally {
+			dataSource.close();
+		}
+	}
+
+	@Test
+	public void testValidationOnBorrow () throws SQLException {
+		final PooledDerbyDataSource dataSource = createDataSource(1);
+		try {
+			final Connection connection1 = dataSource.getConnection();
+			final Connection physicalConnection = connection1.unwrap(Connection.class);
+			connection1.close();
+			physicalConnection.close();
+
+			final Connection connection2 = dataSource.getConnection();
+			assertFalse("Should not hand out a closed connection", connection2.isClosed());
+			assertNotSame(physicalConnection, connection2.unwrap(Connection.class));
+			assertEquals(1, dataSource.getValidationFailureCount());
+			connection2.close();
+		} finally {
+			dataSource.close();
+		}
+	}
+
+	@Test
+	public void testBoundedPool () throws SQLException {
+		final PooledDerbyDataSource dataSource = createDataSource(1);
+		dataSource.setLoginTimeout(1);
+		try {
+			final Connection connection1 = dataSource.getConnection();
+			SQLTimeoutException expected = null;
+			try {
+				dataSource.getConnection();
+			} catch (SQLTimeoutException e) {
+				expected = e;
+			}
+			assertNotNull("Pool should be exhausted", expected);
+			connection1.close();
+			dataSource.getConnection().close();
+		} finally {
+			dataSource.close();
+		}
+	}
+
+	@Test
+	public void testLeakedConnectionClosed () throws SQLException {
+		final PooledDerbyDataSource dataSource = createDataSource(2);
+		final Connection leakedConnection = dataSource.getConnection();
+		final Connection physicalConnection = leakedConnection.unwrap(Connection.class);
+		assertEquals(1, dataSource.getActiveConnectionCount());
+
+		dataSource.close();
+		assertEquals(0, dataSource.getActiveConnectionCount());
+		assertTrue("Leaked connection should be closed", physicalConnection.isClosed());
+		// Closing it afterwards is harmless
+		leakedConnection.close();
+	}
+
+	private PooledDerbyDataSource createDataSource (final int poolSize) {
+		return new PooledDerbyDataSource(embeddedDerbyResource.getJdbcUrl(), poolSize);
+	}
+}
@@ -0,0 +1,87 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ScriptLogTail}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class ScriptLogTailTest {
+
+	private ScriptLogTail writeLog (final String... lines) throws IOException {
+		final ScriptLogTail scriptLogTail = new ScriptLogTail(StandardCharsets.UTF_8.name());
+		final PrintWriter logWriter = new PrintWriter(scriptLogTail);
+		for (String line : lines) {
+			logWriter.println(line);
+		}
+		logWriter.close();
+		return scriptLogTail;
+	}
+
+	@Test
+	public void testTailOnly () throws IOException {
+		final String[] lines = new String[ScriptLogTail.TAIL_LINES * 10];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = "ij> INSERT INTO PEOPLE (PERSON) VALUES ('Person " + i + "');";
+		}
+		final ScriptLogTail scriptLogTail = writeLog(lines);
+		final String summary = scriptLogTail.toString();
+
+		assertEquals(0, scriptLogTail.getErrorCount());
+		assertTrue(summary.startsWith("Last " + ScriptLogTail.TAIL_LINES + " lines of the script log:"));
+		assertTrue(summary.contains(lines[lines.length - 1]));
+		assertTrue(summary.contains(lines[lines.length - ScriptLogTail.TAIL_LINES]));
+		assertFalse(summary.contains(lines[lines.length - ScriptLogTail.TAIL_LINES - 1]));
+	}
+
+	@Test
+	public void testErrorsWithStatements () throws IOException {
+		final String[] lines = new String[ScriptLogTail.TAIL_LINES * 10];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = (i % 10 == 1) ? "ERROR 23502: Error " + i : "ij> Statement " + i + ";";
+		}
+		final ScriptLogTail scriptLogTail = writeLog(lines);
+		final String summary = scriptLogTail.toString();
+
+		assertEquals(ScriptLogTail.TAIL_LINES, scriptLogTail.getErrorCount());
+		assertTrue(summary.startsWith(ScriptLogTail.TAIL_LINES + " errors, the first " + ScriptLogTail.MAX_ERRORS
+				+ ":"));
+		// The first errors are kept with the failed statements, even if not in the tail
+		assertTrue(summary.contains("ij> Statement 0;" + System.lineSeparator() + "ERROR 23502: Error 1"));
+		assertTrue(summary.contains("ERROR 23502: Error " + (((ScriptLogTail.MAX_ERRORS - 1) * 10) + 1)));
+		assertFalse(summary.contains("ERROR 23502: Error " + ((ScriptLogTail.MAX_ERRORS * 10) + 1)));
+	}
+
+	@Test
+	public void testLongLinesTruncated () throws IOException {
+		final char[] longStatement = new char[ScriptLogTail.MAX_LINE_LENGTH * 100];
+		Arrays.fill(longStatement, 'x');
+		final String summary = writeLog(new String(longStatement), "ERROR 42X01: Syntax error").toString();
+
+		assertTrue(summary.length() < ScriptLogTail.MAX_LINE_LENGTH * 4);
+		assertTrue(summary.contains(" ..." + System.lineSeparator() + "ERROR 42X01: Syntax error"));
+	}
+}
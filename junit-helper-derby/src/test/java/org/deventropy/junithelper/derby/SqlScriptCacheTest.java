@@ -0,0 +1,198 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the {@link SqlScriptCache}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class SqlScriptCacheTest {
+
+	private static final String CHARSET = StandardCharsets.UTF_8.name();
+	private static final String DML_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/dml.sql";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private final SqlScriptCache scriptCache = SqlScriptCache.getInstance();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Before
+	public void clearCache () {
+		scriptCache.clear();
+	}
+
+	@After
+	public void resetCache () {
+		scriptCache.setMaximumSize(SqlScriptCache.getDefaultMaximumSize());
+		scriptCache.clear();
+	}
+
+	@Test
+	public void testHitAndMiss () throws IOException {
+		final SqlScriptCache.CachedScript script = scriptCache.getScript(DML_SCRIPT, CHARSET);
+		assertNotNull(script);
+		assertEquals(0, scriptCache.getHitCount());
+		assertEquals(1, scriptCache.getMissCount());
+		assertEquals(1, scriptCache.getScriptCount());
+		assertTrue(scriptCache.getSize() > 0);
+
+		assertSame(script, scriptCache.getScript(DML_SCRIPT, CHARSET));
+		assertEquals(1, scriptCache.getHitCount());
+		assertEquals(1, scriptCache.getMissCount());
+		assertSame("Statements should only be split once", script.getStatements(), script.getStatements());
+	}
+
+	@Test
+	public void testChangedScript () throws IOException {
+		final File scriptFile = tempFolder.newFile("script.sql");
+		FileUtils.write(scriptFile, "CREATE TABLE A (ID INT);", CHARSET);
+		final String script = scriptFile.toURI().toString();
+
+		final SqlScriptCache.CachedScript original = scriptCache.getScript(script, CHARSET);
+		assertEquals(1, original.getStatements().size());
+
+		// Touched, but the same content
+		assertTrue(scriptFile.setLastModified(scriptFile.lastModified() - 10000));
+		assertSame(original, scriptCache.getScript(script, CHARSET));
+		assertEquals(1, scriptCache.getHitCount());
+
+		// Changed content
+		FileUtils.write(scriptFile, "CREATE TABLE A (ID INT); CREATE TABLE B (ID INT);", CHARSET);
+		final SqlScriptCache.CachedScript changed = scriptCache.getScript(script, CHARSET);
+		assertNotSame(original, changed);
+		assertEquals(2, changed.getStatements().size());
+		assertEquals(2, scriptCache.getMissCount());
+		assertEquals(1, scriptCache.getScriptCount());
+	}
+
+	@Test
+	public void testEviction () throws IOException {
+		final File firstFile = tempFolder.newFile("first.sql");
+		FileUtils.write(firstFile, "CREATE TABLE A (ID INT);", CHARSET);
+		final File secondFile = tempFolder.newFile("second.sql");
+		FileUtils.write(secondFile, "CREATE TABLE B (ID INT);", CHARSET);
+		scriptCache.setMaximumSize(firstFile.length() + secondFile.length() - 1);
+
+		scriptCache.getScript(firstFile.toURI().toString(), CHARSET);
+		scriptCache.getScript(secondFile.toURI().toString(), CHARSET);
+		assertEquals("The least recently used script should be evicted", 1, scriptCache.getScriptCount());
+		assertEquals(secondFile.length(), scriptCache.getSize());
+		scriptCache.getScript(secondFile.toURI().toString(), CHARSET);
+		assertEquals(1, scriptCache.getHitCount());
+
+		// Too large to be cached
+		scriptCache.setMaximumSize(1);
+		assertEquals(0, scriptCache.getScriptCount());
+		assertNull(scriptCache.getScript(firstFile.toURI().toString(), CHARSET));
+	}
+
+	@Test
+	public void testUnknownLengthTooLarge () throws IOException {
+		final File scriptJar = tempFolder.newFile("scripts.jar");
+		final ZipOutputStream jarStream = new ZipOutputStream(new FileOutputStream(scriptJar));
+		try {
+			jarStream.putNextEntry(new ZipEntry("jar-scripts/script.sql"));
+			jarStream.write("CREATE TABLE A (ID INT);".getBytes(StandardCharsets.UTF_8));
+			jarStream.closeEntry();
+		} finally {
+			jarStream.close();
+		}
+		final String script = "classpath:/jar-scripts/script.sql";
+
+		final Thread currentThread = Thread.currentThread();
+		final ClassLoader oldClassLoader = currentThread.getContextClassLoader();
+		final URLClassLoader jarClassLoader = new URLClassLoader(new URL[] {scriptJar.toURI().toURL()},
+				oldClassLoader);
+		currentThread.setContextClassLoader(jarClassLoader);
+		try {
+			scriptCache.setMaximumSize(8);
+			assertNull("Script should be streamed", scriptCache.getScript(script, CHARSET));
+			assertEquals(0, scriptCache.getScriptCount());
+
+			scriptCache.setMaximumSize(SqlScriptCache.getDefaultMaximumSize());
+			final SqlScriptCache.CachedScript cachedScript = scriptCache.getScript(script, CHARSET);
+			assertEquals(1, cachedScript.getStatements().size());
+			assertSame(cachedScript, scriptCache.getScript(script, CHARSET));
+		} finally {
+			currentThread.setContextClassLoader(oldClassLoader);
+			jarClassLoader.close();
+		}
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testNegativeMaximumSize () {
+		scriptCache.setMaximumSize(-1);
+	}
+
+	@Test
+	public void testScriptRunner () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql"),
+				tempFolder.newFolder());
+		Connection connection = null;
+		try {
+			embeddedDerbyResource.start();
+			assertEquals(1, scriptCache.getMissCount());
+
+			connection = DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl());
+			final DerbyScriptRunner scriptRunner = new DerbyScriptRunner(connection);
+			scriptRunner.setScriptExecutionEngine(ScriptExecutionEngine.Jdbc);
+			assertEquals(0, scriptRunner.executeScript(DML_SCRIPT));
+			assertEquals(0, scriptRunner.executeScript(DML_SCRIPT));
+			assertEquals(2, scriptCache.getMissCount());
+			assertEquals(1, scriptCache.getHitCount());
+
+			// Scripts too large for the cache are still executed
+			scriptCache.setMaximumSize(0);
+			assertEquals(0, scriptRunner.executeScript(DML_SCRIPT));
+		} finally {
+			DerbyUtils.closeQuietly(connection);
+			embeddedDerbyResource.close();
+		}
+	}
+}
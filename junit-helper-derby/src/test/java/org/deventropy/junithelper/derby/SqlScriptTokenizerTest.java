@@ -0,0 +1,88 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link org.deventropy.junithelper.derby.SqlScriptTokenizer}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class SqlScriptTokenizerTest {
+
+	@Test
+	public void testSimpleStatements () throws IOException {
+		final List<String> statements = tokenize("CREATE TABLE T (ID INT);\n\nINSERT INTO T VALUES (1);\n");
+		assertEquals(2, statements.size());
+		assertEquals("CREATE TABLE T (ID INT)", statements.get(0));
+		assertEquals("INSERT INTO T VALUES (1)", statements.get(1));
+	}
+
+	@Test
+	public void testLastStatementWithoutTerminator () throws IOException {
+		final List<String> statements = tokenize("DELETE FROM T;\n  DELETE FROM U  ");
+		assertEquals(2, statements.size());
+		assertEquals("DELETE FROM U", statements.get(1));
+	}
+
+	@Test
+	public void testEmptyStatementsSkipped () throws IOException {
+		final List<String> statements = tokenize(";;\n-- Only a comment;\n; /* Another */ ;DELETE FROM T;;");
+		assertEquals(1, statements.size());
+		assertEquals("DELETE FROM T", statements.get(0));
+	}
+
+	@Test
+	public void testComments () throws IOException {
+		final List<String> statements = tokenize("-- Header; comment\nDELETE /* inline; /* nested; */ still */ FROM T"
+				+ " -- trailing; comment\nWHERE ID = 1;");
+		assertEquals(1, statements.size());
+		assertEquals("DELETE   FROM T \nWHERE ID = 1", statements.get(0));
+	}
+
+	@Test
+	public void testQuotedStrings () throws IOException {
+		final List<String> statements = tokenize("INSERT INTO T VALUES ('a;b', 'it''s -- not /* a comment */');"
+				+ "SELECT \"Odd;\"\"Name\" FROM T;");
+		assertEquals(2, statements.size());
+		assertEquals("INSERT INTO T VALUES ('a;b', 'it''s -- not /* a comment */')", statements.get(0));
+		assertEquals("SELECT \"Odd;\"\"Name\" FROM T", statements.get(1));
+	}
+
+	@Test
+	public void testEmptyScript () throws IOException {
+		assertTrue(tokenize("").isEmpty());
+		assertTrue(tokenize("  \n-- Nothing here\n").isEmpty());
+	}
+
+	private List<String> tokenize (final String script) throws IOException {
+		final SqlScriptTokenizer tokenizer = new SqlScriptTokenizer(new StringReader(script));
+		final List<String> statements = new ArrayList<>();
+		String statement;
+		while (null != (statement = tokenizer.nextStatement())) {
+			statements.add(statement);
+		}
+		return statements;
+	}
+}
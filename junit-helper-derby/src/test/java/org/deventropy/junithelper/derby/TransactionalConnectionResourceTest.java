@@ -0,0 +1,161 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+import org.junit.AfterClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link org.deventropy.junithelper.derby.TransactionalConnectionResource}. Every test adds a person and
+ * expects to see only the person added by the post init scripts and itself.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class TransactionalConnectionResourceTest {
+
+	private static TemporaryFolder tempFolder = new TemporaryFolder();
+	private static EmbeddedDerbyResource embeddedDerbyResource =
+		new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().useDevNullErrorLogging()
+			.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+			.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+		tempFolder);
+
+	@ClassRule
+	public static RuleChain derbyRuleChain = RuleChain.outerRule(tempFolder).around(embeddedDerbyResource);
+
+	@Rule
+	public TransactionalConnectionResource transaction = new TransactionalConnectionResource(embeddedDerbyResource);
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testRollbackAfterTest () throws SQLException {
+		final Connection connection = transaction.getConnection();
+		assertFalse("Auto commit should be off", connection.getAutoCommit());
+		addPerson(connection, "Jane Doe");
+		assertEquals(2, countPeople(connection));
+	}
+
+	@Test
+	public void testCommitIgnored () throws SQLException {
+		final Connection connection = transaction.getConnection();
+		addPerson(connection, "Richard Roe");
+		connection.commit();
+		connection.setAutoCommit(true);
+		assertFalse("Auto commit should still be off", connection.getAutoCommit());
+		assertEquals(2, countPeople(connection));
+	}
+
+	@Test
+	public void testSavepoint () throws SQLException {
+		final Connection connection = transaction.getConnection();
+		final Savepoint savepoint = transaction.setSavepoint("before_add");
+		addPerson(connection, "Mary Major");
+		assertEquals(2, countPeople(connection));
+		transaction.rollbackToSavepoint(savepoint);
+		assertEquals(1, countPeople(connection));
+		addPerson(connection, "Mary Major");
+		assertEquals(2, countPeople(connection));
+	}
+
+	@Test
+	public void testNestedTransaction () throws SQLException, IOException {
+		final Connection connection = transaction.getConnection();
+		addPerson(connection, "John Smith");
+
+		final TransactionalConnectionResource nestedTransaction = new TransactionalConnectionResource(transaction);
+		nestedTransaction.begin();
+		try {
+			addPerson(nestedTransaction.getConnection(), "Jane Smith");
+			assertEquals(3, countPeople(connection));
+		} finally {
+			nestedTransaction.close();
+		}
+
+		assertEquals("Only the nested change should be rolled back", 2, countPeople(connection));
+		assertFalse("Outer connection should be open", connection.isClosed());
+	}
+
+	@Test
+	public void testNestedRollback () throws SQLException, IOException {
+		final Connection connection = transaction.getConnection();
+		addPerson(connection, "John Smith");
+
+		final TransactionalConnectionResource nestedTransaction = new TransactionalConnectionResource(transaction);
+		nestedTransaction.begin();
+		try {
+			final Connection nestedConnection = nestedTransaction.getConnection();
+			addPerson(nestedConnection, "Jane Smith");
+			nestedConnection.rollback();
+			assertEquals("Only the nested change should be rolled back", 2, countPeople(connection));
+			addPerson(nestedConnection, "Jane Smith");
+			nestedConnection.rollback();
+			assertEquals(2, countPeople(connection));
+			addPerson(nestedConnection, "Jane Smith");
+		} finally {
+			nestedTransaction.close();
+		}
+
+		assertEquals(2, countPeople(connection));
+		addPerson(connection, "Mary Major");
+		assertEquals(3, countPeople(connection));
+	}
+
+	private void addPerson (final Connection connection, final String person) throws SQLException {
+		PreparedStatement stmt = null;
+		try {
+			stmt = connection.prepareStatement("INSERT INTO PEOPLE (PERSON) VALUES (?)");
+			stmt.setString(1, person);
+			assertEquals(1, stmt.executeUpdate());
+		} finally {
+			DerbyUtils.closeQuietly(stmt);
+		}
+	}
+
+	private int countPeople (final Connection connection) throws SQLException {
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.prepareStatement("SELECT COUNT(*) FROM PEOPLE");
+			rs = stmt.executeQuery();
+			assertTrue(rs.next());
+			return rs.getInt(1);
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+		}
+	}
+}
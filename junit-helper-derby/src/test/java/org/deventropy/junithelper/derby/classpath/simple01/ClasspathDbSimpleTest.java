@@ -0,0 +1,116 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.classpath.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.SQLException;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyJarDatabaseBuilder;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests a simple classpath database. The database is built in a jar file, which is put on the classpath with the
+ * context class loader of the thread; the jar is not extracted.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class ClasspathDbSimpleTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final String CLASSPATH_DB_NAME = "test/database/classpath-test01";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private ClassLoader oldContextClassLoader;
+
+	private URLClassLoader databaseClassLoader;
+
+	private EmbeddedDerbyResource embeddedDerbyResource;
+
+	/**
+	 * Setup the database on the classpath.
+	 * @throws Exception error setting up database
+	 */
+	@Before
+	public void createClasspathDatabase () throws Exception {
+		final File dbArchiveFile = new DerbyJarDatabaseBuilder(CLASSPATH_DB_NAME)
+				.addScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql")
+				.build(tempFolder.newFolder());
+
+		oldContextClassLoader = Thread.currentThread().getContextClassLoader();
+		databaseClassLoader = new URLClassLoader(new URL[] {dbArchiveFile.toURI().toURL()}, oldContextClassLoader);
+		Thread.currentThread().setContextClassLoader(databaseClassLoader);
+
+		embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.useClasspathSubSubProtocol(CLASSPATH_DB_NAME), tempFolder.newFolder());
+		embeddedDerbyResource.start();
+	}
+
+	@Test
+	public void testSimpleClasspathDatabase () throws IOException, SQLException {
+
+		// Make sure derby loads up
+		final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+		assertEquals("jdbc:derby:classpath:" + CLASSPATH_DB_NAME, jdbcUrl);
+
+		simpleDb01Check01(jdbcUrl);
+	}
+
+	@Test (expected = IllegalStateException.class)
+	public void testNoSnapshots () throws IOException, SQLException {
+		embeddedDerbyResource.snapshot("not-supported");
+	}
+
+	/**
+	 * Shut down the database.
+	 * @throws Exception error shutting down the database
+	 */
+	@After
+	public void shutdownClasspathDatabase () throws Exception {
+		try {
+			if (null != embeddedDerbyResource) {
+				embeddedDerbyResource.close();
+			}
+		} finally {
+			Thread.currentThread().setContextClassLoader(oldContextClassLoader);
+			databaseClassLoader.close();
+		}
+	}
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+}
@@ -0,0 +1,128 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.directory.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the asynchronous shutdown of a directory database.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class DatabaseDbAsyncShutdownTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final String DB_NAME = "test-db-dir-simple01-async-shutdown";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	/**
+	 * Waits for the background shutdowns, so they do not run while the Derby system is shut down.
+	 * 
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	@After
+	public void awaitShutdowns () throws InterruptedException {
+		assertTrue("Shutdowns should complete", EmbeddedDerbyResource.awaitAsynchronousShutdowns(30, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testTemporaryFolderHomeDeleted () throws IOException, SQLException, InterruptedException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.useDatabaseInDirectory(DB_NAME).useAsynchronousShutdown()
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"), tempFolder);
+		final File derbySystemHome;
+		try {
+			embeddedDerbyResource.start();
+			derbySystemHome = embeddedDerbyResource.getDerbySystemHome();
+			assertFalse("Derby system home should not be in the temporary folder",
+					derbySystemHome.toPath().startsWith(tempFolder.getRoot().toPath()));
+			assertTrue(derbySystemHome.isDirectory());
+			simpleDb01Check01(embeddedDerbyResource.getJdbcUrl());
+			embeddedDerbyResource.snapshot("snapshot01");
+		} finally {
+			embeddedDerbyResource.close();
+		}
+
+		assertTrue(EmbeddedDerbyResource.awaitAsynchronousShutdowns(30, TimeUnit.SECONDS));
+		assertFalse("Derby system home should be deleted after the shutdown", derbySystemHome.exists());
+	}
+
+	@Test
+	public void testRestart () throws IOException, SQLException, InterruptedException {
+		final File derbySystemHome = tempFolder.newFolder();
+		// Post init scripts are executed on every start, so not used for the restarted database
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.useDatabaseInDirectory(DB_NAME).useAsynchronousShutdown(), derbySystemHome);
+		try {
+			embeddedDerbyResource.start();
+			try (Connection connection = DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl());
+					Statement statement = connection.createStatement()) {
+				statement.executeUpdate("CREATE TABLE RESTART_TEST (ID INT)");
+				statement.executeUpdate("INSERT INTO RESTART_TEST VALUES (1)");
+			}
+			embeddedDerbyResource.snapshot("snapshot01");
+		} finally {
+			embeddedDerbyResource.close();
+		}
+
+		// Restarting waits for the pending shutdown of the database
+		try {
+			embeddedDerbyResource.start();
+			try (Connection connection = DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl());
+					Statement statement = connection.createStatement();
+					ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM RESTART_TEST")) {
+				assertTrue(resultSet.next());
+				assertEquals(1, resultSet.getInt(1));
+			}
+		} finally {
+			embeddedDerbyResource.close();
+		}
+
+		assertTrue(EmbeddedDerbyResource.awaitAsynchronousShutdowns(30, TimeUnit.SECONDS));
+		assertTrue("The database should not be deleted", new File(derbySystemHome, DB_NAME).isDirectory());
+		assertFalse("Snapshots should be deleted", new File(derbySystemHome, "snapshots").exists());
+	}
+}
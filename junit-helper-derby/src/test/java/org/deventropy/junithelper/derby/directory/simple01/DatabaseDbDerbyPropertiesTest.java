@@ -0,0 +1,140 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.directory.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Tests a directory database with test tuned Derby properties.
+ * 
+ * @author Bindul Bhowmik
+ */
+@NotThreadSafe
+public class DatabaseDbDerbyPropertiesTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final String DB_NAME = "test-db-dir-simple01-properties";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testDerbyPropertiesFile () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(createConfig(DB_NAME + "-01"),
+				tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			simpleDb01Check01(embeddedDerbyResource.getJdbcUrl());
+
+			final Properties derbyProps = new Properties();
+			final Reader derbyPropsReader = new FileReader(new File(embeddedDerbyResource.getDerbySystemHome(),
+					"derby.properties"));
+			try {
+				derbyProps.load(derbyPropsReader);
+			} finally {
+				IOUtils.closeQuietly(derbyPropsReader);
+			}
+			assertEquals("test", derbyProps.getProperty("derby.system.durability"));
+			assertEquals("2000", derbyProps.getProperty("derby.storage.pageCacheSize"));
+			assertEquals("8192", derbyProps.getProperty("derby.storage.pageSize"));
+			assertEquals("50000000", derbyProps.getProperty("derby.storage.checkpointInterval"));
+			assertEquals("500", derbyProps.getProperty("derby.language.statementCacheSize"));
+			assertEquals("true", derbyProps.getProperty("derby.language.logQueryPlan"));
+			assertNotNull("Error logging should still be set", derbyProps.getProperty("derby.stream.error.file"));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testDatabasePropertiesParallelSafe () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(
+				DerbyResourceConfig.buildDefault().useDatabaseInDirectory(DB_NAME + "-02").useParallelSafeMode()
+						.usePageSize(8192).useCheckpointInterval(50000000)
+						.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+						.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+				tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			simpleDb01Check01(embeddedDerbyResource.getJdbcUrl());
+			assertFalse("No derby.properties in the parallel safe mode",
+					new File(embeddedDerbyResource.getDerbySystemHome(), "derby.properties").exists());
+
+			assertEquals("8192", getDatabaseProperty(embeddedDerbyResource, "derby.storage.pageSize"));
+			assertEquals("50000000", getDatabaseProperty(embeddedDerbyResource, "derby.storage.checkpointInterval"));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	private DerbyResourceConfig createConfig (final String dbName) {
+		return DerbyResourceConfig.buildDefault().useDatabaseInDirectory(dbName).useTestDurability()
+				.usePageCacheSize(2000).usePageSize(8192).useCheckpointInterval(50000000).useStatementCacheSize(500)
+				.addDerbyProperty("derby.language.logQueryPlan", "true")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql");
+	}
+
+	private String getDatabaseProperty (final EmbeddedDerbyResource embeddedDerbyResource, final String name)
+			throws SQLException {
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			conn = DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl());
+			stmt = conn.prepareStatement("VALUES SYSCS_UTIL.SYSCS_GET_DATABASE_PROPERTY(?)");
+			stmt.setString(1, name);
+			rs = stmt.executeQuery();
+			assertTrue(rs.next());
+			return rs.getString(1);
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+			DerbyUtils.closeQuietly(conn);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.directory.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Tests snapshots of directory databases.
+ * 
+ * @author Bindul Bhowmik
+ */
+@NotThreadSafe
+public class DatabaseDbSnapshotTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final String DB_NAME = "test-db-dir-simple01-snapshot";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testSnapshotAndRestore () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(
+				DerbyResourceConfig.buildDefault().useDatabaseInDirectory(DB_NAME).useDevNullErrorLogging()
+					.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+					.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+				tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+			final int initialPeople = simpleDb01CountPeople(jdbcUrl);
+			embeddedDerbyResource.snapshot("initial");
+
+			simpleDb01AddPerson(jdbcUrl, "Jane Roe");
+			assertEquals(initialPeople + 1, simpleDb01CountPeople(jdbcUrl));
+
+			embeddedDerbyResource.restore("initial");
+			assertEquals(initialPeople, simpleDb01CountPeople(jdbcUrl));
+			simpleDb01Check01(jdbcUrl);
+
+			// Taking a snapshot again replaces it
+			simpleDb01AddPerson(jdbcUrl, "Mary Major");
+			embeddedDerbyResource.snapshot("initial");
+			simpleDb01AddPerson(jdbcUrl, "John Smith");
+			embeddedDerbyResource.restore("initial");
+			assertEquals(initialPeople + 1, simpleDb01CountPeople(jdbcUrl));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+}
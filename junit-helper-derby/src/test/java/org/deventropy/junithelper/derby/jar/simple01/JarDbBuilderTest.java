@@ -0,0 +1,121 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.jar.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.jar.JarFile;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyJarDatabaseBuilder;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests building a jar database with the {@link DerbyJarDatabaseBuilder}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class JarDbBuilderTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final String JAR_DB_NAME = "databases/test-database-jar-builder";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private DerbyJarDatabaseBuilder createSimple01Builder () {
+		return new DerbyJarDatabaseBuilder(JAR_DB_NAME)
+				.addScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql");
+	}
+
+	@Test
+	public void testBuildAndReuse () throws IOException, SQLException {
+		final File jarDirectory = tempFolder.newFolder();
+
+		final File jarFile = createSimple01Builder().build(jarDirectory);
+		assertTrue(jarFile.isFile());
+		assertEquals(jarDirectory, jarFile.getParentFile());
+		assertTrue(jarFile.getName().startsWith("test-database-jar-builder-"));
+		try (JarFile jar = new JarFile(jarFile)) {
+			assertNotNull("Database should be at its path in the jar",
+					jar.getEntry(JAR_DB_NAME + "/service.properties"));
+		}
+		assertEquals("Only the jar should be left in the directory", 1, jarDirectory.list().length);
+
+		// The same scripts reuse the jar
+		final long lastModified = jarFile.lastModified();
+		final File reusedJarFile = createSimple01Builder().build(jarDirectory);
+		assertEquals(jarFile, reusedJarFile);
+		assertEquals(lastModified, reusedJarFile.lastModified());
+
+		// Other scripts build another jar
+		final File ddlJarFile = new DerbyJarDatabaseBuilder(JAR_DB_NAME)
+				.addScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql").getJarFile(jarDirectory);
+		assertNotEquals(jarFile, ddlJarFile);
+		assertFalse(ddlJarFile.exists());
+	}
+
+	@Test
+	public void testBuildFailure () throws IOException, SQLException {
+		final File jarDirectory = tempFolder.newFolder();
+		try {
+			createSimple01Builder().addScript("classpath:/org/deventropy/junithelper/derby/simple01/bad-script.sql")
+					.build(jarDirectory);
+			fail("The bad script should fail the build");
+		} catch (IOException e) {
+			// Expected
+			assertNotNull(e.getMessage());
+		}
+		assertEquals("The build directory should be deleted", 0, jarDirectory.list().length);
+
+		assertTrue(createSimple01Builder().build(jarDirectory).isFile());
+	}
+
+	@Test
+	public void testResourceWithJarBuilder () throws IOException, SQLException {
+		final File jarDirectory = tempFolder.newFolder();
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.useJarSubSubProtocol(createSimple01Builder(), jarDirectory.getAbsolutePath()), tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+
+			final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+			assertTrue(jdbcUrl.contains(jarDirectory.getAbsolutePath()));
+			assertTrue(jdbcUrl.endsWith(JAR_DB_NAME));
+			simpleDb01Check01(jdbcUrl);
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+}
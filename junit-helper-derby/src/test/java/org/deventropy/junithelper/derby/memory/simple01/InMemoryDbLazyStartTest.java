@@ -0,0 +1,151 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.memory.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Tests the lazy start of an in memory database.
+ * 
+ * @author Bindul Bhowmik
+ */
+@NotThreadSafe
+public class InMemoryDbLazyStartTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final int THREAD_COUNT = 8;
+
+	private TemporaryFolder tempFolder = new TemporaryFolder();
+	private EmbeddedDerbyResource embeddedDerbyResource =
+		new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().useInMemoryDatabase("my-test-database-lazy")
+			.useDevNullErrorLogging().useLazyStart()
+			.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+			.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+		tempFolder);
+
+	@Rule
+	public RuleChain derbyRuleChain = RuleChain.outerRule(tempFolder).around(embeddedDerbyResource);
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testNotStartedUntilUsed () {
+		assertFalse("Should not be started before first use", embeddedDerbyResource.isStarted());
+		assertNull("Derby system home should not be created", embeddedDerbyResource.getDerbySystemHome());
+	}
+
+	@Test
+	public void testStartedOnFirstUse () throws SQLException {
+		final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+		assertTrue("Should be started on first use", embeddedDerbyResource.isStarted());
+		simpleDb01Check01(jdbcUrl);
+	}
+
+	@Test
+	public void testConcurrentFirstUse () throws InterruptedException, ExecutionException, SQLException {
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+		final List<Future<String>> jdbcUrls = new ArrayList<>();
+		try {
+			for (int i = 0; i < THREAD_COUNT; i++) {
+				jdbcUrls.add(executor.submit(new Callable<String>() {
+					@Override
+					public String call () throws InterruptedException {
+						startSignal.await();
+						return embeddedDerbyResource.getJdbcUrl();
+					}
+				}));
+			}
+			startSignal.countDown();
+			for (Future<String> jdbcUrl : jdbcUrls) {
+				assertEquals(embeddedDerbyResource.getJdbcUrl(), jdbcUrl.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals("Post init scripts should be executed once", 1, countPeople());
+	}
+
+	@Test
+	public void testCloseWithoutStart () throws IOException {
+		final String derbySystemHomeProperty = "derby.system.home";
+		final String oldDerbySystemHome = System.getProperty(derbySystemHomeProperty);
+		final EmbeddedDerbyResource unusedResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.useLazyStart(), tempFolder.newFolder());
+		System.setProperty(derbySystemHomeProperty, "some-other-derby-home");
+		try {
+			unusedResource.close();
+			assertEquals("Close should not touch the derby system home", "some-other-derby-home",
+					System.getProperty(derbySystemHomeProperty));
+		} finally {
+			if (null == oldDerbySystemHome) {
+				System.clearProperty(derbySystemHomeProperty);
+			} else {
+				System.setProperty(derbySystemHomeProperty, oldDerbySystemHome);
+			}
+		}
+	}
+
+	private int countPeople () throws SQLException {
+		Connection connection = null;
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			connection = DriverManager.getConnection(embeddedDerbyResource.getJdbcUrl());
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery("SELECT COUNT(*) FROM PEOPLE");
+			assertTrue(rs.next());
+			return rs.getInt(1);
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+			DerbyUtils.closeQuietly(connection);
+		}
+	}
+}
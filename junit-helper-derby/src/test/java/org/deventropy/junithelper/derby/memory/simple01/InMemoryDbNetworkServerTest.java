@@ -0,0 +1,131 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.memory.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the network server started with an in memory database.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class InMemoryDbNetworkServerTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final int CLIENTS = 4;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testClientConnections () throws IOException, SQLException, InterruptedException, ExecutionException {
+		final File derbySystemHome = tempFolder.newFolder();
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.useNetworkServer(CLIENTS)
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"), derbySystemHome);
+		String clientJdbcUrl = null;
+		try {
+			embeddedDerbyResource.start();
+
+			clientJdbcUrl = embeddedDerbyResource.getClientJdbcUrl();
+			assertTrue(clientJdbcUrl, clientJdbcUrl.startsWith("jdbc:derby://127.0.0.1:"));
+			assertTrue(clientJdbcUrl, clientJdbcUrl.endsWith(embeddedDerbyResource.getDatabasePath()));
+			try (Connection connection = DriverManager.getConnection(clientJdbcUrl)) {
+				assertTrue(connection.getMetaData().getDriverName().contains("Client"));
+			}
+			simpleDb01Check01(clientJdbcUrl);
+
+			// Concurrent client connections, seen by the embedded connections
+			final int people = simpleDb01CountPeople(embeddedDerbyResource.getJdbcUrl());
+			final String clientUrl = clientJdbcUrl;
+			final ExecutorService clientExecutor = Executors.newFixedThreadPool(CLIENTS);
+			try {
+				final List<Future<Void>> clients = new ArrayList<>();
+				for (int i = 0; i < CLIENTS; i++) {
+					final String person = "Client " + i;
+					clients.add(clientExecutor.submit(new Callable<Void>() {
+						@Override
+						public Void call () throws SQLException {
+							simpleDb01AddPerson(clientUrl, person);
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> client : clients) {
+					client.get();
+				}
+			} finally {
+				clientExecutor.shutdownNow();
+			}
+			assertEquals(people + CLIENTS, simpleDb01CountPeople(embeddedDerbyResource.getJdbcUrl()));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+		assertTrue(new File(derbySystemHome, "derby-network-server.log").isFile());
+
+		// The server is shut down with the resource
+		try {
+			DriverManager.getConnection(clientJdbcUrl).close();
+			fail("The network server should have been shut down");
+		} catch (SQLException e) {
+			// Expected
+			assertEquals("08001", e.getSQLState());
+		}
+	}
+
+	@Test (expected = IllegalStateException.class)
+	public void testNetworkServerNotEnabled () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(
+				DerbyResourceConfig.buildDefault(), tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			embeddedDerbyResource.getClientJdbcUrl();
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+}
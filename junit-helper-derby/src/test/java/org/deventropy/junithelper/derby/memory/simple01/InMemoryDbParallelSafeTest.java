@@ -0,0 +1,122 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.memory.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Tests starting multiple in memory databases in the parallel safe mode at the same time.
+ * 
+ * @author Bindul Bhowmik
+ */
+@NotThreadSafe
+public class InMemoryDbParallelSafeTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final String DB_NAME = "my-test-database-simple01-parallel";
+	private static final String PROP_DERBY_SYSTEM_HOME = "derby.system.home";
+	private static final int RESOURCE_COUNT = 4;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testParallelResources () throws Exception {
+		final String dummyDerbySystemHome = tempFolder.newFolder().getAbsolutePath();
+		final String oldDerbySystemHome = System.getProperty(PROP_DERBY_SYSTEM_HOME);
+		System.setProperty(PROP_DERBY_SYSTEM_HOME, dummyDerbySystemHome);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(RESOURCE_COUNT);
+		try {
+			final List<Future<Void>> results = new ArrayList<>();
+			for (int i = 0; i < RESOURCE_COUNT; i++) {
+				// All resources use the same database name, in different homes
+				final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(
+						DerbyResourceConfig.buildDefault().useInMemoryDatabase(DB_NAME).useParallelSafeMode()
+							.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+							.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+						tempFolder.newFolder());
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call () throws Exception {
+						checkResource(embeddedDerbyResource);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				result.get();
+			}
+			assertEquals("Derby system home property should not be changed", dummyDerbySystemHome,
+					System.getProperty(PROP_DERBY_SYSTEM_HOME));
+		} finally {
+			executor.shutdownNow();
+			if (null == oldDerbySystemHome) {
+				System.clearProperty(PROP_DERBY_SYSTEM_HOME);
+			} else {
+				System.setProperty(PROP_DERBY_SYSTEM_HOME, oldDerbySystemHome);
+			}
+		}
+	}
+
+	private void checkResource (final EmbeddedDerbyResource embeddedDerbyResource) throws Exception {
+		try {
+			embeddedDerbyResource.start();
+
+			final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+			final File derbySystemHome = embeddedDerbyResource.getDerbySystemHome();
+			assertTrue("JDBC URL should have the absolute database path",
+					jdbcUrl.endsWith(new File(derbySystemHome, DB_NAME).getAbsolutePath()));
+			assertFalse("Derby properties should not be written",
+					new File(derbySystemHome, "derby.properties").exists());
+
+			simpleDb01Check01(jdbcUrl);
+
+			// Post init script logs are still in the home of the resource
+			assertTrue("Post init script log should exist", new File(derbySystemHome,
+					"post-init-classpath:_org_deventropy_junithelper_derby_simple01_dml.sql.log").exists());
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.memory.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests post init scripts executed without log files.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class InMemoryDbScriptLogTailOnlyTest extends AbstractEmbeddedDerbyResourceTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testNoScriptLogFiles () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.useScriptLogTailOnly()
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+				tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			simpleDb01Check01(embeddedDerbyResource.getJdbcUrl());
+			assertEquals("No script logs should be written", 0, countScriptLogs(embeddedDerbyResource));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testBadScriptNoScriptLogFiles () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.useScriptLogTailOnly()
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/bad-script.sql"),
+				tempFolder.newFolder());
+		try {
+			IOException expected = null;
+			try {
+				embeddedDerbyResource.start();
+			} catch (IOException e) {
+				expected = e;
+			}
+			assertNotNull("The script should have failed", expected);
+			assertEquals("Exceptions exist in script. See output for details", expected.getMessage());
+			assertEquals("No script logs should be written", 0, countScriptLogs(embeddedDerbyResource));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testScriptLogFiles () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+				tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			assertEquals("Script logs should be written", 2, countScriptLogs(embeddedDerbyResource));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	private int countScriptLogs (final EmbeddedDerbyResource embeddedDerbyResource) {
+		return embeddedDerbyResource.getDerbySystemHome().list(new FilenameFilter() {
+			@Override
+			public boolean accept (final File dir, final String name) {
+				return name.startsWith("post-init-");
+			}
+		}).length;
+	}
+}
@@ -0,0 +1,153 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.memory.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyResourceListener;
+import org.deventropy.junithelper.derby.DerbyResourcePhase;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.deventropy.junithelper.derby.ScriptExecutionEngine;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests post init scripts executed in parallel stages.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class InMemoryDbScriptStagesTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final String DDL_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql";
+	private static final String DML_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/dml.sql";
+	private static final String PLACES_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/places.sql";
+	private static final String BAD_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/bad-script.sql";
+	private static final String MISSING_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/missing.sql";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testParallelStageIj () throws IOException, SQLException {
+		checkParallelStage(ScriptExecutionEngine.Ij);
+	}
+
+	@Test
+	public void testParallelStageJdbc () throws IOException, SQLException {
+		checkParallelStage(ScriptExecutionEngine.Jdbc);
+	}
+
+	private void checkParallelStage (final ScriptExecutionEngine engine) throws IOException, SQLException {
+		final List<String> completedScripts = new ArrayList<>();
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.useScriptExecutionEngine(engine).usePostInitScriptThreads(2).addPostInitScript(DDL_SCRIPT)
+				.addPostInitScriptStage(DML_SCRIPT, PLACES_SCRIPT)
+				.addResourceListener(new DerbyResourceListener() {
+					@Override
+					public void phaseCompleted (final EmbeddedDerbyResource resource, final DerbyResourcePhase phase,
+							final String detail, final long nanos) {
+						if (DerbyResourcePhase.PostInitScript == phase) {
+							completedScripts.add(detail);
+						}
+					}
+				}), tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+
+			final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+			simpleDb01Check01(jdbcUrl);
+			assertEquals("Both scripts of the stage should have run", 2, countPlaces(jdbcUrl));
+
+			final List<String> expectedScripts = new ArrayList<>();
+			expectedScripts.add(DDL_SCRIPT);
+			expectedScripts.add(DML_SCRIPT);
+			expectedScripts.add(PLACES_SCRIPT);
+			assertEquals("Scripts should be reported in order", expectedScripts, completedScripts);
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testParallelStageFailures () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault()
+				.useScriptExecutionEngine(ScriptExecutionEngine.Jdbc).addPostInitScript(DDL_SCRIPT)
+				.addPostInitScriptStage(BAD_SCRIPT, DML_SCRIPT, MISSING_SCRIPT), tempFolder.newFolder());
+		try {
+			IOException expected = null;
+			try {
+				embeddedDerbyResource.start();
+			} catch (IOException e) {
+				expected = e;
+			}
+			assertNotNull("The stage should have failed", expected);
+			assertTrue(expected.getMessage().contains(BAD_SCRIPT));
+			assertTrue(expected.getMessage().contains(MISSING_SCRIPT));
+			assertFalse(expected.getMessage().contains(DML_SCRIPT));
+			assertEquals("Both failures should be aggregated", 2, expected.getSuppressed().length);
+
+			// The other scripts of the stage still ran
+			simpleDb01Check01(embeddedDerbyResource.getJdbcUrl());
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	private int countPlaces (final String jdbcUrl) throws SQLException {
+		Connection connection = null;
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			connection = DriverManager.getConnection(jdbcUrl);
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery("SELECT COUNT(1) FROM PLACES");
+			assertTrue(rs.next());
+			return rs.getInt(1);
+		} finally {
+			DerbyUtils.closeQuietly(rs);
+			DerbyUtils.closeQuietly(stmt);
+			DerbyUtils.closeQuietly(connection);
+		}
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testEmptyStage () {
+		DerbyResourceConfig.buildDefault().addPostInitScriptStage();
+	}
+}
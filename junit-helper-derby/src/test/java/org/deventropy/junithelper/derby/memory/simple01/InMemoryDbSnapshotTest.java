@@ -0,0 +1,147 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.memory.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.deventropy.junithelper.derby.PooledDerbyDataSource;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Tests snapshots of in memory databases.
+ * 
+ * @author Bindul Bhowmik
+ */
+@NotThreadSafe
+public class InMemoryDbSnapshotTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final String DB_NAME = "my-test-database-simple01-snapshot";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testSnapshotAndRestore () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(
+				createConfig(DB_NAME + "-01"), tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+			final int initialPeople = simpleDb01CountPeople(jdbcUrl);
+			embeddedDerbyResource.snapshot("initial");
+
+			simpleDb01AddPerson(jdbcUrl, "Jane Roe");
+			embeddedDerbyResource.snapshot("one-added");
+			simpleDb01AddPerson(jdbcUrl, "Mary Major");
+			assertEquals(initialPeople + 2, simpleDb01CountPeople(jdbcUrl));
+
+			embeddedDerbyResource.restore("initial");
+			assertEquals(initialPeople, simpleDb01CountPeople(jdbcUrl));
+			simpleDb01Check01(jdbcUrl);
+
+			// Snapshots can be restored many times, in any order
+			embeddedDerbyResource.restore("one-added");
+			assertEquals(initialPeople + 1, simpleDb01CountPeople(jdbcUrl));
+			embeddedDerbyResource.restore("initial");
+			assertEquals(initialPeople, simpleDb01CountPeople(jdbcUrl));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+		assertFalse("Snapshots should be deleted",
+				new File(embeddedDerbyResource.getDerbySystemHome(), "snapshots").exists());
+	}
+
+	@Test
+	public void testRestoreWithDataSource () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(
+				createConfig(DB_NAME + "-02").useParallelSafeMode(), tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			final String jdbcUrl = embeddedDerbyResource.getJdbcUrl();
+			final PooledDerbyDataSource dataSource = embeddedDerbyResource.getDataSource();
+			dataSource.getConnection().close();
+			assertEquals(1, dataSource.getIdleConnectionCount());
+
+			embeddedDerbyResource.snapshot("initial");
+			simpleDb01AddPerson(jdbcUrl, "Jane Roe");
+			embeddedDerbyResource.restore("initial");
+			assertEquals("Idle connections should be closed", 0, dataSource.getIdleConnectionCount());
+
+			final Connection connection = dataSource.getConnection();
+			try {
+				assertTrue("Data source should connect to the restored database", connection.isValid(1));
+			} finally {
+				connection.close();
+			}
+			assertEquals(0, dataSource.getValidationFailureCount());
+			assertEquals(1, simpleDb01CountPeople(jdbcUrl));
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	@Test
+	public void testRestoreUnknownSnapshot () throws IOException, SQLException {
+		final EmbeddedDerbyResource embeddedDerbyResource = new EmbeddedDerbyResource(
+				createConfig(DB_NAME + "-03"), tempFolder.newFolder());
+		try {
+			embeddedDerbyResource.start();
+			try {
+				embeddedDerbyResource.restore("unknown");
+				fail("Unknown snapshot should not be restored");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+			try {
+				embeddedDerbyResource.snapshot("../outside");
+				fail("Snapshot names should not be paths");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		} finally {
+			embeddedDerbyResource.close();
+		}
+	}
+
+	private DerbyResourceConfig createConfig (final String dbName) {
+		return DerbyResourceConfig.buildDefault().useInMemoryDatabase(dbName).useDevNullErrorLogging()
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql");
+	}
+}
@@ -0,0 +1,143 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.memory.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.EmbeddedDerbyResource;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Tests starting in memory databases from the template database cache.
+ * 
+ * @author Bindul Bhowmik
+ */
+@NotThreadSafe
+public class InMemoryDbTemplateCacheTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final String DB_NAME = "my-test-database-simple01-template";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	@Test
+	public void testTemplateDatabaseCache () throws IOException, SQLException {
+		// The first resource may build the template (unless another test in this JVM already has)
+		final EmbeddedDerbyResource firstResource = createTemplateCachedResource(DB_NAME + "-01");
+		try {
+			firstResource.start();
+			simpleDb01Check01(firstResource.getJdbcUrl());
+		} finally {
+			firstResource.close();
+		}
+
+		// The second one is always created from the template
+		final EmbeddedDerbyResource secondResource = createTemplateCachedResource(DB_NAME + "-02");
+		try {
+			secondResource.start();
+			simpleDb01Check01(secondResource.getJdbcUrl());
+
+			final String[] postInitLogs = secondResource.getDerbySystemHome().list(new PostInitLogFilter());
+			assertEquals("Post init scripts should not have been executed", 0, postInitLogs.length);
+		} finally {
+			secondResource.close();
+		}
+	}
+
+	@Test
+	public void testTemplateDatabaseStore () throws IOException, SQLException {
+		final File templateStore = tempFolder.newFolder();
+
+		final EmbeddedDerbyResource firstResource = createStoreCachedResource(DB_NAME + "-store-01", templateStore);
+		try {
+			firstResource.start();
+			simpleDb01Check01(firstResource.getJdbcUrl());
+		} finally {
+			firstResource.close();
+		}
+
+		// The store is new, so the first resource built the template in it
+		final File[] storedTemplates = templateStore.listFiles();
+		File storedTemplate = null;
+		for (File storeEntry : storedTemplates) {
+			if (storeEntry.isDirectory()) {
+				storedTemplate = storeEntry;
+			}
+		}
+		assertNotNull("Template should be in the store", storedTemplate);
+		assertTrue("Template should be complete", new File(storedTemplate, ".complete").exists());
+
+		final EmbeddedDerbyResource secondResource = createStoreCachedResource(DB_NAME + "-store-02", templateStore);
+		try {
+			secondResource.start();
+			simpleDb01Check01(secondResource.getJdbcUrl());
+
+			final String[] postInitLogs = secondResource.getDerbySystemHome().list(new PostInitLogFilter());
+			assertEquals("Post init scripts should not have been executed", 0, postInitLogs.length);
+		} finally {
+			secondResource.close();
+		}
+	}
+
+	private EmbeddedDerbyResource createTemplateCachedResource (final String dbName) throws IOException {
+		return new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().useInMemoryDatabase(dbName)
+				.useDevNullErrorLogging().useTemplateDatabaseCache()
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+			tempFolder.newFolder());
+	}
+
+	private EmbeddedDerbyResource createStoreCachedResource (final String dbName, final File templateStore)
+			throws IOException {
+		return new EmbeddedDerbyResource(DerbyResourceConfig.buildDefault().useInMemoryDatabase(dbName)
+				.useDevNullErrorLogging().useTemplateDatabaseStore(templateStore.getAbsolutePath())
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql")
+				.addPostInitScript("classpath:/org/deventropy/junithelper/derby/simple01/dml.sql"),
+			tempFolder.newFolder());
+	}
+
+	/**
+	 * Filters the post init script log files.
+	 */
+	private static final class PostInitLogFilter implements FilenameFilter {
+		@Override
+		public boolean accept (final File dir, final String name) {
+			return name.startsWith("post-init-");
+		}
+	}
+}
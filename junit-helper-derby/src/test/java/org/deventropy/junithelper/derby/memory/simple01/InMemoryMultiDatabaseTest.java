@@ -0,0 +1,158 @@
+/* 
+ * Copyright 2016 Development Entropy (deventropy.org) Contributors
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deventropy.junithelper.derby.memory.simple01;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.deventropy.junithelper.derby.AbstractEmbeddedDerbyResourceTest;
+import org.deventropy.junithelper.derby.DerbyResourceConfig;
+import org.deventropy.junithelper.derby.DerbyUtils;
+import org.deventropy.junithelper.derby.MultiDatabaseDerbyResource;
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests multiple named databases managed by one {@link MultiDatabaseDerbyResource}.
+ * 
+ * @author Bindul Bhowmik
+ */
+public class InMemoryMultiDatabaseTest extends AbstractEmbeddedDerbyResourceTest {
+
+	private static final String DDL_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/ddl.sql";
+	private static final String DML_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/dml.sql";
+	private static final String BAD_SCRIPT = "classpath:/org/deventropy/junithelper/derby/simple01/bad-script.sql";
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Cleanup stuff.
+	 */
+	@AfterClass
+	public static void cleanupDerbySystem () {
+		// Cleanup for next test
+		DerbyUtils.shutdownDerbySystemQuitely(true);
+	}
+
+	private DerbyResourceConfig createConfig () {
+		return DerbyResourceConfig.buildDefault().useParallelSafeMode();
+	}
+
+	private DerbyResourceConfig createSimple01Config () {
+		return createConfig().addPostInitScript(DDL_SCRIPT).addPostInitScript(DML_SCRIPT);
+	}
+
+	@Test
+	public void testMultipleDatabases () throws IOException, SQLException {
+		final String oldDerbySystemHome = System.getProperty("derby.system.home");
+		final MultiDatabaseDerbyResource multiDatabaseResource = new MultiDatabaseDerbyResource(tempFolder)
+				.addDatabase("first", createSimple01Config()).addDatabase("second", createSimple01Config())
+				.addDatabase("third", createConfig());
+		try {
+			multiDatabaseResource.start();
+
+			final File derbySystemHome = multiDatabaseResource.getDerbySystemHome();
+			assertEquals(derbySystemHome.getAbsolutePath(), System.getProperty("derby.system.home"));
+			assertArrayEquals(new String[] {"first", "second", "third"},
+					multiDatabaseResource.getDatabaseNames().toArray());
+
+			final String firstJdbcUrl = multiDatabaseResource.getJdbcUrl("first");
+			final String secondJdbcUrl = multiDatabaseResource.getJdbcUrl("second");
+			assertNotEquals(firstJdbcUrl, secondJdbcUrl);
+			assertEquals(new File(derbySystemHome, "first"),
+					multiDatabaseResource.getDatabase("first").getDerbySystemHome());
+			simpleDb01Check01(firstJdbcUrl);
+			simpleDb01Check01(secondJdbcUrl);
+
+			// The databases are independent
+			final int people = simpleDb01CountPeople(secondJdbcUrl);
+			simpleDb01AddPerson(firstJdbcUrl, "Jane Doe");
+			assertEquals(people + 1, simpleDb01CountPeople(firstJdbcUrl));
+			assertEquals(people, simpleDb01CountPeople(secondJdbcUrl));
+
+			try (Connection connection = multiDatabaseResource.getDataSource("third").getConnection()) {
+				assertNotNull(connection);
+			}
+		} finally {
+			multiDatabaseResource.close();
+		}
+		assertEquals(oldDerbySystemHome, System.getProperty("derby.system.home"));
+	}
+
+	@Test
+	public void testFailedDatabase () throws IOException, SQLException {
+		final MultiDatabaseDerbyResource multiDatabaseResource = new MultiDatabaseDerbyResource(tempFolder.newFolder())
+				.addDatabase("good", createSimple01Config())
+				.addDatabase("bad", createConfig().addPostInitScript(BAD_SCRIPT));
+		IOException expected = null;
+		try {
+			multiDatabaseResource.start();
+		} catch (IOException e) {
+			expected = e;
+		} finally {
+			multiDatabaseResource.close();
+		}
+		assertNotNull("The bad database should have failed the start", expected);
+		assertTrue(expected.getMessage().contains("[bad]"));
+		assertEquals(1, expected.getSuppressed().length);
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testUnknownDatabase () throws IOException, SQLException {
+		final MultiDatabaseDerbyResource multiDatabaseResource = new MultiDatabaseDerbyResource(tempFolder)
+				.addDatabase("first", createConfig());
+		try {
+			multiDatabaseResource.start();
+			multiDatabaseResource.getJdbcUrl("second");
+		} finally {
+			multiDatabaseResource.close();
+		}
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testDuplicateDatabase () {
+		new MultiDatabaseDerbyResource(tempFolder).addDatabase("first", createConfig())
+				.addDatabase("first", createConfig());
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testInvalidDatabaseName () {
+		new MultiDatabaseDerbyResource(tempFolder).addDatabase("first/second", createConfig());
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void testNotParallelSafe () {
+		new MultiDatabaseDerbyResource(tempFolder).addDatabase("first", DerbyResourceConfig.buildDefault());
+	}
+
+	@Test (expected = IllegalStateException.class)
+	public void testSystemOnlyProperty () {
+		// Rejected by the parallel safe config
+		new MultiDatabaseDerbyResource(tempFolder).addDatabase("first", createConfig().useTestDurability());
+	}
+
+	@Test (expected = IllegalStateException.class)
+	public void testNotStarted () {
+		new MultiDatabaseDerbyResource(tempFolder).addDatabase("first", createConfig()).getJdbcUrl("first");
+	}
+}
@@ -0,0 +1,36 @@
+CREATE TABLE CUSTOMERS (
+	CUSTOMER_ID INT NOT NULL GENERATED ALWAYS AS IDENTITY CONSTRAINT CUSTOMERS_PK PRIMARY KEY,
+	NAME VARCHAR(40) NOT NULL,
+	EMAIL VARCHAR(64) NOT NULL CONSTRAINT CUSTOMERS_EMAIL_UK UNIQUE,
+	PHONE VARCHAR(16) CONSTRAINT CUSTOMERS_PHONE_UK UNIQUE,
+	CREDIT DECIMAL(9, 2),
+	ACTIVE BOOLEAN NOT NULL,
+	CREATED TIMESTAMP NOT NULL,
+	REFERRER_ID INT CONSTRAINT CUSTOMERS_REFERRER_FK REFERENCES CUSTOMERS (CUSTOMER_ID)
+);
+
+CREATE TABLE PRODUCTS (
+	PRODUCT_CODE CHAR(8) NOT NULL CONSTRAINT PRODUCTS_PK PRIMARY KEY,
+	PRICE DOUBLE NOT NULL,
+	RELEASED DATE
+);
+
+CREATE TABLE ORDERS (
+	ORDER_ID BIGINT NOT NULL CONSTRAINT ORDERS_PK PRIMARY KEY,
+	CUSTOMER_ID INT NOT NULL CONSTRAINT ORDERS_CUSTOMER_FK REFERENCES CUSTOMERS (CUSTOMER_ID),
+	ORDERED TIME,
+	NOTES CLOB
+);
+
+CREATE TABLE ORDER_LINES (
+	ORDER_ID BIGINT NOT NULL CONSTRAINT ORDER_LINES_ORDER_FK REFERENCES ORDERS (ORDER_ID),
+	PRODUCT_CODE CHAR(8) NOT NULL CONSTRAINT ORDER_LINES_PRODUCT_FK REFERENCES PRODUCTS (PRODUCT_CODE),
+	QUANTITY SMALLINT NOT NULL,
+	CONSTRAINT ORDER_LINES_PK PRIMARY KEY (ORDER_ID, PRODUCT_CODE)
+);
+
+CREATE TABLE EVENTS (
+	EVENT_CODE VARCHAR(12) NOT NULL CONSTRAINT EVENTS_PK PRIMARY KEY,
+	EVENT_DAY DATE CONSTRAINT EVENTS_DAY_UK UNIQUE,
+	EVENT_TIME TIMESTAMP CONSTRAINT EVENTS_TIME_UK UNIQUE
+);
@@ -0,0 +1,8 @@
+-- Inserts a few people; the third insert fails as PERSON can not be null
+INSERT INTO PEOPLE (PERSON, EMAIL) VALUES ('Jane Doe', 'jane.doe@example.com');
+/* Values with terminators ; and comment markers -- in quotes */
+INSERT INTO PEOPLE (PERSON, EMAIL) VALUES ('Richard O''Roe; Jr.', 'richard--roe@example.com');
+INSERT INTO PEOPLE (PERSON, EMAIL) VALUES (NULL, 'nobody@example.com');
+insert into PEOPLE (PERSON, EMAIL) values ('Mary Major', 'mary.major@example.com'); -- Trailing comment
+INSERT INTO PEOPLE (PERSON, EMAIL) VALUES ('John Smith', 'john.smith@example.com');
+UPDATE PEOPLE SET EMAIL = 'jane@example.com' WHERE PERSON = 'Jane Doe';
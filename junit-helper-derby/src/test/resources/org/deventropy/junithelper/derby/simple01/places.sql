@@ -0,0 +1,6 @@
+CREATE TABLE PLACES (
+	PLACE_ID INT NOT NULL GENERATED ALWAYS AS IDENTITY CONSTRAINT PLACES_PK PRIMARY KEY,
+	PLACE VARCHAR(64) NOT NULL
+);
+INSERT INTO PLACES (PLACE) VALUES ('Anytown');
+INSERT INTO PLACES (PLACE) VALUES ('Springfield');